@@ -0,0 +1,257 @@
+package org.beehive.gpullama3;
+
+import org.beehive.gpullama3.inference.InferenceCore;
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.model.loader.ModelLoader;
+import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * The {@code bench} command: measures the prompt processing (prefill) and token generation (decode) throughput of a model, in the manner of
+ * llama-bench.
+ *
+ * <p>Each test forwards synthetic token ids, random but fixed, through the same code paths as generation: {@code pp<n>} ingests {@code n}
+ * prompt tokens, {@code tg<n>} decodes {@code n} tokens one at a time, without sampling. Tests run after {@code depth} tokens already in the
+ * context, forwarded once per depth and not timed, and are repeated after warm-up runs; the table and JSON report the mean and standard
+ * deviation of the tokens per second.</p>
+ *
+ * <p>On CPU, every test runs in a {@link ForkJoinPool} of the requested parallelism: the parallel streams of the forward pass run in the
+ * pool of the task calling them, so the thread count can be swept in one process.</p>
+ */
+public final class Bench {
+
+    private static final long SEED = 42;
+
+    private Bench() {
+    }
+
+    private record Test(int promptTokens, int generatedTokens, int depth) {
+        String name() {
+            String name = promptTokens > 0 ? "pp" + promptTokens : "tg" + generatedTokens;
+            return depth > 0 ? name + " @ d" + depth : name;
+        }
+
+        int tokens() {
+            return promptTokens + generatedTokens;
+        }
+    }
+
+    private record Result(Test test, int threads, double[] tokensPerSecond) {
+        double mean() {
+            return Arrays.stream(tokensPerSecond).average().orElse(Double.NaN);
+        }
+
+        double stddev() {
+            if (tokensPerSecond.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double squares = Arrays.stream(tokensPerSecond).map(x -> (x - mean) * (x - mean)).sum();
+            return Math.sqrt(squares / (tokensPerSecond.length - 1));
+        }
+    }
+
+    static void require(boolean condition, String messageFormat, Object... args) {
+        if (!condition) {
+            System.out.println("ERROR " + messageFormat.formatted(args));
+            System.out.println();
+            printUsage(System.out);
+            System.exit(-1);
+        }
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage:  jbang Llama3.java bench [options]");
+        out.println();
+        out.println("Options:");
+        out.println("  --model, -m <path>              required, path to the .gguf file");
+        out.println("  --n-prompt, -p <int,...>        prompt processing tests, number of prompt tokens, 0 = none, default 512");
+        out.println("  --n-gen, -n <int,...>           token generation tests, number of generated tokens, 0 = none, default 128");
+        out.println("  --depth, -d <int,...>           tokens already in the context when a test starts, default 0");
+        out.println("  --threads, -t <int,...>         CPU threads, default " + Runtime.getRuntime().availableProcessors());
+        out.println("  --repetitions, -r <int>         timed runs of every test, default 5");
+        out.println("  --warmup <int>                  untimed runs of every test, default 1");
+        out.println("  --output, -o <md|json>          output format, default md");
+        out.println("  --use-tornadovm <boolean>       run on the GPU with TornadoVM, --threads is ignored, default false");
+        out.println();
+        out.println("Example:");
+        out.println("  bench -m Llama-3.2-1B-Instruct-Q8_0.gguf -p 512 -n 128 -t 4,8 -d 0,1024");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path modelPath = null;
+        int[] promptSizes = { 512 };
+        int[] generationSizes = { 128 };
+        int[] depths = { 0 };
+        int[] threads = { Runtime.getRuntime().availableProcessors() };
+        int repetitions = 5;
+        int warmup = 1;
+        String output = "md";
+        boolean useTornadovm = Boolean.parseBoolean(System.getProperty("use.tornadovm", "false"));
+        for (int i = 0; i < args.length; i++) {
+            String optionName = args[i];
+            require(optionName.startsWith("-"), "Invalid option %s", optionName);
+            if (optionName.equals("--help") || optionName.equals("-h")) {
+                printUsage(System.out);
+                System.exit(0);
+            }
+            String nextArg;
+            if (optionName.contains("=")) {
+                String[] parts = optionName.split("=", 2);
+                optionName = parts[0];
+                nextArg = parts[1];
+            } else {
+                require(i + 1 < args.length, "Missing argument for option %s", optionName);
+                nextArg = args[i + 1];
+                i += 1; // skip arg
+            }
+            switch (optionName) {
+                case "--model", "-m" -> modelPath = Paths.get(nextArg);
+                case "--n-prompt", "-p" -> promptSizes = parseInts(nextArg);
+                case "--n-gen", "-n" -> generationSizes = parseInts(nextArg);
+                case "--depth", "-d" -> depths = parseInts(nextArg);
+                case "--threads", "-t" -> threads = parseInts(nextArg);
+                case "--repetitions", "-r" -> repetitions = Integer.parseInt(nextArg);
+                case "--warmup" -> warmup = Integer.parseInt(nextArg);
+                case "--output", "-o" -> output = nextArg;
+                case "--use-tornadovm" -> useTornadovm = Boolean.parseBoolean(nextArg);
+                default -> require(false, "Unknown option: %s", optionName);
+            }
+        }
+        require(modelPath != null, "Missing argument: --model <path> is required");
+        require(output.equals("md") || output.equals("json"), "Unsupported output %s, expected md or json", output);
+        require(repetitions > 0 && warmup >= 0, "Invalid argument: --repetitions must be positive and --warmup non-negative");
+        require(Arrays.stream(promptSizes).allMatch(n -> n >= 0) && Arrays.stream(generationSizes).allMatch(n -> n >= 0), "Invalid argument: test sizes must be non-negative");
+        require(Arrays.stream(depths).allMatch(d -> d >= 0), "Invalid argument: --depth must be non-negative");
+        require(Arrays.stream(threads).allMatch(t -> t > 0), "Invalid argument: --threads must be positive");
+
+        List<Test> tests = new ArrayList<>();
+        for (int depth : depths) {
+            Arrays.stream(promptSizes).filter(n -> n > 0).forEach(n -> tests.add(new Test(n, 0, depth)));
+            Arrays.stream(generationSizes).filter(n -> n > 0).forEach(n -> tests.add(new Test(0, n, depth)));
+        }
+        require(!tests.isEmpty(), "No test to run");
+        int contextLength = tests.stream().mapToInt(t -> t.depth() + t.tokens()).max().orElseThrow();
+
+        Model model = ModelLoader.loadModel(modelPath, contextLength, useTornadovm);
+        List<Result> results = run(model, tests, useTornadovm ? new int[] { 0 } : threads, repetitions, warmup, useTornadovm);
+
+        String modelName = modelPath.getFileName().toString();
+        if (output.equals("json")) {
+            printJson(System.out, modelName, useTornadovm, results);
+        } else {
+            printTable(System.out, modelName, useTornadovm, results);
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Runs all the tests, for every thread count; {@code threads} is {@code {0}} on TornadoVM.
+     */
+    private static List<Result> run(Model model, List<Test> tests, int[] threads, int repetitions, int warmup, boolean useTornadovm) {
+        State state = model.createNewState();
+        TornadoVMMasterPlan plan = useTornadovm ? TornadoVMMasterPlan.initializeTornadoVMPlan(state, model) : null;
+        int maxPositions = tests.stream().mapToInt(t -> t.depth() + t.tokens()).max().orElseThrow();
+        int[] tokens = new Random(SEED).ints(maxPositions, 0, model.configuration().vocabularySize()).toArray();
+        List<Result> results = new ArrayList<>();
+        try {
+            for (int t : threads) {
+                ForkJoinPool pool = t > 0 ? new ForkJoinPool(t) : null;
+                try {
+                    int filledDepth = 0;
+                    for (Test test : tests) {
+                        // the synthetic prefix is the same for every test: the cache entries below the filled depth stay valid
+                        if (test.depth() > filledDepth) {
+                            int from = filledDepth;
+                            inPool(pool, () -> forward(model, state, plan, tokens, from, test.depth() - from, true));
+                            filledDepth = test.depth();
+                        }
+                        double[] tokensPerSecond = new double[repetitions];
+                        for (int r = -warmup; r < repetitions; r++) {
+                            long startNanos = System.nanoTime();
+                            inPool(pool, () -> forward(model, state, plan, tokens, test.depth(), test.tokens(), test.promptTokens() > 0));
+                            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+                            if (r >= 0) {
+                                tokensPerSecond[r] = test.tokens() / seconds;
+                            }
+                        }
+                        Result result = new Result(test, t, tokensPerSecond);
+                        results.add(result);
+                        System.err.printf("%s, threads %d: %.2f +/- %.2f tok/s%n", test.name(), t, result.mean(), result.stddev());
+                    }
+                } finally {
+                    if (pool != null) {
+                        pool.shutdown();
+                    }
+                }
+            }
+        } finally {
+            if (plan != null) {
+                plan.freeTornadoExecutionPlan();
+            }
+        }
+        return results;
+    }
+
+    private static void inPool(ForkJoinPool pool, Runnable task) {
+        if (pool == null) {
+            task.run();
+        } else {
+            pool.submit(task).join();
+        }
+    }
+
+    /**
+     * Forwards {@code tokens[position, position + count)} at their positions; a prompt is ingested in batches on TornadoVM when the plan has
+     * prefill graphs, and on CPU when the model streams its layers, as generation does.
+     */
+    private static void forward(Model model, State state, TornadoVMMasterPlan plan, int[] tokens, int position, int count, boolean prompt) {
+        if (prompt && plan != null && plan.supportsPrefill()) {
+            InferenceCore.forwardTornadoVMPrefill(model, state, Arrays.copyOfRange(tokens, position, position + count), count, position, plan);
+        } else if (plan != null) {
+            for (int i = position; i < position + count; i++) {
+                InferenceCore.forwardTornadoVM(model, state, tokens[i], i, plan);
+            }
+        } else if (prompt && InferenceCore.supportsPrefill(model) && ((StandardWeights) model.weights()).isLayerStreaming()) {
+            InferenceCore.forwardJavaPrefill(model, state, Arrays.copyOfRange(tokens, position, position + count), count, position);
+        } else {
+            for (int i = position; i < position + count; i++) {
+                model.forward(state, tokens[i], i);
+            }
+        }
+    }
+
+    private static void printTable(PrintStream out, String modelName, boolean useTornadovm, List<Result> results) {
+        out.println("| model | backend | threads | test | t/s |");
+        out.println("| --- | --- | ---: | ---: | ---: |");
+        for (Result result : results) {
+            out.printf("| %s | %s | %s | %s | %.2f +/- %.2f |%n", modelName, useTornadovm ? "TornadoVM" : "CPU", useTornadovm ? "-" : result.threads(), result.test().name(), result.mean(),
+                    result.stddev());
+        }
+    }
+
+    private static void printJson(PrintStream out, String modelName, boolean useTornadovm, List<Result> results) {
+        String entries = results.stream().map(result -> String.format(Locale.ROOT, "  {\"model\": \"%s\", \"backend\": \"%s\", \"threads\": %s, \"n_prompt\": %d, \"n_gen\": %d, \"depth\": %d, \"avg_ts\": %.4f, \"stddev_ts\": %.4f, \"samples_ts\": %s}",
+                        modelName.replace("\\", "\\\\").replace("\"", "\\\""), useTornadovm ? "TornadoVM" : "CPU", useTornadovm ? "null" : result.threads(), result.test().promptTokens(),
+                        result.test().generatedTokens(), result.test().depth(), result.mean(), result.stddev(),
+                        Arrays.stream(result.tokensPerSecond()).mapToObj(x -> String.format(Locale.ROOT, "%.4f", x)).collect(Collectors.joining(", ", "[", "]"))))
+                .collect(Collectors.joining(",\n", "[\n", "\n]"));
+        out.println(entries);
+    }
+}
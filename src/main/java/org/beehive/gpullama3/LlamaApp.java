@@ -1,10 +1,15 @@
 package org.beehive.gpullama3;
 
 import org.beehive.gpullama3.auxiliary.LastRunMetrics;
+import org.beehive.gpullama3.inference.sampler.LogprobsSampler;
 import org.beehive.gpullama3.inference.sampler.Sampler;
+import org.beehive.gpullama3.inference.sampler.TokenLogprobs;
 import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.tokenizer.Tokenizer;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.beehive.gpullama3.inference.sampler.Sampler.createSampler;
 import static org.beehive.gpullama3.model.loader.ModelLoader.loadModel;
@@ -15,13 +20,37 @@ public class LlamaApp {
     public static final boolean SHOW_PERF_INTERACTIVE = Boolean.parseBoolean(System.getProperty("llama.ShowPerfInteractive", "true")); // Show performance metrics in interactive mode
 
     private static void runSingleInstruction(Model model, Sampler sampler, Options options) {
+        LogprobsSampler logprobsSampler = null;
+        if (options.logprobs() > 0) {
+            sampler = logprobsSampler = new LogprobsSampler(sampler, model.configuration().vocabularySize(), options.logprobs());
+        }
         String response = model.runInstructOnce(sampler, options);
         System.out.println(response);
+        if (logprobsSampler != null) {
+            printLogprobs(model, logprobsSampler.logprobs());
+        }
         if (SHOW_PERF_INTERACTIVE) {
             LastRunMetrics.printMetrics();
         }
     }
 
+    private static void printLogprobs(Model model, TokenLogprobs logprobs) {
+        Tokenizer tokenizer = model.tokenizer();
+        for (int step = 0; step < logprobs.size(); step++) {
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%4d %-16s %9.4f |", step, quote(tokenizer, logprobs.token(step)), logprobs.logprob(step)));
+            for (int rank = 0; rank < logprobs.topN() && logprobs.topToken(step, rank) >= 0; rank++) {
+                line.append(String.format(" %s %.4f", quote(tokenizer, logprobs.topToken(step, rank)), logprobs.topLogprob(step, rank)));
+            }
+            System.err.println(line);
+        }
+        System.err.printf("total logprob %.4f over %d tokens%n", logprobs.totalLogprob(), logprobs.size());
+    }
+
+    private static String quote(Tokenizer tokenizer, int token) {
+        return "'" + Tokenizer.replaceControlCharacters(tokenizer.decode(List.of(token))) + "'";
+    }
+
     /**
      * Entry point for running the LLaMA-based model with provided command-line arguments.
      *
@@ -34,6 +63,18 @@ public class LlamaApp {
      *         if model loading or file operations fail.
      */
     static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("quantize")) {
+            Quantize.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench")) {
+            Bench.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("perplexity")) {
+            Perplexity.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Options options = Options.parseOptions(args);
         Model model = loadModel(options);
         Sampler sampler = createSampler(model, options);
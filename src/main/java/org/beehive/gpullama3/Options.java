@@ -1,18 +1,65 @@
 package org.beehive.gpullama3;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public record Options(Path modelPath, String prompt, String systemPrompt, String suffix, boolean interactive, float temperature, float topp, long seed, int maxTokens, boolean stream, boolean echo,
-                      boolean useTornadovm) {
+                      boolean useTornadovm, int topK, float minP, float typicalP, float repeatPenalty, int repeatLastN, float frequencyPenalty, float presencePenalty,
+                      String grammar, String jsonSchema, List<String> stopSequences, int logprobs, int beamWidth, float lengthPenalty, boolean deviceSampling) {
 
     public static final int DEFAULT_MAX_TOKENS = 1024;
+    public static final int DEFAULT_REPEAT_LAST_N = 64;
 
     public Options {
         require(interactive || prompt != null, "Missing argument: --prompt is required in --instruct mode e.g. --prompt \"Why is the sky blue?\"");
         require(0 <= temperature, "Invalid argument: --temperature must be non-negative");
         require(0 <= topp && topp <= 1, "Invalid argument: --top-p must be within [0, 1]");
+        require(0 <= topK, "Invalid argument: --top-k must be non-negative");
+        require(0 <= minP && minP <= 1, "Invalid argument: --min-p must be within [0, 1]");
+        require(0 <= typicalP && typicalP <= 1, "Invalid argument: --typical-p must be within [0, 1]");
+        require(0 < repeatPenalty, "Invalid argument: --repeat-penalty must be positive");
+        require(0 <= repeatLastN, "Invalid argument: --repeat-last-n must be non-negative");
+        require(grammar == null || jsonSchema == null, "Invalid argument: --grammar and --json-schema are mutually exclusive");
+        require(stopSequences.stream().noneMatch(String::isEmpty), "Invalid argument: --stop must not be empty");
+        require(0 <= logprobs, "Invalid argument: --logprobs must be non-negative");
+        require(logprobs == 0 || !interactive, "Invalid argument: --logprobs is only supported in --instruct mode");
+        require(0 < beamWidth, "Invalid argument: --beam-width must be positive");
+        require(beamWidth == 1 || (!interactive && !useTornadovm), "Invalid argument: --beam-width is only supported in --instruct mode on CPU");
+        require(beamWidth == 1 || logprobs == 0, "Invalid argument: --beam-width and --logprobs are mutually exclusive");
+        require(beamWidth == 1 || (grammar == null && jsonSchema == null), "Invalid argument: --beam-width does not support --grammar and --json-schema");
+        require(beamWidth == 1 || repeatLastN == 0 || (repeatPenalty == 1 && frequencyPenalty == 0 && presencePenalty == 0),
+                "Invalid argument: --beam-width does not support the repetition, frequency and presence penalties");
+        require(Float.isFinite(lengthPenalty), "Invalid argument: --length-penalty must be finite");
+        require(!deviceSampling || useTornadovm, "Invalid argument: --device-sampling requires --use-tornadovm true");
+        require(!deviceSampling || (logprobs == 0 && !useSamplerChain(grammar, jsonSchema, topK, minP, typicalP, repeatPenalty, repeatLastN, frequencyPenalty, presencePenalty)),
+                "Invalid argument: --device-sampling only supports temperature and top-p sampling");
+        stopSequences = List.copyOf(stopSequences);
+    }
+
+    /**
+     * Options without the extended sampling parameters, top-k, min-p, typical sampling, penalties, constrained decoding and stop strings are disabled.
+     */
+    public Options(Path modelPath, String prompt, String systemPrompt, String suffix, boolean interactive, float temperature, float topp, long seed, int maxTokens, boolean stream, boolean echo,
+            boolean useTornadovm) {
+        this(modelPath, prompt, systemPrompt, suffix, interactive, temperature, topp, seed, maxTokens, stream, echo, useTornadovm, 0, 0.0f, 1.0f, 1.0f, DEFAULT_REPEAT_LAST_N, 0.0f, 0.0f, null,
+                null, List.of(), 0, 1, 1.0f, false);
+    }
+
+    /**
+     * Whether any sampling stage beyond temperature and top-p is enabled.
+     */
+    public boolean useSamplerChain() {
+        return useSamplerChain(grammar, jsonSchema, topK, minP, typicalP, repeatPenalty, repeatLastN, frequencyPenalty, presencePenalty);
+    }
+
+    private static boolean useSamplerChain(String grammar, String jsonSchema, int topK, float minP, float typicalP, float repeatPenalty, int repeatLastN, float frequencyPenalty,
+            float presencePenalty) {
+        return grammar != null || jsonSchema != null || topK > 0 || minP > 0 || typicalP < 1 || (repeatLastN > 0 && (repeatPenalty != 1 || frequencyPenalty != 0 || presencePenalty != 0));
     }
 
     static void require(boolean condition, String messageFormat, Object... args) {
@@ -24,6 +71,30 @@ public record Options(Path modelPath, String prompt, String systemPrompt, String
         }
     }
 
+    /** Unescapes {@code \\n}, {@code \\t} and {@code \\\\}, which are hard to pass on a command line otherwise. */
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() && "nt\\".indexOf(value.charAt(i + 1)) >= 0) {
+                char next = value.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : '\\');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String readFile(String path) {
+        try {
+            return Files.readString(Paths.get(path));
+        } catch (IOException e) {
+            require(false, "Cannot read file %s: %s", path, e.getMessage());
+            return null;
+        }
+    }
+
     private static boolean getDefaultTornadoVM() {
         return Boolean.parseBoolean(System.getProperty("use.tornadovm", "false"));
     }
@@ -40,6 +111,22 @@ public record Options(Path modelPath, String prompt, String systemPrompt, String
         out.println("  --suffix <string>             suffix for fill-in-the-middle request (Codestral)");
         out.println("  --temperature, -temp <float>  temperature in [0,inf], default 0.1");
         out.println("  --top-p <float>               p value in top-p (nucleus) sampling in [0,1] default 0.95");
+        out.println("  --top-k <int>                 keep only the k most likely tokens, 0 = disabled, default 0");
+        out.println("  --min-p <float>               drop tokens less likely than min-p times the most likely one, 0 = disabled, default 0");
+        out.println("  --typical-p <float>           p value in locally typical sampling in [0,1], 1 = disabled, default 1");
+        out.println("  --repeat-penalty <float>      penalty for tokens repeated within the last n tokens, 1 = disabled, default 1");
+        out.println("  --repeat-last-n <int>         number of recent tokens the penalties look at, default " + DEFAULT_REPEAT_LAST_N);
+        out.println("  --frequency-penalty <float>   subtracted from the logit once per repetition, default 0");
+        out.println("  --presence-penalty <float>    subtracted from the logit of repeated tokens, default 0");
+        out.println("  --grammar <string>            constrain the output to a GBNF grammar, the start rule is 'root'");
+        out.println("  --grammar-file <path>         read the GBNF grammar from a file");
+        out.println("  --json-schema <string>        constrain the output to JSON documents following a JSON schema");
+        out.println("  --json-schema-file <path>     read the JSON schema from a file");
+        out.println("  --stop <string>               stop generation when the output contains this string, \\n and \\t are unescaped, repeatable");
+        out.println("  --logprobs <int>              print the log-probability and the n most likely alternatives of every generated token to stderr, default 0");
+        out.println("  --beam-width <int>            beam search with this number of beams instead of sampling, 1 = disabled, default 1");
+        out.println("  --length-penalty <float>      beam search ranks finished outputs by logprob / length^penalty, 0 = total logprob, 1 = per-token mean, default 1");
+        out.println("  --device-sampling <boolean>   sample on the GPU, only the top candidates are read back; TornadoVM, temperature and top-p only, default false");
         out.println("  --seed <long>                 random seed, default System.nanoTime()");
         out.println("  --max-tokens, -n <int>        number of steps to run for < 0 = limited by context length, default " + DEFAULT_MAX_TOKENS);
         out.println("  --stream <boolean>            print tokens during generation; may cause encoding artifacts for non ASCII text, default true");
@@ -77,6 +164,20 @@ public record Options(Path modelPath, String prompt, String systemPrompt, String
         boolean stream = false;
         boolean echo = false;
         Boolean useTornadovm = null; // null means not specified via command line
+        int topK = 0;
+        float minP = 0.0f;
+        float typicalP = 1.0f;
+        float repeatPenalty = 1.0f;
+        int repeatLastN = DEFAULT_REPEAT_LAST_N;
+        float frequencyPenalty = 0.0f;
+        float presencePenalty = 0.0f;
+        String grammar = null;
+        String jsonSchema = null;
+        List<String> stopSequences = new ArrayList<>();
+        int logprobs = 0;
+        int beamWidth = 1;
+        float lengthPenalty = 1.0f;
+        boolean deviceSampling = false;
 
         for (int i = 0; i < args.length; i++) {
             String optionName = args[i];
@@ -105,6 +206,22 @@ public record Options(Path modelPath, String prompt, String systemPrompt, String
                         case "--suffix" -> suffix = nextArg;
                         case "--temperature", "--temp" -> temperature = Float.parseFloat(nextArg);
                         case "--top-p" -> topp = Float.parseFloat(nextArg);
+                        case "--top-k" -> topK = Integer.parseInt(nextArg);
+                        case "--min-p" -> minP = Float.parseFloat(nextArg);
+                        case "--typical-p" -> typicalP = Float.parseFloat(nextArg);
+                        case "--repeat-penalty" -> repeatPenalty = Float.parseFloat(nextArg);
+                        case "--repeat-last-n" -> repeatLastN = Integer.parseInt(nextArg);
+                        case "--frequency-penalty" -> frequencyPenalty = Float.parseFloat(nextArg);
+                        case "--presence-penalty" -> presencePenalty = Float.parseFloat(nextArg);
+                        case "--grammar" -> grammar = nextArg;
+                        case "--grammar-file" -> grammar = readFile(nextArg);
+                        case "--json-schema" -> jsonSchema = nextArg;
+                        case "--json-schema-file" -> jsonSchema = readFile(nextArg);
+                        case "--stop" -> stopSequences.add(unescape(nextArg));
+                        case "--logprobs" -> logprobs = Integer.parseInt(nextArg);
+                        case "--beam-width" -> beamWidth = Integer.parseInt(nextArg);
+                        case "--length-penalty" -> lengthPenalty = Float.parseFloat(nextArg);
+                        case "--device-sampling" -> deviceSampling = Boolean.parseBoolean(nextArg);
                         case "--model", "-m" -> modelPath = Paths.get(nextArg);
                         case "--seed", "-s" -> seed = Long.parseLong(nextArg);
                         case "--max-tokens", "-n" -> maxTokens = Integer.parseInt(nextArg);
@@ -123,6 +240,7 @@ public record Options(Path modelPath, String prompt, String systemPrompt, String
             useTornadovm = getDefaultTornadoVM();
         }
 
-        return new Options(modelPath, prompt, systemPrompt, suffix, interactive, temperature, topp, seed, maxTokens, stream, echo, useTornadovm);
+        return new Options(modelPath, prompt, systemPrompt, suffix, interactive, temperature, topp, seed, maxTokens, stream, echo, useTornadovm, topK, minP, typicalP, repeatPenalty,
+                repeatLastN, frequencyPenalty, presencePenalty, grammar, jsonSchema, stopSequences, logprobs, beamWidth, lengthPenalty, deviceSampling);
     }
 }
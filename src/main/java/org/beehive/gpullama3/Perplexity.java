@@ -0,0 +1,231 @@
+package org.beehive.gpullama3;
+
+import org.beehive.gpullama3.inference.InferenceCore;
+import org.beehive.gpullama3.inference.sampler.SamplerUtils;
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.model.loader.ModelLoader;
+import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code perplexity} command: scores a model on a text file, the quality gate for quantized models, in the manner of llama.cpp's
+ * perplexity tool.
+ *
+ * <p>The text is tokenized and cut into consecutive windows of {@code ctx} tokens, each evaluated from an empty context (starting with the
+ * begin-of-text token if the model uses one). The first half of a window only provides context: it is ingested without logits, by the
+ * batched prefill where the model supports it, except its last position. The log-likelihood of every token of the second half is read
+ * from the logits of the previous position. The windows are independent and evaluated in parallel, each worker with its own {@link State}; the weights are
+ * shared.</p>
+ *
+ * <p>Reports {@code PPL = exp(mean negative log-likelihood)} with its standard error, and the evaluation throughput.</p>
+ */
+public final class Perplexity {
+
+    private Perplexity() {
+    }
+
+    /** Negative log-likelihood of the scored tokens of a window. */
+    private record WindowScore(double nll, double nll2, int count) {
+    }
+
+    static void require(boolean condition, String messageFormat, Object... args) {
+        if (!condition) {
+            System.out.println("ERROR " + messageFormat.formatted(args));
+            System.out.println();
+            printUsage(System.out);
+            System.exit(-1);
+        }
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage:  jbang Llama3.java perplexity [options]");
+        out.println();
+        out.println("Options:");
+        out.println("  --model, -m <path>              required, path to the .gguf file");
+        out.println("  --file, -f <path>               required, text file to score, e.g. wiki.test.raw");
+        out.println("  --ctx-size, -c <int>            tokens per window, default 512");
+        out.println("  --chunks <int>                  maximum number of windows, default all");
+        out.println("  --parallel, -np <int>           windows evaluated in parallel on CPU, default 4");
+        out.println("  --use-tornadovm <boolean>       run on the GPU with TornadoVM, one window at a time, default false");
+        out.println();
+        out.println("Example:");
+        out.println("  perplexity -m Llama-3.2-1B-Instruct-Q4_0.gguf -f wiki.test.raw -c 512");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path modelPath = null;
+        Path textPath = null;
+        int contextSize = 512;
+        int maxChunks = -1;
+        int parallel = 4;
+        boolean useTornadovm = Boolean.parseBoolean(System.getProperty("use.tornadovm", "false"));
+        for (int i = 0; i < args.length; i++) {
+            String optionName = args[i];
+            require(optionName.startsWith("-"), "Invalid option %s", optionName);
+            if (optionName.equals("--help") || optionName.equals("-h")) {
+                printUsage(System.out);
+                System.exit(0);
+            }
+            String nextArg;
+            if (optionName.contains("=")) {
+                String[] parts = optionName.split("=", 2);
+                optionName = parts[0];
+                nextArg = parts[1];
+            } else {
+                require(i + 1 < args.length, "Missing argument for option %s", optionName);
+                nextArg = args[i + 1];
+                i += 1; // skip arg
+            }
+            switch (optionName) {
+                case "--model", "-m" -> modelPath = Paths.get(nextArg);
+                case "--file", "-f" -> textPath = Paths.get(nextArg);
+                case "--ctx-size", "-c" -> contextSize = Integer.parseInt(nextArg);
+                case "--chunks" -> maxChunks = Integer.parseInt(nextArg);
+                case "--parallel", "-np" -> parallel = Integer.parseInt(nextArg);
+                case "--use-tornadovm" -> useTornadovm = Boolean.parseBoolean(nextArg);
+                default -> require(false, "Unknown option: %s", optionName);
+            }
+        }
+        require(modelPath != null, "Missing argument: --model <path> is required");
+        require(textPath != null, "Missing argument: --file <path> is required");
+        require(contextSize >= 4, "Invalid argument: --ctx-size must be at least 4");
+        require(parallel > 0, "Invalid argument: --parallel must be positive");
+
+        Model model = ModelLoader.loadModel(modelPath, contextSize, useTornadovm);
+        long startNanos = System.nanoTime();
+        List<Integer> tokens = model.tokenizer().encodeAsList(Files.readString(textPath));
+        System.err.printf("tokenized %d tokens in %.2f s%n", tokens.size(), (System.nanoTime() - startNanos) / 1_000_000_000.0);
+        int windows = tokens.size() / contextSize;
+        if (maxChunks >= 0) {
+            windows = Math.min(windows, maxChunks);
+        }
+        require(windows > 0, "The text has %d tokens, at least --ctx-size %d are needed", tokens.size(), contextSize);
+        if (useTornadovm || model.weights() instanceof StandardWeights weights && weights.isLayerStreaming()) {
+            // a TornadoVM plan is bound to one state, and streamed layers are consumed in order
+            parallel = 1;
+        }
+
+        perplexity(model, tokens, contextSize, windows, Math.min(parallel, windows), useTornadovm);
+    }
+
+    /**
+     * Scores {@code windows} windows of {@code contextSize} tokens and prints the perplexity.
+     */
+    public static double perplexity(Model model, List<Integer> tokens, int contextSize, int windows, int parallel, boolean useTornadovm) {
+        System.err.printf("evaluating %d windows of %d tokens, %d in parallel%n", windows, contextSize, parallel);
+        long startNanos = System.nanoTime();
+        WindowScore[] scores = new WindowScore[windows];
+        AtomicInteger nextWindow = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallel, Thread.ofPlatform().name("perplexity-", 0).daemon().factory());
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int w = 0; w < parallel; w++) {
+                workers.add(executor.submit(() -> {
+                    State state = model.createNewState();
+                    TornadoVMMasterPlan plan = useTornadovm ? TornadoVMMasterPlan.initializeTornadoVMPlan(state, model) : null;
+                    float[] logits = new float[model.configuration().vocabularySize()];
+                    try {
+                        for (int window; (window = nextWindow.getAndIncrement()) < windows; ) {
+                            scores[window] = scoreWindow(model, state, plan, tokens, window * contextSize, contextSize, logits);
+                            System.err.printf("[%d/%d] window %d: %.4f%n", done.incrementAndGet(), windows, window + 1, Math.exp(scores[window].nll() / scores[window].count()));
+                        }
+                    } finally {
+                        if (plan != null) {
+                            plan.freeTornadoExecutionPlan();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Perplexity evaluation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+
+        // combined in window order, so the result does not depend on the scheduling
+        double nll = 0;
+        double nll2 = 0;
+        long count = 0;
+        for (WindowScore score : scores) {
+            nll += score.nll();
+            nll2 += score.nll2();
+            count += score.count();
+        }
+        double mean = nll / count;
+        double ppl = Math.exp(mean);
+        double variance = nll2 / count - mean * mean;
+        double error = count > 1 ? ppl * Math.sqrt(Math.max(variance, 0) / (count - 1)) : Double.NaN;
+        System.out.printf("PPL = %.4f +/- %.5f over %d tokens%n", ppl, error, count);
+        System.err.printf("evaluated %d tokens in %.2f s, %.2f tok/s%n", (long) windows * contextSize, seconds, windows * contextSize / seconds);
+        return ppl;
+    }
+
+    private static WindowScore scoreWindow(Model model, State state, TornadoVMMasterPlan plan, List<Integer> tokens, int start, int contextSize, float[] logits) {
+        int[] window = new int[contextSize];
+        for (int i = 0; i < contextSize; i++) {
+            window[i] = tokens.get(start + i);
+        }
+        if (model.shouldAddBeginOfText()) {
+            window[0] = model.chatFormat().getBeginOfText();
+        }
+        // the tokens from `first` on are scored, each from the logits of the previous position; the positions before that need no
+        // logits and are ingested layer by layer when the model supports it
+        int first = contextSize / 2;
+        int context = first - 1;
+        if (plan == null && InferenceCore.supportsPrefill(model)) {
+            InferenceCore.forwardJavaPrefill(model, state, window, context, 0);
+        } else if (plan != null && plan.supportsPrefill()) {
+            InferenceCore.forwardTornadoVMPrefill(model, state, window, context, 0, plan);
+        } else {
+            for (int pos = 0; pos < context; pos++) {
+                forward(model, state, plan, window[pos], pos);
+            }
+        }
+        double nll = 0;
+        double nll2 = 0;
+        for (int pos = context; pos < contextSize - 1; pos++) {
+            SamplerUtils.copyLogits(forward(model, state, plan, window[pos], pos), logits);
+            // log-softmax of the next token
+            float max = SamplerUtils.max(logits, logits.length);
+            double sum = 0;
+            for (float logit : logits) {
+                sum += Math.exp(logit - max);
+            }
+            double tokenNll = max + Math.log(sum) - logits[window[pos + 1]];
+            nll += tokenNll;
+            nll2 += tokenNll * tokenNll;
+        }
+        return new WindowScore(nll, nll2, contextSize - first);
+    }
+
+    private static Object forward(Model model, State state, TornadoVMMasterPlan plan, int token, int position) {
+        if (plan != null) {
+            return InferenceCore.forwardTornadoVM(model, state, token, position, plan);
+        }
+        model.forward(state, token, position);
+        return state.logits;
+    }
+}
@@ -0,0 +1,262 @@
+package org.beehive.gpullama3;
+
+import org.beehive.gpullama3.auxiliary.Parallel;
+import org.beehive.gpullama3.model.loader.ModelLoader;
+import org.beehive.gpullama3.tensor.GGMLTensorEntry;
+import org.beehive.gpullama3.tensor.GGMLType;
+import org.beehive.gpullama3.tensor.GGUF;
+import org.beehive.gpullama3.tensor.GGUFWriter;
+import org.beehive.gpullama3.tensor.standard.BlockQuantizer;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code quantize} command: re-quantizes the weights of a GGUF model (F32, F16, BF16, Q8_0 or Q4_0) to Q8_0 or Q4_0 and writes
+ * a new GGUF file with the same metadata and alignment.
+ *
+ * <p>Matrices ({@code *.weight} with 2 or more dimensions) are quantized; norms, biases and tensors of other types are copied as is,
+ * unless a per-tensor override applies. Tensors are processed in chunks: each chunk is dequantized and quantized in parallel with the
+ * Vector API kernels of {@link BlockQuantizer}, then written to the output, so memory use does not depend on the model size.</p>
+ */
+public final class Quantize {
+
+    private static final int CHUNK_ELEMENTS = 1 << 22;
+    private static final int TASK_ELEMENTS = 1 << 15; // both multiples of every block size
+    private static final int COPY_CHUNK_BYTES = 1 << 26;
+    private static final ValueLayout.OfShort JAVA_SHORT_LE = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfFloat JAVA_FLOAT_LE = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private Quantize() {
+    }
+
+    static void require(boolean condition, String messageFormat, Object... args) {
+        if (!condition) {
+            System.out.println("ERROR " + messageFormat.formatted(args));
+            System.out.println();
+            printUsage(System.out);
+            System.exit(-1);
+        }
+    }
+
+    static void printUsage(PrintStream out) {
+        out.println("Usage:  jbang Llama3.java quantize [options]");
+        out.println();
+        out.println("Options:");
+        out.println("  --model, -m <path>              required, path to the input .gguf file");
+        out.println("  --output, -o <path>             required, path to the output .gguf file");
+        out.println("  --type <Q8_0|Q4_0>              required, type of the quantized matrices");
+        out.println("  --tensor-type <pattern>=<type>  (repeatable) type for the tensors matching a name pattern, '*' matches any");
+        out.println("                                  characters, e.g. output.weight=Q8_0; the type is one of F32, F16, Q8_0, Q4_0");
+        out.println();
+        out.println("Example:");
+        out.println("  quantize -m Llama-3.2-1B-Instruct-F16.gguf -o Llama-3.2-1B-Instruct-Q4_0.gguf --type Q4_0 --tensor-type output.weight=Q8_0");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path modelPath = null;
+        Path outputPath = null;
+        GGMLType type = null;
+        Map<String, GGMLType> overrides = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String optionName = args[i];
+            require(optionName.startsWith("-"), "Invalid option %s", optionName);
+            if (optionName.equals("--help") || optionName.equals("-h")) {
+                printUsage(System.out);
+                System.exit(0);
+            }
+            String nextArg;
+            if (optionName.contains("=")) {
+                String[] parts = optionName.split("=", 2);
+                optionName = parts[0];
+                nextArg = parts[1];
+            } else {
+                require(i + 1 < args.length, "Missing argument for option %s", optionName);
+                nextArg = args[i + 1];
+                i += 1; // skip arg
+            }
+            switch (optionName) {
+                case "--model", "-m" -> modelPath = Paths.get(nextArg);
+                case "--output", "-o" -> outputPath = Paths.get(nextArg);
+                case "--type" -> type = parseType(nextArg, List.of(GGMLType.Q8_0, GGMLType.Q4_0));
+                case "--tensor-type" -> {
+                    int eq = nextArg.lastIndexOf('=');
+                    require(eq > 0, "Expected <pattern>=<type> for --tensor-type, got %s", nextArg);
+                    overrides.put(nextArg.substring(0, eq), parseType(nextArg.substring(eq + 1), List.of(GGMLType.F32, GGMLType.F16, GGMLType.Q8_0, GGMLType.Q4_0)));
+                }
+                default -> require(false, "Unknown option: %s", optionName);
+            }
+        }
+        require(modelPath != null, "Missing argument: --model <path> is required");
+        require(outputPath != null, "Missing argument: --output <path> is required");
+        require(type != null, "Missing argument: --type <Q8_0|Q4_0> is required");
+        require(!modelPath.toAbsolutePath().equals(outputPath.toAbsolutePath()), "The output must not overwrite the input model");
+        quantize(modelPath, outputPath, type, overrides);
+    }
+
+    private static GGMLType parseType(String name, List<GGMLType> allowed) {
+        GGMLType type = allowed.stream().filter(t -> t.name().equalsIgnoreCase(name)).findFirst().orElse(null);
+        require(type != null, "Unsupported type %s, expected one of %s", name, allowed);
+        return type;
+    }
+
+    /**
+     * Quantizes {@code modelPath} into {@code outputPath}.
+     *
+     * @param overrides
+     *         name patterns ({@code *} matches any characters) to tensor types; the first matching pattern wins
+     */
+    public static void quantize(Path modelPath, Path outputPath, GGMLType type, Map<String, GGMLType> overrides) throws IOException {
+        long startNanos = System.nanoTime();
+        GGUF gguf = GGUF.loadGGUFMetadata(modelPath);
+        Map<Pattern, GGMLType> patterns = new LinkedHashMap<>();
+        overrides.forEach((glob, t) -> patterns.put(globToPattern(glob), t));
+
+        // keep the tensors in file order; a split model is merged into a single output file
+        List<GGUF.GGUFTensorInfo> tensorInfos = new ArrayList<>();
+        Map<String, MemorySegment> sources = new HashMap<>();
+        for (GGUF.Split split : gguf.getSplits()) {
+            FileChannel fileChannel = split.fileChannel();
+            MemorySegment tensorData = fileChannel.map(FileChannel.MapMode.READ_ONLY, split.tensorDataOffset(), fileChannel.size() - split.tensorDataOffset(), Arena.ofAuto());
+            for (GGUF.GGUFTensorInfo ti : split.tensorInfos().values().stream().sorted(Comparator.comparingLong(GGUF.GGUFTensorInfo::offset)).toList()) {
+                tensorInfos.add(ti);
+                sources.put(ti.name(), tensorData.asSlice(ti.offset(), ti.ggmlType().byteSizeFor(FloatTensor.numberOfElementsLong(ti.dimensions()))));
+            }
+        }
+        try (GGUFWriter writer = new GGUFWriter(outputPath, gguf.getAlignment())) {
+            writer.copyMetadata(gguf);
+            writer.putUInt32("general.file_type", type == GGMLType.Q4_0 ? 2 : 7); // LLAMA_FTYPE_MOSTLY_Q4_0, LLAMA_FTYPE_MOSTLY_Q8_0
+            writer.putUInt32("general.quantization_version", 2);
+            for (GGUF.GGUFTensorInfo ti : tensorInfos) {
+                writer.addTensor(ti.name(), ti.dimensions(), targetType(ti, type, patterns));
+            }
+            writer.writeHeader();
+
+            int index = 0;
+            long inputBytes = 0;
+            long outputBytes = 0;
+            for (GGUF.GGUFTensorInfo out : writer.getTensorInfos()) {
+                GGUF.GGUFTensorInfo in = gguf.getTensorInfos().get(out.name());
+                MemorySegment source = sources.get(out.name());
+                long position = writer.tensorDataPosition(out.name());
+                if (out.ggmlType() == in.ggmlType()) {
+                    copy(writer, source, position);
+                } else {
+                    convert(writer, in, source, out.ggmlType(), position);
+                }
+                inputBytes += source.byteSize();
+                outputBytes += out.ggmlType().byteSizeFor(FloatTensor.numberOfElementsLong(out.dimensions()));
+                System.out.printf("[%4d/%4d] %-32s %-5s -> %-5s %s%n", ++index, tensorInfos.size(), out.name(), in.ggmlType(), out.ggmlType(), Arrays.toString(out.dimensions()));
+            }
+            System.out.printf("Quantized %s (%.2f GB) to %s (%.2f GB) in %.1f s%n", modelPath.getFileName(), inputBytes / 1e9, outputPath.getFileName(), outputBytes / 1e9,
+                    (System.nanoTime() - startNanos) / 1e9);
+        }
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : glob.split("\\*", -1)) {
+            if (!regex.isEmpty()) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static GGMLType targetType(GGUF.GGUFTensorInfo ti, GGMLType type, Map<Pattern, GGMLType> overrides) {
+        GGMLType target = null;
+        for (Map.Entry<Pattern, GGMLType> override : overrides.entrySet()) {
+            if (override.getKey().matcher(ti.name()).matches()) {
+                target = override.getValue();
+                break;
+            }
+        }
+        if (target == null) {
+            // only matrices are quantized, norms and biases stay as they are
+            if (ti.dimensions().length < 2 || !ti.name().endsWith(".weight")) {
+                return ti.ggmlType();
+            }
+            target = type;
+        }
+        if (!isDecodable(ti.ggmlType()) || ti.dimensions()[0] % target.getBlockSize() != 0) {
+            return ti.ggmlType();
+        }
+        return target;
+    }
+
+    private static boolean isDecodable(GGMLType type) {
+        return switch (type) {
+            case F32, F16, BF16, Q8_0, Q4_0 -> true;
+            default -> false;
+        };
+    }
+
+    private static void copy(GGUFWriter writer, MemorySegment source, long position) throws IOException {
+        for (long offset = 0; offset < source.byteSize(); offset += COPY_CHUNK_BYTES) {
+            MemorySegment chunk = source.asSlice(offset, Math.min(COPY_CHUNK_BYTES, source.byteSize() - offset));
+            writer.write(position + offset, chunk.asByteBuffer());
+        }
+    }
+
+    private static void convert(GGUFWriter writer, GGUF.GGUFTensorInfo in, MemorySegment source, GGMLType target, long position) throws IOException {
+        long numberOfElements = FloatTensor.numberOfElementsLong(in.dimensions());
+        FloatTensor tensor = switch (in.ggmlType()) {
+            case F32, F16, BF16 -> null; // decoded straight from memory
+            default -> ModelLoader.loadTensor(new GGMLTensorEntry(source, in.name(), in.ggmlType(), in.dimensions(), source));
+        };
+        int chunkElements = (int) Math.min(CHUNK_ELEMENTS, numberOfElements);
+        float[] values = new float[chunkElements];
+        byte[] bytes = new byte[Math.toIntExact(target.byteSizeFor(chunkElements))];
+        MemorySegment output = MemorySegment.ofArray(bytes);
+        for (long start = 0; start < numberOfElements; start += chunkElements) {
+            long chunkStart = start;
+            int length = (int) Math.min(chunkElements, numberOfElements - start);
+            Parallel.parallelFor(0, (length + TASK_ELEMENTS - 1) / TASK_ELEMENTS, task -> {
+                int from = task * TASK_ELEMENTS;
+                int taskLength = Math.min(TASK_ELEMENTS, length - from);
+                decode(in.ggmlType(), source, tensor, chunkStart + from, values, from, taskLength);
+                BlockQuantizer.quantize(target, values, from, taskLength, output, target.byteSizeFor(from));
+            });
+            writer.write(position + target.byteSizeFor(start), ByteBuffer.wrap(bytes, 0, Math.toIntExact(target.byteSizeFor(length))));
+        }
+    }
+
+    private static void decode(GGMLType type, MemorySegment source, FloatTensor tensor, long index, float[] values, int offset, int length) {
+        switch (type) {
+            case F32 -> MemorySegment.copy(source, JAVA_FLOAT_LE, index * Float.BYTES, values, offset, length);
+            case F16 -> {
+                for (int i = 0; i < length; i++) {
+                    values[offset + i] = Float.float16ToFloat(source.get(JAVA_SHORT_LE, (index + i) * GGMLType.FLOAT16_BYTES));
+                }
+            }
+            case BF16 -> {
+                for (int i = 0; i < length; i++) {
+                    values[offset + i] = Float.intBitsToFloat(source.get(JAVA_SHORT_LE, (index + i) * GGMLType.BFLOAT16_BYTES) << 16);
+                }
+            }
+            default -> {
+                for (int i = 0; i < length; i++) {
+                    values[offset + i] = tensor.getFloat(index + i);
+                }
+            }
+        }
+    }
+}
@@ -4,12 +4,19 @@ package org.beehive.gpullama3.auxiliary;
  * Record to store metrics from the last model run.
  * @param totalTokens The total number of tokens processed
  * @param totalSeconds The total time in seconds
+ * @param promptTokens The number of prompt tokens ingested, 0 if unknown
+ * @param timeToFirstTokenSeconds The time until the first token was generated, the prefill, 0 if unknown
  */
-public record LastRunMetrics(int totalTokens, double totalSeconds) {
+public record LastRunMetrics(int totalTokens, double totalSeconds, int promptTokens, double timeToFirstTokenSeconds) {
     /**
-     * Singleton instance to store the latest metrics
+     * Singleton instance to store the latest metrics; with concurrent generations it is the last one to finish, per-generation metrics are
+     * kept by {@code GenerationSession}.
      */
-    private static LastRunMetrics latestMetrics;
+    private static volatile LastRunMetrics latestMetrics;
+
+    public LastRunMetrics(int totalTokens, double totalSeconds) {
+        this(totalTokens, totalSeconds, 0, 0);
+    }
 
     /**
      * Sets the metrics for the latest run
@@ -21,13 +28,41 @@ public record LastRunMetrics(int totalTokens, double totalSeconds) {
         latestMetrics = new LastRunMetrics(tokens, seconds);
     }
 
+    /**
+     * Sets the metrics for the latest run, with the prefill and decode split
+     *
+     * @param tokens The total number of tokens processed
+     * @param seconds The total time in seconds
+     * @param promptTokens The number of prompt tokens ingested
+     * @param startNanos {@link System#nanoTime()} at the start of the run
+     * @param firstTokenNanos {@link System#nanoTime()} when the prompt was ingested and the first token sampled, 0 if none was
+     */
+    public static void setMetrics(int tokens, double seconds, int promptTokens, long startNanos, long firstTokenNanos) {
+        latestMetrics = new LastRunMetrics(tokens, seconds, promptTokens, firstTokenNanos == 0 ? 0 : (firstTokenNanos - startNanos) / 1_000_000_000.0);
+    }
+
+    /** Prompt tokens ingested per second, {@code NaN} if unknown. */
+    public double prefillTokensPerSecond() {
+        return timeToFirstTokenSeconds > 0 ? promptTokens / timeToFirstTokenSeconds : Double.NaN;
+    }
+
+    /** Tokens generated per second after the first one, {@code NaN} if unknown. */
+    public double decodeTokensPerSecond() {
+        return timeToFirstTokenSeconds > 0 ? (totalTokens - promptTokens - 1) / (totalSeconds - timeToFirstTokenSeconds) : Double.NaN;
+    }
+
     /**
      * Prints the metrics from the latest run to stderr
      */
     public static void printMetrics() {
-        if (latestMetrics != null) {
-            double tokensPerSecond = latestMetrics.totalTokens() / latestMetrics.totalSeconds();
-            System.err.printf("\n\nachieved tok/s: %.2f. Tokens: %d, seconds: %.2f\n", tokensPerSecond, latestMetrics.totalTokens(), latestMetrics.totalSeconds());
+        LastRunMetrics metrics = latestMetrics;
+        if (metrics != null) {
+            double tokensPerSecond = metrics.totalTokens() / metrics.totalSeconds();
+            System.err.printf("\n\nachieved tok/s: %.2f. Tokens: %d, seconds: %.2f\n", tokensPerSecond, metrics.totalTokens(), metrics.totalSeconds());
+            if (metrics.timeToFirstTokenSeconds() > 0) {
+                System.err.printf("time to first token: %.3f s, prefill tok/s: %.2f, decode tok/s: %.2f\n", metrics.timeToFirstTokenSeconds(), metrics.prefillTokensPerSecond(),
+                        metrics.decodeTokensPerSecond());
+            }
         }
     }
 }
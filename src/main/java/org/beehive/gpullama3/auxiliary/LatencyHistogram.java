@@ -0,0 +1,107 @@
+package org.beehive.gpullama3.auxiliary;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, with HDR-style log-linear buckets.
+ *
+ * <p>Values below 64 have exact buckets; above, every power of two is split in 32 linear sub-buckets, so a recorded value is known within
+ * 1/32 (about 3%) of itself over the whole {@code long} range, in a fixed array of 1888 counters. Recording is a few atomic increments,
+ * without allocation or locking, from any thread.</p>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    /** The largest value of a bucket. */
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1; // wraps to Long.MAX_VALUE for the last bucket
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sum.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /** Adds all the values recorded by {@code other}. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        long otherMax = other.max.get();
+        long current = max.get();
+        while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+            current = max.get();
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** Mean in nanoseconds, {@code NaN} when empty. */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? Double.NaN : (double) sum.sum() / n;
+    }
+
+    /**
+     * The value at a percentile, e.g. 99 for the p99, in nanoseconds: the upper bound of the bucket holding it, so at most 1/32 above the
+     * recorded value. 0 when empty.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+        }
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,99 @@
+package org.beehive.gpullama3.auxiliary;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and throughput of generations: time-to-first-token and inter-token latency histograms, and the prefill (prompt ingestion) and
+ * decode throughputs, kept separately since they differ by an order of magnitude.
+ *
+ * <p>A recorder is typically kept per session, with a parent shared by all the sessions of a model: every value recorded is also recorded
+ * by the parent, which aggregates the model. Thread-safe.</p>
+ */
+public final class MetricsRecorder {
+
+    private final MetricsRecorder parent;
+    private final LatencyHistogram timeToFirstToken = new LatencyHistogram();
+    private final LatencyHistogram interTokenLatency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder generatedTokens = new LongAdder();
+    private final LongAdder prefillNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public MetricsRecorder() {
+        this(null);
+    }
+
+    /**
+     * @param parent
+     *         also records everything recorded here, may be {@code null}
+     */
+    public MetricsRecorder(MetricsRecorder parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Records a finished generation.
+     *
+     * @param timeToFirstTokenNanos
+     *         from the start of the request to the first generated token: the prefill, ingesting the prompt, and the first sample
+     * @param totalNanos
+     *         from the start of the request to the last generated token; the time after the first token is the decode
+     */
+    public void recordRequest(int promptTokens, int generatedTokens, long timeToFirstTokenNanos, long totalNanos) {
+        requests.increment();
+        this.promptTokens.add(promptTokens);
+        this.generatedTokens.add(generatedTokens);
+        if (generatedTokens > 0) {
+            timeToFirstToken.record(timeToFirstTokenNanos);
+            prefillNanos.add(timeToFirstTokenNanos);
+            decodeNanos.add(totalNanos - timeToFirstTokenNanos);
+        }
+        if (parent != null) {
+            parent.recordRequest(promptTokens, generatedTokens, timeToFirstTokenNanos, totalNanos);
+        }
+    }
+
+    /** Records the time between two consecutive generated tokens. */
+    public void recordInterTokenLatency(long nanos) {
+        interTokenLatency.record(nanos);
+        if (parent != null) {
+            parent.recordInterTokenLatency(nanos);
+        }
+    }
+
+    public LatencyHistogram timeToFirstToken() {
+        return timeToFirstToken;
+    }
+
+    public LatencyHistogram interTokenLatency() {
+        return interTokenLatency;
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    /** Prompt tokens ingested per second, over all the requests. */
+    public double prefillTokensPerSecond() {
+        return promptTokens.sum() / (prefillNanos.sum() / 1_000_000_000.0);
+    }
+
+    /** Tokens generated per second after the first one, over all the requests. */
+    public double decodeTokensPerSecond() {
+        // the first token of every request comes out of the prefill
+        return (generatedTokens.sum() - timeToFirstToken.count()) / (decodeNanos.sum() / 1_000_000_000.0);
+    }
+
+    public void printSummary(PrintStream out) {
+        out.printf("requests: %d, prefill: %.2f tok/s, decode: %.2f tok/s%n", requests(), prefillTokensPerSecond(), decodeTokensPerSecond());
+        printLatencies(out, "time to first token", timeToFirstToken);
+        printLatencies(out, "inter-token latency", interTokenLatency);
+    }
+
+    private static void printLatencies(PrintStream out, String name, LatencyHistogram histogram) {
+        out.printf("%s (ms): mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", name, histogram.mean() / 1e6, histogram.valueAtPercentile(50) / 1e6,
+                histogram.valueAtPercentile(90) / 1e6, histogram.valueAtPercentile(99) / 1e6, histogram.max() / 1e6);
+    }
+}
@@ -0,0 +1,45 @@
+package org.beehive.gpullama3.auxiliary.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for a forward pass, of one token or of a batch of prompt tokens.
+ *
+ * <p>The inference events are disabled by default; a disabled event costs a check, its allocation is removed by escape analysis. Enable
+ * them in a recording, e.g. {@code -XX:StartFlightRecording:gpullama3.Forward#enabled=true,gpullama3.Sample#enabled=true}, or with a
+ * {@code .jfc} settings file; the per-layer and per-graph events are the finest-grained and best enabled with a threshold.</p>
+ */
+@Name("gpullama3.Forward")
+@Label("Forward Pass")
+@Category({ "GPULlama3", "Inference" })
+@Description("Forward pass of tokens through the model")
+@Enabled(false)
+@StackTrace(false)
+public final class ForwardEvent extends jdk.jfr.Event {
+
+    @Label("Position")
+    @Description("Position of the first token")
+    public int position;
+
+    @Label("Tokens")
+    public int tokens;
+
+    @Label("TornadoVM")
+    public boolean tornadoVM;
+
+    public static ForwardEvent start(int position, int tokens, boolean tornadoVM) {
+        ForwardEvent event = new ForwardEvent();
+        if (event.isEnabled()) {
+            event.position = position;
+            event.tokens = tokens;
+            event.tornadoVM = tornadoVM;
+            event.begin();
+        }
+        return event;
+    }
+}
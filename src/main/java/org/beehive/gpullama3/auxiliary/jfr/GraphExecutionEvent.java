@@ -0,0 +1,42 @@
+package org.beehive.gpullama3.auxiliary.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for the execution of one TornadoVM task graph, kernel launches and transfers included, see {@link ForwardEvent}.
+ */
+@Name("gpullama3.GraphExecution")
+@Label("Task Graph Execution")
+@Category({ "GPULlama3", "TornadoVM" })
+@Description("Execution of one TornadoVM task graph of a forward pass")
+@Enabled(false)
+@StackTrace(false)
+public final class GraphExecutionEvent extends jdk.jfr.Event {
+
+    @Label("Graph")
+    @Description("Index of the graph in the execution plan")
+    public int graph;
+
+    @Label("Layer")
+    @Description("Transformer layer computed by the graph, -1 for the preprocessing and logits graphs")
+    public int layer;
+
+    @Label("Position")
+    public int position;
+
+    public static GraphExecutionEvent start(int graph, int layer, int position) {
+        GraphExecutionEvent event = new GraphExecutionEvent();
+        if (event.isEnabled()) {
+            event.graph = graph;
+            event.layer = layer;
+            event.position = position;
+            event.begin();
+        }
+        return event;
+    }
+}
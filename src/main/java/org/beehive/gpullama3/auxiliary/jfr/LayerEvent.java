@@ -0,0 +1,41 @@
+package org.beehive.gpullama3.auxiliary.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for one transformer layer of a forward pass on CPU, see {@link ForwardEvent}.
+ */
+@Name("gpullama3.Layer")
+@Label("Layer")
+@Category({ "GPULlama3", "Inference" })
+@Description("One transformer layer of a forward pass on CPU")
+@Enabled(false)
+@StackTrace(false)
+public final class LayerEvent extends jdk.jfr.Event {
+
+    @Label("Layer")
+    public int layer;
+
+    @Label("Position")
+    @Description("Position of the first token")
+    public int position;
+
+    @Label("Tokens")
+    public int tokens;
+
+    public static LayerEvent start(int layer, int position, int tokens) {
+        LayerEvent event = new LayerEvent();
+        if (event.isEnabled()) {
+            event.layer = layer;
+            event.position = position;
+            event.tokens = tokens;
+            event.begin();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,44 @@
+package org.beehive.gpullama3.auxiliary.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for sampling a token from the logits, see {@link ForwardEvent}.
+ */
+@Name("gpullama3.Sample")
+@Label("Sample")
+@Category({ "GPULlama3", "Inference" })
+@Description("Sampling of a token from the logits")
+@Enabled(false)
+@StackTrace(false)
+public final class SampleEvent extends jdk.jfr.Event {
+
+    @Label("Sampler")
+    public Class<?> sampler;
+
+    @Label("Token")
+    public int token;
+
+    public static SampleEvent start(Object sampler) {
+        SampleEvent event = new SampleEvent();
+        if (event.isEnabled()) {
+            event.sampler = sampler.getClass();
+            event.begin();
+        }
+        return event;
+    }
+
+    /** Commits the event, if enabled, and returns the sampled token. */
+    public int end(int token) {
+        if (isEnabled()) {
+            this.token = token;
+            commit();
+        }
+        return token;
+    }
+}
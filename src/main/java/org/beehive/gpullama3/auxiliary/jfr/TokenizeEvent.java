@@ -0,0 +1,46 @@
+package org.beehive.gpullama3.auxiliary.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.List;
+
+/**
+ * JDK Flight Recorder event for encoding a text into tokens, see {@link ForwardEvent}.
+ */
+@Name("gpullama3.Tokenize")
+@Label("Tokenize")
+@Category({ "GPULlama3", "Tokenizer" })
+@Description("Encoding of a text into tokens")
+@Enabled(false)
+@StackTrace(false)
+public final class TokenizeEvent extends jdk.jfr.Event {
+
+    @Label("Characters")
+    public int characters;
+
+    @Label("Tokens")
+    public int tokens;
+
+    public static TokenizeEvent start() {
+        TokenizeEvent event = new TokenizeEvent();
+        if (event.isEnabled()) {
+            event.begin();
+        }
+        return event;
+    }
+
+    /** Commits the event, if enabled, and returns the encoded tokens. */
+    public List<Integer> end(String text, List<Integer> ids) {
+        if (shouldCommit()) {
+            characters = text.length();
+            tokens = ids.size();
+            commit();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,221 @@
+package org.beehive.gpullama3.inference;
+
+import org.beehive.gpullama3.auxiliary.LastRunMetrics;
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Beam search decoding, on CPU.
+ *
+ * <p>The prompt is ingested once; the beams are {@link State#fork(int) forks} of the state, sharing the KV cache entries of their common prefix
+ * copy-on-write. At every step the live beams are forwarded together, see {@link InferenceCore#forwardJavaBatch}; the logits of each beam
+ * are scored with log-softmax and its {@code beamWidth} best continuations become candidates; the {@code beamWidth} candidates with the
+ * highest cumulative log-probability survive. A surviving candidate takes over the state of its beam, the other candidates of the same
+ * beam fork it, and beams without survivors are {@link State#discard() discarded}.</p>
+ *
+ * <p>A hypothesis is finished when it ends with a stop token; finished hypotheses are ranked by {@code logprob / length^lengthPenalty}. Every
+ * token lowers the (negative) cumulative log-probability, so a penalty of 0 ranks by the total and favors short outputs, 1 ranks by the
+ * mean log-probability per token, and the larger the penalty, the less a long output is penalized for its length. The search ends when
+ * {@code beamWidth} hypotheses are finished, or at {@code maxTokens}, where the live beams compete with the finished ones.</p>
+ *
+ * <p>The beams are scored on the raw logits: no {@link org.beehive.gpullama3.inference.sampler.LogitsProcessor} applies, which is why
+ * {@link org.beehive.gpullama3.Options} rejects grammars and penalties together with a beam width.</p>
+ */
+public final class BeamSearch {
+
+    private record Beam(State state, int[] tokens, double logprob) {
+    }
+
+    private record Hypothesis(int[] tokens, double score) {
+    }
+
+    private final int beamWidth;
+    private final float lengthPenalty;
+    // candidates of the current step, beamWidth per live beam
+    private final int[] candidateBeams;
+    private final int[] candidateTokens;
+    private final double[] candidateLogprobs;
+    private int candidateCount;
+    // top continuations of one beam, in descending order
+    private final int[] topTokens;
+    private final float[] topLogits;
+
+    private BeamSearch(int beamWidth, float lengthPenalty) {
+        this.beamWidth = beamWidth;
+        this.lengthPenalty = lengthPenalty;
+        this.candidateBeams = new int[beamWidth * beamWidth];
+        this.candidateTokens = new int[beamWidth * beamWidth];
+        this.candidateLogprobs = new double[beamWidth * beamWidth];
+        this.topTokens = new int[beamWidth];
+        this.topLogits = new float[beamWidth];
+    }
+
+    /**
+     * Decodes the best hypothesis for a prompt.
+     *
+     * @param state
+     *         positioned at {@code startPosition}; the state is consumed by the search and must be {@link State#reset()} before it is used
+     *         again
+     * @return the tokens of the best hypothesis, including the stop token if it finished
+     */
+    public static List<Integer> generate(Model model, State state, int startPosition, List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens, int beamWidth,
+            float lengthPenalty) {
+        if (beamWidth <= 0) {
+            throw new IllegalArgumentException("beamWidth must be positive: " + beamWidth);
+        }
+        if (!Float.isFinite(lengthPenalty)) {
+            throw new IllegalArgumentException("lengthPenalty must be finite: " + lengthPenalty);
+        }
+        return new BeamSearch(beamWidth, lengthPenalty).search(model, state, startPosition, promptTokens, stopTokens, maxTokens);
+    }
+
+    private List<Integer> search(Model model, State state, int startPosition, List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens) {
+        long startNanos = System.nanoTime();
+        if (maxTokens < 0 || model.configuration().contextLength() < maxTokens) {
+            maxTokens = model.configuration().contextLength();
+        }
+
+        // ingest the prompt once: the latest token and all the prompt tokens, the last forward yields the logits of the first generated token
+        int pos = startPosition;
+        int currentToken = state.latestToken;
+        int promptIndex = 0;
+        while (promptIndex < promptTokens.size() && pos < maxTokens) {
+            model.forward(state, currentToken, pos++);
+            currentToken = promptTokens.get(promptIndex++);
+        }
+        if (pos >= maxTokens) {
+            return List.of();
+        }
+        model.forward(state, currentToken, pos++);
+
+        List<Beam> live = List.of(new Beam(state, new int[0], 0.0));
+        List<Hypothesis> finished = new ArrayList<>();
+        candidateCount = 0;
+        addCandidates(0, live.getFirst(), state.logits);
+
+        State[] batch = new State[beamWidth];
+        int[] batchTokens = new int[beamWidth];
+        try {
+            while (true) {
+                Integer[] order = new Integer[candidateCount];
+                for (int i = 0; i < candidateCount; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingDouble(i -> -candidateLogprobs[i]));
+
+                // the best beamWidth candidates survive; those ending with a stop token are finished and leave the beam
+                int selected = Math.min(beamWidth, candidateCount);
+                int[] children = new int[live.size()];
+                for (int s = 0; s < selected; s++) {
+                    int c = order[s];
+                    if (!stopTokens.contains(candidateTokens[c])) {
+                        children[candidateBeams[c]]++;
+                    }
+                }
+                for (int b = 0; b < live.size(); b++) {
+                    if (children[b] == 0) {
+                        live.get(b).state().discard();
+                    }
+                }
+                List<Beam> next = new ArrayList<>(selected);
+                for (int s = 0; s < selected; s++) {
+                    int c = order[s];
+                    Beam parent = live.get(candidateBeams[c]);
+                    int[] tokens = Arrays.copyOf(parent.tokens(), parent.tokens().length + 1);
+                    tokens[tokens.length - 1] = candidateTokens[c];
+                    if (stopTokens.contains(candidateTokens[c])) {
+                        finished.add(new Hypothesis(tokens, score(candidateLogprobs[c], tokens.length)));
+                        continue;
+                    }
+                    // the last child of a beam takes over its state, the others fork it
+                    State childState = --children[candidateBeams[c]] == 0 ? parent.state() : parent.state().fork(pos);
+                    childState.latestToken = candidateTokens[c];
+                    next.add(new Beam(childState, tokens, candidateLogprobs[c]));
+                }
+                live = next;
+
+                if (live.isEmpty() || finished.size() >= beamWidth || pos >= maxTokens) {
+                    break;
+                }
+                // every beam has its own activations and logits: the live beams go through the weights together
+                for (int b = 0; b < live.size(); b++) {
+                    batch[b] = live.get(b).state();
+                    batchTokens[b] = batch[b].latestToken;
+                }
+                InferenceEngine.forwardBatch(model, batch, batchTokens, live.size(), pos);
+                candidateCount = 0;
+                for (int b = 0; b < live.size(); b++) {
+                    addCandidates(b, live.get(b), batch[b].logits);
+                }
+                pos++;
+            }
+        } finally {
+            // the forks still live release their pages, the state itself is left to the caller
+            for (Beam beam : live) {
+                if (beam.state() != state) {
+                    beam.state().discard();
+                }
+            }
+        }
+
+        // at maxTokens the unfinished beams compete with the finished hypotheses
+        if (finished.size() < beamWidth) {
+            for (Beam beam : live) {
+                finished.add(new Hypothesis(beam.tokens(), score(beam.logprob(), beam.tokens().length)));
+            }
+        }
+        Hypothesis best = finished.stream().max(Comparator.comparingDouble(Hypothesis::score)).orElseThrow();
+        List<Integer> result = Arrays.stream(best.tokens()).boxed().toList();
+
+        double totalTimeSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        LastRunMetrics.setMetrics(promptIndex + result.size(), totalTimeSeconds);
+        return result;
+    }
+
+    private double score(double logprob, int length) {
+        return logprob / Math.pow(length, lengthPenalty);
+    }
+
+    /**
+     * Scores the continuations of a beam with log-softmax, in a single pass over the logits: an online log-sum-exp next to the
+     * {@code beamWidth} largest logits, kept sorted by insertion.
+     */
+    private void addCandidates(int beamIndex, Beam beam, FloatTensor logits) {
+        int vocabularySize = Math.toIntExact(logits.size());
+        int topCount = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int i = 0; i < vocabularySize; i++) {
+            float x = logits.getFloat(i);
+            if (x > max) {
+                sum = sum * Math.exp(max - x) + 1.0;
+                max = x;
+            } else if (x > Float.NEGATIVE_INFINITY) {
+                sum += Math.exp(x - max);
+            }
+            if (topCount < beamWidth || x > topLogits[topCount - 1]) {
+                int j = topCount < beamWidth ? topCount++ : topCount - 1;
+                for (; j > 0 && topLogits[j - 1] < x; j--) {
+                    topLogits[j] = topLogits[j - 1];
+                    topTokens[j] = topTokens[j - 1];
+                }
+                topLogits[j] = x;
+                topTokens[j] = i;
+            }
+        }
+        double logSumExp = max + Math.log(sum);
+        for (int k = 0; k < topCount; k++) {
+            candidateBeams[candidateCount] = beamIndex;
+            candidateTokens[candidateCount] = topTokens[k];
+            candidateLogprobs[candidateCount] = beam.logprob() + topLogits[k] - logSumExp;
+            candidateCount++;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package org.beehive.gpullama3.inference;
+
+import org.beehive.gpullama3.auxiliary.LastRunMetrics;
+import org.beehive.gpullama3.auxiliary.MetricsRecorder;
+import org.beehive.gpullama3.inference.sampler.DeviceSampler;
+import org.beehive.gpullama3.inference.sampler.Sampler;
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.state.StatePool;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.model.format.ChatFormat;
+import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Embeddable generation API, for running concurrent generations over one loaded {@link Model}.
+ *
+ * <p>The model (weights, tokenizer, configuration) is shared and only read; everything a generation mutates is owned by the session: the
+ * {@link State} (activations and KV cache), the sampler with its scratch buffers and RNG, the TornadoVM plan on the GPU path and the
+ * {@link #metrics() metrics}. Sessions are independent and can run on different threads at the same time; a single session runs one
+ * generation at a time, concurrent calls on it wait for each other.</p>
+ *
+ * <pre>{@code
+ * try (GenerationSession session = GenerationSession.builder(model).temperature(0.7f).maxTokens(512).build()) {
+ *     String answer = session.generate("Why is the sky blue?");
+ * }
+ * }</pre>
+ *
+ * <p>Each generation starts from an empty context. With layer streaming, generations of all the sessions of the model are serialized, as
+ * the streamed layers are consumed in order.</p>
+ */
+public final class GenerationSession implements AutoCloseable {
+
+    /**
+     * A generated token and its text; the text is empty for tokens that are not displayed (e.g. special tokens).
+     */
+    public record Token(int id, String text) {
+    }
+
+    private final Model model;
+    private final Sampler sampler;
+    private final String systemPrompt;
+    private final int maxTokens;
+    private final boolean useTornadovm;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StatePool statePool;
+    private final State state;
+    private final MetricsRecorder recorder;
+    private TornadoVMMasterPlan tornadoVMPlan; // guarded by lock, created on first use
+    private volatile LastRunMetrics metrics;
+    private boolean closed; // guarded by lock
+
+    private GenerationSession(Builder builder) {
+        this.model = builder.model;
+        if (builder.deviceSampling && !builder.useTornadovm) {
+            throw new IllegalArgumentException("Device sampling requires TornadoVM");
+        }
+        this.sampler = builder.sampler != null ? builder.sampler
+                : builder.deviceSampling ? new DeviceSampler(model.configuration().vocabularySize(), builder.temperature, builder.topp, builder.seed)
+                : Sampler.selectSampler(model.configuration().vocabularySize(), builder.temperature, builder.topp, builder.seed);
+        this.systemPrompt = builder.systemPrompt;
+        this.maxTokens = builder.maxTokens;
+        this.useTornadovm = builder.useTornadovm;
+        this.executor = builder.executor;
+        this.statePool = builder.statePool;
+        this.recorder = new MetricsRecorder(builder.modelRecorder);
+        this.state = statePool != null ? statePool.acquire() : model.createNewState();
+    }
+
+    public static Builder builder(Model model) {
+        return new Builder(model);
+    }
+
+    /**
+     * Generates the answer to a user prompt, formatted with the chat template of the model.
+     *
+     * @return the generated text, without the stop token
+     */
+    public String generate(String prompt) {
+        List<Integer> tokens = new ArrayList<>(generateTokens(encodePrompt(prompt), null));
+        if (!tokens.isEmpty() && model.chatFormat().getStopTokens().contains(tokens.getLast())) {
+            tokens.removeLast();
+        }
+        return model.tokenizer().decode(tokens);
+    }
+
+    /**
+     * Generates {@code n} answers to a user prompt, ingesting the prompt once, see {@link InferenceEngine#generateCompletions}. CPU only.
+     *
+     * @return the generated texts, without their stop tokens
+     */
+    public List<String> generate(String prompt, int n) {
+        if (useTornadovm) {
+            throw new UnsupportedOperationException("n completions on TornadoVM");
+        }
+        List<Integer> promptTokens = encodePrompt(prompt);
+        List<List<Integer>> completions;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Session is closed");
+            }
+            long startNanos = System.nanoTime();
+            state.reset();
+            sampler.begin(promptTokens);
+            completions = exclusiveIfStreaming(() -> InferenceEngine.generateCompletions(model, state, 0, promptTokens, model.chatFormat().getStopTokens(), maxTokens, sampler, n));
+            metrics = new LastRunMetrics(promptTokens.size() + completions.stream().mapToInt(List::size).sum(), (System.nanoTime() - startNanos) / 1_000_000_000.0);
+        } finally {
+            lock.unlock();
+        }
+        List<String> texts = new ArrayList<>(n);
+        for (List<Integer> completion : completions) {
+            List<Integer> tokens = new ArrayList<>(completion);
+            if (!tokens.isEmpty() && model.chatFormat().getStopTokens().contains(tokens.getLast())) {
+                tokens.removeLast();
+            }
+            texts.add(model.tokenizer().decode(tokens));
+        }
+        return texts;
+    }
+
+    /**
+     * Generates from raw prompt tokens, no chat template is applied.
+     *
+     * @param onTokenGenerated
+     *         called on the generating thread for every generated token, may be {@code null}
+     * @return the generated tokens, including the stop token if one was generated
+     */
+    public List<Integer> generateTokens(List<Integer> promptTokens, IntConsumer onTokenGenerated) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Session is closed");
+            }
+            Set<Integer> stopTokens = model.chatFormat().getStopTokens();
+            long startNanos = System.nanoTime();
+            TimedConsumer timed = new TimedConsumer(onTokenGenerated, recorder);
+            // every generation starts from an empty context
+            state.reset();
+            List<Integer> generated = exclusiveIfStreaming(() -> run(promptTokens, stopTokens, timed));
+            long endNanos = System.nanoTime();
+            long timeToFirstTokenNanos = timed.firstTokenNanos == 0 ? 0 : timed.firstTokenNanos - startNanos;
+            recorder.recordRequest(promptTokens.size(), generated.size(), timeToFirstTokenNanos, endNanos - startNanos);
+            metrics = new LastRunMetrics(promptTokens.size() + generated.size(), (endNanos - startNanos) / 1_000_000_000.0, promptTokens.size(),
+                    timeToFirstTokenNanos / 1_000_000_000.0);
+            return generated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Times the generated tokens on their way to the callback of the caller. Keeps the generation stoppable if the callback is.
+     */
+    private static final class TimedConsumer implements StoppableConsumer {
+        private final IntConsumer delegate;
+        private final MetricsRecorder recorder;
+        long firstTokenNanos;
+        private long lastTokenNanos;
+
+        TimedConsumer(IntConsumer delegate, MetricsRecorder recorder) {
+            this.delegate = delegate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void accept(int token) {
+            long now = System.nanoTime();
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = now;
+            } else {
+                recorder.recordInterTokenLatency(now - lastTokenNanos);
+            }
+            lastTokenNanos = now;
+            if (delegate != null) {
+                delegate.accept(token);
+            }
+        }
+
+        @Override
+        public boolean isStopped() {
+            return delegate instanceof StoppableConsumer stoppable && stoppable.isStopped();
+        }
+    }
+
+    /** Streamed layers are consumed in order, so generations over a layer-streamed model cannot overlap, whatever their session. */
+    private <T> T exclusiveIfStreaming(Supplier<T> generation) {
+        if (model.weights() instanceof StandardWeights weights && weights.isLayerStreaming()) {
+            synchronized (weights) {
+                return generation.get();
+            }
+        }
+        return generation.get();
+    }
+
+    private List<Integer> run(List<Integer> promptTokens, Set<Integer> stopTokens, IntConsumer onTokenGenerated) {
+        sampler.begin(promptTokens);
+        if (useTornadovm) {
+            if (tornadoVMPlan == null) {
+                tornadoVMPlan = TornadoVMMasterPlan.initializeTornadoVMPlan(state, model);
+            }
+            return model.generateTokensGPU(state, 0, promptTokens, stopTokens, maxTokens, sampler, false, onTokenGenerated, tornadoVMPlan);
+        }
+        return model.generateTokens(state, 0, promptTokens, stopTokens, maxTokens, sampler, false, onTokenGenerated);
+    }
+
+    /**
+     * Streams the answer to a user prompt. The publisher is cold: every subscription runs its own generation, on the executor of the
+     * session, and generations of the same session are queued. Tokens are delivered with back-pressure, the generation waits when the
+     * subscriber falls behind by more than {@link Flow#defaultBufferSize()} tokens, and cancelling the subscription ends it after the
+     * current token.
+     */
+    public Flow.Publisher<Token> stream(String prompt) {
+        List<Integer> promptTokens = encodePrompt(prompt);
+        return subscriber -> {
+            SubmissionPublisher<Token> publisher = new SubmissionPublisher<>(executor, Flow.defaultBufferSize());
+            publisher.subscribe(subscriber);
+            executor.execute(() -> {
+                try {
+                    generateTokens(promptTokens, new StoppableConsumer() {
+                        @Override
+                        public void accept(int token) {
+                            String text = model.tokenizer().shouldDisplayToken(token) ? model.tokenizer().decode(List.of(token)) : "";
+                            publisher.submit(new Token(token, text));
+                        }
+
+                        @Override
+                        public boolean isStopped() {
+                            return !publisher.hasSubscribers();
+                        }
+                    });
+                    publisher.close();
+                } catch (Throwable t) {
+                    publisher.closeExceptionally(t);
+                }
+            });
+        };
+    }
+
+    private List<Integer> encodePrompt(String prompt) {
+        ChatFormat chatFormat = model.chatFormat();
+        List<Integer> promptTokens = new ArrayList<>();
+        if (model.shouldAddBeginOfText()) {
+            promptTokens.add(chatFormat.getBeginOfText());
+        }
+        if (model.shouldAddSystemPrompt() && systemPrompt != null) {
+            promptTokens.addAll(chatFormat.encodeMessage(new ChatFormat.Message(ChatFormat.Role.SYSTEM, systemPrompt)));
+        }
+        promptTokens.addAll(chatFormat.encodeMessage(new ChatFormat.Message(ChatFormat.Role.USER, prompt)));
+        promptTokens.addAll(chatFormat.encodeHeader(new ChatFormat.Message(ChatFormat.Role.ASSISTANT, "")));
+        if (model.shouldIncludeReasoning()) {
+            promptTokens.addAll(model.tokenizer().encode("<think>\n", model.tokenizer().getSpecialTokens().keySet()));
+        }
+        return promptTokens;
+    }
+
+    /**
+     * Tokens and time of the last generation of this session, {@code null} before the first one.
+     */
+    public LastRunMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Latencies and throughputs of all the generations of this session, n completions excepted.
+     */
+    public MetricsRecorder recorder() {
+        return recorder;
+    }
+
+    public Model model() {
+        return model;
+    }
+
+    /**
+     * Frees the TornadoVM plan of the session and returns its state to the pool, waiting for a running generation to end. The shared model
+     * is left untouched.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (tornadoVMPlan != null) {
+                tornadoVMPlan.freeTornadoExecutionPlan();
+                tornadoVMPlan = null;
+            }
+            if (statePool != null) {
+                statePool.release(state);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static final class Builder {
+        private final Model model;
+        private float temperature = 0.1f;
+        private float topp = 0.95f;
+        private long seed = System.nanoTime();
+        private Sampler sampler;
+        private String systemPrompt;
+        private int maxTokens;
+        private boolean useTornadovm;
+        private boolean deviceSampling;
+        private Executor executor = task -> Thread.ofVirtual().name("generation").start(task);
+        private StatePool statePool;
+        private MetricsRecorder modelRecorder;
+
+        private Builder(Model model) {
+            this.model = Objects.requireNonNull(model);
+            this.maxTokens = model.configuration().contextLength();
+        }
+
+        public Builder temperature(float temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        public Builder topp(float topp) {
+            this.topp = topp;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Uses a custom sampler instead of temperature/top-p sampling. Samplers keep scratch buffers and RNG state, the sampler must not be
+         * shared with another session.
+         */
+        public Builder sampler(Sampler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
+        public Builder systemPrompt(String systemPrompt) {
+            this.systemPrompt = systemPrompt;
+            return this;
+        }
+
+        /**
+         * Maximum number of positions (prompt and generated tokens), at most the context length of the model.
+         */
+        public Builder maxTokens(int maxTokens) {
+            if (maxTokens <= 0 || maxTokens > model.configuration().contextLength()) {
+                throw new IllegalArgumentException("maxTokens must be in [1, " + model.configuration().contextLength() + "]: " + maxTokens);
+            }
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Runs on the GPU with TornadoVM; the session creates its own plan on first use and frees it on {@link GenerationSession#close()}.
+         */
+        public Builder useTornadovm(boolean useTornadovm) {
+            this.useTornadovm = useTornadovm;
+            return this;
+        }
+
+        /**
+         * Samples temperature/top-p on the GPU with a {@link DeviceSampler}: per token, only the top candidates are transferred instead of
+         * the logits. Requires {@link #useTornadovm(boolean)}; ignored with a custom {@link #sampler(Sampler)}.
+         */
+        public Builder deviceSampling(boolean deviceSampling) {
+            this.deviceSampling = deviceSampling;
+            return this;
+        }
+
+        /**
+         * Executor running the generations of {@link GenerationSession#stream(String)} and delivering their tokens, a new virtual thread per task by default.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Borrows the state of the session from a pool, and returns it on {@link GenerationSession#close()}, instead of allocating one per
+         * session.
+         *
+         * @throws IllegalArgumentException
+         *         if the pool serves another model
+         */
+        public Builder statePool(StatePool statePool) {
+            if (statePool != null && statePool.model() != model) {
+                throw new IllegalArgumentException("State pool of another model");
+            }
+            this.statePool = statePool;
+            return this;
+        }
+
+        /**
+         * Also records the metrics of the session in {@code modelRecorder}, usually shared by all the sessions of the model to aggregate
+         * them, e.g. {@code ModelRegistry.Lease.metrics()}.
+         */
+        public Builder metrics(MetricsRecorder modelRecorder) {
+            this.modelRecorder = modelRecorder;
+            return this;
+        }
+
+        public GenerationSession build() {
+            return new GenerationSession(this);
+        }
+    }
+}
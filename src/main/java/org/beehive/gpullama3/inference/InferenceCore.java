@@ -1,6 +1,9 @@
 package org.beehive.gpullama3.inference;
 
 import org.beehive.gpullama3.auxiliary.Parallel;
+import org.beehive.gpullama3.auxiliary.jfr.ForwardEvent;
+import org.beehive.gpullama3.auxiliary.jfr.LayerEvent;
+import org.beehive.gpullama3.tensor.standard.ArrayFloatTensor;
 import org.beehive.gpullama3.tensor.standard.FloatTensor;
 import org.beehive.gpullama3.inference.state.Phi3State;
 import org.beehive.gpullama3.inference.state.State;
@@ -11,6 +14,7 @@ import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
 import org.beehive.gpullama3.inference.weights.tornado.TornadoWeights;
 import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.model.ModelType;
 import org.beehive.gpullama3.model.phi3.Phi3Configuration;
 import org.beehive.gpullama3.model.qwen2.Qwen2Configuration;
 import org.beehive.gpullama3.model.qwen3.Qwen3Configuration;
@@ -39,6 +43,9 @@ import java.lang.foreign.MemorySegment;
 
 public final class InferenceCore {
 
+    /** Maximum number of prompt tokens going through a layer together in {@link #forwardJavaPrefill}. */
+    static final int PREFILL_BATCH_SIZE = 256;
+
     private InferenceCore() {
         // prevent instantiation
     }
@@ -55,130 +62,281 @@ public final class InferenceCore {
     }
 
     public static FloatTensor forwardJava(Model model, State state, int token, int position) {
+        ForwardEvent event = ForwardEvent.start(position, 1, false);
         // a few convenience variables
         final Configuration config = model.configuration();
         final StandardWeights weights = (StandardWeights) model.weights();
         int dim = config.dim();
-        int headSize = config.headSize();
-        int kvDim = (config.dim() * config.numberOfKeyValueHeads()) / config.numberOfHeads();
-        int kvMul = config.numberOfHeads() / config.numberOfKeyValueHeads(); // integer multiplier of the kv sharing in multiquery
-        float sqrtHeadSize = (float) Math.sqrt(headSize);
 
         // copy the token embedding into x
         weights.token_embedding_table.copyTo(token * dim, state.x, 0, dim);
 
         // forward all the layers
         for (int l = 0; l < config.numberOfLayers(); l++) {
-            // attention rmsnorm
-            rmsnorm(state.xb, state.x, weights.rms_att_weight[l], 0, dim, config.rmsNormEps());
+            // overlap the page faults of the next layer with this one
+            weights.prefetchLayer(l + 1);
+            weights.acquireLayer(l);
+            LayerEvent layerEvent = LayerEvent.start(l, position, 1);
+            forwardJavaLayer(config, weights, state, l, position);
+            layerEvent.commit();
+            weights.releaseLayer(l);
+        }
 
-            // qkv matmuls for this position
+        rmsnorm(state.x, state.x, weights.rms_final_weight, 0, dim, config.rmsNormEps());
+        // the first layer of the next token
+        weights.prefetchLayer(0);
 
-            weights.wq[l].matmul(state.xb, state.q, dim, dim);
-            weights.wk[l].matmul(state.xb, state.k, kvDim, dim);
-            weights.wv[l].matmul(state.xb, state.v, kvDim, dim);
+        weights.wcls.matmul(state.x, state.logits, config.vocabularySize(), dim);
 
-            // RoPE relative positional encoding: complex-valued rotate q and k in each head
-            for (int i = 0; i < dim; i += 2) {
-                int head_dim = i % headSize;
-                float fcr = weights.freq_cis_real.getFloat(position * (headSize / 2) + (head_dim / 2));
-                float fci = weights.freq_cis_imag.getFloat(position * (headSize / 2) + (head_dim / 2));
-                int rotn = i < kvDim ? 2 : 1; // how many vectors? 2 = q & k, 1 = q only
-                for (int v = 0; v < rotn; v++) {
-                    FloatTensor vec = v == 0 ? state.q : state.k; // the vector to rotate (query or key)
-                    float v0 = vec.getFloat(i);
-                    float v1 = vec.getFloat(i + 1);
-                    vec.setFloat(i, v0 * fcr - v1 * fci);
-                    vec.setFloat(i + 1, v0 * fci + v1 * fcr);
+        event.commit();
+        return state.logits;
+    }
+
+    /**
+     * Whether {@link #forwardJavaPrefill} and {@link #forwardJavaBatch} apply to a model: LLaMA and Mistral models on CPU.
+     */
+    public static boolean supportsPrefill(Model model) {
+        return model.weights() instanceof StandardWeights && (model.getModelType() == ModelType.LLAMA_3 || model.getModelType() == ModelType.MISTRAL);
+    }
+
+    /**
+     * Batched prompt ingestion (prefill) for LLaMA and Mistral models on CPU: forwards {@code tokens[0, length)} at positions
+     * {@code position, position + 1, ...}, filling the KV cache exactly like {@link #forwardJava} called once per token, but layer by layer.
+     * All the tokens of a batch go through a layer while its weights are resident, so with layer streaming every layer is read once per
+     * batch instead of once per token. No logits are computed.
+     */
+    public static void forwardJavaPrefill(Model model, State state, int[] tokens, int length, int position) {
+        final Configuration config = model.configuration();
+        final StandardWeights weights = (StandardWeights) model.weights();
+        int dim = config.dim();
+
+        FloatTensor[] xs = new FloatTensor[Math.min(length, PREFILL_BATCH_SIZE)];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = ArrayFloatTensor.allocate(dim);
+        }
+        for (int batchStart = 0; batchStart < length; batchStart += xs.length) {
+            int batchSize = Math.min(xs.length, length - batchStart);
+            ForwardEvent event = ForwardEvent.start(position + batchStart, batchSize, false);
+            for (int t = 0; t < batchSize; t++) {
+                weights.token_embedding_table.copyTo(tokens[batchStart + t] * dim, xs[t], 0, dim);
+            }
+            for (int l = 0; l < config.numberOfLayers(); l++) {
+                weights.prefetchLayer(l + 1);
+                weights.acquireLayer(l);
+                LayerEvent layerEvent = LayerEvent.start(l, position + batchStart, batchSize);
+                // in position order, attention at a position reads the KV cache entries just written for the previous ones
+                for (int t = 0; t < batchSize; t++) {
+                    xs[t].copyTo(0, state.x, 0, dim);
+                    forwardJavaLayer(config, weights, state, l, position + batchStart + t);
+                    state.x.copyTo(0, xs[t], 0, dim);
                 }
+                layerEvent.commit();
+                weights.releaseLayer(l);
             }
+            event.commit();
+        }
+    }
 
-            // save key,value at this time step (position) to our kv cache
-            //int loff = l * config.seq_len * kvDim;
-            // kv cache layer offset for convenience
-            state.k.copyTo(0, state.keyCache[l], position * kvDim, kvDim);
-            state.v.copyTo(0, state.valueCache[l], position * kvDim, kvDim);
+    /**
+     * Batched decoding for LLaMA and Mistral models on CPU: forwards {@code tokens[i]} in {@code states[i]}, for {@code i < count}, all at
+     * {@code position}, e.g. the branches of {@link InferenceEngine#generateCompletions} or the beams of {@link BeamSearch}. The states must
+     * not share their activation buffers, see {@link State#fork(int)}. Each projection, FFN and classifier matmul runs once over the
+     * activations of all the states, reading every weight row once per step instead of once per state; attention runs per state, on its
+     * own KV cache. The logits of each state are the ones {@link #forwardJava} computes.
+     */
+    public static void forwardJavaBatch(Model model, State[] states, int[] tokens, int count, int position) {
+        ForwardEvent event = ForwardEvent.start(position, count, false);
+        final Configuration config = model.configuration();
+        final StandardWeights weights = (StandardWeights) model.weights();
+        int dim = config.dim();
+        int kvDim = (config.dim() * config.numberOfKeyValueHeads()) / config.numberOfHeads();
+        int hiddenDim = config.hiddenDim();
+
+        FloatTensor[] xs = new FloatTensor[count];
+        FloatTensor[] xbs = new FloatTensor[count];
+        FloatTensor[] xb2s = new FloatTensor[count];
+        FloatTensor[] hbs = new FloatTensor[count];
+        FloatTensor[] hb2s = new FloatTensor[count];
+        FloatTensor[] qs = new FloatTensor[count];
+        FloatTensor[] ks = new FloatTensor[count];
+        FloatTensor[] vs = new FloatTensor[count];
+        FloatTensor[] logits = new FloatTensor[count];
+        for (int i = 0; i < count; i++) {
+            State state = states[i];
+            xs[i] = state.x;
+            xbs[i] = state.xb;
+            xb2s[i] = state.xb2;
+            hbs[i] = state.hb;
+            hb2s[i] = state.hb2;
+            qs[i] = state.q;
+            ks[i] = state.k;
+            vs[i] = state.v;
+            logits[i] = state.logits;
+            weights.token_embedding_table.copyTo(tokens[i] * dim, state.x, 0, dim);
+        }
 
-            int curLayer = l;
+        for (int l = 0; l < config.numberOfLayers(); l++) {
+            weights.prefetchLayer(l + 1);
+            weights.acquireLayer(l);
+            LayerEvent layerEvent = LayerEvent.start(l, position, count);
+            for (int i = 0; i < count; i++) {
+                rmsnorm(xbs[i], xs[i], weights.rms_att_weight[l], 0, dim, config.rmsNormEps());
+            }
+            weights.wq[l].matmul(count, xbs, qs, dim, dim);
+            weights.wk[l].matmul(count, xbs, ks, kvDim, dim);
+            weights.wv[l].matmul(count, xbs, vs, kvDim, dim);
+            for (int i = 0; i < count; i++) {
+                attention(config, weights, states[i], l, position);
+            }
+            weights.wo[l].matmul(count, xbs, xb2s, dim, dim);
+            for (int i = 0; i < count; i++) {
+                xs[i].addInPlace(xb2s[i]);
+                rmsnorm(xbs[i], xs[i], weights.rms_ffn_weight[l], 0, dim, config.rmsNormEps());
+            }
+            weights.w1[l].matmul(count, xbs, hbs, hiddenDim, dim);
+            weights.w3[l].matmul(count, xbs, hb2s, hiddenDim, dim);
+            for (int i = 0; i < count; i++) {
+                hbs[i].mapInPlace(value -> value / (float) (1.0 + Math.exp(-value)));
+                hbs[i].multiplyInPlace(hb2s[i]);
+            }
+            weights.w2[l].matmul(count, hbs, xbs, dim, hiddenDim);
+            for (int i = 0; i < count; i++) {
+                xs[i].addInPlace(xbs[i]);
+            }
+            layerEvent.commit();
+            weights.releaseLayer(l);
+        }
 
-            // multihead attention. iterate over all heads
-            Parallel.parallelFor(0, config.numberOfHeads(), h -> {
-                // get the query vector for this head
-                // float* q = s.q + h * headSize;
-                int qOffset = h * headSize;
+        for (int i = 0; i < count; i++) {
+            rmsnorm(xs[i], xs[i], weights.rms_final_weight, 0, dim, config.rmsNormEps());
+        }
+        weights.prefetchLayer(0);
+        weights.wcls.matmul(count, xs, logits, config.vocabularySize(), dim);
+        event.commit();
+    }
 
-                // attention scores for this head
-                // float* att = s.att + h * config.seq_len;
-                int attOffset = h * config.contextLength();
+    private static void forwardJavaLayer(Configuration config, StandardWeights weights, State state, int l, int position) {
+        int dim = config.dim();
+        int kvDim = (config.dim() * config.numberOfKeyValueHeads()) / config.numberOfHeads();
 
-                // iterate over all timesteps, including the current one
-                for (int t = 0; t <= position; t++) {
-                    // get the key vector for this head and at this timestep
-                    // float* k = s.key_cache + loff + t * dim + h * headSize;
-                    int keyCacheOffset = /* loff + */ t * kvDim + (h / kvMul) * headSize;
-                    // calculate the attention score as the dot product of q and k
-                    float score = state.q.dot(qOffset, state.keyCache[curLayer], keyCacheOffset, headSize);
-                    score /= sqrtHeadSize;
-                    // save the score to the attention buffer
-                    state.att.setFloat(attOffset + t, score);
-                }
+        // attention rmsnorm
+        rmsnorm(state.xb, state.x, weights.rms_att_weight[l], 0, dim, config.rmsNormEps());
 
-                // softmax the scores to get attention weights, from 0..position inclusively
-                state.att.softmaxInPlace(attOffset, position + 1);
+        // qkv matmuls for this position
 
-                // weighted sum of the values, store back into xb
-                // float* xb = s.xb + h * headSize;
-                int xbOffset = h * headSize;
-                // memset(xb, 0, headSize * sizeof(float));
-                state.xb.fillInPlace(xbOffset, headSize, 0f);
+        weights.wq[l].matmul(state.xb, state.q, dim, dim);
+        weights.wk[l].matmul(state.xb, state.k, kvDim, dim);
+        weights.wv[l].matmul(state.xb, state.v, kvDim, dim);
 
-                for (int t = 0; t <= position; t++) {
-                    // get the value vector for this head and at this timestep
-                    // float* v = s.value_cache + loff + t * dim + h * headSize;
-                    int vOffset = /* loff + */ t * kvDim + (h / kvMul) * headSize;
-                    // get the attention weight for this timestep
-                    float a = state.att.getFloat(attOffset + t);
-                    // accumulate the weighted value into xb
-                    state.xb.saxpyInPlace(xbOffset, state.valueCache[curLayer], vOffset, headSize, a);
-                }
-            });
+        attention(config, weights, state, l, position);
 
-            // final matmul to get the output of the attention
-            weights.wo[l].matmul(state.xb, state.xb2, dim, dim);
+        // final matmul to get the output of the attention
+        weights.wo[l].matmul(state.xb, state.xb2, dim, dim);
 
-            // residual connection back into x
-            state.x.addInPlace(state.xb2);
+        // residual connection back into x
+        state.x.addInPlace(state.xb2);
 
-            // ffn rmsnorm
-            rmsnorm(state.xb, state.x, weights.rms_ffn_weight[l], 0, dim, config.rmsNormEps());
+        // ffn rmsnorm
+        rmsnorm(state.xb, state.x, weights.rms_ffn_weight[l], 0, dim, config.rmsNormEps());
 
-            // Now for FFN in PyTorch we have: self.w2(F.silu(self.w1(x)) * self.w3(x))
-            // first calculate self.w1(x) and self.w3(x)
-            weights.w1[l].matmul(state.xb, state.hb, config.hiddenDim(), dim);
-            weights.w3[l].matmul(state.xb, state.hb2, config.hiddenDim(), dim);
+        // Now for FFN in PyTorch we have: self.w2(F.silu(self.w1(x)) * self.w3(x))
+        // first calculate self.w1(x) and self.w3(x)
+        weights.w1[l].matmul(state.xb, state.hb, config.hiddenDim(), dim);
+        weights.w3[l].matmul(state.xb, state.hb2, config.hiddenDim(), dim);
 
-            // SwiGLU non-linearity
-            // silu(x)=x*σ(x), where σ(x) is the logistic sigmoid
-            state.hb.mapInPlace(value -> value / (float) (1.0 + Math.exp(-value)));
+        // SwiGLU non-linearity
+        // silu(x)=x*σ(x), where σ(x) is the logistic sigmoid
+        state.hb.mapInPlace(value -> value / (float) (1.0 + Math.exp(-value)));
 
-            // elementwise multiply with w3(x)
-            state.hb.multiplyInPlace(state.hb2);
+        // elementwise multiply with w3(x)
+        state.hb.multiplyInPlace(state.hb2);
 
-            // final matmul to get the output of the ffn
-            weights.w2[l].matmul(state.hb, state.xb, dim, config.hiddenDim());
+        // final matmul to get the output of the ffn
+        weights.w2[l].matmul(state.hb, state.xb, dim, config.hiddenDim());
 
-            // residual connection
-            state.x.addInPlace(state.xb);
-        }
+        // residual connection
+        state.x.addInPlace(state.xb);
+    }
 
-        rmsnorm(state.x, state.x, weights.rms_final_weight, 0, dim, config.rmsNormEps());
+    /**
+     * RoPE on {@code state.q} and {@code state.k}, stores the key and value of {@code position} in the KV cache of layer {@code l}, and
+     * writes the multihead attention over positions {@code 0..position} into {@code state.xb}.
+     */
+    private static void attention(Configuration config, StandardWeights weights, State state, int l, int position) {
+        int dim = config.dim();
+        int headSize = config.headSize();
+        int kvDim = (config.dim() * config.numberOfKeyValueHeads()) / config.numberOfHeads();
+        int kvMul = config.numberOfHeads() / config.numberOfKeyValueHeads(); // integer multiplier of the kv sharing in multiquery
+        float sqrtHeadSize = (float) Math.sqrt(headSize);
 
-        weights.wcls.matmul(state.x, state.logits, config.vocabularySize(), dim);
+        // RoPE relative positional encoding: complex-valued rotate q and k in each head
+        for (int i = 0; i < dim; i += 2) {
+            int head_dim = i % headSize;
+            float fcr = weights.freq_cis_real.getFloat(position * (headSize / 2) + (head_dim / 2));
+            float fci = weights.freq_cis_imag.getFloat(position * (headSize / 2) + (head_dim / 2));
+            int rotn = i < kvDim ? 2 : 1; // how many vectors? 2 = q & k, 1 = q only
+            for (int v = 0; v < rotn; v++) {
+                FloatTensor vec = v == 0 ? state.q : state.k; // the vector to rotate (query or key)
+                float v0 = vec.getFloat(i);
+                float v1 = vec.getFloat(i + 1);
+                vec.setFloat(i, v0 * fcr - v1 * fci);
+                vec.setFloat(i + 1, v0 * fci + v1 * fcr);
+            }
+        }
 
-        return state.logits;
+        // save key,value at this time step (position) to our kv cache
+        //int loff = l * config.seq_len * kvDim;
+        // kv cache layer offset for convenience
+        state.k.copyTo(0, state.keyCache[l], position * kvDim, kvDim);
+        state.v.copyTo(0, state.valueCache[l], position * kvDim, kvDim);
+
+        int curLayer = l;
+
+        // multihead attention. iterate over all heads
+        Parallel.parallelFor(0, config.numberOfHeads(), h -> {
+            // get the query vector for this head
+            // float* q = s.q + h * headSize;
+            int qOffset = h * headSize;
+
+            // attention scores for this head
+            // float* att = s.att + h * config.seq_len;
+            int attOffset = h * config.contextLength();
+
+            // iterate over all timesteps, including the current one
+            for (int t = 0; t <= position; t++) {
+                // get the key vector for this head and at this timestep
+                // float* k = s.key_cache + loff + t * dim + h * headSize;
+                int keyCacheOffset = /* loff + */ t * kvDim + (h / kvMul) * headSize;
+                // calculate the attention score as the dot product of q and k
+                float score = state.q.dot(qOffset, state.keyCache[curLayer], keyCacheOffset, headSize);
+                score /= sqrtHeadSize;
+                // save the score to the attention buffer
+                state.att.setFloat(attOffset + t, score);
+            }
+
+            // softmax the scores to get attention weights, from 0..position inclusively
+            state.att.softmaxInPlace(attOffset, position + 1);
+
+            // weighted sum of the values, store back into xb
+            // float* xb = s.xb + h * headSize;
+            int xbOffset = h * headSize;
+            // memset(xb, 0, headSize * sizeof(float));
+            state.xb.fillInPlace(xbOffset, headSize, 0f);
+
+            for (int t = 0; t <= position; t++) {
+                // get the value vector for this head and at this timestep
+                // float* v = s.value_cache + loff + t * dim + h * headSize;
+                int vOffset = /* loff + */ t * kvDim + (h / kvMul) * headSize;
+                // get the attention weight for this timestep
+                float a = state.att.getFloat(attOffset + t);
+                // accumulate the weighted value into xb
+                state.xb.saxpyInPlace(xbOffset, state.valueCache[curLayer], vOffset, headSize, a);
+            }
+        });
     }
 
     public static FloatTensor forwardJavaQwen2(Model model, State state, int token, int position) {
+        ForwardEvent event = ForwardEvent.start(position, 1, false);
         final Qwen2Configuration config = (Qwen2Configuration) model.configuration();
         final Qwen2StandardWeights weights = (Qwen2StandardWeights) model.weights();
         int dim = config.dim();
@@ -191,6 +349,10 @@ public final class InferenceCore {
 
         // forward all the layers
         for (int l = 0; l < config.numberOfLayers(); l++) {
+            // overlap the page faults of the next layer with this one
+            weights.prefetchLayer(l + 1);
+            weights.acquireLayer(l);
+            LayerEvent layerEvent = LayerEvent.start(l, position, 1);
             // attention rmsnorm
             final int curLayer = l;
             rmsnorm(state.xb, state.x, weights.rms_att_weight[curLayer], 0, dim, config.rmsNormEps());
@@ -297,19 +459,24 @@ public final class InferenceCore {
 
             // residual connection
             state.x.addInPlace(state.xb);
-
+            layerEvent.commit();
+            weights.releaseLayer(l);
         }
 
         // final rmsnorm
         rmsnorm(state.x, state.x, weights.rms_final_weight, 0, dim, config.rmsNormEps());
+        // the first layer of the next token
+        weights.prefetchLayer(0);
 
         // classifier into logits
         weights.wcls.matmul(state.x, state.logits, config.vocabularySize(), dim);
 
+        event.commit();
         return state.logits;
     }
 
     public static FloatTensor forwardJavaQwen3(Model model, State state, int token, int position) {
+        ForwardEvent event = ForwardEvent.start(position, 1, false);
         // a few convenience variables
         final Qwen3Configuration config = (Qwen3Configuration) model.configuration();
         final Qwen3StandardWeights weights = (Qwen3StandardWeights) model.weights();
@@ -328,6 +495,10 @@ public final class InferenceCore {
 
         // forward all the layers
         for (int l = 0; l < config.numberOfLayers(); l++) {
+            // overlap the page faults of the next layer with this one
+            weights.prefetchLayer(l + 1);
+            weights.acquireLayer(l);
+            LayerEvent layerEvent = LayerEvent.start(l, position, 1);
             // attention rmsnorm
             final int curLayer = l;
             rmsnorm(state.xb, state.x, weights.rms_att_weight[curLayer], 0, dim, config.rmsNormEps());
@@ -432,18 +603,24 @@ public final class InferenceCore {
 
             // residual connection
             state.x.addInPlace(state.xb);
+            layerEvent.commit();
+            weights.releaseLayer(l);
         }
 
         // final rmsnorm
         rmsnorm(state.x, state.x, weights.rms_final_weight, 0, dim, config.rmsNormEps());
+        // the first layer of the next token
+        weights.prefetchLayer(0);
 
         // classifier into logits
         weights.wcls.matmul(state.x, state.logits, config.vocabularySize(), dim);
 
+        event.commit();
         return state.logits;
     }
 
     public static FloatTensor forwardJavaPhi3(Model model, Phi3State state, int token, int position) {
+        ForwardEvent event = ForwardEvent.start(position, 1, false);
         Phi3Configuration config = (Phi3Configuration) model.configuration();
         Phi3StandardWeights weights = (Phi3StandardWeights) model.weights();
         int dim = config.dim();
@@ -460,6 +637,10 @@ public final class InferenceCore {
 
         // forward all the layers
         for (int l = 0; l < config.numberOfLayers(); l++) {
+            // overlap the page faults of the next layer with this one
+            weights.prefetchLayer(l + 1);
+            weights.acquireLayer(l);
+            LayerEvent layerEvent = LayerEvent.start(l, position, 1);
             rmsnorm(state.xb, state.x, weights.rms_att_weight[l], 0, dim, config.rmsNormEps());
 
             weights.wqkv[l].matmul(state.xb, state.qkv, opSize, dim);
@@ -535,14 +716,19 @@ public final class InferenceCore {
             weights.wDown[l].matmul(state.hbU, state.xb, dim, config.hiddenDim());
 
             state.x.addInPlace(state.xb);
+            layerEvent.commit();
+            weights.releaseLayer(l);
         }
 
         // final rmsnorm
         rmsnorm(state.x, state.x, weights.rms_final_weight, 0, dim, config.rmsNormEps());
+        // the first layer of the next token
+        weights.prefetchLayer(0);
 
         // classifier into logits
         weights.wcls.matmul(state.x, state.logits, config.vocabularySize(), dim);
 
+        event.commit();
         return state.logits;
     }
 
@@ -585,7 +771,35 @@ public final class InferenceCore {
 
         MemorySegment.copy(weights.getTokenEmbeddingTable().asFloatArray().getSegment(), (long) token * configuration.dim() * Float.BYTES, state.wrapX.getSegment(), 0, configuration.dim() * Float.BYTES);
 
-        return tornadoVMMasterPlan.tornadoVMForwardExecuteLayered(position);
+        ForwardEvent event = ForwardEvent.start(position, 1, true);
+        FloatArray logits = tornadoVMMasterPlan.tornadoVMForwardExecuteLayered(position);
+        event.commit();
+        return logits;
+    }
+
+    /**
+     * Batched prompt ingestion (prefill) on TornadoVM, for the plans that {@link TornadoVMMasterPlan#supportsPrefill() support it}: forwards
+     * {@code tokens[0, length)} at positions {@code position, position + 1, ...} in blocks of up to
+     * {@link TornadoVMMasterPlan#getPrefillBatchSize()} positions, filling the KV cache like {@link #forwardTornadoVM} called once per token.
+     * No logits are computed.
+     */
+    public static void forwardTornadoVMPrefill(Model model, State state, int[] tokens, int length, int position, TornadoVMMasterPlan tornadoVMMasterPlan) {
+        final Configuration configuration = model.configuration();
+        final TornadoWeights weights = (TornadoWeights) model.weights();
+        int dim = configuration.dim();
+        MemorySegment embeddings = weights.getTokenEmbeddingTable().asFloatArray().getSegment();
+        MemorySegment batch = tornadoVMMasterPlan.getPrefillEmbeddings().getSegment();
+
+        int maxBatchSize = tornadoVMMasterPlan.getPrefillBatchSize();
+        for (int batchStart = 0; batchStart < length; batchStart += maxBatchSize) {
+            int batchSize = Math.min(maxBatchSize, length - batchStart);
+            for (int t = 0; t < batchSize; t++) {
+                MemorySegment.copy(embeddings, (long) tokens[batchStart + t] * dim * Float.BYTES, batch, (long) t * dim * Float.BYTES, (long) dim * Float.BYTES);
+            }
+            ForwardEvent event = ForwardEvent.start(position + batchStart, batchSize, true);
+            tornadoVMMasterPlan.tornadoVMForwardPrefill(position + batchStart, batchSize);
+            event.commit();
+        }
     }
 
 }
@@ -1,8 +1,11 @@
 package org.beehive.gpullama3.inference;
 
 import org.beehive.gpullama3.auxiliary.LastRunMetrics;
+import org.beehive.gpullama3.auxiliary.jfr.SampleEvent;
+import org.beehive.gpullama3.inference.sampler.DeviceSampler;
 import org.beehive.gpullama3.inference.sampler.Sampler;
 import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
 import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.tokenizer.Tokenizer;
@@ -38,6 +41,41 @@ public final class InferenceEngine {
         //prevent instantiation
     }
 
+    /**
+     * Whether the token callback asked to end generation: a {@link StopSequenceStreamer} that saw a stop string complete, or the stream of a
+     * {@link GenerationSession} whose subscriber cancelled. Stop strings may span several tokens, so they are matched on the decoded text by the callback rather than on token ids.
+     */
+    private static boolean stopSequenceCompleted(IntConsumer onTokenGenerated) {
+        return onTokenGenerated instanceof StoppableConsumer consumer && consumer.isStopped();
+    }
+
+    /** Samples a token, recorded as a {@link SampleEvent}. */
+    /**
+     * Forwards {@code tokens[i]} in {@code states[i]}, for {@code i < count}, at {@code position}: in one batch where
+     * {@link InferenceCore#forwardJavaBatch} applies, one state at a time otherwise.
+     */
+    static void forwardBatch(Model model, State[] states, int[] tokens, int count, int position) {
+        if (count > 1 && InferenceCore.supportsPrefill(model)) {
+            InferenceCore.forwardJavaBatch(model, states, tokens, count, position);
+        } else {
+            for (int i = 0; i < count; i++) {
+                model.forward(states[i], tokens[i], position);
+            }
+        }
+    }
+
+    private static int sample(Sampler sampler, Object logits) {
+        return SampleEvent.start(sampler).end(sampler.sampleToken(logits));
+    }
+
+    /** Samples a token on TornadoVM, from the candidates selected on the device for a {@link DeviceSampler}. */
+    private static int sample(Sampler sampler, State state, FloatArray logits, TornadoVMMasterPlan tornadoVMPlan) {
+        if (sampler instanceof DeviceSampler deviceSampler) {
+            return SampleEvent.start(sampler).end(deviceSampler.sampleToken(state, tornadoVMPlan));
+        }
+        return sample(sampler, logits);
+    }
+
     /**
      * LLM generation entry point, ingest prompt tokens and generates new tokens.
      *
@@ -61,7 +99,8 @@ public final class InferenceEngine {
      * @param echo
      *         debugging flag, prints ALL, prompt and inferred tokens, to {@link System#err stderr}
      * @param onTokenGenerated
-     *         callback, if non-null, it's called every time a token is inferred e.g. it's not called when ingesting prompt tokens
+     *         callback, if non-null, it's called every time a token is inferred e.g. it's not called when ingesting prompt tokens; a {@link StopSequenceStreamer}
+     *         additionally ends generation as soon as one of its stop strings completes
      * @return list of generated/inferred tokens, including the stop token, if any e.g. does not include any token from the prompt
      */
     public static List<Integer> generateTokensLlama(Model model, State state, int startPosition, List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens, Sampler sampler, boolean echo,
@@ -85,6 +124,27 @@ public final class InferenceEngine {
         int promptIndex = 0;
         int pos = startPosition;
 
+        // with layer streaming, ingest the prompt layer by layer, reading every layer once per batch instead of once per token
+        if (model.weights() instanceof StandardWeights weights && weights.isLayerStreaming() && !promptTokens.isEmpty()) {
+            // the same forwards as the loop below would do: the latest token and all but the last prompt token, without logits
+            int count = Math.min(promptTokens.size(), maxTokens - pos);
+            if (count > 0) {
+                int[] batch = new int[count];
+                batch[0] = currentToken;
+                for (int i = 1; i < count; i++) {
+                    batch[i] = promptTokens.get(i - 1);
+                }
+                InferenceCore.forwardJavaPrefill(model, state, batch, count, pos);
+                if (echo) {
+                    System.err.print(Tokenizer.replaceControlCharacters(model.tokenizer().decode(promptTokens.subList(0, count))));
+                }
+                promptIndex = count;
+                currentToken = promptTokens.get(count - 1);
+                state.latestToken = currentToken;
+                pos += count;
+            }
+        }
+
         while (pos < maxTokens) {
 
             logits = InferenceCore.forwardJava(model, state, currentToken, pos);
@@ -103,7 +163,7 @@ public final class InferenceEngine {
                 }
 
                 // Sample the next token
-                nextToken = sampler.sampleToken(logits);
+                nextToken = sample(sampler, logits);
 
                 // Output the token if echo is enabled
                 if (echo) {
@@ -119,7 +179,7 @@ public final class InferenceEngine {
                 }
 
                 // Check for stop condition
-                if (stopTokens.contains(nextToken)) {
+                if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                     break;
                 }
             }
@@ -135,7 +195,7 @@ public final class InferenceEngine {
         double totalTimeSeconds = (endNanos - startNanos) / 1_000_000_000.0;
         int totalTokens = promptIndex + generatedTokens.size();
 
-        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
     }
@@ -187,7 +247,7 @@ public final class InferenceEngine {
             }
 
             // Sample the next token
-            nextToken = sampler.sampleToken(state.logits);
+            nextToken = sample(sampler, state.logits);
 
             // Output the token if echo is enabled
             if (echo) {
@@ -203,7 +263,7 @@ public final class InferenceEngine {
             }
 
             // Check for stop condition
-            if (stopTokens.contains(nextToken)) {
+            if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                 break;
             }
 
@@ -216,7 +276,7 @@ public final class InferenceEngine {
         double totalTimeSeconds = (endNanos - startNanos) / 1_000_000_000.0;
         int totalTokens = promptIndex + generatedTokens.size();
 
-        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
     }
@@ -225,6 +285,7 @@ public final class InferenceEngine {
             IntConsumer onTokenGenerated) {
 
         long startNanos = System.nanoTime();
+        long inferenceStartNanos = 0;
         if (maxTokens < 0 || model.configuration().contextLength() < maxTokens) {
             maxTokens = model.configuration().contextLength();
         }
@@ -245,7 +306,10 @@ public final class InferenceEngine {
                     System.err.print(Tokenizer.replaceControlCharacters(model.tokenizer().decode(List.of(nextToken))));
                 }
             } else {
-                nextToken = sampler.sampleToken(state.logits);
+                if (inferenceStartNanos == 0) {
+                    inferenceStartNanos = System.nanoTime();
+                }
+                nextToken = sample(sampler, state.logits);
                 if (echo) {
                     // log inferred token
                     System.err.print(Tokenizer.replaceControlCharacters(model.tokenizer().decode(List.of(nextToken))));
@@ -254,7 +318,7 @@ public final class InferenceEngine {
                 if (onTokenGenerated != null) {
                     onTokenGenerated.accept(nextToken);
                 }
-                if (stopTokens.contains(nextToken)) {
+                if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                     break;
                 }
             }
@@ -269,7 +333,7 @@ public final class InferenceEngine {
         double totalTimeSeconds = (endNanos - startNanos) / 1_000_000_000.0;
         int totalTokens = promptIndex + generatedTokens.size();
 
-        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
 
@@ -305,6 +369,29 @@ public final class InferenceEngine {
             }
         }
 
+        DeviceSampler.configure(sampler, tornadoVMPlan);
+
+        // ingest the prompt in blocks of positions with the batched prefill graphs, reading every weight once per block instead of once per token
+        if (tornadoVMPlan.supportsPrefill() && !promptTokens.isEmpty()) {
+            // the same forwards as the loop below would do: the latest token and all but the last prompt token, without logits
+            int count = Math.min(promptTokens.size(), actualMaxTokens - pos);
+            if (count > 0) {
+                int[] batch = new int[count];
+                batch[0] = currentToken;
+                for (int i = 1; i < count; i++) {
+                    batch[i] = promptTokens.get(i - 1);
+                }
+                InferenceCore.forwardTornadoVMPrefill(model, state, batch, count, pos, tornadoVMPlan);
+                if (echo) {
+                    System.err.print(Tokenizer.replaceControlCharacters(model.tokenizer().decode(promptTokens.subList(0, count))));
+                }
+                promptIndex = count;
+                currentToken = promptTokens.get(count - 1);
+                state.latestToken = currentToken;
+                pos += count;
+            }
+        }
+
         // Main generation loop
         while (pos < actualMaxTokens) {
             // GPU Forward Pass - No conditional check since we know we're using GPU
@@ -326,8 +413,8 @@ public final class InferenceEngine {
                     inferenceStartNanos = System.nanoTime();
                 }
 
-                // Sample next token - use GPU sampling if available
-                nextToken = sampler.sampleToken(logits);
+                // Sample next token - on the device for a DeviceSampler
+                nextToken = sample(sampler, state, logits, tornadoVMPlan);
 
                 // Add token consumer support
                 if (onTokenGenerated != null) {
@@ -343,7 +430,7 @@ public final class InferenceEngine {
                 generatedTokens.add(nextToken);
 
                 // Check stop condition
-                if (stopTokens.contains(nextToken)) {
+                if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                     break;
                 }
             }
@@ -360,7 +447,7 @@ public final class InferenceEngine {
         int totalTokens = promptIndex + generatedTokens.size();
 
         // Set metrics for tokens achieved
-        LastRunMetrics.setMetrics(totalTokens, totalSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
     }
@@ -394,6 +481,8 @@ public final class InferenceEngine {
             }
         }
 
+        DeviceSampler.configure(sampler, tornadoVMPlan);
+
         for (int position = startPosition; position < maxTokens; ++position) {
 
             // Handle token processing
@@ -423,7 +512,7 @@ public final class InferenceEngine {
             }
 
             // Sample the next token
-            nextToken = sampler.sampleToken(state.wrapLogits);
+            nextToken = sample(sampler, state, state.wrapLogits, tornadoVMPlan);
 
             // Output the token if echo is enabled
             if (echo) {
@@ -439,7 +528,7 @@ public final class InferenceEngine {
             }
 
             // Check for stop condition
-            if (stopTokens.contains(nextToken)) {
+            if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                 break;
             }
 
@@ -452,7 +541,7 @@ public final class InferenceEngine {
         double totalTimeSeconds = (endNanos - startNanos) / 1_000_000_000.0;
         int totalTokens = promptIndex + generatedTokens.size();
 
-        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
     }
@@ -477,6 +566,8 @@ public final class InferenceEngine {
         int promptIndex = 0;
         int pos = startPosition;
 
+        DeviceSampler.configure(sampler, tornadoVMPlan);
+
         while (pos < maxTokens) {
             // GPU Forward Pass
             FloatArray logits = InferenceCore.forwardTornadoVM(model, state, currentToken, pos, tornadoVMPlan);
@@ -495,7 +586,7 @@ public final class InferenceEngine {
                 }
 
                 // Sample the next token
-                nextToken = sampler.sampleToken(logits);
+                nextToken = sample(sampler, state, logits, tornadoVMPlan);
 
                 // Output the token if echo is enabled
                 if (echo) {
@@ -511,7 +602,7 @@ public final class InferenceEngine {
                 }
 
                 // Check for stop condition
-                if (stopTokens.contains(nextToken)) {
+                if (stopTokens.contains(nextToken) || stopSequenceCompleted(onTokenGenerated)) {
                     break;
                 }
             }
@@ -527,8 +618,109 @@ public final class InferenceEngine {
         double totalTimeSeconds = (endNanos - startNanos) / 1_000_000_000.0;
         int totalTokens = promptIndex + generatedTokens.size();
 
-        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds);
+        LastRunMetrics.setMetrics(totalTokens, totalTimeSeconds, promptIndex, startNanos, inferenceStartNanos);
 
         return generatedTokens;
     }
-}
\ No newline at end of file
+
+    /**
+     * Generates {@code n} independent completions of one prompt, on CPU, for any model.
+     *
+     * <p>The prompt is ingested once; the state is then {@link State#fork(int) forked} copy-on-write, so the branches share the KV cache pages
+     * of the prompt and only copy the pages they write. The branches are decoded in lockstep, one token of each per position, until every
+     * branch produced a stop token or {@code maxTokens} is reached; the active branches of a position go through the weights together,
+     * see {@link InferenceCore#forwardJavaBatch}. Each branch samples with its own {@link Sampler#fork() fork} of {@code sampler}, so
+     * penalties and grammars follow the tokens of that branch only, while the shared random generator makes the completions differ.</p>
+     *
+     * @param state
+     *         state of the model, mutated by this call; on return it is the state of the last completion
+     * @return the {@code n} lists of generated tokens, each including its stop token, if any
+     * @see #generateTokensLlama
+     */
+    public static List<List<Integer>> generateCompletions(Model model, State state, int startPosition, List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens, Sampler sampler,
+            int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        long startNanos = System.nanoTime();
+        if (maxTokens < 0 || model.configuration().contextLength() < maxTokens) {
+            maxTokens = model.configuration().contextLength();
+        }
+        List<List<Integer>> completions = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            completions.add(new ArrayList<>());
+        }
+
+        // ingest the prompt once: the latest token and all the prompt tokens, the last forward yields the logits of the first generated token
+        int pos = startPosition;
+        int currentToken = state.latestToken;
+        int promptIndex = 0;
+        while (promptIndex < promptTokens.size() && pos < maxTokens) {
+            model.forward(state, currentToken, pos++);
+            currentToken = promptTokens.get(promptIndex++);
+        }
+        if (pos >= maxTokens) {
+            return completions;
+        }
+        model.forward(state, currentToken, pos++);
+
+        State[] branches = new State[n];
+        Sampler[] samplers = new Sampler[n];
+        int[] tokens = new int[n];
+        boolean[] active = new boolean[n];
+        int remaining = n;
+        // the forks copy the logits of the prompt before any sampler modifies them
+        for (int b = 0; b < n - 1; b++) {
+            branches[b] = state.fork(pos);
+        }
+        branches[n - 1] = state;
+        try {
+            for (int b = 0; b < n; b++) {
+                samplers[b] = b < n - 1 ? sampler.fork() : sampler;
+                tokens[b] = sample(samplers[b], branches[b].logits);
+                completions.get(b).add(tokens[b]);
+                branches[b].latestToken = tokens[b];
+                active[b] = !stopTokens.contains(tokens[b]);
+                if (!active[b]) {
+                    remaining--;
+                }
+            }
+
+            State[] batch = new State[n];
+            int[] batchTokens = new int[n];
+            int[] batchBranches = new int[n];
+            for (; remaining > 0 && pos < maxTokens; pos++) {
+                int count = 0;
+                for (int b = 0; b < n; b++) {
+                    if (active[b]) {
+                        batch[count] = branches[b];
+                        batchTokens[count] = tokens[b];
+                        batchBranches[count++] = b;
+                    }
+                }
+                forwardBatch(model, batch, batchTokens, count, pos);
+                for (int i = 0; i < count; i++) {
+                    int b = batchBranches[i];
+                    tokens[b] = sample(samplers[b], branches[b].logits);
+                    completions.get(b).add(tokens[b]);
+                    branches[b].latestToken = tokens[b];
+                    if (stopTokens.contains(tokens[b])) {
+                        active[b] = false;
+                        remaining--;
+                    }
+                }
+            }
+        } finally {
+            // the last branch is the state itself, the forks release their pages
+            for (int b = 0; b < n - 1; b++) {
+                if (branches[b] != null) {
+                    branches[b].discard();
+                }
+            }
+        }
+
+        double totalTimeSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        LastRunMetrics.setMetrics(promptIndex + completions.stream().mapToInt(List::size).sum(), totalTimeSeconds);
+        return completions;
+    }
+}
@@ -0,0 +1,118 @@
+package org.beehive.gpullama3.inference;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental Aho-Corasick matcher over the UTF-8 bytes of a set of stop strings.
+ *
+ * <p>The automaton is compiled into a dense transition table, so feeding a byte is a single array lookup regardless of the number of stop
+ * strings. The current state is the longest suffix of the text fed so far that is also a prefix of some stop string; its length,
+ * {@link #pending()}, is the amount of text that cannot be released yet because a stop string may still complete.</p>
+ */
+public final class StopSequenceMatcher {
+
+    private final int[] transitions; // state * 256 + byte -> state
+    private final int[] depth;
+    private final int[] matchLength; // length of the longest stop string ending in this state, 0 if none
+
+    private int state;
+
+    public StopSequenceMatcher(List<String> stopSequences) {
+        List<byte[]> patterns = new ArrayList<>();
+        for (String stop : stopSequences) {
+            if (stop == null || stop.isEmpty()) {
+                throw new IllegalArgumentException("Stop sequences must not be empty");
+            }
+            patterns.add(stop.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // trie
+        int maxStates = 1 + patterns.stream().mapToInt(p -> p.length).sum();
+        int[] goTo = new int[maxStates * 256];
+        Arrays.fill(goTo, -1);
+        int[] depths = new int[maxStates];
+        int[] matches = new int[maxStates];
+        int states = 1;
+        for (byte[] pattern : patterns) {
+            int s = 0;
+            for (byte b : pattern) {
+                int index = s * 256 + (b & 0xFF);
+                if (goTo[index] == -1) {
+                    depths[states] = depths[s] + 1;
+                    goTo[index] = states++;
+                }
+                s = goTo[index];
+            }
+            matches[s] = pattern.length;
+        }
+
+        // failure links, folded into a complete transition table in BFS order
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int b = 0; b < 256; b++) {
+            int next = goTo[b];
+            if (next == -1) {
+                goTo[b] = 0;
+            } else {
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            if (matches[s] == 0) {
+                matches[s] = matches[fail[s]];
+            }
+            for (int b = 0; b < 256; b++) {
+                int next = goTo[s * 256 + b];
+                if (next == -1) {
+                    goTo[s * 256 + b] = goTo[fail[s] * 256 + b];
+                } else {
+                    fail[next] = goTo[fail[s] * 256 + b];
+                    queue.add(next);
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(goTo, states * 256);
+        this.depth = Arrays.copyOf(depths, states);
+        this.matchLength = Arrays.copyOf(matches, states);
+    }
+
+    /**
+     * Feeds bytes until a stop string completes.
+     *
+     * @return the number of bytes consumed including the one completing a stop string, or {@code -1} if none completed and all bytes were
+     *         consumed
+     */
+    public int feed(byte[] bytes, int offset, int length) {
+        int s = state;
+        for (int i = 0; i < length; i++) {
+            s = transitions[(s << 8) + (bytes[offset + i] & 0xFF)];
+            if (matchLength[s] != 0) {
+                state = s;
+                return i + 1;
+            }
+        }
+        state = s;
+        return -1;
+    }
+
+    /** Length in bytes of the stop string that completed in the last {@link #feed}. */
+    public int matchedLength() {
+        return matchLength[state];
+    }
+
+    /** Number of trailing bytes fed so far that may be the beginning of a stop string. */
+    public int pending() {
+        return depth[state];
+    }
+
+    public void reset() {
+        state = 0;
+    }
+}
@@ -0,0 +1,130 @@
+package org.beehive.gpullama3.inference;
+
+import org.beehive.gpullama3.tokenizer.Tokenizer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Token callback for {@link InferenceEngine} that stops generation on stop strings spanning any number of tokens.
+ *
+ * <p>Every displayable generated token is decoded and its UTF-8 bytes are fed to a {@link StopSequenceMatcher}. Text is forwarded to the
+ * downstream consumer as soon as it can no longer be part of a stop string; the bytes that may still start one are held back. When a stop
+ * string completes, the text before it is released, the stop string (and whatever followed it in the same token) is dropped and
+ * {@link #isStopped()} turns true, which the generation loops check right after invoking the callback. {@link #tokensBeforeStop()} tells
+ * which generated tokens lie before the stop string, e.g. to keep them in a conversation history.</p>
+ *
+ * <p>Not reusable across generations without {@link #reset()}.</p>
+ */
+public final class StopSequenceStreamer implements StoppableConsumer {
+
+    private final Tokenizer tokenizer;
+    private final StopSequenceMatcher matcher;
+    private final Consumer<String> downstream;
+    private final ByteArrayOutputStream heldBack = new ByteArrayOutputStream();
+    private final StringBuilder text = new StringBuilder();
+    private final List<Integer> tokenEnds = new ArrayList<>(); // offset of the end of every token in the decoded bytes
+    private int decodedBytes;
+    private int stopStart;
+    private boolean stopped;
+
+    /**
+     * @param downstream
+     *         receives the released text, may be {@code null} when only {@link #text()} is needed
+     */
+    public StopSequenceStreamer(Tokenizer tokenizer, List<String> stopSequences, Consumer<String> downstream) {
+        this.tokenizer = tokenizer;
+        this.matcher = new StopSequenceMatcher(stopSequences);
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(int token) {
+        if (stopped) {
+            return;
+        }
+        if (!tokenizer.shouldDisplayToken(token)) {
+            tokenEnds.add(decodedBytes);
+            return;
+        }
+        byte[] bytes = tokenizer.decode(List.of(token)).getBytes(StandardCharsets.UTF_8);
+        int consumed = matcher.feed(bytes, 0, bytes.length);
+        if (consumed >= 0) {
+            stopped = true;
+            stopStart = decodedBytes + consumed - matcher.matchedLength();
+            // the stop string ends at `consumed`, it starts in this token or in the held-back bytes
+            int keep = heldBack.size() + consumed - matcher.matchedLength();
+            byte[] all = heldBack.toByteArray();
+            heldBack.reset();
+            heldBack.write(all, 0, Math.min(keep, all.length));
+            if (keep > all.length) {
+                heldBack.write(bytes, 0, keep - all.length);
+            }
+            release(heldBack.size());
+            return;
+        }
+        heldBack.write(bytes, 0, bytes.length);
+        decodedBytes += bytes.length;
+        tokenEnds.add(decodedBytes);
+        release(heldBack.size() - matcher.pending());
+    }
+
+    /**
+     * Number of generated tokens whose text ends before the stop string, all the tokens received if no stop string completed. The text of
+     * a token holding the start of the stop string is not part of them.
+     */
+    public int tokensBeforeStop() {
+        if (!stopped) {
+            return tokenEnds.size();
+        }
+        int count = 0;
+        while (count < tokenEnds.size() && tokenEnds.get(count) <= stopStart) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Whether a stop string completed; generation must end. */
+    @Override
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Releases the held-back text, to be called when generation ended for another reason (stop token, max tokens).
+     */
+    public void finish() {
+        release(heldBack.size());
+    }
+
+    /** All text released so far. */
+    public String text() {
+        return text.toString();
+    }
+
+    public void reset() {
+        matcher.reset();
+        heldBack.reset();
+        text.setLength(0);
+        tokenEnds.clear();
+        decodedBytes = 0;
+        stopped = false;
+    }
+
+    private void release(int length) {
+        if (length <= 0) {
+            return;
+        }
+        byte[] all = heldBack.toByteArray();
+        String released = new String(all, 0, length, StandardCharsets.UTF_8);
+        heldBack.reset();
+        heldBack.write(all, length, all.length - length);
+        text.append(released);
+        if (downstream != null) {
+            downstream.accept(released);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.beehive.gpullama3.inference;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Token callback that can end generation: the generation loops check {@link #isStopped()} right after invoking it.
+ */
+interface StoppableConsumer extends IntConsumer {
+
+    /** Whether generation must end. */
+    boolean isStopped();
+}
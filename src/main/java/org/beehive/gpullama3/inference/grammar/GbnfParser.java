@@ -0,0 +1,381 @@
+package org.beehive.gpullama3.inference.grammar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recursive-descent parser for GBNF grammars, see {@link Grammar#parse(String)}.
+ *
+ * <p>Groups, optionals and repetitions are desugared into auxiliary rules; repetitions become tail-recursive rules
+ * ({@code R ::= x R | ε}) so that the matcher's stacks do not grow with the number of repetitions.</p>
+ */
+final class GbnfParser {
+
+    private sealed interface Element permits Chars, Ref {
+    }
+
+    private record Chars(int[] ranges, boolean negated) implements Element {
+    }
+
+    private record Ref(int rule) implements Element {
+    }
+
+    private final String src;
+    private int pos;
+
+    private final Map<String, Integer> ruleIds = new HashMap<>();
+    private final List<String> ruleNames = new ArrayList<>();
+    private final List<List<List<Element>>> rules = new ArrayList<>();
+    private final Set<Integer> defined = new HashSet<>();
+
+    GbnfParser(String src) {
+        this.src = src;
+    }
+
+    Grammar parse() {
+        skipSpace(true);
+        while (pos < src.length()) {
+            String name = parseName();
+            skipSpace(false);
+            expect("::=");
+            skipSpace(true);
+            int id = ruleId(name);
+            if (!defined.add(id)) {
+                throw error("Duplicate rule '" + name + "'");
+            }
+            rules.set(id, parseAlternatives(false));
+            skipSpace(true);
+        }
+        for (int i = 0; i < ruleNames.size(); i++) {
+            if (!defined.contains(i)) {
+                throw new IllegalArgumentException("Invalid grammar: undefined rule '" + ruleNames.get(i) + "'");
+            }
+        }
+        Integer root = ruleIds.get("root");
+        if (root == null) {
+            throw new IllegalArgumentException("Invalid grammar: missing 'root' rule");
+        }
+        return flatten(root);
+    }
+
+    private List<List<Element>> parseAlternatives(boolean nested) {
+        List<List<Element>> alternatives = new ArrayList<>();
+        alternatives.add(parseSequence(nested));
+        while (true) {
+            int save = pos;
+            // an alternative may also start on the next line
+            skipSpace(true);
+            if (pos < src.length() && src.charAt(pos) == '|') {
+                pos++;
+                skipSpace(true);
+                alternatives.add(parseSequence(nested));
+            } else {
+                pos = save;
+                return alternatives;
+            }
+        }
+    }
+
+    private List<Element> parseSequence(boolean nested) {
+        List<Element> sequence = new ArrayList<>();
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            List<Element> atom;
+            if (c == '"') {
+                atom = parseLiteral();
+            } else if (c == '[') {
+                atom = List.of(parseCharClass());
+            } else if (c == '.') {
+                pos++;
+                atom = List.of(new Chars(new int[0], true));
+            } else if (c == '(') {
+                pos++;
+                skipSpace(true);
+                List<List<Element>> group = parseAlternatives(true);
+                skipSpace(true);
+                expect(")");
+                atom = List.of(new Ref(newRule("group", group)));
+            } else if (isNameChar(c)) {
+                int save = pos;
+                String name = parseName();
+                skipSpace(false);
+                if (src.startsWith("::=", pos)) {
+                    // start of the next rule on the same line is not allowed
+                    pos = save;
+                    throw error("Missing newline before rule '" + name + "'");
+                }
+                pos = save + name.length();
+                atom = List.of(new Ref(ruleId(name)));
+            } else {
+                break;
+            }
+            skipSpace(nested);
+            sequence.addAll(parsePostfix(atom, nested));
+        }
+        return sequence;
+    }
+
+    private List<Element> parsePostfix(List<Element> atom, boolean nested) {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == '*') {
+                pos++;
+                atom = star(atom);
+            } else if (c == '+') {
+                pos++;
+                List<Element> plus = new ArrayList<>(atom);
+                plus.addAll(star(atom));
+                atom = plus;
+            } else if (c == '?') {
+                pos++;
+                atom = List.of(new Ref(newRule("opt", List.of(atom, List.of()))));
+            } else if (c == '{') {
+                pos++;
+                skipSpace(false);
+                int min = parseInt();
+                int max = min;
+                skipSpace(false);
+                if (src.startsWith(",", pos)) {
+                    pos++;
+                    skipSpace(false);
+                    max = pos < src.length() && Character.isDigit(src.charAt(pos)) ? parseInt() : -1;
+                    skipSpace(false);
+                }
+                expect("}");
+                if (max != -1 && max < min) {
+                    throw error("Invalid repetition {" + min + "," + max + "}");
+                }
+                atom = repeat(atom, min, max);
+            } else {
+                break;
+            }
+            skipSpace(nested);
+        }
+        return atom;
+    }
+
+    /** {@code R ::= atom R | ε}, tail recursive. */
+    private List<Element> star(List<Element> atom) {
+        int rule = newRule("star", null);
+        List<Element> loop = new ArrayList<>(atom);
+        loop.add(new Ref(rule));
+        rules.set(rule, List.of(loop, List.of()));
+        return List.of(new Ref(rule));
+    }
+
+    private List<Element> repeat(List<Element> atom, int min, int max) {
+        List<Element> result = new ArrayList<>();
+        for (int i = 0; i < min; i++) {
+            result.addAll(atom);
+        }
+        if (max == -1) {
+            result.addAll(star(atom));
+            return result;
+        }
+        // nested optionals: (atom (atom (...)?)?)?
+        List<Element> tail = List.of();
+        for (int i = min; i < max; i++) {
+            List<Element> body = new ArrayList<>(atom);
+            body.addAll(tail);
+            tail = List.of(new Ref(newRule("rep", List.of(body, List.of()))));
+        }
+        result.addAll(tail);
+        return result;
+    }
+
+    private List<Element> parseLiteral() {
+        pos++; // opening quote
+        List<Element> literal = new ArrayList<>();
+        while (true) {
+            if (pos >= src.length()) {
+                throw error("Unterminated string literal");
+            }
+            if (src.charAt(pos) == '"') {
+                pos++;
+                return literal;
+            }
+            int cp = parseChar();
+            literal.add(new Chars(new int[]{cp, cp}, false));
+        }
+    }
+
+    private Chars parseCharClass() {
+        pos++; // opening bracket
+        boolean negated = false;
+        if (pos < src.length() && src.charAt(pos) == '^') {
+            negated = true;
+            pos++;
+        }
+        List<Integer> ranges = new ArrayList<>();
+        while (true) {
+            if (pos >= src.length()) {
+                throw error("Unterminated character class");
+            }
+            if (src.charAt(pos) == ']') {
+                pos++;
+                break;
+            }
+            int lo = parseChar();
+            int hi = lo;
+            if (pos + 1 < src.length() && src.charAt(pos) == '-' && src.charAt(pos + 1) != ']') {
+                pos++;
+                hi = parseChar();
+            }
+            ranges.add(lo);
+            ranges.add(hi);
+        }
+        return new Chars(ranges.stream().mapToInt(Integer::intValue).toArray(), negated);
+    }
+
+    private int parseChar() {
+        int cp = src.codePointAt(pos);
+        pos += Character.charCount(cp);
+        if (cp != '\\') {
+            return cp;
+        }
+        if (pos >= src.length()) {
+            throw error("Dangling escape");
+        }
+        char escaped = src.charAt(pos++);
+        return switch (escaped) {
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'x' -> parseHex(2);
+            case 'u' -> parseHex(4);
+            case 'U' -> parseHex(8);
+            case '\\', '"', '\'', '[', ']', '-', '^', '/' -> escaped;
+            default -> throw error("Unknown escape '\\" + escaped + "'");
+        };
+    }
+
+    private int parseHex(int digits) {
+        if (pos + digits > src.length()) {
+            throw error("Truncated hex escape");
+        }
+        try {
+            int value = Integer.parseInt(src, pos, pos + digits, 16);
+            pos += digits;
+            return value;
+        } catch (NumberFormatException e) {
+            throw error("Invalid hex escape");
+        }
+    }
+
+    private int parseInt() {
+        int start = pos;
+        while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("Expected a number");
+        }
+        return Integer.parseInt(src, start, pos, 10);
+    }
+
+    private String parseName() {
+        int start = pos;
+        while (pos < src.length() && isNameChar(src.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("Expected a rule name");
+        }
+        return src.substring(start, pos);
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    private void skipSpace(boolean newlineOk) {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == ' ' || c == '\t' || ((c == '\n' || c == '\r') && newlineOk)) {
+                pos++;
+            } else if (c == '#') {
+                while (pos < src.length() && src.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void expect(String token) {
+        if (!src.startsWith(token, pos)) {
+            throw error("Expected '" + token + "'");
+        }
+        pos += token.length();
+    }
+
+    /** Id of a named rule, referenced rules may be defined later. */
+    private int ruleId(String name) {
+        Integer id = ruleIds.get(name);
+        if (id == null) {
+            id = rules.size();
+            rules.add(null);
+            ruleNames.add(name);
+            ruleIds.put(name, id);
+        }
+        return id;
+    }
+
+    /** Adds an auxiliary rule; its alternatives may be set afterwards for self-referencing rules. */
+    private int newRule(String prefix, List<List<Element>> alternatives) {
+        int id = rules.size();
+        rules.add(alternatives);
+        ruleNames.add(prefix + "_" + id);
+        defined.add(id);
+        return id;
+    }
+
+    private IllegalArgumentException error(String message) {
+        int line = 1;
+        for (int i = 0; i < Math.min(pos, src.length()); i++) {
+            if (src.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new IllegalArgumentException("Invalid grammar at line " + line + ": " + message);
+    }
+
+    private Grammar flatten(int root) {
+        List<Element> elements = new ArrayList<>();
+        int[][] alternatives = new int[rules.size()][];
+        for (int rule = 0; rule < rules.size(); rule++) {
+            List<List<Element>> alts = rules.get(rule);
+            alternatives[rule] = new int[alts.size()];
+            for (int alt = 0; alt < alts.size(); alt++) {
+                alternatives[rule][alt] = elements.size();
+                elements.addAll(alts.get(alt));
+                elements.add(null); // END
+            }
+        }
+        int n = elements.size();
+        byte[] kinds = new byte[n];
+        int[] ruleRefs = new int[n];
+        int[][] ranges = new int[n][];
+        boolean[] negated = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            switch (elements.get(i)) {
+                case null -> kinds[i] = Grammar.END;
+                case Chars chars -> {
+                    kinds[i] = Grammar.CHARS;
+                    ranges[i] = chars.ranges();
+                    negated[i] = chars.negated();
+                }
+                case Ref ref -> {
+                    kinds[i] = Grammar.RULE;
+                    ruleRefs[i] = ref.rule();
+                }
+            }
+        }
+        return new Grammar(kinds, ruleRefs, ranges, negated, alternatives, ruleNames.toArray(String[]::new), root);
+    }
+}
@@ -0,0 +1,135 @@
+package org.beehive.gpullama3.inference.grammar;
+
+/**
+ * A compiled context-free grammar over Unicode code points, used to constrain generation.
+ *
+ * <p>Rules are flattened into a single element array, in the spirit of llama.cpp's GBNF grammars. Every alternative of a rule is a contiguous
+ * run of elements terminated by {@link #END}; an element either matches one code point against a set of ranges ({@link #CHARS}) or refers to
+ * another rule ({@link #RULE}). Repetitions, optionals and groups are desugared into auxiliary rules by the parser, so matching only deals
+ * with these three element kinds.</p>
+ *
+ * <p>Grammars are written in GBNF, see {@link #parse(String)}, or derived from a JSON schema, see {@link #fromJsonSchema(String)}.</p>
+ */
+public final class Grammar {
+
+    static final byte END = 0;
+    static final byte CHARS = 1;
+    static final byte RULE = 2;
+
+    private final byte[] kinds;
+    private final int[] ruleRefs;
+    private final int[][] ranges;
+    private final boolean[] negated;
+    private final int[][] alternatives;
+    private final String[] ruleNames;
+    private final int root;
+
+    Grammar(byte[] kinds, int[] ruleRefs, int[][] ranges, boolean[] negated, int[][] alternatives, String[] ruleNames, int root) {
+        this.kinds = kinds;
+        this.ruleRefs = ruleRefs;
+        this.ranges = ranges;
+        this.negated = negated;
+        this.alternatives = alternatives;
+        this.ruleNames = ruleNames;
+        this.root = root;
+    }
+
+    /**
+     * Parses a grammar in GBNF notation, the start symbol is the rule named {@code root}.
+     *
+     * <pre>
+     * root   ::= answer ws
+     * answer ::= "yes" | "no" | [0-9]+
+     * ws     ::= [ \t\n]*
+     * </pre>
+     *
+     * <p>Supported: string literals, character classes with ranges and negation ({@code [^a-z]}), {@code .}, groups, alternatives,
+     * {@code *}, {@code +}, {@code ?}, bounded repetitions {@code {m}}, {@code {m,}}, {@code {m,n}} and {@code #} comments.
+     * Left-recursive rules are rejected when matching.</p>
+     *
+     * @throws IllegalArgumentException
+     *         if the grammar is malformed
+     */
+    public static Grammar parse(String gbnf) {
+        return new GbnfParser(gbnf).parse();
+    }
+
+    /**
+     * Compiles a JSON schema into a grammar accepting the JSON documents valid under that schema.
+     *
+     * @throws IllegalArgumentException
+     *         if the schema is malformed or uses unsupported features
+     * @see JsonSchemaConverter
+     */
+    public static Grammar fromJsonSchema(String schema) {
+        return parse(JsonSchemaConverter.toGbnf(schema));
+    }
+
+    int root() {
+        return root;
+    }
+
+    byte kind(int element) {
+        return kinds[element];
+    }
+
+    int ruleRef(int element) {
+        return ruleRefs[element];
+    }
+
+    /** Start elements of the alternatives of a rule. */
+    int[] alternatives(int rule) {
+        return alternatives[rule];
+    }
+
+    String ruleName(int rule) {
+        return ruleNames[rule];
+    }
+
+    int ruleCount() {
+        return alternatives.length;
+    }
+
+    /**
+     * Whether the {@link #CHARS} element accepts the given code point.
+     */
+    boolean matches(int element, int codePoint) {
+        int[] r = ranges[element];
+        boolean inRange = false;
+        for (int i = 0; i < r.length; i += 2) {
+            if (r[i] <= codePoint && codePoint <= r[i + 1]) {
+                inRange = true;
+                break;
+            }
+        }
+        return inRange != negated[element];
+    }
+
+    /**
+     * Whether the {@link #CHARS} element accepts at least one code point of {@code [lo, hi]}.
+     */
+    boolean matchesAny(int element, int lo, int hi) {
+        int[] r = ranges[element];
+        if (!negated[element]) {
+            for (int i = 0; i < r.length; i += 2) {
+                if (r[i] <= hi && lo <= r[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // negated: look for a code point of [lo, hi] that no range covers
+        int cursor = lo;
+        boolean covered = true;
+        while (covered && cursor <= hi) {
+            covered = false;
+            for (int i = 0; i < r.length; i += 2) {
+                if (r[i] <= cursor && cursor <= r[i + 1]) {
+                    cursor = r[i + 1] + 1;
+                    covered = true;
+                }
+            }
+        }
+        return cursor <= hi;
+    }
+}
@@ -0,0 +1,44 @@
+package org.beehive.gpullama3.inference.grammar;
+
+import org.beehive.gpullama3.inference.sampler.LogitsBuffer;
+import org.beehive.gpullama3.inference.sampler.LogitsProcessor;
+
+/**
+ * {@link LogitsProcessor} stage restricting the candidates to the tokens a {@link GrammarMatcher} allows, see
+ * {@link org.beehive.gpullama3.inference.sampler.SamplerChain}.
+ *
+ * <p>Meant to be the first stage of a chain: after it, the buffer only holds grammar-valid candidates, usually a small fraction of the
+ * vocabulary, and the following stages only iterate those.</p>
+ */
+public final class GrammarConstraint implements LogitsProcessor {
+
+    private final GrammarMatcher matcher;
+
+    public GrammarConstraint(GrammarMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    @Override
+    public void process(LogitsBuffer buffer) {
+        buffer.retain(matcher.allowedTokens());
+    }
+
+    @Override
+    public void accept(int token) {
+        matcher.accept(token);
+    }
+
+    @Override
+    public LogitsProcessor fork() {
+        return new GrammarConstraint(matcher.fork());
+    }
+
+    @Override
+    public void reset() {
+        matcher.reset();
+    }
+
+    public GrammarMatcher matcher() {
+        return matcher;
+    }
+}
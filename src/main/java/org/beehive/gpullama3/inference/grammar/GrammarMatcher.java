@@ -0,0 +1,364 @@
+package org.beehive.gpullama3.inference.grammar;
+
+import org.beehive.gpullama3.tokenizer.Tokenizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the position of a generated sequence in a {@link Grammar} and tells which tokens of the vocabulary may come next.
+ *
+ * <p>The matcher is a pushdown automaton over the UTF-8 bytes of the text: a state is the set of parse stacks that are still alive, each
+ * stack top being a character element of the grammar, and the leading bits of a code point whose continuation bytes are still expected.
+ * Byte-level vocabularies split many non-ASCII characters over several tokens; such a token leaves the matcher inside the code point, and
+ * the stacks that cannot match any of its completions are pruned. States are interned, so a state reached again, e.g. the inside of a JSON
+ * string after any number of characters, is the same object, with its memoized byte transitions and token mask.</p>
+ *
+ * <p>The token mask of a state, a {@code long[]} bitset over the vocabulary, is computed lazily the first time the state is reached, by
+ * walking the token bytes in sorted order (a trie walk, shared prefixes are matched once) and pruning as soon as the grammar rejects a
+ * prefix. Afterwards, constraining a step costs a lookup of the memoized mask.</p>
+ *
+ * <p>Special tokens are never allowed; stop tokens are allowed exactly when the grammar accepts the sequence generated so far.</p>
+ */
+public final class GrammarMatcher {
+
+    /** Bound on rule expansions without consuming a character, guards against left recursion. */
+    private static final int MAX_EXPANSION_DEPTH = 1024;
+
+    /** An immutable parse stack; shared tails make pushing and copying O(1). */
+    private static final class Frame {
+        final int position;
+        final Frame parent;
+        final int hash;
+
+        Frame(int position, Frame parent) {
+            this.position = position;
+            this.parent = parent;
+            this.hash = 31 * (parent == null ? 0 : parent.hash) + position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Frame other) || hash != other.hash) {
+                return false;
+            }
+            Frame a = this;
+            Frame b = other;
+            while (a != null && b != null) {
+                if (a == b) {
+                    return true;
+                }
+                if (a.position != b.position) {
+                    return false;
+                }
+                a = a.parent;
+                b = b.parent;
+            }
+            return a == b;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private record StateKey(Set<Frame> stacks, boolean accepting, int partial, int remaining) {
+    }
+
+    private static final class MatcherState {
+        final Frame[] stacks;
+        final boolean accepting;
+        // leading bits of a code point, and the number of its UTF-8 continuation bytes still expected
+        final int partial;
+        final int remaining;
+        final Map<Integer, MatcherState> transitions = new HashMap<>(); // by byte
+        long[] mask;
+
+        MatcherState(Frame[] stacks, boolean accepting, int partial, int remaining) {
+            this.stacks = stacks;
+            this.accepting = accepting;
+            this.partial = partial;
+            this.remaining = remaining;
+        }
+
+        boolean isDead() {
+            return stacks.length == 0 && !accepting;
+        }
+    }
+
+    private final Grammar grammar;
+    private final int[][] tokenBytes; // unsigned
+    private final int[] sortedTokens;
+    private final long[] stopMask;
+    private final Map<StateKey, MatcherState> states;
+    private final MatcherState dead;
+    private final MatcherState initial;
+    private MatcherState current;
+
+    /**
+     * @param grammar
+     *         the grammar generated text must follow
+     * @param tokenBytes
+     *         UTF-8 bytes of every token, possibly part of a multi-byte character, {@code null} for tokens that must never be generated
+     * @param stopTokens
+     *         tokens allowed once the grammar is satisfied
+     */
+    public GrammarMatcher(Grammar grammar, byte[][] tokenBytes, Set<Integer> stopTokens) {
+        this.grammar = grammar;
+        this.states = new HashMap<>();
+        this.tokenBytes = new int[tokenBytes.length][];
+        int count = 0;
+        for (int i = 0; i < tokenBytes.length; i++) {
+            if (tokenBytes[i] != null && tokenBytes[i].length > 0 && !stopTokens.contains(i)) {
+                int[] bytes = new int[tokenBytes[i].length];
+                for (int k = 0; k < bytes.length; k++) {
+                    bytes[k] = Byte.toUnsignedInt(tokenBytes[i][k]);
+                }
+                this.tokenBytes[i] = bytes;
+                count++;
+            }
+        }
+        this.sortedTokens = new int[count];
+        for (int i = 0, j = 0; i < tokenBytes.length; i++) {
+            if (this.tokenBytes[i] != null) {
+                sortedTokens[j++] = i;
+            }
+        }
+        // trie order: lexicographic by bytes, a prefix comes before its extensions
+        Integer[] boxed = Arrays.stream(sortedTokens).boxed().toArray(Integer[]::new);
+        Arrays.sort(boxed, (a, b) -> Arrays.compare(this.tokenBytes[a], this.tokenBytes[b]));
+        for (int i = 0; i < boxed.length; i++) {
+            sortedTokens[i] = boxed[i];
+        }
+
+        this.stopMask = new long[(tokenBytes.length + 63) >>> 6];
+        for (int token : stopTokens) {
+            if (token >= 0 && token < tokenBytes.length) {
+                stopMask[token >>> 6] |= 1L << token;
+            }
+        }
+
+        Set<Frame> stacks = new HashSet<>();
+        boolean accepting = false;
+        for (int alternative : grammar.alternatives(grammar.root())) {
+            accepting |= expand(alternative, null, stacks, 0);
+        }
+        this.dead = intern(new HashSet<>(), false, 0, 0);
+        this.initial = intern(stacks, accepting, 0, 0);
+        this.current = initial;
+    }
+
+    private GrammarMatcher(GrammarMatcher other) {
+        this.grammar = other.grammar;
+        this.tokenBytes = other.tokenBytes;
+        this.sortedTokens = other.sortedTokens;
+        this.stopMask = other.stopMask;
+        this.states = other.states;
+        this.dead = other.dead;
+        this.initial = other.initial;
+        this.current = other.current;
+    }
+
+    /**
+     * Creates a matcher over the vocabulary of a tokenizer, see {@link Tokenizer#tokenBytes(int)}.
+     */
+    public static GrammarMatcher create(Grammar grammar, Tokenizer tokenizer, int vocabularySize, Set<Integer> stopTokens) {
+        byte[][] tokenBytes = new byte[vocabularySize][];
+        for (int i = 0; i < vocabularySize; i++) {
+            if (tokenizer.shouldDisplayToken(i)) {
+                tokenBytes[i] = tokenizer.tokenBytes(i);
+            }
+        }
+        return new GrammarMatcher(grammar, tokenBytes, stopTokens);
+    }
+
+    /**
+     * Returns the tokens allowed at the current position, as a bitset over the vocabulary. The array is cached, do not modify it.
+     */
+    public long[] allowedTokens() {
+        MatcherState state = current;
+        if (state.mask == null) {
+            long[] mask = new long[stopMask.length];
+            if (state.accepting) {
+                System.arraycopy(stopMask, 0, mask, 0, mask.length);
+            }
+            if (state.stacks.length > 0) {
+                collectTokens(state, 0, sortedTokens.length, 0, mask);
+            }
+            state.mask = mask;
+        }
+        return state.mask;
+    }
+
+    /**
+     * Advances the matcher past a generated token. A stop token completes the sequence and resets the matcher for the next one.
+     *
+     * @throws IllegalStateException
+     *         if the grammar does not allow the token at the current position
+     */
+    public void accept(int token) {
+        if ((stopMask[token >>> 6] & (1L << token)) != 0) {
+            if (!current.accepting) {
+                throw new IllegalStateException("Stop token " + token + " before the grammar is complete");
+            }
+            current = initial;
+            return;
+        }
+        int[] bytes = token < tokenBytes.length ? tokenBytes[token] : null;
+        if (bytes == null) {
+            throw new IllegalStateException("Token " + token + " cannot be matched by a grammar");
+        }
+        MatcherState state = current;
+        for (int b : bytes) {
+            state = advance(state, b);
+            if (state.isDead()) {
+                throw new IllegalStateException("Token " + token + " is not allowed by the grammar");
+            }
+        }
+        current = state;
+    }
+
+    /** Whether the text generated so far is a complete sentence of the grammar. */
+    public boolean isAccepting() {
+        return current.accepting;
+    }
+
+    /** Whether the grammar allows no further characters, only stop tokens. */
+    public boolean isComplete() {
+        return current.stacks.length == 0;
+    }
+
+    /** Whether the text generated so far ends inside a multi-byte character. */
+    public boolean isPartial() {
+        return current.remaining > 0;
+    }
+
+    public void reset() {
+        current = initial;
+    }
+
+    /**
+     * Returns a matcher at the same position that advances independently. The two share their memoized states, so they must be used from the
+     * same thread.
+     */
+    public GrammarMatcher fork() {
+        return new GrammarMatcher(this);
+    }
+
+    /** Trie walk over {@code sortedTokens[lo, hi)}, which share their first {@code depth} bytes. */
+    private void collectTokens(MatcherState state, int lo, int hi, int depth, long[] mask) {
+        int i = lo;
+        // tokens ending here sort first, the grammar accepted all their bytes
+        while (i < hi && tokenBytes[sortedTokens[i]].length == depth) {
+            int token = sortedTokens[i++];
+            mask[token >>> 6] |= 1L << token;
+        }
+        while (i < hi) {
+            int b = tokenBytes[sortedTokens[i]][depth];
+            int j = i + 1;
+            while (j < hi && tokenBytes[sortedTokens[j]][depth] == b) {
+                j++;
+            }
+            MatcherState next = advance(state, b);
+            if (!next.isDead()) {
+                collectTokens(next, i, j, depth + 1, mask);
+            }
+            i = j;
+        }
+    }
+
+    private MatcherState advance(MatcherState state, int b) {
+        MatcherState next = state.transitions.get(b);
+        if (next == null) {
+            next = step(state, b);
+            state.transitions.put(b, next);
+        }
+        return next;
+    }
+
+    /** Decodes UTF-8 one byte at a time: a complete code point advances the stacks, a lead or continuation byte waits for the next. */
+    private MatcherState step(MatcherState state, int b) {
+        if (state.remaining > 0) {
+            if ((b & 0xC0) != 0x80) {
+                return dead;
+            }
+            int partial = state.partial << 6 | (b & 0x3F);
+            return state.remaining == 1 ? advanceCodePoint(state, partial) : insideCodePoint(state, partial, state.remaining - 1);
+        }
+        if (b < 0x80) {
+            return advanceCodePoint(state, b);
+        } else if ((b & 0xE0) == 0xC0) {
+            return insideCodePoint(state, b & 0x1F, 1);
+        } else if ((b & 0xF0) == 0xE0) {
+            return insideCodePoint(state, b & 0x0F, 2);
+        } else if ((b & 0xF8) == 0xF0) {
+            return insideCodePoint(state, b & 0x07, 3);
+        }
+        return dead; // a continuation byte without its lead byte, or an invalid byte
+    }
+
+    /** The state inside a code point, keeping the stacks that accept one of the code points the expected bytes can complete. */
+    private MatcherState insideCodePoint(MatcherState state, int partial, int remaining) {
+        int lo = partial << (6 * remaining);
+        int hi = lo | ((1 << (6 * remaining)) - 1);
+        Set<Frame> stacks = new HashSet<>();
+        for (Frame stack : state.stacks) {
+            if (grammar.matchesAny(stack.position, lo, hi)) {
+                stacks.add(stack);
+            }
+        }
+        return stacks.isEmpty() ? dead : intern(stacks, false, partial, remaining);
+    }
+
+    private MatcherState advanceCodePoint(MatcherState state, int codePoint) {
+        Set<Frame> stacks = new HashSet<>();
+        boolean accepting = false;
+        for (Frame stack : state.stacks) {
+            if (grammar.matches(stack.position, codePoint)) {
+                accepting |= expand(stack.position + 1, stack.parent, stacks, 0);
+            }
+        }
+        return intern(stacks, accepting, 0, 0);
+    }
+
+    /**
+     * Expands the stack {@code (position, parent)} until its top is a character element.
+     *
+     * @return whether the stack can be emptied, i.e. the grammar accepts at this point
+     */
+    private boolean expand(int position, Frame parent, Set<Frame> out, int depth) {
+        if (depth > MAX_EXPANSION_DEPTH) {
+            throw new IllegalArgumentException("Grammar is left-recursive or nests rules too deeply");
+        }
+        switch (grammar.kind(position)) {
+            case Grammar.END -> {
+                return parent == null || expand(parent.position, parent.parent, out, depth + 1);
+            }
+            case Grammar.CHARS -> {
+                out.add(new Frame(position, parent));
+                return false;
+            }
+            default -> {
+                // tail call: when the reference ends its alternative there is nothing to return to
+                Frame continuation = grammar.kind(position + 1) == Grammar.END ? parent : new Frame(position + 1, parent);
+                boolean accepting = false;
+                for (int alternative : grammar.alternatives(grammar.ruleRef(position))) {
+                    accepting |= expand(alternative, continuation, out, depth + 1);
+                }
+                return accepting;
+            }
+        }
+    }
+
+    private MatcherState intern(Set<Frame> stacks, boolean accepting, int partial, int remaining) {
+        return states.computeIfAbsent(new StateKey(stacks, accepting, partial, remaining),
+                key -> new MatcherState(stacks.toArray(Frame[]::new), accepting, partial, remaining));
+    }
+}
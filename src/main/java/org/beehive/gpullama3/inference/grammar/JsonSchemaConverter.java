@@ -0,0 +1,464 @@
+package org.beehive.gpullama3.inference.grammar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates a JSON schema into a GBNF grammar, see {@link Grammar#fromJsonSchema(String)}.
+ *
+ * <p>Supported keywords: {@code type} (a single type or a list), {@code properties}/{@code required} (properties are emitted in declaration
+ * order, additional properties are not allowed), {@code items}, {@code minItems}/{@code maxItems}, {@code minLength}/{@code maxLength},
+ * {@code enum}, {@code const}, {@code anyOf}/{@code oneOf} and local {@code $ref}s into {@code #/definitions} or {@code #/$defs}.
+ * Other keywords (formats, patterns, numeric bounds) are ignored, so the output is well-formed but not necessarily fully valid JSON.</p>
+ */
+final class JsonSchemaConverter {
+
+    private static final String PRIMITIVES = """
+            ws ::= | " " | "\\n" [ \\t]{0,20}
+            char ::= [^"\\\\\\x7F\\x00-\\x1F] | "\\\\" (["\\\\/bfnrt] | "u" [0-9a-fA-F]{4})
+            string ::= "\\"" char* "\\"" ws
+            integral ::= "-"? ("0" | [1-9] [0-9]{0,15})
+            integer ::= integral ws
+            number ::= integral ("." [0-9]+)? ([eE] [-+]? [0-9]{1,3})? ws
+            boolean ::= ("true" | "false") ws
+            null ::= "null" ws
+            value ::= object | array | string | number | boolean | null
+            object ::= "{" ws ( string ":" ws value ("," ws string ":" ws value)* )? "}" ws
+            array ::= "[" ws ( value ("," ws value)* )? "]" ws
+            """;
+
+    private final Map<String, Object> root;
+    private final Map<String, String> rules = new LinkedHashMap<>();
+    private final Map<String, String> refRules = new HashMap<>();
+
+    private JsonSchemaConverter(Map<String, Object> root) {
+        this.root = root;
+    }
+
+    static String toGbnf(String schema) {
+        Object parsed = new JsonReader(schema).readDocument();
+        if (!(parsed instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException("Invalid JSON schema: expected an object");
+        }
+        @SuppressWarnings("unchecked") Map<String, Object> rootSchema = (Map<String, Object>) parsed;
+        JsonSchemaConverter converter = new JsonSchemaConverter(rootSchema);
+        String rootRule = converter.visit(rootSchema, "root");
+        StringBuilder sb = new StringBuilder();
+        if (!rootRule.equals("root")) {
+            sb.append("root ::= ").append(rootRule).append('\n');
+        }
+        converter.rules.forEach((name, body) -> sb.append(name).append(" ::= ").append(body).append('\n'));
+        sb.append(PRIMITIVES);
+        return sb.toString();
+    }
+
+    /**
+     * Emits the rules for a sub-schema and returns the name of the rule matching it.
+     */
+    @SuppressWarnings("unchecked")
+    private String visit(Object schemaNode, String name) {
+        if (schemaNode instanceof Boolean accept) {
+            if (!accept) {
+                throw new IllegalArgumentException("Unsupported JSON schema: 'false' schema at " + name);
+            }
+            return "value";
+        }
+        if (!(schemaNode instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException("Invalid JSON schema at " + name + ": expected an object");
+        }
+        Map<String, Object> schema = (Map<String, Object>) schemaNode;
+
+        if (schema.get("$ref") instanceof String ref) {
+            return visitRef(ref);
+        }
+        if (schema.containsKey("const")) {
+            return define(name, jsonLiteral(schema.get("const")) + " ws");
+        }
+        if (schema.get("enum") instanceof List<?> values) {
+            List<String> alternatives = new ArrayList<>();
+            for (Object value : values) {
+                alternatives.add(jsonLiteral(value));
+            }
+            return define(name, "(" + String.join(" | ", alternatives) + ") ws");
+        }
+        Object anyOf = schema.containsKey("anyOf") ? schema.get("anyOf") : schema.get("oneOf");
+        if (anyOf instanceof List<?> variants) {
+            List<String> alternatives = new ArrayList<>();
+            for (int i = 0; i < variants.size(); i++) {
+                alternatives.add(visit(variants.get(i), name + "-" + i));
+            }
+            return define(name, String.join(" | ", alternatives));
+        }
+
+        Object type = schema.get("type");
+        if (type instanceof List<?> types) {
+            List<String> alternatives = new ArrayList<>();
+            for (Object t : types) {
+                Map<String, Object> single = new LinkedHashMap<>(schema);
+                single.put("type", t);
+                alternatives.add(visit(single, name + "-" + t));
+            }
+            return define(name, String.join(" | ", alternatives));
+        }
+        if (type == null) {
+            type = schema.containsKey("properties") ? "object" : schema.containsKey("items") ? "array" : null;
+        }
+        if (type == null) {
+            return "value";
+        }
+        return switch (type.toString()) {
+            case "object" -> visitObject(schema, name);
+            case "array" -> visitArray(schema, name);
+            case "string" -> visitString(schema, name);
+            case "integer" -> "integer";
+            case "number" -> "number";
+            case "boolean" -> "boolean";
+            case "null" -> "null";
+            default -> throw new IllegalArgumentException("Unsupported JSON schema type: " + type);
+        };
+    }
+
+    private String visitRef(String ref) {
+        String cached = refRules.get(ref);
+        if (cached != null) {
+            return cached;
+        }
+        String prefix = ref.startsWith("#/definitions/") ? "#/definitions/" : ref.startsWith("#/$defs/") ? "#/$defs/" : null;
+        if (prefix == null) {
+            throw new IllegalArgumentException("Unsupported JSON schema $ref: " + ref);
+        }
+        String key = ref.substring(prefix.length());
+        Object definitions = root.get(prefix.substring(2, prefix.length() - 1));
+        if (!(definitions instanceof Map<?, ?> defs) || !defs.containsKey(key)) {
+            throw new IllegalArgumentException("Unresolved JSON schema $ref: " + ref);
+        }
+        // reserve the name first so that recursive references resolve to it
+        String ruleName = ruleName("ref-" + key);
+        refRules.put(ref, ruleName);
+        rules.put(ruleName, "");
+        String body = visit(defs.get(key), ruleName + "-body");
+        rules.put(ruleName, body);
+        return ruleName;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String visitObject(Map<String, Object> schema, String name) {
+        if (!(schema.get("properties") instanceof Map<?, ?> propertiesNode) || propertiesNode.isEmpty()) {
+            return "object";
+        }
+        Map<String, Object> properties = (Map<String, Object>) propertiesNode;
+        List<?> required = schema.get("required") instanceof List<?> list ? list : List.of();
+
+        List<String> keyValues = new ArrayList<>();
+        List<Boolean> isRequired = new ArrayList<>();
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            String valueRule = visit(property.getValue(), name + "-" + sanitize(property.getKey()));
+            keyValues.add(jsonLiteral(property.getKey()) + " ws \":\" ws " + valueRule);
+            isRequired.add(required.contains(property.getKey()));
+        }
+
+        // members(i, first) matches the properties i.. in order, `first` when no property was emitted yet (no leading comma)
+        String[][] memberRules = new String[keyValues.size() + 1][2];
+        for (int i = keyValues.size() - 1; i >= 0; i--) {
+            for (int first = 0; first < 2; first++) {
+                String separator = first == 1 ? "" : "\",\" ws ";
+                String rest = memberRules[i + 1][0];
+                String present = separator + keyValues.get(i) + (rest != null ? " " + rest : "");
+                String body;
+                if (isRequired.get(i)) {
+                    body = present;
+                } else {
+                    String absent = memberRules[i + 1][first];
+                    body = absent != null ? "(" + present + ") | " + absent : "(" + present + ")?";
+                }
+                memberRules[i][first] = define(name + "-members-" + i + (first == 1 ? "-first" : ""), body);
+            }
+        }
+        return define(name, "\"{\" ws " + memberRules[0][1] + " \"}\" ws");
+    }
+
+    private String visitArray(Map<String, Object> schema, String name) {
+        String item = schema.containsKey("items") ? visit(schema.get("items"), name + "-item") : "value";
+        int minItems = intValue(schema.get("minItems"), 0);
+        int maxItems = intValue(schema.get("maxItems"), -1);
+        String more = "(\",\" ws " + item + ")";
+        String tail;
+        if (maxItems == -1) {
+            tail = minItems <= 1 ? more + "*" : more + "{" + (minItems - 1) + ",}";
+        } else if (maxItems == 0) {
+            return define(name, "\"[\" ws \"]\" ws");
+        } else {
+            tail = more + "{" + Math.max(0, minItems - 1) + "," + (maxItems - 1) + "}";
+        }
+        String items = item + " " + tail;
+        return define(name, "\"[\" ws " + (minItems == 0 ? "(" + items + ")?" : items) + " \"]\" ws");
+    }
+
+    private String visitString(Map<String, Object> schema, String name) {
+        int minLength = intValue(schema.get("minLength"), 0);
+        int maxLength = intValue(schema.get("maxLength"), -1);
+        if (minLength == 0 && maxLength == -1) {
+            return "string";
+        }
+        String repetition = maxLength == -1 ? "{" + minLength + ",}" : "{" + minLength + "," + maxLength + "}";
+        return define(name, "\"\\\"\" char" + repetition + " \"\\\"\" ws");
+    }
+
+    private String define(String name, String body) {
+        String ruleName = name.equals("root") && !rules.containsKey("root") ? "root" : ruleName(name);
+        rules.put(ruleName, body);
+        return ruleName;
+    }
+
+    private String ruleName(String hint) {
+        String base = sanitize(hint);
+        if (base.isEmpty() || PRIMITIVES.contains("\n" + base + " ::=") || PRIMITIVES.startsWith(base + " ::=")) {
+            base = "r-" + base;
+        }
+        String candidate = base;
+        for (int i = 1; rules.containsKey(candidate) || candidate.equals("root") && !hint.equals("root"); i++) {
+            candidate = base + "-" + i;
+        }
+        return candidate;
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9-]+", "-");
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        return value instanceof Number number ? number.intValue() : defaultValue;
+    }
+
+    /** A GBNF literal matching the JSON serialization of a value. */
+    private static String jsonLiteral(Object value) {
+        return gbnfLiteral(toJson(value));
+    }
+
+    private static String gbnfLiteral(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof String s) {
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append("\\u%04x".formatted((int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+            return sb.append('"').toString();
+        }
+        if (value instanceof List<?> list) {
+            List<String> items = new ArrayList<>();
+            for (Object item : list) {
+                items.add(toJson(item));
+            }
+            return "[" + String.join(",", items) + "]";
+        }
+        if (value instanceof Map<?, ?> map) {
+            List<String> members = new ArrayList<>();
+            map.forEach((k, v) -> members.add(toJson(k) + ":" + toJson(v)));
+            return "{" + String.join(",", members) + "}";
+        }
+        if (value instanceof Double d && d == Math.rint(d) && !Double.isInfinite(d)) {
+            return Long.toString(d.longValue());
+        }
+        return value.toString();
+    }
+
+    /**
+     * Minimal JSON reader producing {@link Map}s, {@link List}s, {@link String}s, {@link Long}s, {@link Double}s, {@link Boolean}s and
+     * {@code null}. Only used to read schemas.
+     */
+    private static final class JsonReader {
+        private final String src;
+        private int pos;
+
+        JsonReader(String src) {
+            this.src = src;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos != src.length()) {
+                throw error("Trailing characters");
+            }
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (pos >= src.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = src.charAt(pos);
+            return switch (c) {
+                case '{' -> readObject();
+                case '[' -> readArray();
+                case '"' -> readString();
+                case 't' -> readKeyword("true", Boolean.TRUE);
+                case 'f' -> readKeyword("false", Boolean.FALSE);
+                case 'n' -> readKeyword("null", null);
+                default -> readNumber();
+            };
+        }
+
+        private Map<String, Object> readObject() {
+            pos++;
+            Map<String, Object> object = new LinkedHashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a member name");
+                }
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            pos++;
+            List<Object> array = new ArrayList<>();
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String readString() {
+            pos++;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= src.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = src.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= src.length()) {
+                    throw error("Unterminated string");
+                }
+                char escaped = src.charAt(pos++);
+                switch (escaped) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > src.length()) {
+                            throw error("Truncated unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(src, pos, pos + 4, 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escaped);
+                }
+            }
+        }
+
+        private Object readKeyword(String keyword, Object value) {
+            if (!src.startsWith(keyword, pos)) {
+                throw error("Unexpected token");
+            }
+            pos += keyword.length();
+            return value;
+        }
+
+        private Object readNumber() {
+            int start = pos;
+            while (pos < src.length() && "+-0123456789.eE".indexOf(src.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String number = src.substring(start, pos);
+            try {
+                return number.contains(".") || number.contains("e") || number.contains("E") ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + number + "'");
+            }
+        }
+
+        private char peek() {
+            return pos < src.length() ? src.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid JSON schema at offset " + pos + ": " + message);
+        }
+    }
+}
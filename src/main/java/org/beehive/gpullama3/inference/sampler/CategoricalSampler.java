@@ -7,13 +7,15 @@ import java.util.random.RandomGenerator;
 
 /**
  * A sampler that samples from a categorical distribution.
- * Supports both FloatTensor and FloatArray implementations.
+ * Supports FloatTensor, FloatArray and float[] implementations.
  */
 public record CategoricalSampler(RandomGenerator rng) implements Sampler {
 
     @Override
     public int sampleToken(Object tensor) {
-        if (tensor instanceof FloatTensor) {
+        if (tensor instanceof float[] probs) {
+            return sampleFromProbabilities(probs, probs.length);
+        } else if (tensor instanceof FloatTensor) {
             return sampleFromFloatTensor((FloatTensor) tensor);
         } else if (tensor instanceof FloatArray) {
             return sampleFromFloatArray((FloatArray) tensor);
@@ -32,13 +34,14 @@ public record CategoricalSampler(RandomGenerator rng) implements Sampler {
         // sample index from probabilities (they must sum to 1!)
         float random0to1 = rng.nextFloat(1f);
         float cdf = 0.0f;
-        for (int i = 0; i < logits.size(); i++) {
+        int n = Math.toIntExact(logits.size());
+        for (int i = 0; i < n; i++) {
             cdf += logits.getFloat(i);
             if (random0to1 < cdf) {
                 return i;
             }
         }
-        return logits.size() - 1; // in case of rounding errors
+        return n - 1; // in case of rounding errors
     }
 
     /**
@@ -59,4 +62,24 @@ public record CategoricalSampler(RandomGenerator rng) implements Sampler {
         }
         return logits.getSize() - 1; // in case of rounding errors
     }
-}
\ No newline at end of file
+
+    /**
+     * Sample from the first {@code n} entries of a float[] probability distribution.
+     *
+     * @param probs The probabilities
+     * @param n The number of valid entries
+     * @return The sampled token index
+     */
+    public int sampleFromProbabilities(float[] probs, int n) {
+        // sample index from probabilities (they must sum to 1!)
+        float random0to1 = rng.nextFloat(1f);
+        float cdf = 0.0f;
+        for (int i = 0; i < n; i++) {
+            cdf += probs[i];
+            if (random0to1 < cdf) {
+                return i;
+            }
+        }
+        return n - 1; // in case of rounding errors
+    }
+}
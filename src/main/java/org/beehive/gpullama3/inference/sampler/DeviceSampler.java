@@ -0,0 +1,142 @@
+package org.beehive.gpullama3.inference.sampler;
+
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
+import org.beehive.gpullama3.tornadovm.kernels.SamplingKernels;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Greedy, temperature and top-p sampling on TornadoVM from the candidates selected on the device, see
+ * {@link TornadoVMMasterPlan#setDeviceSampling}: per token, only the top {@link SamplingKernels#MAX_CANDIDATES} tokens and the softmax
+ * normalizer are transferred to the host instead of the logits of the whole vocabulary. Greedy sampling only needs the first candidate.
+ *
+ * <p>The tokens are drawn from the same distributions as {@link Sampler#selectSampler}. The candidates carry their exact probabilities,
+ * so a draw that lands within them is complete; otherwise, when the nucleus is larger than the candidates or a categorical draw lands in
+ * the tail, the logits are transferred on demand and the draw completes on the host.</p>
+ *
+ * <p>The generation loops on TornadoVM configure the plan with {@link #configure}. Elsewhere, {@link #sampleToken(Object)} samples the
+ * full logits on the host.</p>
+ */
+public final class DeviceSampler implements Sampler {
+
+    private final int vocabularySize;
+    private final float temperature;
+    private final float topp;
+    private final RandomGenerator rng;
+    private final float[] probabilities;
+    private final boolean[] isCandidate;
+    private final ToppSampler toppSampler;
+    private final CategoricalSampler categoricalSampler;
+
+    /**
+     * @see Sampler#selectSampler
+     */
+    public DeviceSampler(int vocabularySize, float temperature, float topp, long rngSeed) {
+        this.vocabularySize = vocabularySize;
+        this.temperature = temperature;
+        this.topp = topp;
+        this.rng = RandomGeneratorFactory.getDefault().create(rngSeed);
+        this.probabilities = new float[vocabularySize];
+        this.isCandidate = new boolean[vocabularySize];
+        this.toppSampler = 0 < topp && topp < 1 ? new ToppSampler(vocabularySize, topp, rng) : null;
+        this.categoricalSampler = new CategoricalSampler(rng);
+    }
+
+    /**
+     * Configures the device-side sampling of {@code plan} for {@code sampler}: the candidates of a {@link DeviceSampler}, the logits
+     * transferred every forward for any other sampler.
+     */
+    public static void configure(Sampler sampler, TornadoVMMasterPlan plan) {
+        if (sampler instanceof DeviceSampler deviceSampler) {
+            plan.setDeviceSampling(deviceSampler.candidates(), deviceSampler.temperature);
+        } else {
+            plan.setDeviceSampling(0, 1.0f);
+        }
+    }
+
+    /** Number of candidates selected on the device, a single one for greedy sampling. */
+    public int candidates() {
+        return temperature == 0.0f ? 1 : SamplingKernels.MAX_CANDIDATES;
+    }
+
+    /**
+     * Samples the next token from the last forward of {@code plan}, configured by {@link #configure}.
+     */
+    public int sampleToken(State state, TornadoVMMasterPlan plan) {
+        if (temperature == 0.0f) {
+            return state.samplingTokens.get(0);
+        }
+        float inverseTemperature = 1.0f / temperature;
+        float top = state.samplingValues.get(0);
+        float normalizer = state.samplingValues.get(SamplingKernels.MAX_CANDIDATES);
+        int count = 0;
+        while (count < SamplingKernels.MAX_CANDIDATES && state.samplingTokens.get(count) >= 0) {
+            probabilities[count] = (float) Math.exp((state.samplingValues.get(count) - top) * inverseTemperature) / normalizer;
+            count++;
+        }
+
+        if (toppSampler != null) {
+            // the candidates are sorted by descending probability: the nucleus is a prefix of them, unless it is larger
+            float cumulativeProb = 0.0f;
+            for (int last = 0; last < count; last++) {
+                cumulativeProb += probabilities[last];
+                if (cumulativeProb > topp) {
+                    float r = rng.nextFloat(1f) * cumulativeProb;
+                    float cdf = 0.0f;
+                    for (int i = 0; i <= last; i++) {
+                        cdf += probabilities[i];
+                        if (r < cdf) {
+                            return state.samplingTokens.get(i);
+                        }
+                    }
+                    return state.samplingTokens.get(last); // in case of rounding errors
+                }
+            }
+            return sampleToken(plan.fetchLogits());
+        }
+
+        float random0to1 = rng.nextFloat(1f);
+        float cdf = 0.0f;
+        for (int i = 0; i < count; i++) {
+            cdf += probabilities[i];
+            if (random0to1 < cdf) {
+                return state.samplingTokens.get(i);
+            }
+        }
+        // the draw lands in the tail: continue the cumulative distribution over the other tokens
+        FloatArray logits = plan.fetchLogits();
+        for (int i = 0; i < count; i++) {
+            isCandidate[state.samplingTokens.get(i)] = true;
+        }
+        int token = state.samplingTokens.get(count - 1);
+        for (int i = 0; i < vocabularySize; i++) {
+            if (!isCandidate[i]) {
+                token = i;
+                cdf += (float) Math.exp((logits.get(i) - top) * inverseTemperature) / normalizer;
+                if (random0to1 < cdf) {
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            isCandidate[state.samplingTokens.get(i)] = false;
+        }
+        return token; // the last token in case of rounding errors
+    }
+
+    /**
+     * Samples the full logits on the host, from the same distribution.
+     */
+    @Override
+    public int sampleToken(Object logits) {
+        if (temperature == 0.0f) {
+            return TENSOR_ARGMAX.sampleToken(logits);
+        }
+        SamplerUtils.copyLogits(logits, probabilities);
+        SamplerUtils.softmaxInPlace(probabilities, vocabularySize, temperature);
+        return toppSampler != null ? toppSampler.sampleFromProbabilities(probabilities, vocabularySize) : categoricalSampler.sampleFromProbabilities(probabilities, vocabularySize);
+    }
+}
@@ -0,0 +1,167 @@
+package org.beehive.gpullama3.inference.sampler;
+
+/**
+ * Reusable, full-vocabulary logits buffer the stages of a {@link SamplerChain} work on in-place.
+ *
+ * <p>Logits are always indexed by token id. The buffer starts out <em>dense</em>: every token of the vocabulary is a candidate and stages
+ * can loop straight over {@code logits[0, vocabularySize)}. Once a stage truncates the candidate set (e.g. top-k), the buffer becomes
+ * <em>sparse</em>: only the token ids in {@code candidates()[0, size())} are still alive and the following stages only touch those,
+ * so a later stage costs O(size) instead of another full-vocabulary pass.</p>
+ */
+public final class LogitsBuffer {
+
+    private final float[] logits;
+    private final float[] probabilities;
+    private final int[] candidates;
+    private int size;
+    private boolean dense;
+
+    public LogitsBuffer(int vocabularySize) {
+        this.logits = new float[vocabularySize];
+        this.probabilities = new float[vocabularySize];
+        this.candidates = new int[vocabularySize];
+    }
+
+    /**
+     * Copies the logits of the current step into the buffer, all tokens become candidates again.
+     *
+     * @param logits
+     *         a {@link org.beehive.gpullama3.tensor.standard.FloatTensor} or {@link uk.ac.manchester.tornado.api.types.arrays.FloatArray}
+     */
+    public void load(Object logits) {
+        SamplerUtils.copyLogits(logits, this.logits);
+        this.size = this.logits.length;
+        this.dense = true;
+    }
+
+    /** Logits indexed by token id, only the entries of the current candidates are meaningful. */
+    public float[] logits() {
+        return logits;
+    }
+
+    public int vocabularySize() {
+        return logits.length;
+    }
+
+    /** Number of candidates left. */
+    public int size() {
+        return size;
+    }
+
+    /** Whether every token of the vocabulary is still a candidate, i.e. {@code candidates()[i] == i}. */
+    public boolean isDense() {
+        return dense;
+    }
+
+    /**
+     * Returns the candidate token ids, valid in {@code [0, size())}.
+     * Stages may reorder them freely; a dense buffer is materialized as the identity permutation first.
+     */
+    public int[] candidates() {
+        if (dense) {
+            for (int i = 0; i < size; i++) {
+                candidates[i] = i;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Keeps only {@code candidates()[0, newSize)}; callers must have obtained (and possibly reordered) the candidates beforehand.
+     */
+    public void truncate(int newSize) {
+        if (newSize < 1 || newSize > size) {
+            throw new IllegalArgumentException("Invalid candidate count: " + newSize + ", current size " + size);
+        }
+        if (newSize < size || !dense) {
+            this.size = newSize;
+            this.dense = false;
+        }
+    }
+
+    /**
+     * Keeps only the candidates whose bit is set in {@code mask}, a bitset over the vocabulary.
+     * On a dense buffer the set bits are enumerated directly, so the cost is one pass over the mask words, not over the vocabulary.
+     *
+     * @throws IllegalStateException
+     *         if no candidate is left
+     */
+    public void retain(long[] mask) {
+        int kept = 0;
+        if (dense) {
+            for (int word = 0; word < mask.length; word++) {
+                long bits = mask[word];
+                while (bits != 0) {
+                    int token = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (token < size) {
+                        candidates[kept++] = token;
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int token = candidates[i];
+                if ((mask[token >>> 6] & (1L << token)) != 0) {
+                    candidates[kept++] = token;
+                }
+            }
+        }
+        if (kept == 0) {
+            throw new IllegalStateException("No candidate token left");
+        }
+        this.size = kept;
+        this.dense = false;
+    }
+
+    /**
+     * Computes {@code softmax(logits)} over the candidates into a scratch array indexed by token id. The logits are left untouched.
+     * Entries of non-candidates are undefined.
+     */
+    public float[] probabilities() {
+        if (dense) {
+            System.arraycopy(logits, 0, probabilities, 0, size);
+            SamplerUtils.softmaxInPlace(probabilities, size, 1.0f);
+            return probabilities;
+        }
+        float maxVal = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            maxVal = Math.max(maxVal, logits[candidates[i]]);
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < size; i++) {
+            int token = candidates[i];
+            float exp = (float) Math.exp(logits[token] - maxVal);
+            probabilities[token] = exp;
+            sum += exp;
+        }
+        float invSum = 1.0f / sum;
+        for (int i = 0; i < size; i++) {
+            probabilities[candidates[i]] *= invSum;
+        }
+        return probabilities;
+    }
+
+    /** Returns the candidate with the highest logit. */
+    public int argmax() {
+        int best = 0;
+        float bestValue = Float.NEGATIVE_INFINITY;
+        if (dense) {
+            for (int i = 0; i < size; i++) {
+                if (logits[i] > bestValue) {
+                    bestValue = logits[i];
+                    best = i;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int token = candidates[i];
+                if (logits[token] > bestValue) {
+                    bestValue = logits[token];
+                    best = token;
+                }
+            }
+        }
+        return best;
+    }
+}
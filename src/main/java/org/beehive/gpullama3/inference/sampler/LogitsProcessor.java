@@ -0,0 +1,41 @@
+package org.beehive.gpullama3.inference.sampler;
+
+/**
+ * A stage of a {@link SamplerChain}. Each stage modifies the logits of a {@link LogitsBuffer} in-place and/or truncates its candidate set.
+ *
+ * <p>Stages must only touch the current candidates: when the buffer is sparse, iterate {@code candidates()[0, size())} instead of the
+ * whole vocabulary.</p>
+ *
+ * @see LogitsProcessors
+ */
+@FunctionalInterface
+public interface LogitsProcessor {
+
+    void process(LogitsBuffer buffer);
+
+    /**
+     * Notifies the stage of a token appended to the sequence, e.g. to update a penalty window.
+     */
+    default void accept(int token) {
+    }
+
+    /**
+     * Notifies the stage of a prompt token, before the first sampled token. Stages that only follow the sampled output, e.g. a grammar,
+     * ignore it.
+     */
+    default void acceptPrompt(int token) {
+    }
+
+    /**
+     * Returns a stage with a copy of the per-sequence state, see {@link Sampler#fork()}; stateless stages return themselves.
+     */
+    default LogitsProcessor fork() {
+        return this;
+    }
+
+    /**
+     * Forgets any per-sequence state.
+     */
+    default void reset() {
+    }
+}
@@ -0,0 +1,268 @@
+package org.beehive.gpullama3.inference.sampler;
+
+/**
+ * Factory methods for the built-in {@link LogitsProcessor} stages.
+ *
+ * <p>Truncating stages (top-k, typical, top-p, min-p) shrink the candidate set of the {@link LogitsBuffer}; the stages after them only
+ * touch the surviving candidates. Placing top-k early therefore makes every following stage O(k).</p>
+ */
+public final class LogitsProcessors {
+
+    private LogitsProcessors() {
+        // Utility class, not meant to be instantiated
+    }
+
+    /**
+     * Keeps the {@code k} candidates with the highest logits, {@code k <= 0} disables the stage.
+     */
+    public static LogitsProcessor topK(int k) {
+        return buffer -> {
+            if (k <= 0 || k >= buffer.size()) {
+                return;
+            }
+            int[] candidates = buffer.candidates();
+            SamplerUtils.selectTopK(buffer.logits(), candidates, buffer.size(), k);
+            buffer.truncate(k);
+        };
+    }
+
+    /**
+     * Divides the logits of the candidates by {@code temperature}.
+     */
+    public static LogitsProcessor temperature(float temperature) {
+        if (!(temperature > 0.0f)) {
+            throw new IllegalArgumentException("Temperature must be positive: " + temperature);
+        }
+        float invTemperature = 1.0f / temperature;
+        return buffer -> {
+            if (temperature == 1.0f) {
+                return;
+            }
+            float[] logits = buffer.logits();
+            if (buffer.isDense()) {
+                SamplerUtils.scaleInPlace(logits, buffer.size(), invTemperature);
+            } else {
+                int[] candidates = buffer.candidates();
+                for (int i = 0; i < buffer.size(); i++) {
+                    logits[candidates[i]] *= invTemperature;
+                }
+            }
+        };
+    }
+
+    /**
+     * Top-p (nucleus) truncation: keeps the smallest set of most probable candidates whose cumulative probability exceeds {@code topp}.
+     */
+    public static LogitsProcessor topP(float topp) {
+        return buffer -> {
+            if (topp <= 0 || topp >= 1) {
+                return;
+            }
+            float[] probs = buffer.probabilities();
+            int[] candidates = buffer.candidates();
+            int lastIndex = SamplerUtils.selectNucleus(probs, candidates, buffer.size(), topp);
+            buffer.truncate(lastIndex + 1);
+        };
+    }
+
+    /**
+     * Min-p truncation: drops the candidates whose probability is below {@code minP} times the probability of the most likely one.
+     *
+     * <p>Evaluated in logit space, {@code p_i >= minP * p_max <=> logit_i >= logit_max + ln(minP)}, so no softmax is needed.</p>
+     */
+    public static LogitsProcessor minP(float minP) {
+        return buffer -> {
+            if (minP <= 0 || minP > 1) {
+                return;
+            }
+            float[] logits = buffer.logits();
+            int[] candidates = buffer.candidates();
+            int size = buffer.size();
+            float maxLogit = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                maxLogit = Math.max(maxLogit, logits[candidates[i]]);
+            }
+            float threshold = maxLogit + (float) Math.log(minP);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int token = candidates[i];
+                if (logits[token] >= threshold) {
+                    candidates[kept++] = token;
+                }
+            }
+            buffer.truncate(kept);
+        };
+    }
+
+    /**
+     * Locally typical sampling: keeps the candidates whose information content is closest to the entropy of the distribution, until their
+     * cumulative probability exceeds {@code typicalP}. Sorts the candidates, so it is best placed after top-k.
+     */
+    public static LogitsProcessor typical(float typicalP) {
+        return new LogitsProcessor() {
+            private float[] negatedScores;
+
+            @Override
+            public void process(LogitsBuffer buffer) {
+                if (typicalP <= 0 || typicalP >= 1) {
+                    return;
+                }
+                if (negatedScores == null) {
+                    negatedScores = new float[buffer.vocabularySize()];
+                }
+                float[] probs = buffer.probabilities();
+                int[] candidates = buffer.candidates();
+                int size = buffer.size();
+
+                float entropy = 0.0f;
+                for (int i = 0; i < size; i++) {
+                    float p = probs[candidates[i]];
+                    if (p > 0) {
+                        entropy -= p * (float) Math.log(p);
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    int token = candidates[i];
+                    float p = probs[token];
+                    // sortDescending orders by descending key, negate to get the most typical candidates first
+                    negatedScores[token] = p > 0 ? -Math.abs(-(float) Math.log(p) - entropy) : Float.NEGATIVE_INFINITY;
+                }
+                SamplerUtils.sortDescending(candidates, 0, size, negatedScores);
+
+                float cumulativeProb = 0.0f;
+                int kept = size;
+                for (int i = 0; i < size; i++) {
+                    cumulativeProb += probs[candidates[i]];
+                    if (cumulativeProb > typicalP) {
+                        kept = i + 1;
+                        break;
+                    }
+                }
+                buffer.truncate(kept);
+            }
+        };
+    }
+
+    /**
+     * Repetition, frequency and presence penalties over the last {@code window} tokens of the sequence.
+     *
+     * @see PenaltyProcessor
+     */
+    public static LogitsProcessor penalties(int vocabularySize, int window, float repeatPenalty, float frequencyPenalty, float presencePenalty) {
+        return new PenaltyProcessor(vocabularySize, window, repeatPenalty, frequencyPenalty, presencePenalty);
+    }
+
+    /**
+     * Penalizes the tokens that appear in a sliding window over the most recent tokens:
+     * <pre>
+     * logit = logit &gt; 0 ? logit / repeatPenalty : logit * repeatPenalty
+     * logit -= count * frequencyPenalty + presencePenalty
+     * </pre>
+     *
+     * <p>Occurrence counts and the list of distinct tokens in the window are maintained incrementally in {@link #accept(int)}, so applying
+     * the penalties costs O(distinct tokens in the window) per step, independent of the vocabulary size and of the candidate set.</p>
+     */
+    static final class PenaltyProcessor implements LogitsProcessor {
+
+        private final float repeatPenalty;
+        private final float frequencyPenalty;
+        private final float presencePenalty;
+
+        // ring buffer of the last `window` tokens
+        private final int[] window;
+        private int head;
+        private int count;
+
+        // occurrences per token id, and the distinct tokens in the window with their positions for O(1) removal
+        private final int[] occurrences;
+        private final int[] distinct;
+        private final int[] distinctIndex;
+        private int distinctCount;
+
+        PenaltyProcessor(int vocabularySize, int window, float repeatPenalty, float frequencyPenalty, float presencePenalty) {
+            if (window < 0) {
+                throw new IllegalArgumentException("Penalty window must be non-negative: " + window);
+            }
+            if (!(repeatPenalty > 0.0f)) {
+                throw new IllegalArgumentException("Repeat penalty must be positive: " + repeatPenalty);
+            }
+            this.repeatPenalty = repeatPenalty;
+            this.frequencyPenalty = frequencyPenalty;
+            this.presencePenalty = presencePenalty;
+            this.window = new int[window];
+            this.occurrences = new int[vocabularySize];
+            this.distinct = new int[window];
+            this.distinctIndex = new int[vocabularySize];
+        }
+
+        private PenaltyProcessor(PenaltyProcessor other) {
+            this.repeatPenalty = other.repeatPenalty;
+            this.frequencyPenalty = other.frequencyPenalty;
+            this.presencePenalty = other.presencePenalty;
+            this.window = other.window.clone();
+            this.head = other.head;
+            this.count = other.count;
+            this.occurrences = other.occurrences.clone();
+            this.distinct = other.distinct.clone();
+            this.distinctIndex = other.distinctIndex.clone();
+            this.distinctCount = other.distinctCount;
+        }
+
+        @Override
+        public void process(LogitsBuffer buffer) {
+            // non-candidates may be touched too, their logits are never read again
+            float[] logits = buffer.logits();
+            for (int i = 0; i < distinctCount; i++) {
+                int token = distinct[i];
+                float logit = logits[token];
+                logit = logit > 0 ? logit / repeatPenalty : logit * repeatPenalty;
+                logits[token] = logit - (occurrences[token] * frequencyPenalty + presencePenalty);
+            }
+        }
+
+        @Override
+        public void acceptPrompt(int token) {
+            accept(token);
+        }
+
+        @Override
+        public void accept(int token) {
+            if (window.length == 0) {
+                return;
+            }
+            if (count == window.length) {
+                int evicted = window[head];
+                if (--occurrences[evicted] == 0) {
+                    // swap-remove from the distinct list
+                    int index = distinctIndex[evicted];
+                    int last = distinct[--distinctCount];
+                    distinct[index] = last;
+                    distinctIndex[last] = index;
+                }
+            } else {
+                count++;
+            }
+            window[head] = token;
+            head = (head + 1) % window.length;
+            if (occurrences[token]++ == 0) {
+                distinctIndex[token] = distinctCount;
+                distinct[distinctCount++] = token;
+            }
+        }
+
+        @Override
+        public LogitsProcessor fork() {
+            return new PenaltyProcessor(this);
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < distinctCount; i++) {
+                occurrences[distinct[i]] = 0;
+            }
+            distinctCount = 0;
+            head = 0;
+            count = 0;
+        }
+    }
+}
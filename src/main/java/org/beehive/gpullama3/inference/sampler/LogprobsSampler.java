@@ -0,0 +1,158 @@
+package org.beehive.gpullama3.inference.sampler;
+
+import org.beehive.gpullama3.tensor.standard.ArrayFloatTensor;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+
+/**
+ * {@link Sampler} decorator recording the log-probability of every sampled token and the top-N alternatives into a {@link TokenLogprobs}.
+ *
+ * <p>Since the engines call the sampler exactly once per generated token, wrapping the sampler is enough to get logprobs out of any
+ * {@code generateTokens} variant, CPU or GPU, without touching the generation loops:</p>
+ *
+ * <pre>{@code
+ * LogprobsSampler sampler = new LogprobsSampler(Sampler.createSampler(model, options), vocabularySize, 5);
+ * List<Integer> tokens = model.generateTokens(state, 0, promptTokens, stopTokens, maxTokens, sampler, false, null);
+ * TokenLogprobs logprobs = sampler.logprobs();
+ * }</pre>
+ *
+ * <p>The log-softmax normalizer and the top-N are computed in a single fused pass over the logits, an online log-sum-exp next to a
+ * bounded min-heap, reading the {@link FloatTensor} or {@link FloatArray} memory directly. The logits are never modified.</p>
+ */
+public final class LogprobsSampler implements Sampler {
+
+    private final Sampler delegate;
+    private final int vocabularySize;
+    private final TokenLogprobs logprobs;
+    private final float[] scratch; // only for tensors without a float memory segment
+    private final int[] heapTokens;
+    private final float[] heapValues;
+
+    public LogprobsSampler(Sampler delegate, int vocabularySize, int topN) {
+        this.delegate = delegate;
+        this.vocabularySize = vocabularySize;
+        this.logprobs = new TokenLogprobs(topN);
+        this.scratch = new float[vocabularySize];
+        this.heapTokens = new int[topN];
+        this.heapValues = new float[topN];
+    }
+
+    @Override
+    public int sampleToken(Object logits) {
+        // the samplers read the logits without modifying them, so they can be scored afterwards
+        int token = delegate.sampleToken(logits);
+        record(logitsSegment(logits), token);
+        return token;
+    }
+
+    @Override
+    public void begin(List<Integer> promptTokens) {
+        delegate.begin(promptTokens);
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     *         always, the log-probabilities are recorded for a single sequence
+     */
+    @Override
+    public Sampler fork() {
+        throw new UnsupportedOperationException("Logprobs of several sequences");
+    }
+
+    /** The log-probabilities recorded so far. */
+    public TokenLogprobs logprobs() {
+        return logprobs;
+    }
+
+    private MemorySegment logitsSegment(Object logits) {
+        if (logits instanceof ArrayFloatTensor tensor) {
+            return tensor.asMemorySegment();
+        } else if (logits instanceof FloatArray array) {
+            return array.getSegment();
+        }
+        SamplerUtils.copyLogits(logits, scratch);
+        return MemorySegment.ofArray(scratch);
+    }
+
+    private void record(MemorySegment logits, int token) {
+        int topN = Math.min(heapTokens.length, vocabularySize);
+        int heapSize = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0.0; // double, the vocabulary is large enough for float accumulation errors to show in the logprobs
+        for (int i = 0; i < vocabularySize; i++) {
+            float x = logits.getAtIndex(ValueLayout.JAVA_FLOAT, i);
+            // online log-sum-exp: sum is relative to the running max
+            if (x > max) {
+                sum = sum * Math.exp(max - x) + 1.0;
+                max = x;
+            } else if (x > Float.NEGATIVE_INFINITY) {
+                sum += Math.exp(x - max);
+            }
+            // bounded min-heap of the topN largest logits
+            if (heapSize < topN) {
+                siftUp(heapSize++, i, x);
+            } else if (topN > 0 && x > heapValues[0]) {
+                siftDown(heapSize, i, x);
+            }
+        }
+        float logSumExp = max + (float) Math.log(sum);
+
+        int step = logprobs.append(token, logits.getAtIndex(ValueLayout.JAVA_FLOAT, token) - logSumExp);
+        int[] topTokens = logprobs.topTokens();
+        float[] topLogprobs = logprobs.topLogprobs();
+        int base = step * logprobs.topN();
+        // pop the heap smallest first, filling the slots from the back to get a descending order
+        for (int rank = heapSize - 1; rank >= 0; rank--) {
+            topTokens[base + rank] = heapTokens[0];
+            topLogprobs[base + rank] = heapValues[0] - logSumExp;
+            int last = --heapSize;
+            if (last > 0) {
+                siftDown(last, heapTokens[last], heapValues[last]);
+            }
+        }
+        for (int rank = topN; rank < logprobs.topN(); rank++) {
+            topTokens[base + rank] = -1;
+            topLogprobs[base + rank] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private void siftUp(int index, int token, float value) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heapValues[parent] <= value) {
+                break;
+            }
+            heapTokens[index] = heapTokens[parent];
+            heapValues[index] = heapValues[parent];
+            index = parent;
+        }
+        heapTokens[index] = token;
+        heapValues[index] = value;
+    }
+
+    /** Replaces the root of a heap of {@code size} elements and restores the heap order. */
+    private void siftDown(int size, int token, float value) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heapValues[child + 1] < heapValues[child]) {
+                child++;
+            }
+            if (value <= heapValues[child]) {
+                break;
+            }
+            heapTokens[index] = heapTokens[child];
+            heapValues[index] = heapValues[child];
+            index = child;
+        }
+        heapTokens[index] = token;
+        heapValues[index] = value;
+    }
+}
@@ -1,11 +1,14 @@
 package org.beehive.gpullama3.inference.sampler;
 
 import org.beehive.gpullama3.Options;
+import org.beehive.gpullama3.inference.grammar.Grammar;
+import org.beehive.gpullama3.inference.grammar.GrammarConstraint;
+import org.beehive.gpullama3.inference.grammar.GrammarMatcher;
 import org.beehive.gpullama3.tensor.standard.FloatTensor;
 import org.beehive.gpullama3.model.Model;
-import org.beehive.gpullama3.tornadovm.utils.FloatArrayUtils;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 
+import java.util.List;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
 
@@ -93,36 +96,65 @@ public interface Sampler {
             }
 
             // Create a sampler that:
-            // 1. Applies temperature scaling to the logits
-            // 2. Converts logits to probabilities using softmax
+            // 1. Copies the logits into a reusable primitive buffer (the logits themselves are left untouched)
+            // 2. Applies temperature scaling and converts logits to probabilities using softmax
             // 3. Delegates the actual sampling to the appropriate inner sampler
+            // The buffer is allocated once here, so no per-token allocation happens.
+            float[] probabilities = new float[vocabularySize];
             sampler = logits -> {
-                // Handle different logits formats to support both CPU and GPU paths
-                if (logits instanceof FloatTensor) {
-                    // For CPU path using FloatTensor
-                    FloatTensor tensorLogits = (FloatTensor) logits;
-                    // Apply temperature scaling - lower values make distribution more peaked
-                    tensorLogits.divideInPlace(0, tensorLogits.size(), temperature);
-                    // Convert logits to probabilities using softmax
-                    tensorLogits.softmaxInPlace(0, tensorLogits.size());
-                } else if (logits instanceof FloatArray) {
-                    // For GPU path using FloatArray
-                    FloatArray arrayLogits = (FloatArray) logits;
-                    // Apply the same operations but using FloatArray-specific methods for TornadoVM data types
-                    FloatArrayUtils.divideInPlace(arrayLogits, 0, arrayLogits.getSize(), temperature);
-                    FloatArrayUtils.softmaxInPlace(arrayLogits, 0, arrayLogits.getSize());
-                } else {
-                    // If logits are neither FloatTensor nor FloatArray, throw an exception
-                    throw new IllegalArgumentException("Unsupported logits type: " + (logits != null ? logits.getClass().getName() : "null"));
-                }
-                return innerSampler.sampleToken(logits);
+                // Handle different logits formats (FloatTensor for CPU, FloatArray for GPU) once, outside the inner loops
+                SamplerUtils.copyLogits(logits, probabilities);
+                // Apply temperature scaling - lower values make distribution more peaked - fused with the softmax
+                SamplerUtils.softmaxInPlace(probabilities, vocabularySize, temperature);
+                return innerSampler.sampleToken(probabilities);
             };
         }
         return sampler;
     }
 
+    /**
+     * Starts a composable {@link SamplerChain} of {@link LogitsProcessor} stages, for sampling strategies beyond {@link #selectSampler}.
+     *
+     * @param vocabularySize
+     *         The size of the model's vocabulary
+     * @return a builder, stages run in the order they are added
+     */
+    static SamplerChain.Builder chain(int vocabularySize) {
+        return SamplerChain.builder(vocabularySize);
+    }
+
+    /**
+     * Creates the sampler described by the options. Plain temperature/top-p sampling uses {@link #selectSampler}, or a {@link DeviceSampler}
+     * with {@code --device-sampling}, otherwise a
+     * {@link SamplerChain} is built in the order grammar constraint, penalties, top-k, temperature, typical, top-p, min-p. The grammar
+     * and top-k run before the other stages so that those only touch the surviving candidates.
+     *
+     * @throws IllegalArgumentException
+     *         if the grammar or JSON schema is invalid
+     */
     static Sampler createSampler(Model model, Options options) {
-        return selectSampler(model.configuration().vocabularySize(), options.temperature(), options.topp(), options.seed());
+        int vocabularySize = model.configuration().vocabularySize();
+        if (options.deviceSampling()) {
+            return new DeviceSampler(vocabularySize, options.temperature(), options.topp(), options.seed());
+        }
+        if (!options.useSamplerChain()) {
+            return selectSampler(vocabularySize, options.temperature(), options.topp(), options.seed());
+        }
+        SamplerChain.Builder chain = chain(vocabularySize);
+        Grammar grammar = options.grammar() != null ? Grammar.parse(options.grammar())
+                : options.jsonSchema() != null ? Grammar.fromJsonSchema(options.jsonSchema()) : null;
+        if (grammar != null) {
+            chain.add(new GrammarConstraint(GrammarMatcher.create(grammar, model.tokenizer(), vocabularySize, model.chatFormat().getStopTokens())));
+        }
+        return chain
+                .penalties(options.repeatLastN(), options.repeatPenalty(), options.frequencyPenalty(), options.presencePenalty())
+                .topK(options.topK())
+                .temperature(options.temperature())
+                .typical(options.typicalP())
+                .topP(options.topp())
+                .minP(options.minP())
+                .seed(options.seed())
+                .build();
     }
 
     /**
@@ -147,6 +179,25 @@ public interface Sampler {
         return maxIndex;
     }
 
+    /**
+     * Starts a new sequence: called by the generation loops before the first token is sampled, with the whole context the tokens follow,
+     * e.g. the conversation so far. Stateful samplers forget the previous sequence; stateless ones ignore it.
+     */
+    default void begin(List<Integer> promptTokens) {
+    }
+
+    /**
+     * Returns a sampler for another sequence continuing from the same context, e.g. one completion among several of a prompt: the
+     * per-sequence state is copied, so the two sequences no longer affect each other, while the random generator is shared. Stateless
+     * samplers return themselves.
+     *
+     * @throws UnsupportedOperationException
+     *         if the sampler cannot be split
+     */
+    default Sampler fork() {
+        return this;
+    }
+
     /**
      * Sample a token from the provided tensor.
      *
@@ -0,0 +1,188 @@
+package org.beehive.gpullama3.inference.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * A {@link Sampler} composed of {@link LogitsProcessor} stages followed by a final selection.
+ *
+ * <p>For every token the logits are copied once into a reusable {@link LogitsBuffer}, each stage is applied in order, in-place, and a token
+ * is selected among the surviving candidates: the most likely one when greedy, otherwise one drawn from {@code softmax(logits)}.
+ * The selected token is then reported to every stage through {@link LogitsProcessor#accept(int)}.</p>
+ *
+ * <pre>{@code
+ * Sampler sampler = SamplerChain.builder(vocabularySize)
+ *         .penalties(64, 1.1f, 0.0f, 0.0f)
+ *         .topK(40)
+ *         .temperature(0.7f)
+ *         .topP(0.95f)
+ *         .seed(42)
+ *         .build();
+ * }</pre>
+ */
+public final class SamplerChain implements Sampler {
+
+    private final LogitsBuffer buffer;
+    private final LogitsProcessor[] processors;
+    private final RandomGenerator rng; // null for greedy selection
+
+    private SamplerChain(LogitsBuffer buffer, LogitsProcessor[] processors, RandomGenerator rng) {
+        this.buffer = buffer;
+        this.processors = processors;
+        this.rng = rng;
+    }
+
+    public static Builder builder(int vocabularySize) {
+        return new Builder(vocabularySize);
+    }
+
+    @Override
+    public int sampleToken(Object logits) {
+        buffer.load(logits);
+        for (LogitsProcessor processor : processors) {
+            processor.process(buffer);
+        }
+        int token = rng == null ? buffer.argmax() : sampleCandidates();
+        accept(token);
+        return token;
+    }
+
+    /**
+     * Reports a token that is part of the sequence without being sampled, e.g. a prompt token, to the stateful stages.
+     */
+    public void accept(int token) {
+        for (LogitsProcessor processor : processors) {
+            processor.accept(token);
+        }
+    }
+
+    /**
+     * Forgets the previous sequence and reports the prompt of the new one to the stages, see {@link LogitsProcessor#acceptPrompt(int)}.
+     */
+    @Override
+    public void begin(List<Integer> promptTokens) {
+        reset();
+        for (int token : promptTokens) {
+            for (LogitsProcessor processor : processors) {
+                processor.acceptPrompt(token);
+            }
+        }
+    }
+
+    /**
+     * Forks every stage; the chains share the logits buffer and the random generator, so they must sample from the same thread.
+     */
+    @Override
+    public SamplerChain fork() {
+        LogitsProcessor[] forked = new LogitsProcessor[processors.length];
+        for (int i = 0; i < processors.length; i++) {
+            forked[i] = processors[i].fork();
+        }
+        return new SamplerChain(buffer, forked, rng);
+    }
+
+    /**
+     * Forgets the sequence seen so far, e.g. before starting a new conversation.
+     */
+    public void reset() {
+        for (LogitsProcessor processor : processors) {
+            processor.reset();
+        }
+    }
+
+    private int sampleCandidates() {
+        float[] probs = buffer.probabilities();
+        int size = buffer.size();
+        if (buffer.isDense()) {
+            float random0to1 = rng.nextFloat(1f);
+            float cdf = 0.0f;
+            for (int i = 0; i < size; i++) {
+                cdf += probs[i];
+                if (random0to1 < cdf) {
+                    return i;
+                }
+            }
+            return size - 1; // in case of rounding errors
+        }
+        int[] candidates = buffer.candidates();
+        float random0to1 = rng.nextFloat(1f);
+        float cdf = 0.0f;
+        for (int i = 0; i < size; i++) {
+            cdf += probs[candidates[i]];
+            if (random0to1 < cdf) {
+                return candidates[i];
+            }
+        }
+        return candidates[size - 1]; // in case of rounding errors
+    }
+
+    /**
+     * Builds a chain; stages run in the order they are added.
+     */
+    public static final class Builder {
+        private final int vocabularySize;
+        private final List<LogitsProcessor> processors = new ArrayList<>();
+        private boolean greedy;
+        private long seed = System.nanoTime();
+
+        private Builder(int vocabularySize) {
+            this.vocabularySize = vocabularySize;
+        }
+
+        public Builder add(LogitsProcessor processor) {
+            processors.add(processor);
+            return this;
+        }
+
+        public Builder penalties(int window, float repeatPenalty, float frequencyPenalty, float presencePenalty) {
+            return add(LogitsProcessors.penalties(vocabularySize, window, repeatPenalty, frequencyPenalty, presencePenalty));
+        }
+
+        public Builder topK(int k) {
+            return add(LogitsProcessors.topK(k));
+        }
+
+        public Builder typical(float typicalP) {
+            return add(LogitsProcessors.typical(typicalP));
+        }
+
+        public Builder topP(float topp) {
+            return add(LogitsProcessors.topP(topp));
+        }
+
+        public Builder minP(float minP) {
+            return add(LogitsProcessors.minP(minP));
+        }
+
+        /**
+         * Scales the logits by {@code 1 / temperature}; a temperature of 0 makes the chain greedy.
+         */
+        public Builder temperature(float temperature) {
+            if (temperature == 0.0f) {
+                greedy = true;
+                return this;
+            }
+            return add(LogitsProcessors.temperature(temperature));
+        }
+
+        /**
+         * Selects the most likely surviving candidate instead of sampling.
+         */
+        public Builder greedy() {
+            this.greedy = true;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SamplerChain build() {
+            RandomGenerator rng = greedy ? null : RandomGeneratorFactory.getDefault().create(seed);
+            return new SamplerChain(new LogitsBuffer(vocabularySize), processors.toArray(LogitsProcessor[]::new), rng);
+        }
+    }
+}
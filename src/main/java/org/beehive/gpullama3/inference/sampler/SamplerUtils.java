@@ -0,0 +1,261 @@
+package org.beehive.gpullama3.inference.sampler;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.beehive.gpullama3.LlamaApp;
+import org.beehive.gpullama3.tensor.standard.ArrayFloatTensor;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Primitive helpers shared by the samplers.
+ *
+ * <p>Samplers copy the logits produced by the forward pass ({@link FloatTensor} on the CPU path, {@link FloatArray} on the GPU path)
+ * into a reusable {@code float[]} scratch buffer once per token and then work exclusively on primitive arrays. This keeps the type dispatch
+ * out of the inner loops and lets the reductions use the Vector API.</p>
+ */
+public final class SamplerUtils {
+
+    private static final VectorSpecies<Float> F_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private SamplerUtils() {
+        // Utility class, not meant to be instantiated
+    }
+
+    /**
+     * Copies the first {@code dst.length} logits into {@code dst}.
+     *
+     * @param logits
+     *         a {@link FloatTensor} or {@link FloatArray}
+     * @param dst
+     *         destination buffer, its length determines how many values are copied
+     * @throws IllegalArgumentException
+     *         if logits are of an unsupported type
+     */
+    public static void copyLogits(Object logits, float[] dst) {
+        int n = dst.length;
+        if (logits instanceof ArrayFloatTensor tensor) {
+            MemorySegment.copy(tensor.asMemorySegment(), ValueLayout.JAVA_FLOAT, 0, dst, 0, n);
+        } else if (logits instanceof FloatTensor tensor) {
+            for (int i = 0; i < n; i++) {
+                dst[i] = tensor.getFloat(i);
+            }
+        } else if (logits instanceof FloatArray array) {
+            MemorySegment.copy(array.getSegment(), ValueLayout.JAVA_FLOAT, 0, dst, 0, n);
+        } else {
+            throw new IllegalArgumentException("Unsupported logits type: " + (logits != null ? logits.getClass().getName() : "null"));
+        }
+    }
+
+    /**
+     * Returns the maximum of {@code values[0, size)}.
+     */
+    public static float max(float[] values, int size) {
+        int i = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        if (LlamaApp.USE_VECTOR_API) {
+            int upperBound = F_SPECIES.loopBound(size);
+            if (upperBound > 0) {
+                FloatVector vmax = FloatVector.broadcast(F_SPECIES, Float.NEGATIVE_INFINITY);
+                for (; i < upperBound; i += F_SPECIES.length()) {
+                    vmax = vmax.max(FloatVector.fromArray(F_SPECIES, values, i));
+                }
+                max = vmax.reduceLanes(VectorOperators.MAX);
+            }
+        }
+        for (; i < size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Multiplies {@code values[0, size)} by {@code factor} in-place.
+     */
+    public static void scaleInPlace(float[] values, int size, float factor) {
+        int i = 0;
+        if (LlamaApp.USE_VECTOR_API) {
+            int upperBound = F_SPECIES.loopBound(size);
+            for (; i < upperBound; i += F_SPECIES.length()) {
+                FloatVector.fromArray(F_SPECIES, values, i).mul(factor).intoArray(values, i);
+            }
+        }
+        for (; i < size; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    /**
+     * Converts {@code logits[0, size)} into probabilities in-place, {@code softmax(logits / temperature)}.
+     *
+     * <p>The max and the normalization are vectorized, {@code exp} stays scalar since the Vector API only intrinsifies it on some platforms.</p>
+     *
+     * @return the normalization sum, {@code sum(exp((logits - max) / temperature))}
+     */
+    public static float softmaxInPlace(float[] logits, int size, float temperature) {
+        float maxVal = max(logits, size);
+        float invTemperature = 1.0f / temperature;
+        float sum = 0.0f;
+        for (int i = 0; i < size; i++) {
+            float exp = (float) Math.exp((logits[i] - maxVal) * invTemperature);
+            logits[i] = exp;
+            sum += exp;
+        }
+        scaleInPlace(logits, size, 1.0f / sum);
+        return sum;
+    }
+
+    /** Below this size the remaining candidate range is simply sorted. */
+    private static final int SORT_THRESHOLD = 64;
+
+    /**
+     * Moves the smallest set of most probable candidates whose cumulative probability exceeds {@code topp} to the front of
+     * {@code candidates}, in expected O(n0) time.
+     *
+     * @return the (inclusive) index of the last candidate in the nucleus
+     */
+    static int selectNucleus(float[] probs, int[] candidates, int n0, float topp) {
+        // invariant: candidates[0, lo) are accepted with total mass `accepted`, the nucleus boundary lies in [lo, hi)
+        int lo = 0;
+        int hi = n0;
+        float accepted = 0.0f;
+        while (hi - lo > SORT_THRESHOLD) {
+            float pivot = medianOfThree(probs[candidates[lo]], probs[candidates[(lo + hi) >>> 1]], probs[candidates[hi - 1]]);
+
+            // three-way partition: [lo, lt) > pivot, [lt, gt) == pivot, [gt, hi) < pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            float greaterMass = 0.0f;
+            float equalMass = 0.0f;
+            while (i < gt) {
+                float p = probs[candidates[i]];
+                if (p > pivot) {
+                    greaterMass += p;
+                    swap(candidates, lt++, i++);
+                } else if (p < pivot) {
+                    swap(candidates, i, --gt);
+                } else {
+                    equalMass += p;
+                    i++;
+                }
+            }
+
+            if (accepted + greaterMass > topp) {
+                hi = lt;
+            } else if (accepted + greaterMass + equalMass > topp) {
+                // the boundary lies inside the run of equal values, no ordering needed
+                float cumulativeProb = accepted + greaterMass;
+                for (int j = lt; j < gt; j++) {
+                    cumulativeProb += pivot;
+                    if (cumulativeProb > topp) {
+                        return j;
+                    }
+                }
+                return gt - 1;
+            } else {
+                accepted += greaterMass + equalMass;
+                lo = gt;
+            }
+        }
+
+        sortDescending(candidates, lo, hi, probs);
+        float cumulativeProb = accepted;
+        for (int i = lo; i < hi; i++) {
+            cumulativeProb += probs[candidates[i]];
+            if (cumulativeProb > topp) {
+                return i;
+            }
+        }
+        // rounding errors, topp was never exceeded: keep every remaining candidate
+        return hi - 1;
+    }
+
+    /**
+     * Moves the {@code k} candidates with the largest {@code keys[candidate]} to {@code candidates[0, k)}, in no particular order,
+     * in expected O(n) time.
+     */
+    static void selectTopK(float[] keys, int[] candidates, int n, int k) {
+        int lo = 0;
+        int hi = n;
+        while (hi - lo > 1) {
+            float pivot = medianOfThree(keys[candidates[lo]], keys[candidates[(lo + hi) >>> 1]], keys[candidates[hi - 1]]);
+            // three-way partition: [lo, lt) > pivot, [lt, gt) == pivot, [gt, hi) < pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i < gt) {
+                float key = keys[candidates[i]];
+                if (key > pivot) {
+                    swap(candidates, lt++, i++);
+                } else if (key < pivot) {
+                    swap(candidates, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt;
+            } else if (k <= gt) {
+                return;
+            } else {
+                lo = gt;
+            }
+        }
+    }
+
+    private static float medianOfThree(float a, float b, float c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    static void swap(int[] array, int from, int to) {
+        int tmp = array[from];
+        array[from] = array[to];
+        array[to] = tmp;
+    }
+
+    /**
+     * Sorts {@code indices[from, to)} by descending {@code keys[index]}.
+     * Only used on the small candidate sets left after partial selection, so a plain insertion sort on top of quicksort partitioning is enough.
+     */
+    static void sortDescending(int[] indices, int from, int to, float[] keys) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            float pivot = keys[indices[mid]];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[indices[i]] > pivot) {
+                    i++;
+                }
+                while (keys[indices[j]] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(indices, i++, j--);
+                }
+            }
+            // recurse into the smaller half, loop on the larger one
+            if (j - from < to - i) {
+                sortDescending(indices, from, j + 1, keys);
+                from = i;
+            } else {
+                sortDescending(indices, i, to, keys);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int index = indices[i];
+            float key = keys[index];
+            int j = i - 1;
+            while (j >= from && keys[indices[j]] < key) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.beehive.gpullama3.inference.sampler;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compact, primitive record of the generated tokens with their log-probabilities and the top-N alternatives at every step.
+ *
+ * <p>Entries are stored in flat, growable arrays; the alternatives of step {@code i} live in {@code [i * topN, (i + 1) * topN)}, sorted by
+ * descending log-probability. Log-probabilities are those of the model distribution, {@code log_softmax(logits)}, independent of the
+ * sampling parameters.</p>
+ */
+public final class TokenLogprobs {
+
+    private final int topN;
+    private int size;
+    private int[] tokens;
+    private float[] logprobs;
+    private int[] topTokens;
+    private float[] topLogprobs;
+
+    public TokenLogprobs(int topN) {
+        if (topN < 0) {
+            throw new IllegalArgumentException("topN must be non-negative: " + topN);
+        }
+        this.topN = topN;
+        this.tokens = new int[16];
+        this.logprobs = new float[16];
+        this.topTokens = new int[16 * topN];
+        this.topLogprobs = new float[16 * topN];
+    }
+
+    /** Number of recorded steps. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of alternatives recorded per step. */
+    public int topN() {
+        return topN;
+    }
+
+    public int token(int step) {
+        return tokens[checkIndex(step)];
+    }
+
+    public float logprob(int step) {
+        return logprobs[checkIndex(step)];
+    }
+
+    /** The {@code rank}-th most likely token at a step. */
+    public int topToken(int step, int rank) {
+        return topTokens[checkIndex(step) * topN + Objects.checkIndex(rank, topN)];
+    }
+
+    public float topLogprob(int step, int rank) {
+        return topLogprobs[checkIndex(step) * topN + Objects.checkIndex(rank, topN)];
+    }
+
+    /** Sum of the log-probabilities of the recorded tokens. */
+    public double totalLogprob() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += logprobs[i];
+        }
+        return sum;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Reserves a step and returns its index; the caller fills the alternatives through {@link #topTokens()} and {@link #topLogprobs()}.
+     */
+    int append(int token, float logprob) {
+        if (size == tokens.length) {
+            int capacity = tokens.length * 2;
+            tokens = Arrays.copyOf(tokens, capacity);
+            logprobs = Arrays.copyOf(logprobs, capacity);
+            topTokens = Arrays.copyOf(topTokens, capacity * topN);
+            topLogprobs = Arrays.copyOf(topLogprobs, capacity * topN);
+        }
+        tokens[size] = token;
+        logprobs[size] = logprob;
+        return size++;
+    }
+
+    int[] topTokens() {
+        return topTokens;
+    }
+
+    float[] topLogprobs() {
+        return topLogprobs;
+    }
+
+    private int checkIndex(int step) {
+        return Objects.checkIndex(step, size);
+    }
+}
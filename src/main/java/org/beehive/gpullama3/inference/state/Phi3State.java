@@ -108,4 +108,12 @@ public class Phi3State extends State {
 
         return fields;
     }
+
+    @Override
+    protected void copyActivations() {
+        super.copyActivations();
+        qkv = copyOf(qkv);
+        hbG = copyOf(hbG);
+        hbU = copyOf(hbU);
+    }
 }
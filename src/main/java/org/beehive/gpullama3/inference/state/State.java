@@ -1,7 +1,10 @@
 package org.beehive.gpullama3.inference.state;
 
+import org.beehive.gpullama3.tensor.standard.ArrayFloatTensor;
 import org.beehive.gpullama3.tensor.standard.FloatTensor;
+import org.beehive.gpullama3.tensor.standard.PagedFloatTensor;
 import org.beehive.gpullama3.model.Configuration;
+import org.beehive.gpullama3.tornadovm.kernels.SamplingKernels;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 import uk.ac.manchester.tornado.api.types.arrays.IntArray;
 
@@ -22,24 +25,27 @@ import uk.ac.manchester.tornado.api.types.arrays.IntArray;
  * <p><b>Note:</b> This class is designed to be generic and does not include any
  * model-specific behavior or fields. Those should be implemented in subclasses.</p>
  */
-public abstract class State {
-
-    // current wave of activations
-    public final FloatTensor x;         // activation at current time stamp (dim,)
-    public final FloatTensor xb;        // same, but inside a residual branch (dim,)
-    public final FloatTensor xb2;       // an additional buffer just for convenience (dim,)
-    public final FloatTensor hb;        // buffer for hidden dimension in the ffn (hidden_dim,)
-    public final FloatTensor hb2;       // buffer for hidden dimension in the ffn (hidden_dim,)
-    public final FloatTensor q;         // query (dim,)
-    public final FloatTensor k;         // key (dim,)
-    public final FloatTensor v;         // value (dim,)
-    public final FloatTensor att;       // buffer for scores/attention values (n_heads, seq_len)
-    public final FloatTensor logits;    // output logits
+public abstract class State implements Cloneable {
+
+    // current wave of activations, replaced in forks
+    public FloatTensor x;         // activation at current time stamp (dim,)
+    public FloatTensor xb;        // same, but inside a residual branch (dim,)
+    public FloatTensor xb2;       // an additional buffer just for convenience (dim,)
+    public FloatTensor hb;        // buffer for hidden dimension in the ffn (hidden_dim,)
+    public FloatTensor hb2;       // buffer for hidden dimension in the ffn (hidden_dim,)
+    public FloatTensor q;         // query (dim,)
+    public FloatTensor k;         // key (dim,)
+    public FloatTensor v;         // value (dim,)
+    public FloatTensor att;       // buffer for scores/attention values (n_heads, seq_len)
+    public FloatTensor logits;    // output logits
     public final int batchsize;
+    private final int contextLength;
 
     // kv cache
-    public final FloatTensor[] keyCache;   // (n_layer, seq_len, kv_dim)
-    public final FloatTensor[] valueCache; // (n_layer, seq_len, kv_dim)
+    public FloatTensor[] keyCache;   // (n_layer, seq_len, kv_dim), replaced in forks
+    public FloatTensor[] valueCache; // (n_layer, seq_len, kv_dim), replaced in forks
+    private FloatTensor[] contiguousKeyCache;   // caches allocated with the state, restored by reset() once forking made them paged
+    private FloatTensor[] contiguousValueCache; // null in forks
 
     // Wrappers for TornadoVM compatibility (FloatArray data structure for TornadoVM acceleration)
     // TornadoVM uses FloatArray for more efficient handling of data, particularly when running on GPU or other accelerators.
@@ -57,12 +63,21 @@ public abstract class State {
     public final FloatArray wrapValueCache; // FloatArray wrapper for the value cache, optimized for TornadoVM.
     public final IntArray positionHolder;
 
+    // device-side sampling in the logits graph, see SamplingKernels
+    public final FloatArray samplingParameters;    // inverse temperature and number of candidates k, k = 0 reads the logits on the host
+    public final FloatArray samplingValues;        // logits of the candidates in descending order, then the softmax normalizer
+    public final IntArray samplingTokens;          // token ids of the candidates
+    public final FloatArray samplingPartialValues; // per work-group candidates, device scratch
+    public final IntArray samplingPartialTokens;
+    public final FloatArray samplingPartialSums;
+
     // store inter
     public int localSize;
     public FloatArray temp;         // Temporary buffer for intermediate calculations, size adjusted for local workgroup size.
     public FloatArray tempFFN;      // Temporary buffer for feed-forward network calculations, size adjusted for local workgroup size.
     public FloatArray tempLogits;   // Temporary buffer for logits calculations, size adjusted for local workgroup size.
     public int latestToken;         // Keeps track of the most recent token processed by the model. Useful for stateful or autoregressive models.
+    private int startToken = -1;    // latestToken of a fresh state, restored by reset()
 
     /** last index in previous block */
 
@@ -70,6 +85,7 @@ public abstract class State {
         this.batchsize = -1;
         this.latestToken = -1;
         this.localSize = 256;
+        this.contextLength = config.contextLength();
 
         // Initialize all fields through the creation method
         StateFields fields = createStateFields(config);
@@ -87,6 +103,8 @@ public abstract class State {
         //int kvDim = (config.dim() * config.numberOfKeyValueHeads()) / config.numberOfHeads();
         this.keyCache = fields.keyCache;
         this.valueCache = fields.valueCache;
+        this.contiguousKeyCache = fields.keyCache;
+        this.contiguousValueCache = fields.valueCache;
 
         this.wrapX = fields.wrapX;
         this.wrapXb = fields.wrapXb;
@@ -104,12 +122,131 @@ public abstract class State {
         this.wrapAtt = fields.wrapAtt;
         this.positionHolder = fields.positionHolder;
 
+        this.samplingParameters = new FloatArray(1.0f, 0.0f); // logits read on the host until a DeviceSampler configures the plan
+        this.samplingValues = new FloatArray(SamplingKernels.MAX_CANDIDATES + 1);
+        this.samplingTokens = new IntArray(SamplingKernels.MAX_CANDIDATES);
+        this.samplingPartialValues = new FloatArray(SamplingKernels.GROUPS * SamplingKernels.MAX_CANDIDATES);
+        this.samplingPartialTokens = new IntArray(SamplingKernels.GROUPS * SamplingKernels.MAX_CANDIDATES);
+        this.samplingPartialSums = new FloatArray(SamplingKernels.GROUPS);
+
         // You need at least 9 elements: 1 for the final result + 8 for the workgroup partial sums
         this.temp = fields.temp;
         this.tempFFN = fields.tempFFN;
         this.tempLogits = fields.tempLogits;
     }
 
+    /**
+     * Sets the token generation starts from in a fresh state, also restored by {@link #reset()}.
+     */
+    public void setStartToken(int token) {
+        this.startToken = token;
+        this.latestToken = token;
+    }
+
+    /**
+     * Logical reset for reuse by another request, in O(1). Buffers and KV caches are not cleared: a generation starts again at position 0,
+     * and attention at position {@code pos} only reads the cache entries of positions {@code 0..pos}, all written by the same generation.
+     * A state that was {@link #fork(int) forked} releases its paged caches and gets back the contiguous ones it was allocated with.
+     */
+    public void reset() {
+        this.latestToken = startToken;
+        if (contiguousKeyCache != null && keyCache != contiguousKeyCache) {
+            discard();
+            keyCache = contiguousKeyCache;
+            valueCache = contiguousValueCache;
+        }
+    }
+
+    /**
+     * Forks the state after a common prefix, to decode several continuations of it on CPU, e.g. {@code n} completions of one prompt.
+     *
+     * <p>States are allocated with contiguous KV caches, the fastest for a single sequence. The first fork copies the {@code positions}
+     * entries written so far into {@link PagedFloatTensor}s, in O(positions), and this state carries on with them until it is
+     * {@link #reset()}. Paged caches are then forked copy-on-write in O(number of pages), so the prefix entries are shared and each fork
+     * only copies the pages it writes.</p>
+     *
+     * <p>Each fork gets its own copy of the CPU activation buffers, logits included, so the forks can be forwarded together, e.g. by
+     * {@link org.beehive.gpullama3.inference.InferenceCore#forwardJavaBatch}. The TornadoVM wrappers are shared: forks run on CPU only.</p>
+     *
+     * @param positions
+     *         number of positions written in the KV caches, the entries after them are not copied
+     */
+    public State fork(int positions) {
+        if (!(keyCache[0] instanceof PagedFloatTensor)) {
+            keyCache = pagedCopy(keyCache, positions);
+            valueCache = pagedCopy(valueCache, positions);
+        }
+        State child;
+        try {
+            child = clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        child.keyCache = forkCache(keyCache);
+        child.valueCache = forkCache(valueCache);
+        child.contiguousKeyCache = null;
+        child.contiguousValueCache = null;
+        child.copyActivations();
+        return child;
+    }
+
+    /**
+     * Replaces the CPU activation buffers of a fresh fork, still shared with its parent, by copies of them.
+     */
+    protected void copyActivations() {
+        x = copyOf(x);
+        xb = copyOf(xb);
+        xb2 = copyOf(xb2);
+        hb = copyOf(hb);
+        hb2 = copyOf(hb2);
+        q = copyOf(q);
+        k = copyOf(k);
+        v = copyOf(v);
+        att = copyOf(att);
+        logits = copyOf(logits);
+    }
+
+    protected static FloatTensor copyOf(FloatTensor tensor) {
+        int size = Math.toIntExact(tensor.size());
+        FloatTensor copy = ArrayFloatTensor.allocate(size);
+        tensor.copyTo(0, copy, 0, size);
+        return copy;
+    }
+
+    /**
+     * Releases the KV cache pages of a fork that is no longer needed, e.g. a pruned beam, so the forks sharing them write them in place
+     * instead of copying them. The caches read as zeros afterwards: the state must be {@link #reset()} before it is used again.
+     */
+    public void discard() {
+        releaseCache(keyCache);
+        releaseCache(valueCache);
+    }
+
+    private FloatTensor[] pagedCopy(FloatTensor[] cache, int positions) {
+        FloatTensor[] paged = new FloatTensor[cache.length];
+        for (int l = 0; l < cache.length; l++) {
+            int entriesPerPosition = Math.toIntExact(cache[l].size() / contextLength);
+            paged[l] = PagedFloatTensor.copyOf(cache[l], Math.min(positions, contextLength) * entriesPerPosition);
+        }
+        return paged;
+    }
+
+    private static void releaseCache(FloatTensor[] cache) {
+        for (FloatTensor layer : cache) {
+            if (layer instanceof PagedFloatTensor paged) {
+                paged.release();
+            }
+        }
+    }
+
+    private static FloatTensor[] forkCache(FloatTensor[] cache) {
+        FloatTensor[] forked = new FloatTensor[cache.length];
+        for (int l = 0; l < cache.length; l++) {
+            forked[l] = ((PagedFloatTensor) cache[l]).fork();
+        }
+        return forked;
+    }
+
     // Abstract method - subclasses implement their specific allocation logic and sizes
     protected abstract StateFields createStateFields(Configuration config);
 
@@ -0,0 +1,62 @@
+package org.beehive.gpullama3.inference.state;
+
+import org.beehive.gpullama3.model.Model;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of reusable {@link State}s for one model.
+ *
+ * <p>A state holds the activation buffers and the {@code contextLength x kvDim} KV caches of every layer (and their zero-initialized
+ * TornadoVM copies), so for short requests allocating it costs more than the generation. Released states are {@link State#reset() reset}
+ * in O(1) and handed out again, most recently released first, while their memory is still warm. All the states of a model have the context
+ * length of its configuration, so a pool serves one model.</p>
+ *
+ * <p>At most {@code capacity} idle states are kept; {@link #acquire()} never blocks, it allocates a new state when none is idle. Thread-safe.</p>
+ */
+public final class StatePool {
+
+    private final Model model;
+    private final int capacity;
+    private final ArrayDeque<State> idle;
+
+    public StatePool(Model model, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.model = model;
+        this.capacity = capacity;
+        this.idle = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * An idle state, or a new one if none is idle; ready to generate from position 0.
+     */
+    public State acquire() {
+        State state;
+        synchronized (this) {
+            state = idle.pollFirst();
+        }
+        return state != null ? state : model.createNewState();
+    }
+
+    /**
+     * Returns a state to the pool; it is dropped if the pool is full. The state must not be used afterwards.
+     */
+    public void release(State state) {
+        state.reset();
+        synchronized (this) {
+            if (idle.size() < capacity) {
+                idle.addFirst(state);
+            }
+        }
+    }
+
+    public synchronized int idleCount() {
+        return idle.size();
+    }
+
+    public Model model() {
+        return model;
+    }
+}
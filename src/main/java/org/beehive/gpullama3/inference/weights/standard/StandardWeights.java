@@ -1,6 +1,8 @@
 package org.beehive.gpullama3.inference.weights.standard;
 
 import org.beehive.gpullama3.tensor.GGMLType;
+import org.beehive.gpullama3.tensor.LayerPrefetcher;
+import org.beehive.gpullama3.tensor.LayerStreamer;
 import org.beehive.gpullama3.tensor.standard.FloatTensor;
 import org.beehive.gpullama3.inference.weights.Weights;
 
@@ -36,6 +38,9 @@ public abstract class StandardWeights implements Weights {
     // (optional) classifier weights for the logits, on the last layer
     protected final GGMLType weightType;
 
+    private LayerPrefetcher prefetcher;
+    private LayerStreamer streamer;
+
     //@formatter:off
     /**
      * Constructor for standard (non-TornadoVM) mode
@@ -82,4 +87,61 @@ public abstract class StandardWeights implements Weights {
         this.weightType = weightType;
     }
     //@formatter:on
+
+    public void setPrefetcher(LayerPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Streams the layer weights through the pool of {@code streamer}; the layer tensors must have been built over
+     * {@link LayerStreamer#tensorEntries()}.
+     */
+    public void setLayerStreamer(LayerStreamer streamer) {
+        this.streamer = streamer;
+    }
+
+    public boolean isLayerStreaming() {
+        return streamer != null;
+    }
+
+    /**
+     * To be called before computing a layer: with layer streaming, waits until its weights are resident.
+     */
+    public void acquireLayer(int layer) {
+        if (streamer != null) {
+            streamer.acquire(layer);
+        }
+    }
+
+    /**
+     * To be called after computing a layer: with layer streaming, its weights may be replaced by the next layer's.
+     */
+    public void releaseLayer(int layer) {
+        if (streamer != null) {
+            streamer.release(layer);
+        }
+    }
+
+    /**
+     * Starts loading the weights of a layer in the background, {@code numberOfLayers} being the output weights; no-op without a
+     * {@link LayerPrefetcher}.
+     */
+    public void prefetchLayer(int layer) {
+        if (prefetcher != null) {
+            prefetcher.prefetch(layer);
+        }
+    }
+
+    /**
+     * Stops the background reads of the {@link LayerPrefetcher} and the {@link LayerStreamer}, waiting for those in progress; to be called
+     * before the weights are unmapped or their arena is closed.
+     */
+    public void closeBackgroundReads() {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        if (streamer != null) {
+            streamer.close();
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.beehive.gpullama3.model;
 
+import org.beehive.gpullama3.inference.state.StatePool;
 import org.beehive.gpullama3.inference.weights.Weights;
 import org.beehive.gpullama3.model.format.ChatFormat;
 import org.beehive.gpullama3.tokenizer.Tokenizer;
@@ -19,6 +20,10 @@ public abstract class AbstractModel implements Model {
      */
     protected TornadoVMMasterPlan plan;
 
+    /** Idle states kept for the instruct entry points, e.g. concurrent LangChain4j requests. */
+    private static final int STATE_POOL_CAPACITY = 4;
+    private StatePool statePool; // created on first use
+
     protected AbstractModel(Tokenizer tokenizer, Weights weights, ChatFormat chatFormat, TornadoVMMasterPlan plan) {
         this.tokenizer = tokenizer;
         this.weights = weights;
@@ -44,4 +49,11 @@ public abstract class AbstractModel implements Model {
         this.plan = plan;
     }
 
+    public synchronized StatePool statePool() {
+        if (statePool == null) {
+            statePool = new StatePool(this, STATE_POOL_CAPACITY);
+        }
+        return statePool;
+    }
+
 }
@@ -2,8 +2,11 @@ package org.beehive.gpullama3.model;
 
 import org.beehive.gpullama3.Options;
 import org.beehive.gpullama3.auxiliary.LastRunMetrics;
+import org.beehive.gpullama3.inference.BeamSearch;
+import org.beehive.gpullama3.inference.StopSequenceStreamer;
 import org.beehive.gpullama3.inference.sampler.Sampler;
 import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.state.StatePool;
 import org.beehive.gpullama3.inference.weights.Weights;
 import org.beehive.gpullama3.model.format.ChatFormat;
 import org.beehive.gpullama3.tokenizer.Tokenizer;
@@ -38,6 +41,11 @@ public interface Model {
 
     State createNewState(int batchsize);
 
+    /**
+     * Pool of the states of this model; the instruct entry points take their state from it and return it when done.
+     */
+    StatePool statePool();
+
     default boolean shouldAddBeginOfText() {
         return true;
     }
@@ -129,20 +137,34 @@ public interface Model {
                         }
                     }
                 };
+                StopSequenceStreamer stopSequenceStreamer = createStopSequenceStreamer(options, options.stream() ? System.out::print : null);
+                // every turn is a new sequence for the sampler, following the whole conversation
+                sampler.begin(conversationTokens);
 
                 // Choose between GPU and CPU path based on configuration
                 if (options.useTornadovm()) {
                     // GPU path using TornadoVM
                     responseTokens = generateTokensGPU(state, startPosition, conversationTokens.subList(startPosition, conversationTokens.size()), stopTokens, options.maxTokens(), sampler,
-                            options.echo(), options.stream() ? tokenConsumer : null, tornadoVMPlan);
+                            options.echo(), stopSequenceStreamer != null ? stopSequenceStreamer : options.stream() ? tokenConsumer : null, tornadoVMPlan);
                 } else {
                     // CPU path
                     responseTokens = generateTokens(state, startPosition, conversationTokens.subList(startPosition, conversationTokens.size()), stopTokens, options.maxTokens(), sampler,
-                            options.echo(), tokenConsumer);
+                            options.echo(), stopSequenceStreamer != null ? stopSequenceStreamer : tokenConsumer);
+                }
+                if (stopSequenceStreamer != null) {
+                    stopSequenceStreamer.finish();
                 }
 
                 // Include stop token in the prompt history, but not in the response displayed to the user.
-                conversationTokens.addAll(responseTokens);
+                if (stopSequenceStreamer != null && stopSequenceStreamer.isStopped()) {
+                    // keep the tokens before the stop string and close the turn as a stop token would, the next turn continues from the
+                    // last kept token, the positions after it are overwritten
+                    conversationTokens.addAll(responseTokens.subList(0, stopSequenceStreamer.tokensBeforeStop()));
+                    state.latestToken = conversationTokens.getLast();
+                    conversationTokens.add(chatFormat.getEndOfTurn());
+                } else {
+                    conversationTokens.addAll(responseTokens);
+                }
                 startPosition = conversationTokens.size();
                 Integer stopToken = null;
                 if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
@@ -150,14 +172,14 @@ public interface Model {
                     responseTokens.removeLast();
                 }
                 if (!options.stream()) {
-                    String responseText = tokenizer().decode(responseTokens);
+                    String responseText = stopSequenceStreamer != null ? stopSequenceStreamer.text() : tokenizer().decode(responseTokens);
                     // Add the forced <think>\n prefix for non-streaming output
                     if (shouldIncludeReasoning()) {
                         responseText = "<think>\n" + responseText;
                     }
                     System.out.println(responseText);
                 }
-                if (stopToken == null) {
+                if (stopToken == null && (stopSequenceStreamer == null || !stopSequenceStreamer.isStopped())) {
                     System.err.println("\n Ran out of context length...\n Increase context length with by passing to llama-tornado --max-tokens XXX");
                     break;
                 }
@@ -186,7 +208,15 @@ public interface Model {
      * @param options
      */
     default String runInstructOnce(Sampler sampler, Options options) {
-        State state = createNewState();
+        State state = statePool().acquire();
+        try {
+            return runInstructOnce(sampler, options, state);
+        } finally {
+            statePool().release(state);
+        }
+    }
+
+    private String runInstructOnce(Sampler sampler, Options options, State state) {
         ChatFormat chatFormat = chatFormat();
         TornadoVMMasterPlan tornadoVMPlan = null;
 
@@ -230,13 +260,26 @@ public interface Model {
         };
 
         Set<Integer> stopTokens = chatFormat.getStopTokens();
+        StopSequenceStreamer stopSequenceStreamer = createStopSequenceStreamer(options, options.stream() ? System.out::print : null);
+        sampler.begin(promptTokens);
 
         if (options.useTornadovm()) {
             // GPU path using TornadoVM - Call generateTokensGPU without the token consumer parameter
-            responseTokens = generateTokensGPU(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), options.stream() ? tokenConsumer : null, tornadoVMPlan);
+            responseTokens = generateTokensGPU(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(),
+                    stopSequenceStreamer != null ? stopSequenceStreamer : options.stream() ? tokenConsumer : null, tornadoVMPlan);
+        } else if (options.beamWidth() > 1) {
+            // Beam search: the output is only known at the end, it is replayed through the consumers
+            responseTokens = BeamSearch.generate(this, state, 0, promptTokens, stopTokens, options.maxTokens(), options.beamWidth(), options.lengthPenalty());
+            IntConsumer consumer = stopSequenceStreamer != null ? stopSequenceStreamer : tokenConsumer;
+            for (int token : responseTokens) {
+                consumer.accept(token);
+            }
         } else {
             // CPU path
-            responseTokens = generateTokens(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), tokenConsumer);
+            responseTokens = generateTokens(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), stopSequenceStreamer != null ? stopSequenceStreamer : tokenConsumer);
+        }
+        if (stopSequenceStreamer != null) {
+            stopSequenceStreamer.finish();
         }
 
         if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
@@ -245,7 +288,7 @@ public interface Model {
 
         String responseText = "";
         if (!options.stream()) {
-             responseText = tokenizer().decode(responseTokens);
+             responseText = stopSequenceStreamer != null ? stopSequenceStreamer.text() : tokenizer().decode(responseTokens);
             // Add the forced <think>\n prefix for non-streaming output
             if (shouldIncludeReasoning()) {
                 responseText = "<think>\n" + responseText;
@@ -259,8 +302,29 @@ public interface Model {
         return responseText;
     }
 
+    /**
+     * Creates the token callback matching the {@code --stop} strings, or {@code null} when none are set.
+     *
+     * @param downstream
+     *         receives the text that is safe to stream, {@code null} if nothing is streamed
+     */
+    private StopSequenceStreamer createStopSequenceStreamer(Options options, Consumer<String> downstream) {
+        if (options.stopSequences().isEmpty()) {
+            return null;
+        }
+        return new StopSequenceStreamer(tokenizer(), options.stopSequences(), downstream);
+    }
+
     default String runInstructOnceLangChain4J(Sampler sampler, Options options, Consumer<String> tokenCallback) {
-        State state = createNewState();
+        State state = statePool().acquire();
+        try {
+            return runInstructOnceLangChain4J(sampler, options, tokenCallback, state);
+        } finally {
+            statePool().release(state);
+        }
+    }
+
+    private String runInstructOnceLangChain4J(Sampler sampler, Options options, Consumer<String> tokenCallback, State state) {
         ChatFormat chatFormat = chatFormat();
         TornadoVMMasterPlan tornadoVMPlan = null;
 
@@ -304,23 +368,28 @@ public interface Model {
         };
 
         Set<Integer> stopTokens = chatFormat.getStopTokens();
+        StopSequenceStreamer stopSequenceStreamer = createStopSequenceStreamer(options, options.stream() ? tokenCallback : null);
+        sampler.begin(promptTokens);
 
         if (options.useTornadovm()) {
             // GPU path using TornadoVM Call generateTokensGPU without the token consumer parameter
-            responseTokens = generateTokensGPU(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), options.stream() ? tokenConsumer : null, tornadoVMPlan);
+            responseTokens = generateTokensGPU(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(),
+                    stopSequenceStreamer != null ? stopSequenceStreamer : options.stream() ? tokenConsumer : null, tornadoVMPlan);
         } else {
             // CPU path
-            responseTokens = generateTokens(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), tokenConsumer);
+            responseTokens = generateTokens(state, 0, promptTokens, stopTokens, options.maxTokens(), sampler, options.echo(), stopSequenceStreamer != null ? stopSequenceStreamer : tokenConsumer);
+        }
+        if (stopSequenceStreamer != null) {
+            stopSequenceStreamer.finish();
         }
 
         if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
             responseTokens.removeLast();
         }
 
-        String responseText = tokenizer().decode(responseTokens);
+        String responseText = stopSequenceStreamer != null ? stopSequenceStreamer.text() : tokenizer().decode(responseTokens);
 
         if (!options.stream()) {
-            responseText = tokenizer().decode(responseTokens);
             if (shouldIncludeReasoning()) {
                 responseText = "<think>\n" + responseText;
             }
@@ -7,6 +7,7 @@ import org.beehive.gpullama3.model.loader.Phi3ModelLoader;
 import org.beehive.gpullama3.model.loader.Qwen2ModelLoader;
 import org.beehive.gpullama3.model.loader.Qwen3ModelLoader;
 
+import java.lang.foreign.Arena;
 import java.nio.channels.FileChannel;
 
 /**
@@ -24,55 +25,62 @@ import java.nio.channels.FileChannel;
 public enum ModelType {
     LLAMA_3 {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new LlamaModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new LlamaModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     MISTRAL {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new MistralModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new MistralModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     QWEN_2 {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new Qwen2ModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new Qwen2ModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     QWEN_3 {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new Qwen3ModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new Qwen3ModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     DEEPSEEK_R1_DISTILL_QWEN {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new Qwen2ModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new Qwen2ModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     PHI_3 {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-            return new Phi3ModelLoader(fileChannel, gguf, contextLength, useTornadovm).loadModel();
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+            return new Phi3ModelLoader(fileChannel, gguf, contextLength, useTornadovm, arena).loadModel();
         }
     },
 
     UNKNOWN {
         @Override
-        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
+        public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
             throw new UnsupportedOperationException("Cannot load unknown model type");
         }
     };
 
+    public Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
+        return loadModel(fileChannel, gguf, contextLength, useTornadovm, Arena.ofAuto());
+    }
+
     // Abstract method that each enum constant must implement
-    public abstract Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm);
+    /**
+     * Loads the model with its weights mapped in {@code arena}; closing the arena releases them.
+     */
+    public abstract Model loadModel(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena);
 
     public boolean isDeepSeekR1() {
         return this == DEEPSEEK_R1_DISTILL_QWEN;
@@ -32,6 +32,12 @@ public interface ChatFormat {
 
     Set<Integer> getStopTokens();
 
+    /**
+     * The token closing an assistant message in the conversation history, e.g. when generation ended on a stop string instead of a stop
+     * token.
+     */
+    int getEndOfTurn();
+
     record ChatTokens(String tStartHeader, String tEndHeader, String tEndOfTurn, String tEndOfText, String tEndOfTextFim) {
     }
 
@@ -40,6 +40,11 @@ public class LlamaChatFormat implements ChatFormat {
         return stopTokens;
     }
 
+    @Override
+    public int getEndOfTurn() {
+        return endOfTurn;
+    }
+
     @Override
     public List<Integer> encodeHeader(Message message) {
         List<Integer> tokens = new ArrayList<>();
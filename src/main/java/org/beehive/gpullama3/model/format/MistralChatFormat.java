@@ -54,6 +54,11 @@ public class MistralChatFormat implements ChatFormat {
         return Set.of(endOfText);
     }
 
+    @Override
+    public int getEndOfTurn() {
+        return endOfText;
+    }
+
     @Override
     public List<Integer> encodeHeader(Message message) {
         List<Integer> tokens = new ArrayList<>();
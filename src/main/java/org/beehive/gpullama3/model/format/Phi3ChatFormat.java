@@ -58,6 +58,11 @@ public class Phi3ChatFormat implements ChatFormat {
         return Set.of(end);
     }
 
+    @Override
+    public int getEndOfTurn() {
+        return end;
+    }
+
     public List<Integer> encodeHeader(Message message) {
         List<Integer> tokens = new ArrayList<>();
         String tokenRole = "<|" + message.role().name() + "|>";
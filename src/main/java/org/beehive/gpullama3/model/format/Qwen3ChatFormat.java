@@ -104,6 +104,12 @@ public class Qwen3ChatFormat implements ChatFormat {
         return beginOfText;
     }
 
+    @Override
+    public int getEndOfTurn() {
+        // DeepSeek-R1 has no end of message token, a turn ends with the end of text
+        return imEnd != -1 ? imEnd : endOfText;
+    }
+
     @Override
     public Set<Integer> getStopTokens() {
         if (imEnd == -1 && endOfText == -1) {
@@ -44,14 +44,14 @@ public class Llama extends AbstractModel {
     @Override
     public State createNewState() {
         State state = new LlamaState(configuration(), -1);
-        state.latestToken = tokenizer.getSpecialTokens().get("<|begin_of_text|>");
+        state.setStartToken(tokenizer.getSpecialTokens().get("<|begin_of_text|>"));
         return state;
     }
 
     @Override
     public State createNewState(int batchsize) {
         State state = new LlamaState(configuration(), batchsize);
-        state.latestToken = tokenizer.getSpecialTokens().get("<|begin_of_text|>");
+        state.setStartToken(tokenizer.getSpecialTokens().get("<|begin_of_text|>"));
         return state;
     }
 
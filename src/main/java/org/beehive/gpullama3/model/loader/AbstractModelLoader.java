@@ -2,15 +2,21 @@ package org.beehive.gpullama3.model.loader;
 
 import org.beehive.gpullama3.tensor.GGUF;
 import org.beehive.gpullama3.tensor.GGMLTensorEntry;
+import org.beehive.gpullama3.tensor.LayerPrefetcher;
+import org.beehive.gpullama3.tensor.LayerStreamer;
+import org.beehive.gpullama3.tensor.WeightWarmUp;
 import org.beehive.gpullama3.auxiliary.Pair;
 import org.beehive.gpullama3.inference.weights.Weights;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
 import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.tokenizer.Tokenizer;
 import org.beehive.gpullama3.tokenizer.Vocabulary;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
 import java.nio.channels.FileChannel;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -25,14 +31,16 @@ public abstract class AbstractModelLoader<M extends Model, C extends Configurati
     protected final GGUF gguf;
     protected final int contextLength;
     protected final boolean useTornadovm;
+    protected final Arena arena;
 
     protected Vocabulary vocabulary;
 
-    protected AbstractModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
+    protected AbstractModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
         this.fileChannel = fileChannel;
         this.gguf = gguf;
         this.contextLength = contextLength;
         this.useTornadovm = useTornadovm;
+        this.arena = arena;
     }
 
     /**
@@ -56,13 +64,35 @@ public abstract class AbstractModelLoader<M extends Model, C extends Configurati
             // Step 4: Load tensor entries
             Map<String, GGMLTensorEntry> tensorEntries;
             if (useTornadovm) {
-                tensorEntries = GGUF.loadTensorsTornado(fileChannel, gguf.getTensorDataOffset(), gguf.getTensorInfos());
+                tensorEntries = GGUF.loadTensorsTornado(gguf, arena);
             } else {
-                tensorEntries = GGUF.loadTensorsStandard(fileChannel, gguf.getTensorDataOffset(), gguf.getTensorInfos());
+                tensorEntries = GGUF.loadTensorsStandard(gguf, arena);
+            }
+            LayerStreamer streamer = null;
+            if (!useTornadovm && LayerStreamer.WINDOW > 0) {
+                if (gguf.getSplits().size() > 1) {
+                    throw new UnsupportedOperationException("Layer streaming of split models");
+                }
+                // the layer tensors are read into an off-heap pool instead of being mapped
+                streamer = LayerStreamer.create(fileChannel, gguf.getTensorDataOffset(), gguf.getTensorInfos(), config.numberOfLayers(), LayerStreamer.WINDOW, arena);
+                tensorEntries = new HashMap<>(tensorEntries);
+                tensorEntries.putAll(streamer.tensorEntries());
+            }
+            if (WeightWarmUp.ENABLED) {
+                // fault the mapped weights in now rather than during the first forward pass
+                WeightWarmUp.warmUp(tensorEntries.values());
             }
 
             // Step 4: Load weights
             Weights weights = loadWeights(tensorEntries, config);
+            if (weights instanceof StandardWeights standardWeights) {
+                if (LayerPrefetcher.ENABLED) {
+                    standardWeights.setPrefetcher(LayerPrefetcher.create(tensorEntries, config.numberOfLayers()));
+                }
+                if (streamer != null) {
+                    standardWeights.setLayerStreamer(streamer);
+                }
+            }
 
             // Step 5: Create and return model instance
             return createModel(config, tokenizer, weights);
@@ -21,6 +21,7 @@ import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 
 
+import java.lang.foreign.Arena;
 import java.nio.channels.FileChannel;
 import java.util.Map;
 
@@ -28,8 +29,8 @@ import static org.beehive.gpullama3.model.loader.ModelLoader.*;
 
 public class LlamaModelLoader extends AbstractModelLoader<Llama, LlamaConfiguration> {
 
-    public LlamaModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-        super(fileChannel, gguf, contextLength, useTornadovm);
+    public LlamaModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+        super(fileChannel, gguf, contextLength, useTornadovm, arena);
     }
 
     @Override
@@ -105,14 +106,15 @@ public class LlamaModelLoader extends AbstractModelLoader<Llama, LlamaConfigurat
                                              Pair<float[], float[]> ropeFreqs,
                                              GGMLTensorEntry tokenEmbeddings,
                                              GGMLTensorEntry outputWeight) {
-        GGMLType ggmlType = outputWeight.ggmlType();
+        // the planner follows the layer matrices, a Q4_0 model may keep its output projection in Q8_0
+        GGMLType ggmlType = tensorEntries.get("blk.0.attn_q.weight").ggmlType();
 
         if (TornadoVMMasterPlan.ENABLE_TORNADOVM_INIT_TIME) {
             System.out.println("Loading model weights in TornadoVM format (loading " + ggmlType + ")");
         }
 
         // Validate supported types
-        if (ggmlType != GGMLType.F16 && ggmlType != GGMLType.Q8_0) {
+        if (ggmlType != GGMLType.F16 && ggmlType != GGMLType.Q8_0 && ggmlType != GGMLType.Q4_0) {
             throw new UnsupportedOperationException("Type: " + ggmlType + " currently not supported for TornadoVM weights.");
         }
 
@@ -1,6 +1,7 @@
 package org.beehive.gpullama3.model.loader;
 
 import org.beehive.gpullama3.Options;
+import org.beehive.gpullama3.auxiliary.Pair;
 import org.beehive.gpullama3.tensor.GGMLType;
 import org.beehive.gpullama3.tensor.GGUF;
 import org.beehive.gpullama3.tensor.*;
@@ -9,12 +10,15 @@ import org.beehive.gpullama3.model.ModelType;
 import org.beehive.gpullama3.tensor.standard.*;
 import org.beehive.gpullama3.tensor.tornado.FP16TornadoTensor;
 import org.beehive.gpullama3.tensor.tornado.FP32TornadoTensor;
+import org.beehive.gpullama3.tensor.tornado.Q4_0TornadoTensor;
 import org.beehive.gpullama3.tensor.tornado.Q8_0TornadoTensor;
 import org.beehive.gpullama3.tensor.tornado.TornadoTensor;
+import org.beehive.gpullama3.tornadovm.KernelCache;
 import uk.ac.manchester.tornado.api.types.HalfFloat;
 import uk.ac.manchester.tornado.api.types.arrays.*;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.ByteOrder;
@@ -81,6 +85,9 @@ public abstract class ModelLoader {
         Path ggufPath = options.modelPath();
         int contextLength = options.maxTokens();
         boolean useTornadovm = options.useTornadovm();
+        if (useTornadovm) {
+            KernelCache.configure(ggufPath, contextLength);
+        }
 
         // initial load of metadata from gguf file
         GGUF gguf = GGUF.loadGGUFMetadata(ggufPath);
@@ -90,6 +97,28 @@ public abstract class ModelLoader {
         return modelType.loadModel(gguf.getFileChannel(), gguf, contextLength, useTornadovm);
     }
 
+    /**
+     * Loads a model with a given context length, e.g. for benchmarks.
+     */
+    public static Model loadModel(Path ggufPath, int contextLength, boolean useTornadovm) throws IOException {
+        return loadModel(ggufPath, contextLength, useTornadovm, Arena.ofAuto()).first();
+    }
+
+    /**
+     * Loads a model with its files mapped in {@code arena}, see {@link ModelRegistry}.
+     *
+     * @return the model and its {@link GGUF}, whose files the caller closes with the arena
+     */
+    static Pair<Model, GGUF> loadModel(Path ggufPath, int contextLength, boolean useTornadovm, Arena arena) throws IOException {
+        if (useTornadovm) {
+            // before the weights are loaded into TornadoVM arrays
+            KernelCache.configure(ggufPath, contextLength);
+        }
+        GGUF gguf = GGUF.loadGGUFMetadata(ggufPath, arena);
+        ModelType modelType = detectModelType(gguf.getMetadata());
+        return new Pair<>(modelType.loadModel(gguf.getFileChannel(), gguf, contextLength, useTornadovm, arena), gguf);
+    }
+
     /**
      * Dispatcher method for loading a standard (non-tornado) tensor based on GGML type.
      * Used in CPU-path.
@@ -97,10 +126,10 @@ public abstract class ModelLoader {
     public static FloatTensor loadTensor(GGMLTensorEntry entry) {
         GGMLType ggmlType = entry.ggmlType();
         return switch (ggmlType) {
-            case F32 -> new FP32FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
-            case Q8_0 -> new Q8_0FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
-            case Q4_0 -> new Q4_0FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
-            case F16 -> new FP16FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
+            case F32 -> new FP32FloatTensor(FloatTensor.numberOfElementsLong(entry.shape()), entry.memorySegment());
+            case Q8_0 -> new Q8_0FloatTensor(FloatTensor.numberOfElementsLong(entry.shape()), entry.memorySegment());
+            case Q4_0 -> new Q4_0FloatTensor(FloatTensor.numberOfElementsLong(entry.shape()), entry.memorySegment());
+            case F16 -> new FP16FloatTensor(FloatTensor.numberOfElementsLong(entry.shape()), entry.memorySegment());
             default -> throw new UnsupportedOperationException("Quantization format " + ggmlType);
         };
     }
@@ -123,12 +152,11 @@ public abstract class ModelLoader {
      */
     public static TornadoTensor loadTornadoTensor(GGMLTensorEntry entry) {
         GGMLType ggmlType = entry.ggmlType();
-        int size = FloatTensor.numberOfElements(entry.shape());
         return switch (ggmlType) {
             case F32 -> FP32TornadoTensor.fromTornadoMemorySegment(entry.memorySegment());
             case F16 -> FP16TornadoTensor.fromTornadoMemorySegment(entry.memorySegment());
             case Q8_0 -> Q8_0TornadoTensor.create(entry);
-            case Q4_0 -> throw new UnsupportedOperationException("Q4 format not supported yet");
+            case Q4_0 -> Q4_0TornadoTensor.create(entry);
             default -> throw new UnsupportedOperationException("Quantization format " + ggmlType);
         };
     }
@@ -173,6 +201,15 @@ public abstract class ModelLoader {
                 yield new FP32TornadoTensor(tensorFA);
 
             }
+            case Q4_0 -> {
+                Q4_0TornadoTensor tensorQ4_0 = (Q4_0TornadoTensor) tensor;
+                int numOfElements = tensorQ4_0.getSize();
+                FloatArray tensorFA = new FloatArray(numOfElements);
+                for (int i = 0; i < numOfElements; i++) {
+                    tensorFA.set(i, tensorQ4_0.getFloat(i));
+                }
+                yield new FP32TornadoTensor(tensorFA);
+            }
             default -> {
                 throw new UnsupportedOperationException("Unsupported tensor type: " + tensor.type());
             }
@@ -229,18 +266,18 @@ public abstract class ModelLoader {
 
     public static FloatArray loadTensorAsFloatArray(GGMLTensorEntry entry) {
         if (entry.ggmlType() == GGMLType.F32) {
-            // For F32, we can directly create FloatArray from memory
-            FloatBuffer buffer = entry.memorySegment().asByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
-            FloatArray array = new FloatArray(buffer.remaining());
-            for (int i = 0; i < buffer.remaining(); i++) {
-                array.set(i, buffer.get());
-            }
+            // For F32, we can directly copy the memory; a segment copy, unlike a ByteBuffer view, is not limited to 2 GB
+            MemorySegment segment = entry.memorySegment();
+            int numberOfElements = Math.toIntExact(segment.byteSize() / Float.BYTES);
+            FloatArray array = new FloatArray(numberOfElements);
+            MemorySegment.copy(segment, ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN), 0, array.getSegment(), ValueLayout.JAVA_FLOAT, 0, numberOfElements);
             return array;
         } else {
             // For quantized formats, we need to load through FloatTensor
             FloatTensor tensor = loadTensor(entry);
-            FloatArray array = new FloatArray(tensor.size());
-            for (int i = 0; i < tensor.size(); i++) {
+            int numberOfElements = Math.toIntExact(tensor.size());
+            FloatArray array = new FloatArray(numberOfElements);
+            for (int i = 0; i < numberOfElements; i++) {
                 array.set(i, tensor.getFloat(i));
             }
             return array;
@@ -254,8 +291,9 @@ public abstract class ModelLoader {
         } else {
             // For quantized formats, we need to load through FloatTensor
             FloatTensor tensor = loadTensor(entry);
-            HalfFloatArray array = new HalfFloatArray(tensor.size());
-            for (int i = 0; i < tensor.size(); i++) {
+            int numberOfElements = Math.toIntExact(tensor.size());
+            HalfFloatArray array = new HalfFloatArray(numberOfElements);
+            for (int i = 0; i < numberOfElements; i++) {
                 HalfFloat x = new HalfFloat(tensor.getFloat(i));
                 array.set(i, x);
             }
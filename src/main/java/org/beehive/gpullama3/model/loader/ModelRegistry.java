@@ -0,0 +1,225 @@
+package org.beehive.gpullama3.model.loader;
+
+import org.beehive.gpullama3.auxiliary.MetricsRecorder;
+import org.beehive.gpullama3.auxiliary.Pair;
+import org.beehive.gpullama3.inference.weights.standard.StandardWeights;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.tensor.GGUF;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Explicit lifecycle for models served by a long-running process.
+ *
+ * <p>Models are registered under a name and loaded into their own shared {@link Arena}. Users {@link #acquire(String) acquire} a
+ * {@link Lease} for the duration of a session or request; a loaded model is reference counted by its name bindings and open leases, and
+ * when the count drops to zero its arena is closed, which unmaps the weights right away instead of whenever the GC collects the segments.</p>
+ *
+ * <p>Registering a name again hot-swaps the model: new leases get the new version, while sessions holding a lease on the previous one
+ * finish on it and release it when they close. Names registered with the same file and settings share one loaded model, so the file is
+ * mapped once however many engines use it.</p>
+ *
+ * <p>Thread-safe. Loading happens outside the lock, so a hot swap does not block sessions acquiring the current version.</p>
+ */
+public final class ModelRegistry implements AutoCloseable {
+
+    private record Key(Path path, int contextLength, boolean useTornadovm) {
+    }
+
+    private static final class Loaded {
+        final Key key;
+        final Model model;
+        final GGUF gguf;
+        final Arena arena;
+        final MetricsRecorder metrics = new MetricsRecorder();
+        int references; // guarded by the registry
+
+        Loaded(Key key, Model model, GGUF gguf, Arena arena) {
+            this.key = key;
+            this.model = model;
+            this.gguf = gguf;
+            this.arena = arena;
+        }
+
+        void free() {
+            if (model.tornadoVMPlan() != null) {
+                model.tornadoVMPlan().freeTornadoExecutionPlan();
+            }
+            if (model.weights() instanceof StandardWeights weights) {
+                // the background threads read the file into the arena and touch the mapped weights
+                weights.closeBackgroundReads();
+            }
+            try {
+                gguf.closeFiles();
+            } catch (IOException e) {
+                System.err.println("Error while closing " + key.path() + ": " + e.getMessage());
+            }
+            arena.close();
+        }
+    }
+
+    /**
+     * A reference to a loaded model; the model stays loaded until the lease is closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Loaded loaded;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(Loaded loaded) {
+            this.loaded = loaded;
+        }
+
+        public Model model() {
+            if (closed.get()) {
+                throw new IllegalStateException("Lease is closed");
+            }
+            return loaded.model;
+        }
+
+        /**
+         * Metrics aggregated over all the sessions of the model that {@link org.beehive.gpullama3.inference.GenerationSession.Builder#metrics(MetricsRecorder) record}
+         * into it, for as long as it stays loaded.
+         */
+        public MetricsRecorder metrics() {
+            return loaded.metrics;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(loaded);
+            }
+        }
+    }
+
+    private final Map<Key, Loaded> loaded = new HashMap<>();
+    private final Map<String, Loaded> bindings = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * Loads the model at {@code path} (unless it is already loaded with the same settings) and binds it to {@code name}, replacing the
+     * model previously bound to it.
+     */
+    public void register(String name, Path path, int contextLength, boolean useTornadovm) throws IOException {
+        Key key = new Key(path.toRealPath(), contextLength, useTornadovm);
+        Loaded next = retainLoaded(key);
+        if (next == null) {
+            Loaded fresh = load(key);
+            synchronized (this) {
+                next = loaded.get(key);
+                if (next == null && !closed) {
+                    next = fresh;
+                    loaded.put(key, next);
+                }
+                if (next != null) {
+                    next.references++;
+                }
+            }
+            if (next != fresh) {
+                // lost a race with a concurrent registration of the same file, or the registry was closed meanwhile
+                fresh.free();
+            }
+            if (next == null) {
+                throw new IllegalStateException("Registry is closed");
+            }
+        }
+        Loaded previous;
+        boolean registryClosed;
+        synchronized (this) {
+            registryClosed = closed;
+            previous = registryClosed ? next : bindings.put(name, next);
+        }
+        if (previous != null) {
+            release(previous);
+        }
+        if (registryClosed) {
+            throw new IllegalStateException("Registry is closed");
+        }
+    }
+
+    private synchronized Loaded retainLoaded(Key key) {
+        if (closed) {
+            throw new IllegalStateException("Registry is closed");
+        }
+        Loaded existing = loaded.get(key);
+        if (existing != null) {
+            existing.references++;
+        }
+        return existing;
+    }
+
+    private static Loaded load(Key key) throws IOException {
+        // shared: the forward pass reads the weights from the fork-join pool, and layer streaming writes them from a background thread
+        Arena arena = Arena.ofShared();
+        try {
+            Pair<Model, GGUF> model = ModelLoader.loadModel(key.path(), key.contextLength(), key.useTornadovm(), arena);
+            return new Loaded(key, model.first(), model.second(), arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Leases the model bound to {@code name}.
+     *
+     * @throws IllegalArgumentException
+     *         if no model is registered under {@code name}
+     */
+    public synchronized Lease acquire(String name) {
+        Loaded model = bindings.get(name);
+        if (model == null) {
+            throw new IllegalArgumentException("No model registered as " + name);
+        }
+        model.references++;
+        return new Lease(model);
+    }
+
+    /**
+     * Removes the binding of {@code name}; the model is unloaded once no other name or lease refers to it.
+     */
+    public void unregister(String name) {
+        Loaded previous;
+        synchronized (this) {
+            previous = bindings.remove(name);
+        }
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    public synchronized List<String> names() {
+        return List.copyOf(bindings.keySet());
+    }
+
+    private void release(Loaded model) {
+        synchronized (this) {
+            if (--model.references > 0) {
+                return;
+            }
+            loaded.remove(model.key);
+        }
+        model.free();
+    }
+
+    /**
+     * Removes all the bindings; models still leased are unloaded when their last lease is closed.
+     */
+    @Override
+    public void close() {
+        List<Loaded> previous;
+        synchronized (this) {
+            closed = true;
+            previous = new ArrayList<>(bindings.values());
+            bindings.clear();
+        }
+        previous.forEach(this::release);
+    }
+}
@@ -19,6 +19,7 @@ import org.beehive.gpullama3.tokenizer.Vocabulary;
 import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 
+import java.lang.foreign.Arena;
 import java.nio.channels.FileChannel;
 import java.util.Map;
 
@@ -27,8 +28,8 @@ import static org.beehive.gpullama3.model.loader.ModelLoader.*;
 public class Phi3ModelLoader extends AbstractModelLoader<Phi3, Phi3Configuration> {
     private int modelContextLength;
 
-    public Phi3ModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-        super(fileChannel, gguf, contextLength, useTornadovm);
+    public Phi3ModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+        super(fileChannel, gguf, contextLength, useTornadovm, arena);
     }
 
     @Override
@@ -50,6 +51,7 @@ public class Phi3ModelLoader extends AbstractModelLoader<Phi3, Phi3Configuration
     @Override
     protected Phi3Configuration createConfiguration(Map<String, Object> metadata) {
         final String modelPrefix = "phi3.";
+        modelContextLength = (int) metadata.get(modelPrefix + "context_length");
 
         var config = new Phi3Configuration(
                 (int) metadata.get(modelPrefix + "embedding_length"),           // dim
@@ -20,6 +20,7 @@ import org.beehive.gpullama3.tokenizer.Vocabulary;
 import org.beehive.gpullama3.tornadovm.TornadoVMMasterPlan;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 
+import java.lang.foreign.Arena;
 import java.nio.channels.FileChannel;
 import java.util.Map;
 
@@ -28,8 +29,8 @@ import static org.beehive.gpullama3.tokenizer.Vocabulary.loadQwen3Vocabulary;
 
 public class Qwen3ModelLoader extends AbstractModelLoader<Qwen3, Qwen3Configuration> {
 
-    public Qwen3ModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm) {
-        super(fileChannel, gguf, contextLength, useTornadovm);
+    public Qwen3ModelLoader(FileChannel fileChannel, GGUF gguf, int contextLength, boolean useTornadovm, Arena arena) {
+        super(fileChannel, gguf, contextLength, useTornadovm, arena);
     }
 
     @Override
@@ -43,13 +43,13 @@ public class Mistral extends AbstractModel {
 
     public State createNewState() {
         State state = new LlamaState(configuration(), -1);
-        state.latestToken = tokenizer.getSpecialTokens().get("<s>");
+        state.setStartToken(tokenizer.getSpecialTokens().get("<s>"));
         return state;
     }
 
     public State createNewState(int batchsize) {
         State state = new LlamaState(configuration(), batchsize);
-        state.latestToken = tokenizer.getSpecialTokens().get("<s>");
+        state.setStartToken(tokenizer.getSpecialTokens().get("<s>"));
         return state;
     }
 
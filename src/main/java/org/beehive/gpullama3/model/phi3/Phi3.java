@@ -42,14 +42,14 @@ public class Phi3 extends AbstractModel {
     @Override
     public State createNewState() {
         State state = new Phi3State(configuration(), -1);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
     @Override
     public State createNewState(int batchsize) {
         State state = new Phi3State(configuration(), batchsize);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
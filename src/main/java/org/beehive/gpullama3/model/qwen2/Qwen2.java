@@ -43,14 +43,14 @@ public class Qwen2 extends AbstractModel {
     @Override
     public State createNewState() {
         State state = new Qwen2State(configuration(), -1);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
     @Override
     public State createNewState(int batchsize) {
         State state = new Qwen2State(configuration(), batchsize);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
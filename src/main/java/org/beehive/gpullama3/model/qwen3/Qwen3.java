@@ -42,14 +42,14 @@ public class Qwen3 extends AbstractModel {
     @Override
     public State createNewState() {
         State state = new Qwen3State(configuration(), -1);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
     @Override
     public State createNewState(int batchsize) {
         State state = new Qwen3State(configuration(), batchsize);
-        state.latestToken = tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader());
+        state.setStartToken(tokenizer.getSpecialTokens().get(chatFormat.chatTokens().tStartHeader()));
         return state;
     }
 
@@ -2,52 +2,127 @@ package org.beehive.gpullama3.tensor;
 
 import org.beehive.gpullama3.tensor.standard.FloatTensor;
 import org.beehive.gpullama3.auxiliary.Pair;
+import org.beehive.gpullama3.auxiliary.Parallel;
 import uk.ac.manchester.tornado.api.types.arrays.TornadoNativeArray;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 public final class GGUF {
-    private static FileChannel fileChannel;
-    private static final int GGUF_MAGIC = 0x46554747;
+    static final int GGUF_MAGIC = 0x46554747;
     private static final int DEFAULT_ALIGNMENT = 32; // must be a power of 2
     private static final List<Integer> SUPPORTED_GGUF_VERSIONS = List.of(2, 3);
-    private final ByteBuffer BB_1 = ByteBuffer.allocate(Byte.BYTES).order(ByteOrder.LITTLE_ENDIAN);
-    private final ByteBuffer BB_2 = ByteBuffer.allocate(Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
-    private final ByteBuffer BB_4 = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
-    private final ByteBuffer BB_8 = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfShort LE_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt LE_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LE_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfFloat LE_FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble LE_DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    /** String arrays with at least this many elements are decoded on first access, see {@link LazyMetadata}. */
+    private static final int LAZY_STRING_ARRAY_THRESHOLD = 1024;
+    /** File names written by {@code gguf-split}: {@code <prefix>-00001-of-00003.gguf}. */
+    private static final Pattern SPLIT_FILE_NAME = Pattern.compile("(.+)-(\\d{5})-of-(\\d{5})\\.gguf");
+    private FileChannel fileChannel;
+    // The whole file, mapped once; metadata and tensor infos are parsed from memory instead of one FileChannel.read per value.
+    private MemorySegment file;
+    private long position;
     private int magic;
     private int version;
     private int tensorCount; // uint64_t
     private int alignment;
     private int metadata_kv_count; // uint64_t
     private Map<String, Object> metadata;
+    private Map<String, MemorySegment> rawMetadata; // encoded key-value pairs in file order, copied verbatim by GGUFWriter
     private Map<String, GGUFTensorInfo> tensorInfos;
     private long tensorDataOffset;
+    private List<Split> splits;
 
     public static GGUF loadGGUFMetadata(Path modelPath) throws IOException {
+        return loadGGUFMetadata(modelPath, Arena.ofAuto());
+    }
 
-        // file existence check
-        if (!Files.exists(modelPath)) {
-            throw new FileNotFoundException("Model file not found: " + modelPath);
+    /**
+     * Reads the metadata and tensor infos, mapping the files in {@code arena}; the returned {@link GGUF} must not be used after the arena is
+     * closed.
+     */
+    public static GGUF loadGGUFMetadata(Path modelPath, Arena arena) throws IOException {
+        Matcher splitName = SPLIT_FILE_NAME.matcher(modelPath.getFileName().toString());
+        if (!splitName.matches()) {
+            // file existence check
+            if (!Files.exists(modelPath)) {
+                throw new FileNotFoundException("Model file not found: " + modelPath);
+            }
+            GGUF gguf = loadFile(modelPath, arena);
+            Object splitCount = gguf.metadata.get("split.count");
+            if (splitCount != null && ((Number) splitCount).intValue() > 1) {
+                throw new IllegalArgumentException("Split model " + modelPath + " must be named <name>-00001-of-" + String.format("%05d", splitCount) + ".gguf");
+            }
+            gguf.splits = List.of(gguf.asSplit(modelPath));
+            return gguf;
+        }
+        return loadSplits(modelPath.resolveSibling(splitName.group(1)), Integer.parseInt(splitName.group(3)), arena);
+    }
+
+    /**
+     * Loads a model split with {@code gguf-split} into {@code <prefix>-00001-of-0000N.gguf ... <prefix>-0000N-of-0000N.gguf}; any of
+     * the files can be given. The metadata is read from the first split, the tensor infos of all splits are merged.
+     */
+    private static GGUF loadSplits(Path prefix, int splitCount, Arena arena) throws IOException {
+        Path[] paths = new Path[splitCount];
+        for (int i = 0; i < splitCount; i++) {
+            paths[i] = prefix.resolveSibling(String.format("%s-%05d-of-%05d.gguf", prefix.getFileName(), i + 1, splitCount));
+            if (!Files.exists(paths[i])) {
+                throw new FileNotFoundException("Model split not found: " + paths[i]);
+            }
+        }
+        // the headers are independent, parse them concurrently
+        GGUF[] parts = new GGUF[splitCount];
+        Parallel.parallelFor(0, splitCount, i -> parts[i] = loadFile(paths[i], arena));
+
+        GGUF gguf = parts[0];
+        Object declaredCount = gguf.metadata.get("split.count");
+        if (declaredCount != null && ((Number) declaredCount).intValue() != splitCount) {
+            throw new IllegalArgumentException("Model split " + paths[0] + " declares " + declaredCount + " splits, found " + splitCount + " files");
         }
+        List<Split> splits = new ArrayList<>(splitCount);
+        Map<String, GGUFTensorInfo> tensorInfos = new HashMap<>();
+        for (int i = 0; i < splitCount; i++) {
+            for (GGUFTensorInfo ti : parts[i].tensorInfos.values()) {
+                if (tensorInfos.put(ti.name(), ti) != null) {
+                    throw new IllegalArgumentException("Tensor " + ti.name() + " is defined in more than one split, last in " + paths[i]);
+                }
+            }
+            splits.add(parts[i].asSplit(paths[i]));
+        }
+        gguf.tensorInfos = tensorInfos;
+        gguf.splits = List.copyOf(splits);
+        return gguf;
+    }
 
+    private static GGUF loadFile(Path modelPath, Arena arena) {
         // Open file
+        FileChannel fileChannel;
         try {
             fileChannel = FileChannel.open(modelPath, READ, WRITE);
             // Ensure we start reading from the beginning of the file
@@ -59,20 +134,23 @@ public final class GGUF {
         // Read and store the gguf metadata
         try {
             GGUF gguf = new GGUF();
+            gguf.fileChannel = fileChannel;
+            gguf.file = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size(), arena);
             // The header of the file.
-            gguf.readHeader(fileChannel); // gguf_header_t header;
+            gguf.readHeader(); // gguf_header_t header;
             // Tensor infos, which can be used to locate the tensor data.
             // gguf_tensor_info_t tensor_infos[header.tensor_count];
             gguf.tensorInfos = HashMap.newHashMap(gguf.tensorCount);
             for (int i = 0; i < gguf.tensorCount; ++i) {
-                GGUF.GGUFTensorInfo ti = gguf.readTensorInfo(fileChannel);
+                GGUF.GGUFTensorInfo ti = gguf.readTensorInfo();
                 assert !gguf.tensorInfos.containsKey(ti.name);
                 gguf.tensorInfos.put(ti.name, ti);
             }
             // Padding to the nearest multiple of `ALIGNMENT`.
             // uint8_t _padding[ALIGNMENT - (sizeof(header + tensor_infos) % ALIGNMENT)];
-            long _padding = (gguf.getAlignment() - (fileChannel.position() % gguf.getAlignment())) % gguf.getAlignment();
-            fileChannel.position(fileChannel.position() + _padding);
+            long _padding = (gguf.getAlignment() - (gguf.position % gguf.getAlignment())) % gguf.getAlignment();
+            gguf.position += _padding;
+            fileChannel.position(gguf.position);
             // Tensor data.
             //
             // This is arbitrary binary data corresponding to the weights of the model. This data should be close
@@ -84,13 +162,66 @@ public final class GGUF {
             // The offset of each tensor's data must be a multiple of `ALIGNMENT`, and the space between tensors
             // should be padded to `ALIGNMENT` bytes.
             // uint8_t tensor_data[];
-            gguf.tensorDataOffset = fileChannel.position();
+            gguf.tensorDataOffset = gguf.position;
             return gguf;
         } catch (Exception e) {
             throw new RuntimeException("Unexpected error while loading GGUF model from " + modelPath, e);
         }
     }
 
+    private Split asSplit(Path path) {
+        return new Split(path, fileChannel, tensorDataOffset, tensorInfos);
+    }
+
+    /**
+     * Loads the tensor data of all the splits of a model, see {@link #loadTensorsStandard(FileChannel, long, Map)}. The splits are mapped
+     * concurrently, each entry is a slice of the mapping of the split holding the tensor.
+     */
+    public static Map<String, GGMLTensorEntry> loadTensorsStandard(GGUF gguf) throws IOException {
+        return loadTensorsStandard(gguf, Arena.ofAuto());
+    }
+
+    public static Map<String, GGMLTensorEntry> loadTensorsStandard(GGUF gguf, Arena arena) throws IOException {
+        return loadSplitTensors(gguf, split -> loadTensorsStandard(split.fileChannel(), split.tensorDataOffset(), split.tensorInfos(), arena));
+    }
+
+    /**
+     * Loads the tensor data of all the splits of a model, see {@link #loadTensorsTornado(FileChannel, long, Map)}.
+     */
+    public static Map<String, GGMLTensorEntry> loadTensorsTornado(GGUF gguf) throws IOException {
+        return loadTensorsTornado(gguf, Arena.ofAuto());
+    }
+
+    public static Map<String, GGMLTensorEntry> loadTensorsTornado(GGUF gguf, Arena arena) throws IOException {
+        return loadSplitTensors(gguf, split -> loadTensorsTornado(split.fileChannel(), split.tensorDataOffset(), split.tensorInfos(), arena));
+    }
+
+    private interface SplitLoader {
+        Map<String, GGMLTensorEntry> load(Split split) throws IOException;
+    }
+
+    private static Map<String, GGMLTensorEntry> loadSplitTensors(GGUF gguf, SplitLoader loader) throws IOException {
+        List<Split> splits = gguf.getSplits();
+        if (splits.size() == 1) {
+            return loader.load(splits.getFirst());
+        }
+        List<Map<String, GGMLTensorEntry>> loaded = new ArrayList<>(Collections.nCopies(splits.size(), null));
+        try {
+            Parallel.parallelFor(0, splits.size(), i -> {
+                try {
+                    loaded.set(i, loader.load(splits.get(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, GGMLTensorEntry> tensorEntries = HashMap.newHashMap(gguf.getTensorInfos().size());
+        loaded.forEach(tensorEntries::putAll);
+        return tensorEntries;
+    }
+
     /**
      * Loads tensor data from a given file channel based on the tensor metadata information.
      * The mapping is read-only and creates standard memory segments for each tensor.
@@ -103,8 +234,14 @@ public final class GGUF {
      * @throws IOException if memory mapping fails or the channel cannot be read
      */
     public static Map<String, GGMLTensorEntry> loadTensorsStandard(FileChannel fileChannel, long tensorDataOffset, Map<String, GGUFTensorInfo> tensorInfos) throws IOException {
-        Arena arena = Arena.ofAuto();
+        return loadTensorsStandard(fileChannel, tensorDataOffset, tensorInfos, Arena.ofAuto());
+    }
 
+    /**
+     * Same as {@link #loadTensorsStandard(FileChannel, long, Map)}, mapping in {@code arena}; closing the arena unmaps the tensors.
+     */
+    public static Map<String, GGMLTensorEntry> loadTensorsStandard(FileChannel fileChannel, long tensorDataOffset, Map<String, GGUFTensorInfo> tensorInfos, Arena arena)
+            throws IOException {
         // absolute file offset where the tensor-data section begins
         long mappingOffset = tensorDataOffset;
         // size of the entire tensor-data section
@@ -122,8 +259,8 @@ public final class GGUF {
                 continue;
             }
 
-            int numberOfElements = FloatTensor.numberOfElements(ti.dimensions());
-            int sizeInBytes = Math.toIntExact(ti.ggmlType().byteSizeFor(numberOfElements));
+            long numberOfElements = FloatTensor.numberOfElementsLong(ti.dimensions());
+            long sizeInBytes = ti.ggmlType().byteSizeFor(numberOfElements);
 
             // per-tensor slice offset; ti.offset() is relative to tensor-data start
             long offset = ti.offset();
@@ -155,8 +292,14 @@ public final class GGUF {
      * @throws IOException if memory mapping fails or the channel cannot be read
      */
     public static Map<String, GGMLTensorEntry> loadTensorsTornado(FileChannel fileChannel, long tensorDataOffset, Map<String, GGUFTensorInfo> tensorInfos) throws IOException {
+        return loadTensorsTornado(fileChannel, tensorDataOffset, tensorInfos, Arena.ofAuto());
+    }
 
-        Arena arena = Arena.ofAuto();
+    /**
+     * Same as {@link #loadTensorsTornado(FileChannel, long, Map)}, mapping in {@code arena}; closing the arena unmaps the tensors.
+     */
+    public static Map<String, GGMLTensorEntry> loadTensorsTornado(FileChannel fileChannel, long tensorDataOffset, Map<String, GGUFTensorInfo> tensorInfos, Arena arena)
+            throws IOException {
         Map<String, GGMLTensorEntry> tensorEntries = HashMap.newHashMap(tensorInfos.size());
 
         for (Map.Entry<String, GGUFTensorInfo> entry : tensorInfos.entrySet()) {
@@ -167,8 +310,8 @@ public final class GGUF {
                 continue;
             }
 
-            int numberOfElements = FloatTensor.numberOfElements(ti.dimensions());
-            int sizeInBytes = Math.toIntExact(ti.ggmlType().byteSizeFor(numberOfElements));
+            long numberOfElements = FloatTensor.numberOfElementsLong(ti.dimensions());
+            long sizeInBytes = ti.ggmlType().byteSizeFor(numberOfElements);
 
             // absolute tensor offset - relative to start of the file
             long mappingOffset = tensorDataOffset + ti.offset();
@@ -193,10 +336,23 @@ public final class GGUF {
         return tensorEntries;
     }
 
+    /**
+     * The tensor infos of the whole model; for a split model, the offsets are relative to the tensor data of the split holding the tensor.
+     */
     public Map<String, GGUFTensorInfo> getTensorInfos() {
         return tensorInfos;
     }
 
+    /**
+     * The files of the model, a single one unless the model is split.
+     */
+    public List<Split> getSplits() {
+        return splits;
+    }
+
+    /**
+     * The offset of the tensor data in the first (or only) file.
+     */
     public long getTensorDataOffset() {
         return tensorDataOffset;
     }
@@ -209,77 +365,98 @@ public final class GGUF {
         return fileChannel;
     }
 
-    private GGMLType readGGMLType(FileChannel fileChannel) throws IOException {
-        int ggmlTypeId = readInt(fileChannel); // ggml_type type;
+    /**
+     * Closes the file channels of all the splits; the mappings stay valid until their arenas are closed.
+     */
+    public void closeFiles() throws IOException {
+        for (Split split : splits) {
+            split.fileChannel().close();
+        }
+    }
+
+    /**
+     * The encoded metadata key-value pairs, in file order, preserving the exact value types.
+     */
+    Map<String, MemorySegment> getRawMetadata() {
+        return rawMetadata;
+    }
+
+    private GGMLType readGGMLType() {
+        int ggmlTypeId = readInt(); // ggml_type type;
         return GGMLType.fromId(ggmlTypeId);
     }
 
-    private GGUF.GGUFTensorInfo readTensorInfo(FileChannel fileChannel) throws IOException {
+    private GGUF.GGUFTensorInfo readTensorInfo() {
         // The name of the tensor. It is a standard GGUF string, with the caveat that
         // it must be at most 64 bytes long.
-        String name = readString(fileChannel); // gguf_string_t name;
+        String name = readString(); // gguf_string_t name;
         assert name.length() <= 64;
         // The number of dimensions in the tensor.
         // Currently at most 4, but this may change in the future.
-        int n_dimensions = readInt(fileChannel); // uint32_t n_dimensions;
+        int n_dimensions = readInt(); // uint32_t n_dimensions;
         assert n_dimensions <= 4;
         // The dimensions of the tensor.
         int[] dimensions = new int[n_dimensions]; // uint64_t dimensions[n_dimensions];
         for (int i = 0; i < n_dimensions; ++i) {
-            dimensions[i] = Math.toIntExact(readLong(fileChannel));
+            dimensions[i] = Math.toIntExact(readLong());
         }
         // The type of the tensor.
-        GGMLType ggmlType = readGGMLType(fileChannel); // ggml_type type;
+        GGMLType ggmlType = readGGMLType(); // ggml_type type;
         // The offset of the tensor's data in this file in bytes.
         // This offset is relative to `tensor_data`, not to the start
         // of the file, to make it easier for writers to write the file.
         // Readers should consider exposing this offset relative to the
         // file to make it easier to read the data.
         // Must be a multiple of `ALIGNMENT`.
-        long offset = readLong(fileChannel); // uint64_t offset;
+        long offset = readLong(); // uint64_t offset;
         assert offset % getAlignment() == 0;
         return new GGUF.GGUFTensorInfo(name, dimensions, ggmlType, offset);
     }
 
-    private String readString(FileChannel fileChannel) throws IOException {
+    private String readString() {
         // A string in GGUF.
         // The length of the string, in bytes.
-        int len = Math.toIntExact(readLong(fileChannel)); // uint64_t len;
+        int len = Math.toIntExact(readLong()); // uint64_t len;
         // The string as a UTF-8 non-null-terminated string.
-        byte[] bytes = new byte[len]; // char string[len];
-        int bytesRead = fileChannel.read(ByteBuffer.wrap(bytes));
-        assert len == bytesRead;
+        String string = decodeString(file, position, len); // char string[len];
+        position += len;
+        return string;
+    }
+
+    private static String decodeString(MemorySegment segment, long offset, int len) {
+        byte[] bytes = new byte[len];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, bytes, 0, len);
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
-    private Pair<String, Object> readKeyValuePair(FileChannel fileChannel) throws IOException {
+    private Pair<String, Object> readKeyValuePair() {
         // The key of the metadata. It is a standard GGUF string, with the following caveats:
         // - It must be a valid ASCII string.
         // - It must be a hierarchical key, where each segment is `lower_snake_case` and separated by a `.`.
         // - It must be at most 2^16-1/65535 bytes long.
         // Any keys that do not follow these rules are invalid.
-        String key = readString(fileChannel); // gguf_string_t key;
+        String key = readString(); // gguf_string_t key;
         assert key.length() < (1 << 16);
         assert key.codePoints().allMatch(cp -> ('a' <= cp && cp <= 'z') || ('0' <= cp && cp <= '9') || cp == '_' || cp == '.');
-        Object value = readMetadataValue(fileChannel);
+        Object value = readMetadataValue();
         return new Pair<>(key, value);
     }
 
-    private Object readMetadataValue(FileChannel fileChannel) throws IOException {
+    private Object readMetadataValue() {
         // The type of the value.
         // Must be one of the `gguf_metadata_value_type` values.
-        MetadataValueType value_type = readMetadataValueType(fileChannel); // gguf_metadata_value_type value_type;
+        MetadataValueType value_type = readMetadataValueType(); // gguf_metadata_value_type value_type;
         // The value.
-        return readMetadataValueOfType(value_type, fileChannel); // gguf_metadata_value_t value;
+        return readMetadataValueOfType(value_type); // gguf_metadata_value_t value;
     }
 
-    void readHeader(FileChannel fileChannel) throws IOException {
+    void readHeader() {
         // Magic number to announce that this is a GGUF file.
         // Must be `GGUF` at the byte level: `0x47` `0x47` `0x55` `0x46`.
         // Your executor might do little-endian byte order, so it might be
         // check for 0x46554747 and letting the endianness cancel out.
         // Consider being *very* explicit about the byte order here.
-        this.magic = readInt(fileChannel); //    uint32_t magic;
+        this.magic = readInt(); //    uint32_t magic;
         if (magic != GGUF_MAGIC) {
             throw new IllegalArgumentException("unsupported header.magic " + magic);
         }
@@ -289,81 +466,89 @@ public final class GGUF {
         // This version should only be increased for structural changes to the format.
         // Changes that do not affect the structure of the file should instead update the metadata
         // to signify the change.
-        this.version = readInt(fileChannel); // uint32_t version;
+        this.version = readInt(); // uint32_t version;
         if (!SUPPORTED_GGUF_VERSIONS.contains(version)) {
             throw new IllegalArgumentException("unsupported header.version " + version);
         }
         // The number of tensors in the file.
         // This is explicit, instead of being included in the metadata, to ensure it is always present
         // for loading the tensors.
-        this.tensorCount = Math.toIntExact(readLong(fileChannel)); // uint64_t tensor_count;
+        this.tensorCount = Math.toIntExact(readLong()); // uint64_t tensor_count;
         // The number of metadata key-value pairs.
-        this.metadata_kv_count = Math.toIntExact(readLong(fileChannel)); // uint64_t metadata_kv_count;
+        this.metadata_kv_count = Math.toIntExact(readLong()); // uint64_t metadata_kv_count;
         // The metadata key-value pairs.
         // gguf_metadata_kv_t metadata_kv[metadata_kv_count];
 
-        this.metadata = HashMap.newHashMap(metadata_kv_count);
+        this.metadata = new LazyMetadata(metadata_kv_count);
+        this.rawMetadata = LinkedHashMap.newLinkedHashMap(metadata_kv_count);
         for (int i = 0; i < metadata_kv_count; ++i) {
-            Pair<String, Object> keyValue = readKeyValuePair(fileChannel);
+            long start = position;
+            Pair<String, Object> keyValue = readKeyValuePair();
             assert !metadata.containsKey(keyValue.first());
             metadata.put(keyValue.first(), keyValue.second());
+            rawMetadata.put(keyValue.first(), file.asSlice(start, position - start));
         }
     }
 
-    private Object readArray(FileChannel fileChannel) throws IOException {
+    private Object readArray() {
         // Any value type is valid, including arrays.
-        MetadataValueType value_type = readMetadataValueType(fileChannel); // gguf_metadata_value_type type;
+        MetadataValueType value_type = readMetadataValueType(); // gguf_metadata_value_type type;
         // Number of elements, not bytes
-        int len = Math.toIntExact(readLong(fileChannel)); // uint64_t len;
+        int len = Math.toIntExact(readLong()); // uint64_t len;
         // The array of values.
         // gguf_metadata_value_t array[len];
+        // Fixed-size elements are bulk-copied out of the mapping.
         switch (value_type) {
             case UINT8, INT8 -> {
                 byte[] bytes = new byte[len];
-                for (int i = 0; i < len; ++i) {
-                    bytes[i] = readByte(fileChannel);
-                }
+                MemorySegment.copy(file, ValueLayout.JAVA_BYTE, position, bytes, 0, len);
+                position += len;
                 return bytes;
             }
             case UINT16, INT16 -> {
                 short[] shorts = new short[len];
-                for (int i = 0; i < len; ++i) {
-                    shorts[i] = readShort(fileChannel);
-                }
+                MemorySegment.copy(file, LE_SHORT, position, shorts, 0, len);
+                position += (long) len * Short.BYTES;
                 return shorts;
             }
             case UINT32, INT32 -> {
                 int[] ints = new int[len];
-                for (int i = 0; i < len; ++i) {
-                    ints[i] = readInt(fileChannel);
-                }
+                MemorySegment.copy(file, LE_INT, position, ints, 0, len);
+                position += (long) len * Integer.BYTES;
                 return ints;
             }
             case FLOAT32 -> {
                 float[] floats = new float[len];
-                for (int i = 0; i < len; ++i) {
-                    floats[i] = readFloat(fileChannel);
-                }
+                MemorySegment.copy(file, LE_FLOAT, position, floats, 0, len);
+                position += (long) len * Float.BYTES;
                 return floats;
             }
             case BOOL -> {
                 boolean[] booleans = new boolean[len];
                 for (int i = 0; i < len; ++i) {
-                    booleans[i] = readBoolean(fileChannel);
+                    booleans[i] = readBoolean();
                 }
                 return booleans;
             }
             case STRING -> {
+                if (len >= LAZY_STRING_ARRAY_THRESHOLD) {
+                    // e.g. tokenizer.ggml.tokens/merges: only skip over the lengths now, decode when the tokenizer asks for it
+                    long start = position;
+                    for (int i = 0; i < len; ++i) {
+                        position += Long.BYTES + readLong();
+                    }
+                    return new LazyStringArray(file, start, len);
+                }
                 String[] strings = new String[len];
                 for (int i = 0; i < len; ++i) {
-                    strings[i] = readString(fileChannel);
+                    strings[i] = readString();
                 }
                 return strings;
             }
             case ARRAY -> {
                 Object[] arrays = new Object[len];
                 for (int i = 0; i < len; ++i) {
-                    arrays[i] = readArray(fileChannel);
+                    arrays[i] = readArray();
                 }
                 return arrays;
             }
@@ -371,61 +556,126 @@ public final class GGUF {
         }
     }
 
-    private Object readMetadataValueOfType(MetadataValueType valueType, FileChannel fileChannel) throws IOException {
+    private Object readMetadataValueOfType(MetadataValueType valueType) {
         return switch (valueType) {
-            case UINT8, INT8 -> readByte(fileChannel);
-            case UINT16, INT16 -> readShort(fileChannel);
-            case UINT32, INT32 -> readInt(fileChannel);
-            case FLOAT32 -> readFloat(fileChannel);
-            case UINT64, INT64 -> readLong(fileChannel);
-            case FLOAT64 -> readDouble(fileChannel);
-            case BOOL -> readBoolean(fileChannel);
-            case STRING -> readString(fileChannel);
-            case ARRAY -> readArray(fileChannel);
+            case UINT8, INT8 -> readByte();
+            case UINT16, INT16 -> readShort();
+            case UINT32, INT32 -> readInt();
+            case FLOAT32 -> readFloat();
+            case UINT64, INT64 -> readLong();
+            case FLOAT64 -> readDouble();
+            case BOOL -> readBoolean();
+            case STRING -> readString();
+            case ARRAY -> readArray();
         };
     }
 
-    private byte readByte(FileChannel fileChannel) throws IOException {
-        int bytesRead = fileChannel.read(BB_1);
-        assert bytesRead == 1;
-        return BB_1.clear().get(0);
+    private byte readByte() {
+        byte value = file.get(ValueLayout.JAVA_BYTE, position);
+        position += Byte.BYTES;
+        return value;
     }
 
-    private boolean readBoolean(FileChannel fileChannel) throws IOException {
-        return readByte(fileChannel) != 0;
+    private boolean readBoolean() {
+        return readByte() != 0;
     }
 
-    private short readShort(FileChannel fileChannel) throws IOException {
-        int bytesRead = fileChannel.read(BB_2);
-        assert bytesRead == 2;
-        return BB_2.clear().getShort(0);
+    private short readShort() {
+        short value = file.get(LE_SHORT, position);
+        position += Short.BYTES;
+        return value;
     }
 
-    private int readInt(FileChannel fileChannel) throws IOException {
-        int bytesRead = fileChannel.read(BB_4);
-        assert bytesRead == 4;
-        return BB_4.clear().getInt(0);
+    private int readInt() {
+        int value = file.get(LE_INT, position);
+        position += Integer.BYTES;
+        return value;
     }
 
-    private long readLong(FileChannel fileChannel) throws IOException {
-        int bytesRead = fileChannel.read(BB_8);
-        assert bytesRead == 8;
-        return BB_8.clear().getLong(0);
+    private long readLong() {
+        long value = file.get(LE_LONG, position);
+        position += Long.BYTES;
+        return value;
     }
 
-    private float readFloat(FileChannel fileChannel) throws IOException {
-        return Float.intBitsToFloat(readInt(fileChannel));
+    private float readFloat() {
+        float value = file.get(LE_FLOAT, position);
+        position += Float.BYTES;
+        return value;
     }
 
-    private double readDouble(FileChannel fileChannel) throws IOException {
-        return Double.longBitsToDouble(readLong(fileChannel));
+    private double readDouble() {
+        double value = file.get(LE_DOUBLE, position);
+        position += Double.BYTES;
+        return value;
     }
 
-    private MetadataValueType readMetadataValueType(FileChannel fileChannel) throws IOException {
-        int index = readInt(fileChannel);
+    private MetadataValueType readMetadataValueType() {
+        int index = readInt();
         return MetadataValueType.fromIndex(index);
     }
 
+    /**
+     * A GGUF string array that has been located, but not decoded yet.
+     */
+    private record LazyStringArray(MemorySegment file, long offset, int length) {
+        String[] decode() {
+            String[] strings = new String[length];
+            long position = offset;
+            for (int i = 0; i < length; ++i) {
+                int len = Math.toIntExact(file.get(LE_LONG, position));
+                strings[i] = decodeString(file, position + Long.BYTES, len);
+                position += Long.BYTES + len;
+            }
+            return strings;
+        }
+    }
+
+    /**
+     * Metadata map decoding {@link LazyStringArray}s on first access; callers see plain {@code String[]} values.
+     */
+    private static final class LazyMetadata extends AbstractMap<String, Object> {
+        private final Map<String, Object> values;
+
+        LazyMetadata(int expectedSize) {
+            this.values = HashMap.newHashMap(expectedSize);
+        }
+
+        @Override
+        public Object get(Object key) {
+            Object value = values.get(key);
+            if (value instanceof LazyStringArray lazy) {
+                value = lazy.decode();
+                values.put((String) key, value);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return values.put(key, value);
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            // iterating exposes every value, decode them all
+            for (String key : values.keySet()) {
+                get(key);
+            }
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+    }
+
     public int getAlignment() {
         if (alignment != 0) {
             return alignment;
@@ -437,4 +687,10 @@ public final class GGUF {
 
     public record GGUFTensorInfo(String name, int[] dimensions, GGMLType ggmlType, long offset) {
     }
+
+    /**
+     * One file of a model, with the tensors it holds.
+     */
+    public record Split(Path path, FileChannel fileChannel, long tensorDataOffset, Map<String, GGUFTensorInfo> tensorInfos) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package org.beehive.gpullama3.tensor;
+
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes a GGUF (version 3) file through a {@link FileChannel}.
+ *
+ * <p>Metadata and tensors are declared first, then {@link #writeHeader()} lays out the header, metadata and tensor infos,
+ * padded to the alignment. After that, tensor data can be streamed in chunks of any size at {@link #tensorDataPosition(String)}.</p>
+ */
+public final class GGUFWriter implements AutoCloseable {
+    private static final int GGUF_VERSION = 3;
+
+    private final FileChannel fileChannel;
+    private final int alignment;
+    private final Map<String, byte[]> metadata = new LinkedHashMap<>(); // encoded key-value pairs
+    private final Map<String, GGUF.GGUFTensorInfo> tensorInfos = new LinkedHashMap<>();
+    private long tensorDataSize;
+    private long tensorDataOffset = -1;
+
+    public GGUFWriter(Path path, int alignment) throws IOException {
+        if (Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("alignment must be a power of two: " + alignment);
+        }
+        this.alignment = alignment;
+        this.fileChannel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE);
+    }
+
+    /**
+     * Copies all the metadata of {@code source} verbatim, preserving order and exact value types.
+     */
+    public void copyMetadata(GGUF source) {
+        for (Map.Entry<String, MemorySegment> entry : source.getRawMetadata().entrySet()) {
+            if (entry.getKey().startsWith("split.")) {
+                continue; // describes the layout of the source files, not of this one
+            }
+            metadata.put(entry.getKey(), entry.getValue().toArray(ValueLayout.JAVA_BYTE));
+        }
+    }
+
+    public void putUInt32(String key, int value) {
+        putMetadata(key, MetadataValueType.UINT32, ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+    }
+
+    public void putFloat32(String key, float value) {
+        putMetadata(key, MetadataValueType.FLOAT32, ByteBuffer.allocate(Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).putFloat(value).array());
+    }
+
+    public void putString(String key, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putMetadata(key, MetadataValueType.STRING, ByteBuffer.allocate(Long.BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN).putLong(bytes.length).put(bytes).array());
+    }
+
+    public void putInt32Array(String key, int[] values) {
+        ByteBuffer array = arrayHeader(MetadataValueType.INT32, values.length, (long) values.length * Integer.BYTES);
+        array.asIntBuffer().put(values);
+        putMetadata(key, MetadataValueType.ARRAY, array.array());
+    }
+
+    public void putFloat32Array(String key, float[] values) {
+        ByteBuffer array = arrayHeader(MetadataValueType.FLOAT32, values.length, (long) values.length * Float.BYTES);
+        array.asFloatBuffer().put(values);
+        putMetadata(key, MetadataValueType.ARRAY, array.array());
+    }
+
+    public void putStringArray(String key, String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        long size = 0;
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            size += Long.BYTES + encoded[i].length;
+        }
+        ByteBuffer array = arrayHeader(MetadataValueType.STRING, values.length, size);
+        for (byte[] bytes : encoded) {
+            array.putLong(bytes.length).put(bytes);
+        }
+        putMetadata(key, MetadataValueType.ARRAY, array.array());
+    }
+
+    /** A buffer holding the element type and length of an array, positioned at its {@code size} bytes of elements. */
+    private static ByteBuffer arrayHeader(MetadataValueType elementType, int length, long size) {
+        ByteBuffer array = ByteBuffer.allocate(Math.toIntExact(Integer.BYTES + Long.BYTES + size)).order(ByteOrder.LITTLE_ENDIAN);
+        array.putInt(elementType.ordinal()).putLong(length);
+        return array;
+    }
+
+    /** Adds or replaces (in place) a key-value pair. */
+    private void putMetadata(String key, MetadataValueType type, byte[] value) {
+        checkHeaderNotWritten();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer kv = ByteBuffer.allocate(Long.BYTES + keyBytes.length + Integer.BYTES + value.length).order(ByteOrder.LITTLE_ENDIAN);
+        kv.putLong(keyBytes.length).put(keyBytes).putInt(type.ordinal()).put(value);
+        metadata.put(key, kv.array());
+    }
+
+    /**
+     * Declares a tensor; tensors are laid out in declaration order, each at an aligned offset.
+     */
+    public void addTensor(String name, int[] dimensions, GGMLType ggmlType) {
+        checkHeaderNotWritten();
+        if (tensorInfos.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate tensor " + name);
+        }
+        long offset = align(tensorDataSize);
+        tensorInfos.put(name, new GGUF.GGUFTensorInfo(name, dimensions.clone(), ggmlType, offset));
+        tensorDataSize = offset + ggmlType.byteSizeFor(FloatTensor.numberOfElementsLong(dimensions));
+    }
+
+    public Collection<GGUF.GGUFTensorInfo> getTensorInfos() {
+        return tensorInfos.values();
+    }
+
+    /**
+     * Writes the header, metadata and tensor infos, followed by the padding up to the tensor data.
+     */
+    public void writeHeader() throws IOException {
+        checkHeaderNotWritten();
+        long size = Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+        for (byte[] kv : metadata.values()) {
+            size += kv.length;
+        }
+        for (GGUF.GGUFTensorInfo ti : tensorInfos.values()) {
+            size += Long.BYTES + ti.name().getBytes(StandardCharsets.UTF_8).length + Integer.BYTES + (long) ti.dimensions().length * Long.BYTES + Integer.BYTES + Long.BYTES;
+        }
+        long dataOffset = align(size);
+
+        ByteBuffer header = ByteBuffer.allocate(Math.toIntExact(dataOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(GGUF.GGUF_MAGIC);
+        header.putInt(GGUF_VERSION);
+        header.putLong(tensorInfos.size());
+        header.putLong(metadata.size());
+        for (byte[] kv : metadata.values()) {
+            header.put(kv);
+        }
+        for (GGUF.GGUFTensorInfo ti : tensorInfos.values()) {
+            byte[] name = ti.name().getBytes(StandardCharsets.UTF_8);
+            header.putLong(name.length).put(name);
+            header.putInt(ti.dimensions().length);
+            for (int dimension : ti.dimensions()) {
+                header.putLong(dimension);
+            }
+            header.putInt(ti.ggmlType().ordinal());
+            header.putLong(ti.offset());
+        }
+        // the remaining bytes are the zero padding
+        header.clear();
+        write(0, header);
+        this.tensorDataOffset = dataOffset;
+    }
+
+    /**
+     * Absolute file position of the data of a declared tensor, valid after {@link #writeHeader()}.
+     */
+    public long tensorDataPosition(String name) {
+        if (tensorDataOffset < 0) {
+            throw new IllegalStateException("Header not written yet");
+        }
+        GGUF.GGUFTensorInfo ti = tensorInfos.get(name);
+        if (ti == null) {
+            throw new IllegalArgumentException("Unknown tensor " + name);
+        }
+        return tensorDataOffset + ti.offset();
+    }
+
+    public void write(long position, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            position += fileChannel.write(data, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    private long align(long position) {
+        return (position + alignment - 1) & -alignment;
+    }
+
+    private void checkHeaderNotWritten() {
+        if (tensorDataOffset >= 0) {
+            throw new IllegalStateException("Header already written");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.beehive.gpullama3.tensor;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Look-ahead prefetcher for memory-mapped weights, for hosts where the weights do not fit in the page cache.
+ *
+ * <p>The tensors are grouped per layer ({@code blk.<l>.*}); group {@code numberOfLayers} holds the tensors used after the last layer
+ * (output norm and classifier). While layer {@code l} computes, the forward pass calls {@link #prefetch(int) prefetch(l + 1)}, which
+ * {@link MemorySegment#load() loads} the next group on a background thread, so its page faults overlap with computation instead of
+ * stalling the matmuls.</p>
+ *
+ * <p>Enabled with {@code -Dllama.Prefetch=true}, CPU inference only.</p>
+ */
+public final class LayerPrefetcher implements AutoCloseable {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("llama.Prefetch", "false"));
+
+    private final MemorySegment[][] groups;
+    private final AtomicBoolean[] pending;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("weight-prefetcher").daemon().factory());
+    private volatile boolean closed;
+
+    private LayerPrefetcher(MemorySegment[][] groups) {
+        this.groups = groups;
+        this.pending = new AtomicBoolean[groups.length];
+        for (int i = 0; i < groups.length; i++) {
+            pending[i] = new AtomicBoolean();
+        }
+    }
+
+    public static LayerPrefetcher create(Map<String, GGMLTensorEntry> tensorEntries, int numberOfLayers) {
+        List<List<MemorySegment>> groups = new ArrayList<>();
+        for (int i = 0; i <= numberOfLayers; i++) {
+            groups.add(new ArrayList<>());
+        }
+        boolean tiedEmbeddings = !tensorEntries.containsKey("output.weight");
+        for (GGMLTensorEntry entry : tensorEntries.values()) {
+            if (!entry.memorySegment().isMapped()) {
+                continue;
+            }
+            String name = entry.name();
+            if (name.startsWith("blk.")) {
+                int layer = Integer.parseInt(name, 4, name.indexOf('.', 4), 10);
+                if (layer < numberOfLayers) {
+                    groups.get(layer).add(entry.memorySegment());
+                }
+            } else if (!name.equals("token_embd.weight") || tiedEmbeddings) {
+                // only one row of the embeddings is read per token, unless they double as the classifier
+                groups.get(numberOfLayers).add(entry.memorySegment());
+            }
+        }
+        return new LayerPrefetcher(groups.stream().map(g -> g.toArray(MemorySegment[]::new)).toArray(MemorySegment[][]::new));
+    }
+
+    /**
+     * Starts loading a group in the background; no-op if the group is out of range or still being loaded.
+     */
+    public void prefetch(int group) {
+        if (closed || group < 0 || group >= groups.length || !pending[group].compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                for (MemorySegment segment : groups[group]) {
+                    if (closed) {
+                        break;
+                    }
+                    segment.load();
+                }
+            } finally {
+                pending[group].set(false);
+            }
+        });
+    }
+
+    /**
+     * Skips the pending loads and waits for the one in progress; the weights may then be unmapped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.close();
+    }
+}
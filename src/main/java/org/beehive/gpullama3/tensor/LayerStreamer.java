@@ -0,0 +1,241 @@
+package org.beehive.gpullama3.tensor;
+
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Layer-streaming execution for models larger than the available RAM.
+ *
+ * <p>Instead of memory-mapping the layer weights ({@code blk.<l>.*}) and letting the kernel fault them in and out of the page cache, the
+ * weights of a window of layers are kept in an off-heap pool of {@code window} slots, layer {@code l} always living in slot
+ * {@code l % window}. Each layer is read from the {@link FileChannel} with a single sequential read on a background thread; the forward
+ * pass {@link #acquire(int) acquires} a layer before computing it, waiting for the read if needed, and {@link #release(int) releases} it
+ * afterwards, which starts reading the next layer in the slot. Layers are consumed cyclically, {@code 0 .. numberOfLayers - 1} for every
+ * token, so the reads run ahead of the computation by up to {@code window - 1} layers. A forward pass that ends early (an exception
+ * between acquire and release) leaves the ring out of step with the next one: acquiring a layer that is not in its slot restarts the
+ * reads from that layer. Forward passes over the streamed weights must not overlap.</p>
+ *
+ * <p>The tensors built by the model loaders over {@link #tensorEntries()} are views of the pool, only valid while their layer is acquired.
+ * Pair with batched prefill ({@code InferenceCore.forwardJavaPrefill}), which reads every layer once for a whole batch of prompt tokens.</p>
+ *
+ * <p>Enabled with {@code -Dllama.StreamLayers=<window>}, CPU inference only.</p>
+ */
+public final class LayerStreamer implements AutoCloseable {
+    public static final int WINDOW = Integer.getInteger("llama.StreamLayers", 0);
+
+    private static final int MAX_READ_BYTES = 1 << 30;
+
+    private final FileChannel fileChannel;
+    private final int numberOfLayers;
+    private final int window;
+    private final long[] layerFileOffsets; // absolute
+    private final long[] layerSizes;
+    private final MemorySegment[] slots;
+    private final Map<String, GGMLTensorEntry> tensorEntries;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("layer-streamer").daemon().factory());
+
+    // guarded by this
+    private final int[] slotLayer; // layer assigned to the slot, -1 if free
+    private final CompletableFuture<?>[] slotLoad;
+    private int nextLayer; // next layer to read, in consumption order
+    private boolean closed;
+
+    private LayerStreamer(FileChannel fileChannel, int numberOfLayers, int window, long[] layerFileOffsets, long[] layerSizes, MemorySegment[] slots,
+            Map<String, GGMLTensorEntry> tensorEntries) {
+        this.fileChannel = fileChannel;
+        this.numberOfLayers = numberOfLayers;
+        this.window = window;
+        this.layerFileOffsets = layerFileOffsets;
+        this.layerSizes = layerSizes;
+        this.slots = slots;
+        this.tensorEntries = tensorEntries;
+        this.slotLayer = new int[window];
+        this.slotLoad = new CompletableFuture<?>[window];
+        Arrays.fill(slotLayer, -1);
+        synchronized (this) {
+            schedule();
+        }
+    }
+
+    /**
+     * Lays out the pool in {@code arena} and starts reading the first {@code window} layers.
+     */
+    public static LayerStreamer create(FileChannel fileChannel, long tensorDataOffset, Map<String, GGUF.GGUFTensorInfo> tensorInfos, int numberOfLayers, int window,
+            Arena arena) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        window = Math.min(window, numberOfLayers);
+
+        // group the layer tensors; a layer is read as the file range spanning its tensors, which GGUF writers store contiguously
+        List<List<GGUF.GGUFTensorInfo>> layers = new ArrayList<>();
+        for (int i = 0; i < numberOfLayers; i++) {
+            layers.add(new ArrayList<>());
+        }
+        for (GGUF.GGUFTensorInfo ti : tensorInfos.values()) {
+            if (ti.name().startsWith("blk.")) {
+                int layer = Integer.parseInt(ti.name(), 4, ti.name().indexOf('.', 4), 10);
+                if (layer < numberOfLayers) {
+                    layers.get(layer).add(ti);
+                }
+            }
+        }
+        long[] layerOffsets = new long[numberOfLayers];
+        long[] layerSizes = new long[numberOfLayers];
+        long slotSize = 0;
+        for (int l = 0; l < numberOfLayers; l++) {
+            long start = Long.MAX_VALUE;
+            long end = 0;
+            for (GGUF.GGUFTensorInfo ti : layers.get(l)) {
+                start = Math.min(start, ti.offset());
+                end = Math.max(end, ti.offset() + byteSize(ti));
+            }
+            if (layers.get(l).isEmpty()) {
+                start = end = 0;
+            }
+            layerOffsets[l] = start;
+            layerSizes[l] = end - start;
+            slotSize = Math.max(slotSize, end - start);
+        }
+
+        MemorySegment[] slots = new MemorySegment[window];
+        for (int s = 0; s < window; s++) {
+            slots[s] = arena.allocate(Math.max(slotSize, 1), 64);
+        }
+        Map<String, GGMLTensorEntry> entries = new HashMap<>();
+        for (int l = 0; l < numberOfLayers; l++) {
+            MemorySegment slot = slots[l % window];
+            for (GGUF.GGUFTensorInfo ti : layers.get(l)) {
+                MemorySegment segment = slot.asSlice(ti.offset() - layerOffsets[l], byteSize(ti));
+                entries.put(ti.name(), new GGMLTensorEntry(slot, ti.name(), ti.ggmlType(), ti.dimensions(), segment));
+            }
+            layerOffsets[l] += tensorDataOffset;
+        }
+        return new LayerStreamer(fileChannel, numberOfLayers, window, layerOffsets, layerSizes, slots, entries);
+    }
+
+    private static long byteSize(GGUF.GGUFTensorInfo ti) {
+        return ti.ggmlType().byteSizeFor(FloatTensor.numberOfElementsLong(ti.dimensions()));
+    }
+
+    /**
+     * Entries of the streamed layer tensors, backed by the pool; they replace the memory-mapped ones.
+     */
+    public Map<String, GGMLTensorEntry> tensorEntries() {
+        return tensorEntries;
+    }
+
+    /**
+     * Waits until the weights of a layer are resident; if the layer is not the one expected next, the read-ahead restarts from it.
+     *
+     * @throws IllegalStateException
+     *         if the streamer is closed
+     */
+    public void acquire(int layer) {
+        CompletableFuture<?> load;
+        int slot = layer % window;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Layer streamer is closed");
+            }
+            if (slotLayer[slot] != layer) {
+                restart(layer);
+            }
+            load = slotLoad[slot];
+        }
+        try {
+            load.join();
+        } catch (CompletionException e) {
+            synchronized (this) {
+                if (slotLoad[slot] == load) {
+                    slotLayer[slot] = -1; // read again on the next acquire
+                }
+            }
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Marks a layer as consumed; its slot is reused for the next layer mapped to it.
+     */
+    public synchronized void release(int layer) {
+        if (window == numberOfLayers) {
+            return; // everything is resident
+        }
+        int slot = layer % window;
+        if (slotLayer[slot] == layer) {
+            slotLayer[slot] = -1;
+            schedule();
+        }
+    }
+
+    /**
+     * Cancels the pending reads and waits for the one in progress; the pool may then be freed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (CompletableFuture<?> load : slotLoad) {
+                if (load != null) {
+                    load.cancel(false);
+                }
+            }
+        }
+        executor.close();
+    }
+
+    private void restart(int layer) {
+        // reads already queued still complete first on the single reader thread, before any read into the same slot
+        Arrays.fill(slotLayer, -1);
+        nextLayer = layer;
+        schedule();
+    }
+
+    private void schedule() {
+        if (closed) {
+            return;
+        }
+        // read ahead, in consumption order, as long as the slot of the next layer is free
+        while (slotLayer[nextLayer % window] == -1) {
+            int layer = nextLayer;
+            int slot = layer % window;
+            slotLayer[slot] = layer;
+            slotLoad[slot] = CompletableFuture.runAsync(() -> read(layer, slots[slot]), executor);
+            nextLayer = (nextLayer + 1) % numberOfLayers;
+        }
+    }
+
+    private void read(int layer, MemorySegment slot) {
+        try {
+            long size = layerSizes[layer];
+            for (long offset = 0; offset < size; ) {
+                ByteBuffer buffer = slot.asSlice(offset, Math.min(MAX_READ_BYTES, size - offset)).asByteBuffer();
+                while (buffer.hasRemaining()) {
+                    int read = fileChannel.read(buffer, layerFileOffsets[layer] + offset + buffer.position());
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file reading layer " + layer);
+                    }
+                }
+                offset += buffer.capacity();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
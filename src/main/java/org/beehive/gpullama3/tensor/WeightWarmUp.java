@@ -0,0 +1,48 @@
+package org.beehive.gpullama3.tensor;
+
+import org.beehive.gpullama3.auxiliary.Parallel;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Faults the memory-mapped weights in at load time.
+ *
+ * <p>Tensor segments are mapped lazily, so without a warm-up every page of the weights is first faulted in during the first forward pass,
+ * which makes the first request several times slower than steady state. The warm-up {@link MemorySegment#load() loads} the mapped
+ * segments in parallel, in slices, so reading the file is spread over all cores.</p>
+ *
+ * <p>Enabled with {@code -Dllama.WarmUp=true}.</p>
+ */
+public final class WeightWarmUp {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("llama.WarmUp", "false"));
+
+    private static final long SLICE_BYTES = 1L << 26;
+
+    private WeightWarmUp() {
+    }
+
+    /**
+     * Loads the mapped memory of all the given tensors; segments that are not mapped are skipped.
+     *
+     * @return the number of bytes loaded
+     */
+    public static long warmUp(Collection<GGMLTensorEntry> tensorEntries) {
+        List<MemorySegment> slices = new ArrayList<>();
+        long bytes = 0;
+        for (GGMLTensorEntry entry : tensorEntries) {
+            MemorySegment segment = entry.memorySegment();
+            if (!segment.isMapped()) {
+                continue;
+            }
+            for (long offset = 0; offset < segment.byteSize(); offset += SLICE_BYTES) {
+                slices.add(segment.asSlice(offset, Math.min(SLICE_BYTES, segment.byteSize() - offset)));
+            }
+            bytes += segment.byteSize();
+        }
+        Parallel.parallelFor(0, slices.size(), i -> slices.get(i).load());
+        return bytes;
+    }
+}
@@ -21,18 +21,18 @@ public final class ArrayFloatTensor extends FloatTensor {
     }
 
     @Override
-    public int size() {
+    public long size() {
         return values.length;
     }
 
     @Override
-    public float getFloat(int index) {
-        return values[index];
+    public float getFloat(long index) {
+        return values[Math.toIntExact(index)];
     }
 
     @Override
-    public void setFloat(int index, float value) {
-        values[index] = value;
+    public void setFloat(long index, float value) {
+        values[Math.toIntExact(index)] = value;
     }
 
     @Override
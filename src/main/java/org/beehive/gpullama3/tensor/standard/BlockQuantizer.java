@@ -0,0 +1,137 @@
+package org.beehive.gpullama3.tensor.standard;
+
+import org.beehive.gpullama3.tensor.GGMLType;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Quantization kernels producing the GGML block layouts read by {@link Q8_0FloatTensor} and {@link Q4_0FloatTensor}, following
+ * the reference {@code quantize_row_q8_0} / {@code quantize_row_q4_0} of ggml.
+ * <p>
+ * Q8_0: {@code [fp16 d][32 x int8 q]}, {@code x = q * d} with {@code d = max|x| / 127}.<br>
+ * Q4_0: {@code [fp16 d][16 x byte]}, element {@code j} in the low nibble of byte {@code j}, element {@code j + 16} in the
+ * high nibble, {@code x = (q - 8) * d} with {@code d = -max / 8} where {@code max} is the value of largest magnitude.
+ */
+public final class BlockQuantizer {
+
+    private static final ValueLayout.OfShort JAVA_SHORT_LE = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfFloat JAVA_FLOAT_LE = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int BLOCK_SIZE = 32;
+
+    private BlockQuantizer() {
+    }
+
+    /**
+     * Whether values can be quantized to {@code type}.
+     */
+    public static boolean isSupported(GGMLType type) {
+        return switch (type) {
+            case F32, F16, Q8_0, Q4_0 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Quantizes {@code x[xOffset, xOffset + length)} into {@code dst} at byte {@code dstOffset}; {@code length} must be a multiple of the
+     * block size of {@code type}.
+     */
+    public static void quantize(GGMLType type, float[] x, int xOffset, int length, MemorySegment dst, long dstOffset) {
+        if (length % type.getBlockSize() != 0) {
+            throw new IllegalArgumentException("length " + length + " is not a multiple of the " + type + " block size");
+        }
+        switch (type) {
+            case F32 -> MemorySegment.copy(x, xOffset, dst, JAVA_FLOAT_LE, dstOffset, length);
+            case F16 -> {
+                for (int i = 0; i < length; i++) {
+                    dst.set(JAVA_SHORT_LE, dstOffset + (long) i * GGMLType.FLOAT16_BYTES, Float.floatToFloat16(x[xOffset + i]));
+                }
+            }
+            case Q8_0 -> {
+                int[] q = new int[BLOCK_SIZE];
+                for (int i = 0; i < length; i += BLOCK_SIZE, dstOffset += GGMLType.Q8_0.getTypeSize()) {
+                    quantizeBlockQ8_0(x, xOffset + i, q, dst, dstOffset);
+                }
+            }
+            case Q4_0 -> {
+                int[] q = new int[BLOCK_SIZE];
+                for (int i = 0; i < length; i += BLOCK_SIZE, dstOffset += GGMLType.Q4_0.getTypeSize()) {
+                    quantizeBlockQ4_0(x, xOffset + i, q, dst, dstOffset);
+                }
+            }
+            default -> throw new UnsupportedOperationException("Quantization to " + type);
+        }
+    }
+
+    private static void quantizeBlockQ8_0(float[] x, int offset, int[] q, MemorySegment dst, long dstOffset) {
+        float amax = absMax(x, offset);
+        float d = amax / 127f;
+        float id = d != 0f ? 1f / d : 0f;
+        if (FloatTensor.USE_VECTOR_API) {
+            for (int i = 0; i < BLOCK_SIZE; i += FloatTensor.F_SPECIES.length()) {
+                FloatVector v = FloatVector.fromArray(FloatTensor.F_SPECIES, x, offset + i).mul(id);
+                // round half away from zero, as roundf
+                VectorMask<Integer> negative = v.lt(0f).cast(FloatTensor.I_SPECIES);
+                IntVector r = (IntVector) v.abs().add(0.5f).convert(VectorOperators.F2I, 0);
+                r.lanewise(VectorOperators.NEG, negative).intoArray(q, i);
+            }
+        } else {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                float v = x[offset + i] * id;
+                q[i] = (int) (v + Math.copySign(0.5f, v));
+            }
+        }
+        dst.set(JAVA_SHORT_LE, dstOffset, Float.floatToFloat16(d));
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            dst.set(ValueLayout.JAVA_BYTE, dstOffset + GGMLType.FLOAT16_BYTES + i, (byte) q[i]);
+        }
+    }
+
+    private static void quantizeBlockQ4_0(float[] x, int offset, int[] q, MemorySegment dst, long dstOffset) {
+        float amax = absMax(x, offset);
+        // the first value of largest magnitude, keeping its sign
+        float max = 0f;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (Math.abs(x[offset + i]) == amax) {
+                max = x[offset + i];
+                break;
+            }
+        }
+        float d = max / -8f;
+        float id = d != 0f ? 1f / d : 0f;
+        if (FloatTensor.USE_VECTOR_API) {
+            for (int i = 0; i < BLOCK_SIZE; i += FloatTensor.F_SPECIES.length()) {
+                FloatVector v = FloatVector.fromArray(FloatTensor.F_SPECIES, x, offset + i).fma(id, 8.5f);
+                ((IntVector) v.convert(VectorOperators.F2I, 0)).min(15).intoArray(q, i);
+            }
+        } else {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                q[i] = Math.min(15, (int) (x[offset + i] * id + 8.5f));
+            }
+        }
+        dst.set(JAVA_SHORT_LE, dstOffset, Float.floatToFloat16(d));
+        for (int i = 0; i < BLOCK_SIZE / 2; i++) {
+            dst.set(ValueLayout.JAVA_BYTE, dstOffset + GGMLType.FLOAT16_BYTES + i, (byte) (q[i] | (q[i + BLOCK_SIZE / 2] << 4)));
+        }
+    }
+
+    private static float absMax(float[] x, int offset) {
+        if (FloatTensor.USE_VECTOR_API) {
+            FloatVector max = FloatVector.zero(FloatTensor.F_SPECIES);
+            for (int i = 0; i < BLOCK_SIZE; i += FloatTensor.F_SPECIES.length()) {
+                max = max.max(FloatVector.fromArray(FloatTensor.F_SPECIES, x, offset + i).abs());
+            }
+            return max.reduceLanes(VectorOperators.MAX);
+        }
+        float max = 0f;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            max = Math.max(max, Math.abs(x[offset + i]));
+        }
+        return max;
+    }
+}
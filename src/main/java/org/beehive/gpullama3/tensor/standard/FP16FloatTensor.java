@@ -11,21 +11,21 @@ import java.nio.ByteOrder;
 
 public final class FP16FloatTensor extends FloatTensor {
 
-    final int size;
+    final long size;
     final MemorySegment memorySegment;
 
-    public FP16FloatTensor(int size, MemorySegment memorySegment) {
+    public FP16FloatTensor(long size, MemorySegment memorySegment) {
         this.size = size;
         this.memorySegment = memorySegment;
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
     @Override
-    public void setFloat(int index, float value) {
+    public void setFloat(long index, float value) {
         throw new UnsupportedOperationException("setFloat");
     }
 
@@ -45,13 +45,13 @@ public final class FP16FloatTensor extends FloatTensor {
     }
 
     @Override
-    public float getFloat(int index) {
+    public float getFloat(long index) {
         assert 0 <= index && index < size;
         return Float.float16ToFloat(readShort(memorySegment, index * GGMLType.FLOAT16_BYTES));
     }
 
     @Override
-    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+    public float dot(long thisOffset, FloatTensor that, int thatOffset, int size) {
         if (FloatTensor.USE_VECTOR_API) {
             return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
         } else {
@@ -59,7 +59,7 @@ public final class FP16FloatTensor extends FloatTensor {
         }
     }
 
-    private static float vectorDot(FP16FloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+    private static float vectorDot(FP16FloatTensor thiz, long thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
         assert S_SPECIES_HALF.length() == F_SPECIES.length();
         FloatVector val = FloatVector.zero(F_SPECIES);
         int upperBound = F_SPECIES.loopBound(size);
@@ -8,16 +8,16 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 
 public final class FP32FloatTensor extends FloatTensor {
-    final int size;
+    final long size;
     final MemorySegment segment;
 
-    public FP32FloatTensor(int size, MemorySegment segment) {
+    public FP32FloatTensor(long size, MemorySegment segment) {
         this.size = size;
         this.segment = segment;
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
@@ -32,12 +32,12 @@ public final class FP32FloatTensor extends FloatTensor {
     }
 
     @Override
-    public float getFloat(int index) {
+    public float getFloat(long index) {
         return segment.get(ValueLayout.OfFloat.JAVA_FLOAT, index * Float.BYTES);
     }
 
     @Override
-    public void setFloat(int index, float value) {
+    public void setFloat(long index, float value) {
         segment.set(ValueLayout.OfFloat.JAVA_FLOAT, index * Float.BYTES, value);
     }
 
@@ -66,11 +66,15 @@ public abstract class FloatTensor {
     // Preferred vector size for the fast multiplication routines.
     // (Apple Silicon) NEON only supports up-to 128bit vectors.
 
-    public abstract int size();
+    /**
+     * Number of elements; weight tensors may exceed {@link Integer#MAX_VALUE} elements or bytes, so element indices into
+     * a tensor are {@code long}. Offsets into activations ({@link ArrayFloatTensor}) and dot-product lengths remain {@code int}.
+     */
+    public abstract long size();
 
-    public abstract float getFloat(int index);
+    public abstract float getFloat(long index);
 
-    public abstract void setFloat(int index, float value);
+    public abstract void setFloat(long index, float value);
 
     protected abstract FloatVector getFloatVector(VectorSpecies<Float> species, int offset);
 
@@ -83,7 +87,12 @@ public abstract class FloatTensor {
         return Arrays.stream(dimensions).reduce(Math::multiplyExact).orElseThrow();
     }
 
-    static float scalarDot(FloatTensor thiz, int thisOffset, FloatTensor that, int thatOffset, int size) {
+    public static long numberOfElementsLong(int... dimensions) {
+        assert Arrays.stream(dimensions).allMatch(i -> i > 0);
+        return Arrays.stream(dimensions).asLongStream().reduce(Math::multiplyExact).orElseThrow();
+    }
+
+    static float scalarDot(FloatTensor thiz, long thisOffset, FloatTensor that, int thatOffset, int size) {
         float result = 0f;
         for (int j = 0; j < size; j++) {
             result += thiz.getFloat(thisOffset + j) * that.getFloat(thatOffset + j);
@@ -91,22 +100,25 @@ public abstract class FloatTensor {
         return result;
     }
 
-    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+    public float dot(long thisOffset, FloatTensor that, int thatOffset, int size) {
         return scalarDot(this, thisOffset, that, thatOffset, size);
     }
 
     public void matmul(FloatTensor that, FloatTensor out, int dim0, int dim1) {
-        Parallel.parallelFor(0, dim0, i -> out.setFloat(i, dot(i * dim1, that, 0, dim1)));
+        Parallel.parallelFor(0, dim0, i -> out.setFloat(i, dot((long) i * dim1, that, 0, dim1)));
     }
 
-   public void matmul(int context, FloatTensor[] that, FloatTensor[] out, int dim0, int dim1) {
+    /**
+     * Multiplies {@code context} vectors by this matrix; the vectors of a row are consecutive, so each row is read once for all of them.
+     */
+    public void matmul(int context, FloatTensor[] that, FloatTensor[] out, int dim0, int dim1) {
         if (that.length != out.length) {
             throw new IllegalArgumentException(String.format("that.len=%d, out.len=%d", that.length, out.length));
         }
-        Parallel.parallelForLong(0, dim0 * context, ti -> {
-            int idxArr = (int) (ti / dim0);
-            int i = (int) (ti % dim0);
-            out[idxArr].setFloat(i, dot(i * dim1, that[idxArr], 0, dim1));
+        Parallel.parallelForLong(0, (long) dim0 * context, ti -> {
+            int i = (int) (ti / context);
+            int idxArr = (int) (ti % context);
+            out[idxArr].setFloat(i, dot((long) i * dim1, that[idxArr], 0, dim1));
         });
     }
 
@@ -151,7 +163,7 @@ public abstract class FloatTensor {
     }
 
     public int argmax() {
-        return argmax(0, size());
+        return argmax(0, Math.toIntExact(size()));
     }
 
     @FunctionalInterface
@@ -173,7 +185,7 @@ public abstract class FloatTensor {
     }
 
     public FloatTensor mapInPlace(MapFunction mapFunction) {
-        return mapInPlace(0, size(), mapFunction);
+        return mapInPlace(0, Math.toIntExact(size()), mapFunction);
     }
 
     public FloatTensor mapWithIndexInPlace(int thisOffset, int size, FloatTensor.MapWithIndexFunction mapWithIndexFunction) {
@@ -189,7 +201,7 @@ public abstract class FloatTensor {
     }
 
     public FloatTensor addInPlace(FloatTensor that) {
-        return addInPlace(0, that, 0, size());
+        return addInPlace(0, that, 0, Math.toIntExact(size()));
     }
 
     FloatTensor multiplyInPlace(int thisOffset, FloatTensor that, int thatOffset, int size) {
@@ -197,7 +209,7 @@ public abstract class FloatTensor {
     }
 
     public FloatTensor multiplyInPlace(FloatTensor that) {
-        return multiplyInPlace(0, that, 0, size());
+        return multiplyInPlace(0, that, 0, Math.toIntExact(size()));
     }
 
     public FloatTensor divideInPlace(int thisOffset, int size, float value) {
@@ -0,0 +1,158 @@
+package org.beehive.gpullama3.tensor.standard;
+
+import org.beehive.gpullama3.tensor.GGMLType;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * F32 tensor stored in fixed-size pages, allocated on first write and shared copy-on-write between {@link #fork() forks}; used for the KV
+ * caches on CPU.
+ *
+ * <p>Forking copies the page table only, O(number of pages): the pages written so far, e.g. the KV entries of a common prompt, are shared,
+ * and the first write to a shared page copies it. Pages never written read as zeros and cost no memory, so a cache sized for the whole
+ * context only holds the positions actually used.</p>
+ *
+ * <p>A page holds {@code 2^14} floats: a power of two, so indexing is a shift and a mask, and a multiple of the (power of two) head sizes, so the
+ * head slices read by attention never straddle two pages.</p>
+ */
+public final class PagedFloatTensor extends FloatTensor {
+
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** Shared by all the pages not written yet, never written itself. */
+    private static final Page ZERO = new Page(new float[PAGE_SIZE]);
+
+    private static final class Page {
+        final float[] values;
+        final AtomicInteger owners = new AtomicInteger(1); // number of tensors referencing the page
+
+        Page(float[] values) {
+            this.values = values;
+        }
+    }
+
+    private final int size;
+    private final Page[] pages;
+
+    private PagedFloatTensor(int size, Page[] pages) {
+        this.size = size;
+        this.pages = pages;
+    }
+
+    public static PagedFloatTensor allocate(int... dims) {
+        int numberOfElements = FloatTensor.numberOfElements(dims);
+        Page[] pages = new Page[(numberOfElements + PAGE_SIZE - 1) >>> PAGE_SHIFT];
+        Arrays.fill(pages, ZERO);
+        return new PagedFloatTensor(numberOfElements, pages);
+    }
+
+    /**
+     * A paged copy of the first {@code length} elements of {@code source}, the others read as zeros; only the pages holding them are allocated.
+     */
+    public static PagedFloatTensor copyOf(FloatTensor source, int length) {
+        int size = Math.toIntExact(source.size());
+        if (length < 0 || length > size) {
+            throw new IllegalArgumentException("length " + length + " out of [0, " + size + "]");
+        }
+        PagedFloatTensor copy = allocate(size);
+        for (int start = 0; start < length; start += PAGE_SIZE) {
+            float[] values = copy.writablePage(start >>> PAGE_SHIFT);
+            int count = Math.min(PAGE_SIZE, length - start);
+            if (source instanceof ArrayFloatTensor array) {
+                System.arraycopy(array.values, start, values, 0, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    values[i] = source.getFloat(start + i);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * A tensor with the same contents, sharing all the pages with this one until either is written.
+     */
+    public PagedFloatTensor fork() {
+        Page[] shared = pages.clone();
+        for (Page page : shared) {
+            if (page != ZERO) {
+                page.owners.incrementAndGet();
+            }
+        }
+        return new PagedFloatTensor(size, shared);
+    }
+
+    /**
+     * Drops the references of this tensor to its pages, so the forks still sharing them write in place instead of copying them. The
+     * tensor reads as zeros afterwards.
+     */
+    public void release() {
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != ZERO) {
+                pages[i].owners.decrementAndGet();
+                pages[i] = ZERO;
+            }
+        }
+    }
+
+    private float[] writablePage(int pageIndex) {
+        Page page = pages[pageIndex];
+        if (page == ZERO) {
+            page = pages[pageIndex] = new Page(new float[PAGE_SIZE]);
+        } else if (page.owners.get() > 1) {
+            // shared with a fork: copy on write
+            Page copy = new Page(page.values.clone());
+            page.owners.decrementAndGet();
+            page = pages[pageIndex] = copy;
+        }
+        return page.values;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public float getFloat(long index) {
+        int i = Math.toIntExact(index);
+        return pages[i >>> PAGE_SHIFT].values[i & PAGE_MASK];
+    }
+
+    @Override
+    public void setFloat(long index, float value) {
+        int i = Math.toIntExact(index);
+        writablePage(i >>> PAGE_SHIFT)[i & PAGE_MASK] = value;
+    }
+
+    @Override
+    public GGMLType type() {
+        return GGMLType.F32;
+    }
+
+    @Override
+    public MemorySegment asMemorySegment() {
+        throw new UnsupportedOperationException("Paged tensors are not contiguous");
+    }
+
+    /**
+     * Reads a vector within a page; the head slices never straddle two pages.
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        if (!USE_VECTOR_API) {
+            throw new UnsupportedOperationException("Vector API disabled");
+        }
+        int offset = index & PAGE_MASK;
+        if (offset + species.length() > PAGE_SIZE) {
+            throw new UnsupportedOperationException("Vector read across two pages at index " + index);
+        }
+        return FloatVector.fromArray(species, pages[index >>> PAGE_SHIFT].values, offset);
+    }
+}
@@ -20,21 +20,21 @@ import java.nio.ByteOrder;
  */
 public final class Q4_0FloatTensor extends FloatTensor {
 
-    final int size;
+    final long size;
     final MemorySegment memorySegment;
 
-    public Q4_0FloatTensor(int size, MemorySegment memorySegment) {
+    public Q4_0FloatTensor(long size, MemorySegment memorySegment) {
         this.size = size;
         this.memorySegment = memorySegment;
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
     @Override
-    public void setFloat(int index, float value) {
+    public void setFloat(long index, float value) {
         throw new UnsupportedOperationException("setFloat");
     }
 
@@ -54,13 +54,13 @@ public final class Q4_0FloatTensor extends FloatTensor {
     }
 
     @Override
-    public float getFloat(int index) {
+    public float getFloat(long index) {
         assert 0 <= index && index < size;
-        int blockIndex = index / GGMLType.Q4_0.getBlockSize();
-        int blockOffset = blockIndex * GGMLType.Q4_0.getTypeSize();
+        long blockIndex = index / GGMLType.Q4_0.getBlockSize();
+        long blockOffset = blockIndex * GGMLType.Q4_0.getTypeSize();
         float scale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
         byte quant;
-        int modIndex = index % GGMLType.Q4_0.getBlockSize();
+        int modIndex = (int) (index % GGMLType.Q4_0.getBlockSize());
         if (modIndex < GGMLType.Q4_0.getBlockSize() / 2) {
             quant = (byte) (readByte(memorySegment, blockOffset + Float16.BYTES + modIndex) & 0x0F);
         } else {
@@ -71,7 +71,7 @@ public final class Q4_0FloatTensor extends FloatTensor {
     }
 
     @Override
-    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+    public float dot(long thisOffset, FloatTensor that, int thatOffset, int size) {
         if (LlamaApp.USE_VECTOR_API) {
             return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
         } else {
@@ -79,13 +79,13 @@ public final class Q4_0FloatTensor extends FloatTensor {
         }
     }
 
-    private static float vectorDot(Q4_0FloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+    private static float vectorDot(Q4_0FloatTensor thiz, long thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
         float result = 0f;
         int j = 0;
 
         // Align thisOffset + j to type().getBlockSize().
         assert Integer.bitCount(GGMLType.Q4_0.getBlockSize()) == 1 : "power of 2";
-        int alignmentBound = Math.min(size, -thisOffset & (GGMLType.Q4_0.getBlockSize() - 1));
+        int alignmentBound = (int) Math.min(size, -thisOffset & (GGMLType.Q4_0.getBlockSize() - 1));
         if (alignmentBound > 0) {
             result += FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, alignmentBound);
             j += alignmentBound;
@@ -93,7 +93,7 @@ public final class Q4_0FloatTensor extends FloatTensor {
         assert (thisOffset + j) % GGMLType.Q4_0.getBlockSize() == 0;
 
         FloatVector val = FloatVector.zero(F_SPECIES);
-        int blockOffset = (thisOffset + j) / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getTypeSize();
+        long blockOffset = (thisOffset + j) / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getTypeSize();
         int upperBound = size / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getBlockSize();
         for (; j < upperBound; j += GGMLType.Q4_0.getBlockSize(), blockOffset += GGMLType.Q4_0.getTypeSize()) {
             float wScaleValue = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
@@ -108,6 +108,10 @@ public final class Q4_0FloatTensor extends FloatTensor {
                 var sum2 = that.getFloatVector(F_SPECIES, thatOffset + j + 2 * F_SPECIES.length()).mul(hiBytes.castShape(F_SPECIES, 0));
                 var sum3 = that.getFloatVector(F_SPECIES, thatOffset + j + 3 * F_SPECIES.length()).mul(hiBytes.castShape(F_SPECIES, 1));
                 val = sum0.add(sum1).add(sum2).add(sum3).fma(wScale, val);
+            } else if (F_SPECIES.vectorBitSize() == 512) {
+                var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j + 0 * F_SPECIES.length()).mul(loBytes.castShape(F_SPECIES, 0));
+                var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + 1 * F_SPECIES.length()).mul(hiBytes.castShape(F_SPECIES, 0));
+                val = sum0.add(sum1).fma(wScale, val);
             } else if (F_SPECIES.vectorBitSize() == 128) {
                 // This loop cannot be unrolled, why?
                 for (int i = 0; i < 2; ++i) {
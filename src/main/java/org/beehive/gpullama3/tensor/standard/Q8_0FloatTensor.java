@@ -14,16 +14,16 @@ import java.nio.ByteOrder;
 
 public final class Q8_0FloatTensor extends FloatTensor {
 
-    final int size;
+    final long size;
     final MemorySegment memorySegment;
 
-    public Q8_0FloatTensor(int size, MemorySegment memorySegment) {
+    public Q8_0FloatTensor(long size, MemorySegment memorySegment) {
         this.size = size;
         this.memorySegment = memorySegment;
     }
 
     @Override
-    public int size() {
+    public long size() {
         return size;
     }
 
@@ -32,7 +32,7 @@ public final class Q8_0FloatTensor extends FloatTensor {
     }
 
     @Override
-    public void setFloat(int index, float value) {
+    public void setFloat(long index, float value) {
         throw new UnsupportedOperationException("setFloat");
     }
 
@@ -52,11 +52,11 @@ public final class Q8_0FloatTensor extends FloatTensor {
     }
 
     @Override
-    public float getFloat(int index) {
+    public float getFloat(long index) {
         assert 0 <= index && index < size;
-        int blockIndex = index / GGMLType.Q8_0.getBlockSize();
-        int withinBlockIndex = index % GGMLType.Q8_0.getBlockSize();
-        int blockOffset = blockIndex * GGMLType.Q8_0.getTypeSize();
+        long blockIndex = index / GGMLType.Q8_0.getBlockSize();
+        int withinBlockIndex = (int) (index % GGMLType.Q8_0.getBlockSize());
+        long blockOffset = blockIndex * GGMLType.Q8_0.getTypeSize();
         byte quant = readByte(memorySegment, blockOffset + Float16.BYTES + withinBlockIndex);
         float scale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
         return quant * scale;
@@ -66,7 +66,7 @@ public final class Q8_0FloatTensor extends FloatTensor {
     public static final ValueLayout.OfShort JAVA_SHORT_LE = ValueLayout.JAVA_SHORT.withOrder(ByteOrder.LITTLE_ENDIAN);
 
     @Override
-    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+    public float dot(long thisOffset, FloatTensor that, int thatOffset, int size) {
         if (USE_VECTOR_API) {
             return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
         } else {
@@ -74,13 +74,13 @@ public final class Q8_0FloatTensor extends FloatTensor {
         }
     }
 
-    private static float vectorDot(Q8_0FloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+    private static float vectorDot(Q8_0FloatTensor thiz, long thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
         float result = 0f;
         int j = 0;
 
         // Align thisOffset + startIndex to type().getBlockSize().
         assert Integer.bitCount(GGMLType.Q8_0.getBlockSize()) == 1 : "power of 2";
-        int alignmentBound = Math.min(size, -thisOffset & (GGMLType.Q8_0.getBlockSize() - 1));
+        int alignmentBound = (int) Math.min(size, -thisOffset & (GGMLType.Q8_0.getBlockSize() - 1));
         if (alignmentBound > 0) {
             result += FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, alignmentBound);
             j += alignmentBound;
@@ -88,7 +88,7 @@ public final class Q8_0FloatTensor extends FloatTensor {
         assert (thisOffset + j) % GGMLType.Q8_0.getBlockSize() == 0;
 
         FloatVector val = FloatVector.zero(F_SPECIES);
-        int blockOffset = (thisOffset + j) / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getTypeSize();
+        long blockOffset = (thisOffset + j) / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getTypeSize();
         int upperBound = size / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getBlockSize();
         for (; j < upperBound; j += GGMLType.Q8_0.getBlockSize(), blockOffset += GGMLType.Q8_0.getTypeSize()) {
             float wScaleValue = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
@@ -101,6 +101,12 @@ public final class Q8_0FloatTensor extends FloatTensor {
                 var sum3 = that.getFloatVector(F_SPECIES, thatOffset + j + 3 * F_SPECIES.length()).mul(wBytes.castShape(F_SPECIES, 3));
                 val = sum0.add(sum1).add(sum2).add(sum3).fma(wScale, val);
             }
+            else if (F_SPECIES.vectorBitSize() == 512) {
+                var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_256, thiz.memorySegment, blockOffset + Float16.BYTES, ByteOrder.LITTLE_ENDIAN);
+                var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j + 0 * F_SPECIES.length()).mul(wBytes.castShape(F_SPECIES, 0));
+                var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + 1 * F_SPECIES.length()).mul(wBytes.castShape(F_SPECIES, 1));
+                val = sum0.add(sum1).fma(wScale, val);
+            }
             else if (F_SPECIES.vectorBitSize() == 128) {
                 VectorSpecies<Byte> B_128 = ByteVector.SPECIES_128;
                 // This loop cannot be unrolled, why?
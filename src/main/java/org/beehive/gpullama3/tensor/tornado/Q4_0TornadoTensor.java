@@ -0,0 +1,121 @@
+package org.beehive.gpullama3.tensor.tornado;
+
+import org.beehive.gpullama3.tensor.Float16;
+import org.beehive.gpullama3.tensor.GGMLTensorEntry;
+import org.beehive.gpullama3.tensor.GGMLType;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+import uk.ac.manchester.tornado.api.types.HalfFloat;
+import uk.ac.manchester.tornado.api.types.arrays.HalfFloatArray;
+import uk.ac.manchester.tornado.api.types.arrays.Int8Array;
+import uk.ac.manchester.tornado.api.types.arrays.TornadoNativeArray;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Q4_0 tensor for GPU kernels, kept at 4 bits per weight on the device.
+ *
+ * <p>The GGUF blocks are split in two arrays: one fp16 scale per 32-element block, and the packed quants, 16 bytes per block as in the
+ * file. Byte {@code j} of block {@code b} holds element {@code 32 * b + j} in its low nibble and element {@code 32 * b + j + 16} in its high
+ * nibble, both offset by 8.</p>
+ */
+public class Q4_0TornadoTensor extends TornadoTensor {
+
+    private static final int BLOCK_SIZE = GGMLType.Q4_0.getBlockSize();
+
+    private final int size;
+    private final HalfFloatArray scales;  // One per 32-element block
+    private final Int8Array quants;       // Two 4-bit values per byte
+    private final MemorySegment segment;
+
+    public Q4_0TornadoTensor(int size, HalfFloatArray scales, Int8Array quants, MemorySegment segment) {
+        this.size = size;
+        this.scales = scales;
+        this.quants = quants;
+        this.segment = segment;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the scale factors for GPU kernels.
+     *
+     * @return HalfFloatArray containing fp16 scale factors
+     */
+    @Override
+    public HalfFloatArray getScales() {
+        return scales;
+    }
+
+    /**
+     * Returns the packed quantized values for GPU kernels, {@code size / 2} bytes.
+     *
+     * @return Int8Array containing two 4-bit values per byte
+     */
+    @Override
+    public Int8Array getQuants() {
+        return quants;
+    }
+
+    @Override
+    public GGMLType type() {
+        return GGMLType.Q4_0;
+    }
+
+    public MemorySegment asMemorySegment() {
+        return segment;
+    }
+
+    /**
+     * Dequantizes and returns a single float value.
+     *
+     * @param index Element index
+     * @return Dequantized float value
+     */
+    public float getFloat(int index) {
+        assert 0 <= index && index < size;
+        int block = index / BLOCK_SIZE;
+        int modIndex = index % BLOCK_SIZE;
+        byte packed = quants.get(block * (BLOCK_SIZE / 2) + modIndex % (BLOCK_SIZE / 2));
+        int quant = modIndex < BLOCK_SIZE / 2 ? packed & 0x0F : (packed >>> 4) & 0x0F;
+        return (quant - 8) * scales.get(block).getFloat32();
+    }
+
+    public static Q4_0TornadoTensor create(GGMLTensorEntry entry) {
+        if (entry.ggmlType() != GGMLType.Q4_0) {
+            throw new IllegalArgumentException("Expected Q4_0 tensor, got: " + entry.ggmlType() + " for tensor: " + entry.name());
+        }
+
+        long numberOfElements = FloatTensor.numberOfElementsLong(entry.shape());
+        // the source segment is long-indexed, but TornadoVM native arrays are int-indexed
+        if (numberOfElements > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Q4_0 tensor " + entry.name() + " has " + numberOfElements + " elements, TornadoVM arrays are limited to " + Integer.MAX_VALUE);
+        }
+        int size = (int) numberOfElements;
+        if (size % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Q4_0 tensor size must be multiple of " + BLOCK_SIZE + ", got: " + size + " for tensor: " + entry.name());
+        }
+        int numBlocks = size / BLOCK_SIZE;
+
+        // as for Q8_0, the entry is mapped with a TornadoVM array header in front of the blocks
+        MemorySegment q4Segment = entry.memorySegment().asSlice(TornadoNativeArray.ARRAY_HEADER);
+
+        HalfFloatArray scales = new HalfFloatArray(numBlocks);
+        Int8Array quants = new Int8Array(size / 2);
+
+        // unpack Q4_0 blocks: [2 bytes fp16 scale][16 bytes of packed nibbles]
+        ValueLayout.OfShort shortLayout = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < numBlocks; block++) {
+            long blockOffset = (long) block * GGMLType.Q4_0.getTypeSize();
+            scales.set(block, new HalfFloat(q4Segment.get(shortLayout, blockOffset)));
+            for (int i = 0; i < BLOCK_SIZE / 2; i++) {
+                quants.set(block * (BLOCK_SIZE / 2) + i, q4Segment.get(ValueLayout.JAVA_BYTE, blockOffset + Float16.BYTES + i));
+            }
+        }
+
+        return new Q4_0TornadoTensor(size, scales, quants, q4Segment);
+    }
+}
@@ -77,7 +77,12 @@ public class Q8_0TornadoTensor extends TornadoTensor {
         }
 
         int[] shape = entry.shape();
-        int size = FloatTensor.numberOfElements(shape);
+        long numberOfElements = FloatTensor.numberOfElementsLong(shape);
+        // the source segment is long-indexed, but TornadoVM native arrays are int-indexed
+        if (numberOfElements > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Q8_0 tensor " + entry.name() + " has " + numberOfElements + " elements, TornadoVM arrays are limited to " + Integer.MAX_VALUE);
+        }
+        int size = (int) numberOfElements;
         int numBlocks = size / GGMLType.Q8_0.getBlockSize();
 
         if (size % GGMLType.Q8_0.getBlockSize() != 0) {
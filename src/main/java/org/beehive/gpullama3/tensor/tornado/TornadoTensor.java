@@ -32,7 +32,7 @@ public abstract class TornadoTensor {
     }
 
     /**
-     * Get quantized scales (for Q8_0 tensors).
+     * Get quantized scales (for Q8_0 and Q4_0 tensors).
      *
      * @throws UnsupportedOperationException if not quantized
      */
@@ -41,7 +41,7 @@ public abstract class TornadoTensor {
     }
 
     /**
-     * Get quantized values (for Q8_0 tensors).
+     * Get quantized values (for Q8_0 and Q4_0 tensors).
      *
      * @throws UnsupportedOperationException if not quantized
      */
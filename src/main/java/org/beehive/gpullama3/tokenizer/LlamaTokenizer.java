@@ -1,6 +1,7 @@
 package org.beehive.gpullama3.tokenizer;
 
 import org.beehive.gpullama3.auxiliary.Pair;
+import org.beehive.gpullama3.auxiliary.jfr.TokenizeEvent;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -146,12 +147,13 @@ public class LlamaTokenizer implements Tokenizer {
      * raised if any special token is encountered in text this is the default tiktoken behavior right now as well any other behavior is either annoying, or a major footgun.
      */
     public List<Integer> encode(String text, Set<String> allowedSpecial) {
+        TokenizeEvent event = TokenizeEvent.start();
         // decode the user desire w.r.t. handling of special tokens
         Set<String> special = allowedSpecial;
         assert getSpecialTokens().keySet().containsAll(special);
         if (special.isEmpty()) {
             // shortcut: if no special tokens, just use the ordinary encoding
-            return encodeOrdinary(text);
+            return event.end(text, encodeOrdinary(text));
         }
 
         // otherwise, we have to be careful with potential special tokens in text
@@ -174,7 +176,7 @@ public class LlamaTokenizer implements Tokenizer {
                 ids.addAll(encodeOrdinary(part));
             }
         }
-        return ids;
+        return event.end(text, ids);
     }
 
     /**
@@ -266,4 +268,14 @@ public class LlamaTokenizer implements Tokenizer {
         }
         return new String(rawBytes, StandardCharsets.UTF_8);
     }
+
+    @Override
+    public byte[] tokenBytes(int token) {
+        int[] codePoints = vocabulary.get(token).codePoints().toArray();
+        byte[] bytes = new byte[codePoints.length];
+        for (int i = 0; i < codePoints.length; i++) {
+            bytes[i] = (byte) (int) BYTE_DECODER.get(codePoints[i]);
+        }
+        return bytes;
+    }
 }
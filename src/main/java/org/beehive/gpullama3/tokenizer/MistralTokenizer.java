@@ -1,5 +1,7 @@
 package org.beehive.gpullama3.tokenizer;
 
+import org.beehive.gpullama3.auxiliary.jfr.TokenizeEvent;
+
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -138,7 +140,8 @@ public class MistralTokenizer implements Tokenizer {
      */
     @Override
     public List<Integer> encode(String text, Set<String> allowedSpecial) {
-        return encodeImpl(text.replace(' ', '▁'));
+        TokenizeEvent event = TokenizeEvent.start();
+        return event.end(text, encodeImpl(text.replace(' ', '▁')));
     }
 
     @Override
@@ -169,4 +172,17 @@ public class MistralTokenizer implements Tokenizer {
         }
         return sb.toString();
     }
+
+    @Override
+    public byte[] tokenBytes(int token) {
+        String tokenString = vocabulary.get(token);
+        if (isSpecialToken(token)) {
+            // byte fallback tokens, e.g. '<0xE2>', stand for a single byte of a UTF-8 sequence
+            if (tokenString.length() == 6 && tokenString.startsWith("<0x") && tokenString.endsWith(">")) {
+                return new byte[] { (byte) Integer.parseInt(tokenString.substring(3, 5), 16) };
+            }
+            return tokenString.getBytes(StandardCharsets.UTF_8);
+        }
+        return tokenString.replace('▁', ' ').getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -1,6 +1,7 @@
 package org.beehive.gpullama3.tokenizer;
 
 import org.beehive.gpullama3.auxiliary.Pair;
+import org.beehive.gpullama3.auxiliary.jfr.TokenizeEvent;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
@@ -85,7 +86,8 @@ public class Phi3Tokenizer implements Tokenizer {
 
     @Override
     public List<Integer> encode(String text, Set<String> allowedSpecial) {
-        return encodeAsList(text);
+        TokenizeEvent event = TokenizeEvent.start();
+        return event.end(text, encodeAsList(text));
     }
 
     @Override
@@ -166,4 +168,14 @@ public class Phi3Tokenizer implements Tokenizer {
         // Replace SPM underscore with space
         return sb.toString().replace(SPM_UNDERSCORE, " ");
     }
+
+    @Override
+    public byte[] tokenBytes(int token) {
+        String tokenString = vocabulary.get(token);
+        Matcher matcher = P_UTF8_BYTE.matcher(tokenString);
+        if (matcher.matches()) {
+            return new byte[] { (byte) Integer.parseInt(matcher.group(1), 16) };
+        }
+        return tokenString.replace(SPM_UNDERSCORE, " ").getBytes(StandardCharsets.UTF_8);
+    }
 }
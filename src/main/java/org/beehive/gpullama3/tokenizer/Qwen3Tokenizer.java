@@ -2,7 +2,9 @@ package org.beehive.gpullama3.tokenizer;
 
 import org.beehive.gpullama3.auxiliary.Utf8Mask;
 import org.beehive.gpullama3.auxiliary.Pair;
+import org.beehive.gpullama3.auxiliary.jfr.TokenizeEvent;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -234,12 +236,13 @@ public class Qwen3Tokenizer implements Tokenizer {
     // @formatter:off
     @Override
     public List<Integer> encode(String text, Set<String> allowedSpecial) {
+        TokenizeEvent event = TokenizeEvent.start();
         // decode the user desire w.r.t. handling of special tokens
         Set<String> special = allowedSpecial;
         assert getSpecialTokens().keySet().containsAll(special);
         if (special.isEmpty()) {
             // shortcut: if no special tokens, just use the ordinary encoding
-            return encodeOrdinary(text);
+            return event.end(text, encodeOrdinary(text));
         }
 
         // otherwise, we have to be careful with potential special tokens in text
@@ -265,7 +268,7 @@ public class Qwen3Tokenizer implements Tokenizer {
                 ids.addAll(encodeOrdinary(part));
             }
         }
-        return ids;
+        return event.end(text, ids);
     }
     // @formatter:on
 
@@ -330,4 +333,18 @@ public class Qwen3Tokenizer implements Tokenizer {
         }
         return new String(rawBytes, 0, indexRawByte, StandardCharsets.UTF_8);
     }
+
+    @Override
+    public byte[] tokenBytes(int token) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        vocabulary.get(token).codePoints().forEach(cp -> {
+            Integer b = cp <= 512 ? BYTE_DECODER.get(cp) : null;
+            if (b != null) {
+                bytes.write(b);
+            } else {
+                bytes.writeBytes(Character.toString(cp).getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        return bytes.toByteArray();
+    }
 }
@@ -1,5 +1,6 @@
 package org.beehive.gpullama3.tokenizer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
@@ -49,5 +50,13 @@ public interface Tokenizer {
 
     String decode(List<Integer> tokens);
 
+    /**
+     * The raw bytes a single token stands for, in the UTF-8 encoding of the text. Unlike {@link #decode(List)}, a token holding part of a
+     * multi-byte character yields its bytes, not a replacement character.
+     */
+    default byte[] tokenBytes(int token) {
+        return decode(List.of(token)).getBytes(StandardCharsets.UTF_8);
+    }
+
 }
 
@@ -1,5 +1,6 @@
 package org.beehive.gpullama3.tornadovm;
 
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import uk.ac.manchester.tornado.api.GridScheduler;
 import uk.ac.manchester.tornado.api.ImmutableTaskGraph;
 
@@ -11,4 +12,11 @@ public interface GenericLayerPlanner {
 
     GridScheduler getGridScheduler();
 
+    /**
+     * The batched prefill layers, whose task graphs follow the logits graph, or {@code null} if the prompt is ingested token by token.
+     */
+    default AbstractPrefillLayers getPrefillLayers() {
+        return null;
+    }
+
 }
@@ -0,0 +1,216 @@
+package org.beehive.gpullama3.tornadovm;
+
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
+import uk.ac.manchester.tornado.api.common.TornadoDevice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * On-disk cache of the kernels compiled by TornadoVM, enabled with {@code -Dllama.TornadoVMKernelCache=<directory>}. Experimental: it relies
+ * on the code cache of the OpenCL backend, and is disabled with the other backends.
+ *
+ * <p>TornadoVM enables its code cache when it starts, so the cache is {@link #configure configured} by the model loader before
+ * any TornadoVM object is created, and serves a single model per process. The model gets a sub-directory named after a key of everything
+ * the generated kernels depend on: the model file, the context length, the prefill batch size, the compiler options and the version of
+ * this project. The first start compiles the task graphs from Java bytecode as usual, and TornadoVM dumps the device binaries; later starts
+ * load the binaries instead.</p>
+ *
+ * <p>Binaries only run on the device they were compiled for, so each device has its own entry in the model sub-directory, named after the
+ * device. The device is only known once TornadoVM runs: {@link #configure} points the code cache at the entry of the device used last, and
+ * {@link #selectDevice}, called with the device of the execution plan before the task graphs are compiled, switches to the entry of that
+ * device if it is another one, loading it if it is filled, compiling into it otherwise.</p>
+ */
+public final class KernelCache {
+
+    private static final String KEY_FILE = "key.txt";
+    private static final String DEVICE_FILE = "device.txt";
+    private static final String LAST_DEVICE_FILE = "last-device.txt";
+    /** Entry filled when no device was used yet, renamed after the device it was compiled for. */
+    private static final String PENDING_ENTRY = "pending";
+
+    /** Options of the TornadoVM compilers the kernels depend on. */
+    private static final List<String> COMPILER_PROPERTIES = List.of("tornado.enable.fastMathOptimizations", "tornado.enable.mathOptimizations",
+            "tornado.enable.nativeFunctions", "tornado.loop.interchange", "tornado.opencl.compiler.flags");
+
+    private static KernelCache active; // guarded by KernelCache.class
+
+    private final String key;
+    private final Path modelDirectory;
+    private Path directory; // entry of the device, guarded by this
+    private boolean warm;   // guarded by this
+
+    private KernelCache(String key, Path modelDirectory, Path directory, boolean warm) {
+        this.key = key;
+        this.modelDirectory = modelDirectory;
+        this.directory = directory;
+        this.warm = warm;
+    }
+
+    /**
+     * Configures the TornadoVM code cache for the model at {@code modelPath}, on the entry of the device used last; to be called before
+     * TornadoVM starts, i.e. before the model is loaded.
+     *
+     * @return the cache, or {@code null} when {@code llama.TornadoVMKernelCache} is not set or the OpenCL backend is not the only one
+     * @throws IllegalStateException
+     *         if the cache is already configured for another model
+     */
+    public static synchronized KernelCache configure(Path modelPath, int contextLength) throws IOException {
+        String root = System.getProperty("llama.TornadoVMKernelCache");
+        if (root == null || root.isEmpty() || !isOpenCLOnly()) {
+            return null;
+        }
+        String key = describe(modelPath, contextLength);
+        if (active != null) {
+            if (!active.key.equals(key)) {
+                throw new IllegalStateException("The kernel cache " + active.modelDirectory + " serves another model, TornadoVM enables its code cache once per process");
+            }
+            return active;
+        }
+        Path modelDirectory = Path.of(root, sha256(key).substring(0, 16));
+        Path lastDevice = modelDirectory.resolve(LAST_DEVICE_FILE);
+        Path directory = modelDirectory.resolve(Files.isRegularFile(lastDevice) ? read(lastDevice).strip() : PENDING_ENTRY);
+        boolean warm = Files.isRegularFile(directory.resolve(DEVICE_FILE));
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(modelDirectory.resolve(KEY_FILE), key, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the kernel cache " + directory, e);
+        }
+
+        System.setProperty("tornado.opencl.codecache.enable", "True");
+        useEntry(directory, warm);
+        active = new KernelCache(key, modelDirectory, directory, warm);
+        return active;
+    }
+
+    /**
+     * The cache configured in this process, or {@code null}.
+     */
+    public static synchronized KernelCache active() {
+        return active;
+    }
+
+    /** Whether the binaries are loaded from the cache, rather than compiled and dumped to it. */
+    public synchronized boolean isWarm() {
+        return warm;
+    }
+
+    public synchronized Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Points the code cache at the entry of {@code device}, the device the execution plan runs on; to be called before the task graphs
+     * are compiled. If the configured entry was filled by another device, the binaries of {@code device} are loaded from its own entry, or
+     * compiled into it when it is empty; the entry of the other device is left as is.
+     */
+    public synchronized void selectDevice(TornadoDevice device) {
+        Path entry = modelDirectory.resolve(entryName(device));
+        if (entry.equals(directory)) {
+            return;
+        }
+        boolean entryWarm = Files.isRegularFile(entry.resolve(DEVICE_FILE));
+        if (!entryWarm && directory.getFileName().toString().equals(PENDING_ENTRY)) {
+            return; // compiled into the pending entry, committed under the name of the device
+        }
+        directory = entry;
+        warm = entryWarm;
+        try {
+            Files.createDirectories(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the kernel cache " + entry, e);
+        }
+        useEntry(entry, warm);
+    }
+
+    /** Records {@code device} once the task graphs are compiled for it, the next starts load its binaries. */
+    public synchronized void commit(TornadoDevice device) {
+        try {
+            if (!warm) {
+                Path entry = modelDirectory.resolve(entryName(device));
+                if (!entry.equals(directory)) {
+                    // the pending entry, the binaries were dumped before the device was known
+                    deleteEntry(entry);
+                    Files.move(directory, entry);
+                    directory = entry;
+                }
+                Files.writeString(directory.resolve(DEVICE_FILE), describe(device), StandardCharsets.UTF_8);
+                useEntry(directory, true); // for the execution plans created later in this process
+            }
+            Files.writeString(modelDirectory.resolve(LAST_DEVICE_FILE), directory.getFileName().toString(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the kernel cache " + directory, e);
+        }
+    }
+
+    private static void useEntry(Path entry, boolean warm) {
+        System.setProperty("tornado.opencl.codecache.dir", entry.toAbsolutePath().toString());
+        System.setProperty("tornado.opencl.codecache.dump", String.valueOf(!warm));
+        System.setProperty("tornado.opencl.codecache.loadbin", String.valueOf(warm));
+    }
+
+    private static void deleteEntry(Path entry) throws IOException {
+        if (!Files.isDirectory(entry)) {
+            return;
+        }
+        try (var files = Files.list(entry)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(entry);
+    }
+
+    /** The active backend is known before TornadoVM starts from the modules resolved by the launcher. */
+    private static boolean isOpenCLOnly() {
+        ModuleLayer boot = ModuleLayer.boot();
+        return boot.findModule("tornado.drivers.opencl").isPresent() && boot.findModule("tornado.drivers.ptx").isEmpty()
+                && boot.findModule("tornado.drivers.spirv").isEmpty();
+    }
+
+    private static String describe(Path modelPath, int contextLength) throws IOException {
+        Path model = modelPath.toRealPath();
+        StringBuilder key = new StringBuilder();
+        key.append("version=").append(TornadoVMMasterPlan.class.getPackage().getImplementationVersion()).append('\n');
+        key.append("model=").append(model).append(',').append(Files.size(model)).append(',').append(Files.getLastModifiedTime(model).toMillis()).append('\n');
+        key.append("context=").append(contextLength).append('\n');
+        key.append("prefill=").append(Math.max(0, Math.min(AbstractPrefillLayers.configuredMaxBatchSize(), contextLength))).append('\n');
+        key.append("backend=opencl\n");
+        for (String property : COMPILER_PROPERTIES) {
+            key.append(property).append('=').append(System.getProperty(property, "")).append('\n');
+        }
+        return key.toString();
+    }
+
+    private static String describe(TornadoDevice device) {
+        return device.getPlatformName() + " / " + device.getDeviceName();
+    }
+
+    private static String entryName(TornadoDevice device) {
+        return "device-" + sha256(describe(device)).substring(0, 16);
+    }
+
+    private static String read(Path path) {
+        try {
+            return Files.readString(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the kernel cache " + path, e);
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
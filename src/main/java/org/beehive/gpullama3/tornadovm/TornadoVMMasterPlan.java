@@ -1,12 +1,16 @@
 package org.beehive.gpullama3.tornadovm;
 
+import org.beehive.gpullama3.auxiliary.jfr.GraphExecutionEvent;
 import org.beehive.gpullama3.tensor.GGMLType;
 import org.beehive.gpullama3.inference.state.State;
 import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.tornadovm.kernels.SamplingKernels;
 import org.beehive.gpullama3.tornadovm.layerplanner.base.QuantizationPlannerFactory;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import uk.ac.manchester.tornado.api.ImmutableTaskGraph;
 import uk.ac.manchester.tornado.api.TornadoExecutionPlan;
+import uk.ac.manchester.tornado.api.TornadoExecutionResult;
 import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
 
 public class TornadoVMMasterPlan {
@@ -16,6 +20,8 @@ public class TornadoVMMasterPlan {
     private final Configuration config;
     public TornadoExecutionPlan executionPlan;
     GenericLayerPlanner tornadoVMLayerPlanner;
+    private boolean deviceSampling;
+    private TornadoExecutionResult logitsResult; // of the last forward, transfers the logits on demand with device sampling
 
     public TornadoVMMasterPlan(State state, Model model) {
         this.tornadoVMLayerPlanner = createPlanner(state, model);
@@ -26,7 +32,7 @@ public class TornadoVMMasterPlan {
 
     /**
      * Initializes the TornadoVM plan for GPU acceleration with optional timing. This method handles: 1. Creation of the TornadoVM master plan 2. Warming up the JIT compiler for better performance 3.
-     * Copying read-only model weights to the GPU
+     * Copying read-only model weights to the GPU. With {@code -Dllama.TornadoVMKernelCache}, the compiled kernels are kept on disk, see {@link KernelCache}.
      *
      * @param state
      *         The model state containing KV cache
@@ -45,6 +51,9 @@ public class TornadoVMMasterPlan {
             System.err.println("\nStarting TornadoVM initialization...");
         }
 
+        // configured by the model loader, TornadoVM reads its code cache options when it starts
+        KernelCache kernelCache = KernelCache.active();
+
         // 1. Pre-allocate the TornadoVM plan
         TornadoVMMasterPlan tornadoVMPlan = new TornadoVMMasterPlan(state, model);
 
@@ -55,12 +64,21 @@ public class TornadoVMMasterPlan {
         }
 
         // 2. Perform warmup with extra iterations to ensure JIT compilation is complete
-        tornadoVMPlan.executionPlan.withPreCompilation(); // Force JIT compilation from Java to GPU code
+        if (kernelCache != null) {
+            kernelCache.selectDevice(tornadoVMPlan.executionPlan.getDevice(0));
+        }
+        tornadoVMPlan.executionPlan.withPreCompilation(); // Force JIT compilation from Java to GPU code, or load the cached binaries
+        if (kernelCache != null) {
+            kernelCache.commit(tornadoVMPlan.executionPlan.getDevice(0));
+        }
 
         // Record time after warmup
         if (ENABLE_TORNADOVM_INIT_TIME) {
             warmupTime = System.nanoTime();
             System.err.printf("Java to GPU JIT compiler warmup: %.2f ms\n", (warmupTime - planCreationTime) / 1_000_000.0);
+            if (kernelCache != null) {
+                System.err.printf("Kernel cache (%s): %s\n", kernelCache.isWarm() ? "loaded" : "written", kernelCache.getDirectory());
+            }
         }
 
         // 3. Perform copy-in of read-only weights and objects
@@ -127,9 +145,11 @@ public class TornadoVMMasterPlan {
     public FloatArray tornadoVMForwardExecuteLayered(int position) {
         // @formatter:off
         // 1. Execute the preprocessing graph (e.g., input preparation, memory initialization)
+        GraphExecutionEvent event = GraphExecutionEvent.start(getPreprocessingGraphIndex(), -1, position);
         executionPlan.withGraph(getPreprocessingGraphIndex())
                 .withGridScheduler(tornadoVMLayerPlanner.getGridScheduler())
                 .execute();
+        event.commit();
 
         // Set the position in the state object (used by attention layers)
         state.positionHolder.set(0, position);
@@ -137,18 +157,92 @@ public class TornadoVMMasterPlan {
         // 2. Execute each transformer layer graph sequentially
         // Each graph computes attention and feed-forward transformations for one layer
         for (int layer = 0; layer < config.numberOfLayers(); layer++) {
+            event = GraphExecutionEvent.start(getLayerGraphIndex(layer), layer, position);
             executionPlan.withGraph(getLayerGraphIndex(layer))
                     .withGridScheduler(tornadoVMLayerPlanner.getGridScheduler())
                     .execute();
+            event.commit();
         }
 
         // 3. Execute the final graph that projects the last hidden state to output logits
-        executionPlan.withGraph(getFinalLogitsGraphIndex())
+        event = GraphExecutionEvent.start(getFinalLogitsGraphIndex(), -1, position);
+        logitsResult = executionPlan.withGraph(getFinalLogitsGraphIndex())
                 .withGridScheduler(tornadoVMLayerPlanner.getGridScheduler())
                 .execute();
+        if (!deviceSampling) {
+            logitsResult.transferToHost(state.wrapLogits);
+        }
+        event.commit();
 
         // @formatter:on
-        // Return the logits (used for token prediction)
+        // Return the logits (used for token prediction), only up to date without device sampling, see fetchLogits()
+        return state.wrapLogits;
+    }
+
+    /**
+     * Whether the plan has batched prefill graphs, see {@link #tornadoVMForwardPrefill}: LLaMA and Mistral models in FP16 and Q8_0.
+     */
+    public boolean supportsPrefill() {
+        return tornadoVMLayerPlanner.getPrefillLayers() != null;
+    }
+
+    /** Maximum number of positions of a {@link #tornadoVMForwardPrefill} call. */
+    public int getPrefillBatchSize() {
+        return tornadoVMLayerPlanner.getPrefillLayers().getMaxBatchSize();
+    }
+
+    /** Row-major embeddings of the positions of the next {@link #tornadoVMForwardPrefill} call, one row of {@code dim} per position. */
+    public FloatArray getPrefillEmbeddings() {
+        return tornadoVMLayerPlanner.getPrefillLayers().getEmbeddings();
+    }
+
+    /**
+     * Forwards a block of {@code batchSize} consecutive positions starting at {@code position}, whose embeddings were written to
+     * {@link #getPrefillEmbeddings()}, through all the layers: one execution of the prefill graph of every layer, with matrix-matrix
+     * kernels, instead of one execution of every layer graph per position. The keys and values of the block are written to the KV cache as
+     * {@link #tornadoVMForwardExecuteLayered} would, no logits are computed.
+     *
+     * @throws IllegalArgumentException
+     *         if {@code batchSize} is not in {@code [1, getPrefillBatchSize()]}
+     */
+    public void tornadoVMForwardPrefill(int position, int batchSize) {
+        AbstractPrefillLayers prefillLayers = tornadoVMLayerPlanner.getPrefillLayers();
+        prefillLayers.setBlock(position, batchSize);
+        for (int layer = 0; layer < config.numberOfLayers(); layer++) {
+            GraphExecutionEvent event = GraphExecutionEvent.start(getPrefillGraphIndex(layer), layer, position);
+            executionPlan.withGraph(getPrefillGraphIndex(layer))
+                    .withGridScheduler(tornadoVMLayerPlanner.getGridScheduler())
+                    .execute();
+            event.commit();
+        }
+    }
+
+    /**
+     * Selects where the tokens of the next forwards are sampled. With {@code candidates > 0}, the logits graph selects the
+     * {@code candidates} most likely tokens and the softmax normalizer at {@code temperature} on the device, into
+     * {@code state.samplingTokens} and {@code state.samplingValues}, and the logits stay on the device until {@link #fetchLogits()}. With
+     * {@code candidates == 0}, the default, every forward transfers the logits to the host.
+     *
+     * @throws IllegalArgumentException
+     *         if {@code candidates} is not in {@code [0, SamplingKernels.MAX_CANDIDATES]}
+     */
+    public void setDeviceSampling(int candidates, float temperature) {
+        if (candidates < 0 || candidates > SamplingKernels.MAX_CANDIDATES) {
+            throw new IllegalArgumentException("candidates must be in [0, " + SamplingKernels.MAX_CANDIDATES + "]: " + candidates);
+        }
+        state.samplingParameters.set(0, temperature > 0 ? 1.0f / temperature : 1.0f);
+        state.samplingParameters.set(1, candidates);
+        this.deviceSampling = candidates > 0;
+    }
+
+    /**
+     * The logits of the last forward. With device sampling they are transferred from the device by this call, e.g. when the candidates do
+     * not cover enough of the probability mass.
+     */
+    public FloatArray fetchLogits() {
+        if (deviceSampling && logitsResult != null) {
+            logitsResult.transferToHost(state.wrapLogits);
+        }
         return state.wrapLogits;
     }
 
@@ -173,7 +267,14 @@ public class TornadoVMMasterPlan {
      * Returns the graph index for the final projection to logits.
      */
     private int getFinalLogitsGraphIndex() {
-        return tornadoVMLayerPlanner.getImmutableTaskGraphs().size() - 1;
+        return config.numberOfLayers() + 1;
+    }
+
+    /**
+     * Returns the graph index of the batched prefill of the given transformer layer, after the logits graph.
+     */
+    private int getPrefillGraphIndex(int layerIndex) {
+        return config.numberOfLayers() + 2 + layerIndex;
     }
 
     /// Execute the forward pass of the LLaMA transformer model using TornadoVM acceleration just once to copy the data into the read-only data layer.
@@ -192,6 +293,12 @@ public class TornadoVMMasterPlan {
 
         // Execute logits graph
         executionPlan.withGraph(config.numberOfLayers() + 1).withGridScheduler(tornadoVMLayerPlanner.getGridScheduler()).execute();
+
+        // Execute the prefill graphs, on a block of one position
+        if (supportsPrefill()) {
+            tornadoVMLayerPlanner.getPrefillLayers().getEmbeddings().init(0.0f);
+            tornadoVMForwardPrefill(0, 1);
+        }
     }
 
     /**
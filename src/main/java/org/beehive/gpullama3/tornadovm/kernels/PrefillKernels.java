@@ -0,0 +1,345 @@
+package org.beehive.gpullama3.tornadovm.kernels;
+
+import uk.ac.manchester.tornado.api.KernelContext;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+import uk.ac.manchester.tornado.api.math.TornadoMath;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+import uk.ac.manchester.tornado.api.types.arrays.HalfFloatArray;
+import uk.ac.manchester.tornado.api.types.arrays.Int8Array;
+import uk.ac.manchester.tornado.api.types.arrays.IntArray;
+
+/**
+ * Kernels of the batched prefill: a block of consecutive prompt positions goes through a layer at once, so the weights are read once per
+ * block instead of once per token.
+ *
+ * <p>Activations are row-major, one row per position of the block: {@code x[row * n + i]}. The block is described by the prefill holder,
+ * {@code prefill[0]} the position of the first row and {@code prefill[1]} the number of rows; the buffers have room for a maximum
+ * number of rows, the rows past {@code prefill[1]} are skipped.</p>
+ *
+ * <p>The results match the matrix-vector kernels of {@link TransformerComputeKernelsLayered} run once per position, up to the order of the
+ * floating-point sums.</p>
+ */
+public class PrefillKernels {
+
+    /** Side of the square tiles of the matrix-matrix kernels, their work-groups are {@code TILE x TILE}. */
+    public static final int TILE = 16;
+    /** Threads per work-group of the row-wise kernels: RMS normalization and attention. */
+    public static final int LOCAL_SIZE = 64;
+
+    private static final int Q8_0_BLOCK_SIZE = 32;
+
+    private PrefillKernels() {
+    }
+
+    /**
+     * RMS normalization of every row of the block, one work-group per row: {@code out[row] = weights * x[row] / rms(x[row])}.
+     */
+    public static void rmsNormRows(KernelContext context, FloatArray out, FloatArray x, FloatArray weights, IntArray prefill, int dim, float rmsNormEps, int localMemSize) {
+        int row = context.groupIdx;
+        int lid = context.localIdx;
+        int groupSize = context.localGroupSizeX;
+        if (row >= prefill.get(1)) {
+            return;
+        }
+
+        float[] localSums = context.allocateFloatLocalArray(localMemSize);
+        int offset = row * dim;
+        float sum = 0.0f;
+        for (int i = lid; i < dim; i += groupSize) {
+            float value = x.get(offset + i);
+            sum += value * value;
+        }
+        localSums[lid] = sum;
+        for (int stride = groupSize / 2; stride > 0; stride /= 2) {
+            context.localBarrier();
+            if (lid < stride) {
+                localSums[lid] += localSums[lid + stride];
+            }
+        }
+        context.localBarrier();
+
+        float scale = 1.0f / TornadoMath.sqrt(localSums[0] / dim + rmsNormEps);
+        for (int i = lid; i < dim; i += groupSize) {
+            out.set(offset + i, weights.get(i) * (scale * x.get(offset + i)));
+        }
+    }
+
+    /**
+     * Matrix-matrix multiplication of the block by FP16 weights: {@code out[row][col] = w[col] · x[row]}, {@code w} row-major
+     * {@code d x n}. A work-group computes a {@code TILE x TILE} tile of {@code out}, columns along x and rows along y.
+     */
+    public static void matrixMatrix(KernelContext context, FloatArray x, FloatArray out, HalfFloatArray w, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum = tiledDot(context, x, w, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, sum);
+        }
+    }
+
+    /**
+     * {@link #matrixMatrix} added to {@code out}, the residual connection.
+     */
+    public static void matrixMatrixWithResidual(KernelContext context, FloatArray x, FloatArray out, HalfFloatArray w, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum = tiledDot(context, x, w, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, out.get(row * d + col) + sum);
+        }
+    }
+
+    /**
+     * SwiGLU feed-forward of the block: {@code out[row][col] = SiLU(w1[col] · x[row]) * (w3[col] · x[row])}.
+     */
+    public static void fusedFeedForwardWithSiLUAndGLUActivation(KernelContext context, FloatArray x, FloatArray out, HalfFloatArray w1, HalfFloatArray w3, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum1 = tiledDot(context, x, w1, prefill, n, d);
+        float sum3 = tiledDot(context, x, w3, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, TransformerComputeKernelsLayered.siluActivation(sum1) * sum3);
+        }
+    }
+
+    /**
+     * {@link #matrixMatrix} with Q8_0 weights, dequantized while loading the tiles.
+     */
+    public static void matrixMatrix(KernelContext context, FloatArray x, FloatArray out, Int8Array wQuants, HalfFloatArray wScales, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum = tiledDotQ8_0(context, x, wQuants, wScales, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, sum);
+        }
+    }
+
+    /**
+     * {@link #matrixMatrixWithResidual} with Q8_0 weights.
+     */
+    public static void matrixMatrixWithResidual(KernelContext context, FloatArray x, FloatArray out, Int8Array wQuants, HalfFloatArray wScales, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum = tiledDotQ8_0(context, x, wQuants, wScales, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, out.get(row * d + col) + sum);
+        }
+    }
+
+    /**
+     * {@link #fusedFeedForwardWithSiLUAndGLUActivation} with Q8_0 weights.
+     */
+    public static void fusedFeedForwardWithSiLUAndGLUActivation(KernelContext context, FloatArray x, FloatArray out, Int8Array w1Quants, HalfFloatArray w1Scales, Int8Array w3Quants,
+            HalfFloatArray w3Scales, IntArray prefill, int n, int d) {
+        int row = context.groupIdy * TILE + context.localIdy;
+        int col = context.groupIdx * TILE + context.localIdx;
+        if (context.groupIdy * TILE >= prefill.get(1)) {
+            return;
+        }
+        float sum1 = tiledDotQ8_0(context, x, w1Quants, w1Scales, prefill, n, d);
+        float sum3 = tiledDotQ8_0(context, x, w3Quants, w3Scales, prefill, n, d);
+        if (row < prefill.get(1) && col < d) {
+            out.set(row * d + col, TransformerComputeKernelsLayered.siluActivation(sum1) * sum3);
+        }
+    }
+
+    /**
+     * Dot product of row {@code groupIdy * TILE + localIdy} of {@code x} with row {@code groupIdx * TILE + localIdx} of {@code w}. The
+     * work-group stages {@code TILE x TILE} tiles of both in local memory, every weight loaded from global memory serves {@code TILE}
+     * positions. All threads of the work-group must call it, including those past the last row or column.
+     */
+    public static float tiledDot(KernelContext context, FloatArray x, HalfFloatArray w, IntArray prefill, int n, int d) {
+        int lx = context.localIdx;
+        int ly = context.localIdy;
+        int rowBase = context.groupIdy * TILE;
+        int colBase = context.groupIdx * TILE;
+        int rows = prefill.get(1);
+
+        float[] xTile = context.allocateFloatLocalArray(TILE * TILE);
+        float[] wTile = context.allocateFloatLocalArray(TILE * TILE);
+
+        float sum = 0.0f;
+        for (int k = 0; k < n; k += TILE) {
+            // thread (lx, ly) loads element k + lx of row ly of both tiles
+            xTile[ly * TILE + lx] = rowBase + ly < rows && k + lx < n ? x.get((rowBase + ly) * n + k + lx) : 0.0f;
+            wTile[ly * TILE + lx] = colBase + ly < d && k + lx < n ? w.get((colBase + ly) * n + k + lx).getFloat32() : 0.0f;
+            context.localBarrier();
+            for (int j = 0; j < TILE; j++) {
+                sum += xTile[ly * TILE + j] * wTile[lx * TILE + j];
+            }
+            // the tiles are overwritten by the next step
+            context.localBarrier();
+        }
+        return sum;
+    }
+
+    /**
+     * {@link #tiledDot} with Q8_0 weights: {@code n / 32} scales per row of {@code w}.
+     */
+    public static float tiledDotQ8_0(KernelContext context, FloatArray x, Int8Array wQuants, HalfFloatArray wScales, IntArray prefill, int n, int d) {
+        int lx = context.localIdx;
+        int ly = context.localIdy;
+        int rowBase = context.groupIdy * TILE;
+        int colBase = context.groupIdx * TILE;
+        int rows = prefill.get(1);
+
+        float[] xTile = context.allocateFloatLocalArray(TILE * TILE);
+        float[] wTile = context.allocateFloatLocalArray(TILE * TILE);
+
+        float sum = 0.0f;
+        for (int k = 0; k < n; k += TILE) {
+            xTile[ly * TILE + lx] = rowBase + ly < rows && k + lx < n ? x.get((rowBase + ly) * n + k + lx) : 0.0f;
+            float weight = 0.0f;
+            if (colBase + ly < d && k + lx < n) {
+                int index = (colBase + ly) * n + k + lx;
+                weight = wQuants.get(index) * wScales.get(index / Q8_0_BLOCK_SIZE).getFloat32();
+            }
+            wTile[ly * TILE + lx] = weight;
+            context.localBarrier();
+            for (int j = 0; j < TILE; j++) {
+                sum += xTile[ly * TILE + j] * wTile[lx * TILE + j];
+            }
+            context.localBarrier();
+        }
+        return sum;
+    }
+
+    /**
+     * Rotary position embedding of the queries and keys of the block, row {@code row} at position {@code prefill[0] + row}. One thread
+     * per pair of elements of a query row, see {@link TransformerComputeKernelsLayered#ropeRotation}.
+     */
+    public static void ropeRotation(KernelContext context, IntArray prefill, FloatArray q, FloatArray k, int dim, int kvDim, int headSize) {
+        int pairs = dim / 2;
+        int row = context.globalIdx / pairs;
+        int i = (context.globalIdx % pairs) * 2;
+        if (row >= prefill.get(1)) {
+            return;
+        }
+
+        int headDim = i % headSize;
+        // 50000.0f as the per-token kernel
+        float freq = 1.0f / TornadoMath.pow(50000.0f, headDim / (float) headSize);
+        float val = (prefill.get(0) + row) * freq;
+        float fcr = TornadoMath.cos(val);
+        float fci = TornadoMath.sin(val);
+
+        int qIndex = row * dim + i;
+        float v0q = q.get(qIndex);
+        float v1q = q.get(qIndex + 1);
+        q.set(qIndex, v0q * fcr - v1q * fci);
+        q.set(qIndex + 1, v0q * fci + v1q * fcr);
+
+        if (i < kvDim) {
+            int kIndex = row * kvDim + i;
+            float v0k = k.get(kIndex);
+            float v1k = k.get(kIndex + 1);
+            k.set(kIndex, v0k * fcr - v1k * fci);
+            k.set(kIndex + 1, v0k * fci + v1k * fcr);
+        }
+    }
+
+    /**
+     * Copies the keys and values of the whole block into the caches of {@code layer}, at positions {@code prefill[0], prefill[0] + 1, ...}:
+     * the rows are consecutive in both, so the block is a single contiguous copy.
+     */
+    public static void copyToCache(FloatArray keyCache, FloatArray k, FloatArray valueCache, FloatArray v, IntArray prefill, int kvDim, int layer, int contextLength) {
+        int destOffset = layer * contextLength * kvDim + prefill.get(0) * kvDim;
+        int size = prefill.get(1) * kvDim;
+        for (@Parallel int i = 0; i < k.getSize(); i++) {
+            if (i < size) {
+                keyCache.set(destOffset + i, k.get(i));
+                valueCache.set(destOffset + i, v.get(i));
+            }
+        }
+    }
+
+    /**
+     * Causal multi-head attention of the block, one work-group per (row, head). Row {@code row} attends to the cached positions
+     * {@code [0, prefill[0] + row]}, the earlier prompt and the rows before it, written by {@link #copyToCache}. The positions are
+     * processed in tiles of the work-group size with an online softmax: one thread per position scores a tile, then every thread
+     * accumulates its elements of the head over the tile.
+     *
+     * @param localMemSize
+     *         the work-group size, at least 1
+     */
+    public static void processHeadsCausal(KernelContext context, FloatArray q, FloatArray keyCache, FloatArray valueCache, FloatArray out, IntArray prefill, int nHeads, int headSize,
+            int kvDim, int kvMul, int layer, int contextLength, int localMemSize) {
+        int lid = context.localIdx;
+        int groupSize = context.localGroupSizeX;
+        int row = context.groupIdx / nHeads;
+        int h = context.groupIdx % nHeads;
+        if (row >= prefill.get(1)) {
+            return;
+        }
+
+        float[] scores = context.allocateFloatLocalArray(localMemSize);
+        float[] accumulator = context.allocateFloatLocalArray(headSize);
+
+        int dim = nHeads * headSize;
+        int qOffset = row * dim + h * headSize;
+        int kvOffset = layer * contextLength * kvDim + (h / kvMul) * headSize;
+        int last = prefill.get(0) + row;
+        float scale = 1.0f / TornadoMath.sqrt(headSize);
+
+        for (int i = lid; i < headSize; i += groupSize) {
+            accumulator[i] = 0.0f;
+        }
+        float maxScore = -Float.MAX_VALUE;
+        float sumExp = 0.0f;
+        for (int tileStart = 0; tileStart <= last; tileStart += groupSize) {
+            int t = tileStart + lid;
+            float score = -Float.MAX_VALUE;
+            if (t <= last) {
+                score = 0.0f;
+                for (int i = 0; i < headSize; i++) {
+                    score += q.get(qOffset + i) * keyCache.get(kvOffset + t * kvDim + i);
+                }
+                score *= scale;
+            }
+            scores[lid] = score;
+            context.localBarrier();
+
+            float tileMax = -Float.MAX_VALUE;
+            int tileSize = TornadoMath.min(groupSize, last + 1 - tileStart);
+            for (int j = 0; j < tileSize; j++) {
+                tileMax = TornadoMath.max(tileMax, scores[j]);
+            }
+            float newMax = TornadoMath.max(maxScore, tileMax);
+            float correction = TornadoMath.exp(maxScore - newMax);
+            sumExp *= correction;
+            for (int i = lid; i < headSize; i += groupSize) {
+                accumulator[i] *= correction;
+            }
+            for (int j = 0; j < tileSize; j++) {
+                float weight = TornadoMath.exp(scores[j] - newMax);
+                sumExp += weight;
+                int vOffset = kvOffset + (tileStart + j) * kvDim;
+                for (int i = lid; i < headSize; i += groupSize) {
+                    accumulator[i] += weight * valueCache.get(vOffset + i);
+                }
+            }
+            maxScore = newMax;
+            // the scores are overwritten by the next tile
+            context.localBarrier();
+        }
+
+        for (int i = lid; i < headSize; i += groupSize) {
+            out.set(qOffset + i, accumulator[i] / sumExp);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.beehive.gpullama3.tornadovm.kernels;
+
+import uk.ac.manchester.tornado.api.KernelContext;
+import uk.ac.manchester.tornado.api.math.TornadoMath;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+import uk.ac.manchester.tornado.api.types.arrays.IntArray;
+
+/**
+ * Device-side sampling: a two-phase top-k selection over the logits, appended to the logits graph, so that only the k most likely tokens
+ * and the softmax normalizer are transferred to the host instead of the whole vocabulary.
+ *
+ * <p>Candidates are ordered by descending logit, then ascending token id. This order is total: every round of a selection picks the best
+ * candidate after the one picked by the previous round, so equal logits are neither lost nor picked twice, and the first candidate is the
+ * token {@link org.beehive.gpullama3.inference.sampler.Sampler#argmaxFloatArray} returns.</p>
+ *
+ * <p>The runtime parameters are {@code parameters[0]}, the inverse temperature, and {@code parameters[1]}, the number of candidates
+ * {@code k}. With {@code k = 0} both kernels return immediately, the logits are then read on the host.</p>
+ */
+public class SamplingKernels {
+
+    /** Maximum number of candidates, the capacity of the partial and output arrays. */
+    public static final int MAX_CANDIDATES = 64;
+    /** Work-groups of the first phase, each selects the top-k of a contiguous slice of the vocabulary. */
+    public static final int GROUPS = 64;
+    /** Threads per work-group, in both phases. */
+    public static final int LOCAL_SIZE = 256;
+
+    private SamplingKernels() {
+    }
+
+    /**
+     * First phase: each work-group selects the top-k of its slice of the logits, in {@code k} rounds of a local arg-max reduction, and the
+     * sum of {@code exp((logit - sliceMax) * inverseTemperature)} over the slice.
+     *
+     * @param partialValues
+     *         {@code groups * MAX_CANDIDATES} logits, the candidates of group {@code g} start at {@code g * MAX_CANDIDATES}
+     * @param partialTokens
+     *         token ids of {@code partialValues}, -1 past the end of a slice
+     * @param partialSums
+     *         one normalizer per group, relative to the first candidate of the group
+     */
+    public static void topKPartial(KernelContext context, FloatArray logits, FloatArray parameters, FloatArray partialValues, IntArray partialTokens, FloatArray partialSums, int size,
+            int groups, int localMemSize) {
+        int lid = context.localIdx;
+        int groupId = context.groupIdx;
+        int groupSize = context.localGroupSizeX;
+        float inverseTemperature = parameters.get(0);
+        int k = (int) parameters.get(1);
+
+        float[] localValues = context.allocateFloatLocalArray(localMemSize);
+        int[] localTokens = context.allocateIntLocalArray(localMemSize);
+
+        int sliceSize = (size + groups - 1) / groups;
+        int start = groupId * sliceSize;
+        int end = TornadoMath.min(size, start + sliceSize);
+
+        float previousValue = 0.0f;
+        int previousToken = -1;
+        float sliceMax = 0.0f;
+        for (int round = 0; round < k; round++) {
+            float bestValue = 0.0f;
+            int bestToken = -1;
+            for (int i = start + lid; i < end; i += groupSize) {
+                float value = logits.get(i);
+                boolean eligible = round == 0 || (previousToken >= 0 && (value < previousValue || (value == previousValue && i > previousToken)));
+                if (eligible && (bestToken < 0 || value > bestValue || (value == bestValue && i < bestToken))) {
+                    bestValue = value;
+                    bestToken = i;
+                }
+            }
+            localValues[lid] = bestValue;
+            localTokens[lid] = bestToken;
+
+            for (int stride = groupSize / 2; stride > 0; stride /= 2) {
+                context.localBarrier();
+                if (lid < stride) {
+                    float value = localValues[lid + stride];
+                    int token = localTokens[lid + stride];
+                    if (token >= 0 && (localTokens[lid] < 0 || value > localValues[lid] || (value == localValues[lid] && token < localTokens[lid]))) {
+                        localValues[lid] = value;
+                        localTokens[lid] = token;
+                    }
+                }
+            }
+            context.localBarrier();
+            previousValue = localValues[0];
+            previousToken = localTokens[0];
+            if (round == 0) {
+                sliceMax = previousValue;
+            }
+            if (lid == 0) {
+                partialValues.set(groupId * MAX_CANDIDATES + round, previousValue);
+                partialTokens.set(groupId * MAX_CANDIDATES + round, previousToken);
+            }
+            // the local arrays are overwritten by the next round
+            context.localBarrier();
+        }
+
+        if (k > 0) {
+            float sum = 0.0f;
+            for (int i = start + lid; i < end; i += groupSize) {
+                sum += TornadoMath.exp((logits.get(i) - sliceMax) * inverseTemperature);
+            }
+            localValues[lid] = sum;
+            for (int stride = groupSize / 2; stride > 0; stride /= 2) {
+                context.localBarrier();
+                if (lid < stride) {
+                    localValues[lid] += localValues[lid + stride];
+                }
+            }
+            if (lid == 0) {
+                partialSums.set(groupId, localValues[0]);
+            }
+        }
+    }
+
+    /**
+     * Second phase, a single work-group: merges the {@code groups * k} candidates of the first phase into the global top-k, and the partial
+     * sums into the softmax normalizer relative to the most likely token.
+     *
+     * @param values
+     *         {@code MAX_CANDIDATES + 1} floats: the logits of the candidates in descending order, then at {@code MAX_CANDIDATES} the normalizer
+     *         {@code sum(exp((logit - values[0]) * inverseTemperature))} over the whole vocabulary
+     * @param tokens
+     *         {@code MAX_CANDIDATES} token ids of {@code values}, -1 if the vocabulary has fewer than {@code k} tokens
+     */
+    public static void topKFinal(KernelContext context, FloatArray parameters, FloatArray partialValues, IntArray partialTokens, FloatArray partialSums, FloatArray values, IntArray tokens,
+            int groups, int localMemSize) {
+        int lid = context.localIdx;
+        int groupSize = context.localGroupSizeX;
+        float inverseTemperature = parameters.get(0);
+        int k = (int) parameters.get(1);
+
+        float[] localValues = context.allocateFloatLocalArray(localMemSize);
+        int[] localTokens = context.allocateIntLocalArray(localMemSize);
+
+        int candidates = groups * k;
+        float previousValue = 0.0f;
+        int previousToken = -1;
+        for (int round = 0; round < k; round++) {
+            float bestValue = 0.0f;
+            int bestToken = -1;
+            for (int c = lid; c < candidates; c += groupSize) {
+                int index = (c / k) * MAX_CANDIDATES + c % k;
+                float value = partialValues.get(index);
+                int token = partialTokens.get(index);
+                boolean eligible = token >= 0 && (round == 0 || (previousToken >= 0 && (value < previousValue || (value == previousValue && token > previousToken))));
+                if (eligible && (bestToken < 0 || value > bestValue || (value == bestValue && token < bestToken))) {
+                    bestValue = value;
+                    bestToken = token;
+                }
+            }
+            localValues[lid] = bestValue;
+            localTokens[lid] = bestToken;
+
+            for (int stride = groupSize / 2; stride > 0; stride /= 2) {
+                context.localBarrier();
+                if (lid < stride) {
+                    float value = localValues[lid + stride];
+                    int token = localTokens[lid + stride];
+                    if (token >= 0 && (localTokens[lid] < 0 || value > localValues[lid] || (value == localValues[lid] && token < localTokens[lid]))) {
+                        localValues[lid] = value;
+                        localTokens[lid] = token;
+                    }
+                }
+            }
+            context.localBarrier();
+            previousValue = localValues[0];
+            previousToken = localTokens[0];
+            if (lid == 0) {
+                values.set(round, previousValue);
+                tokens.set(round, previousToken);
+            }
+            context.localBarrier();
+        }
+
+        if (k > 0 && lid == 0) {
+            // rescale the normalizer of every slice from its own maximum to the global one
+            float normalizer = 0.0f;
+            for (int g = 0; g < groups; g++) {
+                if (partialTokens.get(g * MAX_CANDIDATES) >= 0) {
+                    normalizer += partialSums.get(g) * TornadoMath.exp((partialValues.get(g * MAX_CANDIDATES) - values.get(0)) * inverseTemperature);
+                }
+            }
+            values.set(MAX_CANDIDATES, normalizer);
+        }
+    }
+}
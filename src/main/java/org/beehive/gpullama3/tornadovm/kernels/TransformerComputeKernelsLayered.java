@@ -1056,6 +1056,106 @@ public class TransformerComputeKernelsLayered {
         }
     }
 
+    /**
+     * Matrix-vector multiplication with Q4_0 weights, dequantized in the kernel: one row per work-group, see
+     * {@link #matrixVectorRowMajorOptimizedQ4_0}.
+     *
+     * @param weightsQ
+     *         Packed quantized weights (Int8Array) - from Q4_0TornadoTensor.getQuants()
+     * @param weightScales
+     *         Scale factors (HalfFloatArray) - from Q4_0TornadoTensor.getScales()
+     * @param dim1
+     *         Input dimension (n - number of columns)
+     * @param dim0
+     *         Output dimension (d - number of rows)
+     */
+    public static void matrixVectorGenericQ4_0(KernelContext context, FloatArray x, FloatArray output, Int8Array weightsQ, HalfFloatArray weightScales, int dim1, int dim0, int localWorkGroupSize) {
+        int rowId = context.groupIdx;
+        int localId = context.localIdx;
+
+        if (rowId >= dim0) {
+            return;
+        }
+
+        float sum = matrixVectorRowMajorOptimizedQ4_0(context, localWorkGroupSize, x, weightsQ, weightScales, dim1);
+
+        if (localId == 0) {
+            output.set(rowId, sum);
+        }
+    }
+
+    /**
+     * Helper method to compute dot product for a single row with Q4_0 quantized weights. Every thread reads whole packed bytes: byte
+     * {@code j} of a 16-byte block holds element {@code j} in its low nibble and element {@code j + 16} in its high nibble, offset by 8.
+     */
+    public static float matrixVectorRowMajorOptimizedQ4_0(KernelContext context, int localSize, FloatArray x, Int8Array weightsQ, HalfFloatArray weightScales, int n) {
+        int rowId = context.groupIdx;
+        int localId = context.localIdx;
+        int blockSize = 32;
+        int halfBlock = blockSize / 2;
+
+        float[] localSums = context.allocateFloatLocalArray(localSize);
+
+        int rowOffset = rowId * (n / 2);
+        int scalesRowOffset = rowId * (n / blockSize);
+
+        float partialSum = 0.0f;
+        for (int j = localId; j < n / 2; j += localSize) {
+            int blockIdx = j / halfBlock;
+            float scale = weightScales.get(scalesRowOffset + blockIdx).getFloat32();
+            int packed = weightsQ.get(rowOffset + j);
+            int xIdx = blockIdx * blockSize + j % halfBlock;
+
+            float low = (float) ((packed & 0x0F) - 8);
+            float high = (float) (((packed >> 4) & 0x0F) - 8);
+            partialSum += (low * x.get(xIdx) + high * x.get(xIdx + halfBlock)) * scale;
+        }
+
+        localSums[localId] = partialSum;
+        context.localBarrier();
+
+        for (int stride = localSize / 2; stride > 0; stride >>= 1) {
+            if (localId < stride) {
+                localSums[localId] += localSums[localId + stride];
+            }
+            context.localBarrier();
+        }
+
+        return localSums[0];
+    }
+
+    public static void matrixVectorGenericWithResidualQ4_0(KernelContext context, FloatArray x, FloatArray hb, Int8Array w_quants, HalfFloatArray w_scales, int n, int d, int localWorkGroupSize) {
+        int rowId = context.groupIdx;
+        int localId = context.localIdx;
+
+        if (rowId >= d) {
+            return;
+        }
+
+        float sum = matrixVectorRowMajorOptimizedQ4_0(context, localWorkGroupSize, x, w_quants, w_scales, n);
+
+        if (localId == 0) {
+            hb.set(rowId, hb.get(rowId) + sum);
+        }
+    }
+
+    public static void fusedFeedForwardWithSiLUAndGLUActivationQ4_0(KernelContext context, FloatArray x, FloatArray hb, Int8Array w1_quants, HalfFloatArray w1_scales, Int8Array w3_quants,
+            HalfFloatArray w3_scales, int n, int d, int localWorkGroupSize) {
+        int rowId = context.groupIdx;
+        int localId = context.localIdx;
+
+        if (rowId >= d) {
+            return;
+        }
+
+        float sum1 = matrixVectorRowMajorOptimizedQ4_0(context, localWorkGroupSize, x, w1_quants, w1_scales, n);
+        float sum3 = matrixVectorRowMajorOptimizedQ4_0(context, localWorkGroupSize, x, w3_quants, w3_scales, n);
+
+        if (localId == 0) {
+            hb.set(rowId, siluActivation(sum1) * sum3);
+        }
+    }
+
     /**
      * Orchestrates parallel multi-head attention computation across all heads. Each head processes attention independently in parallel.
      *
@@ -44,6 +44,18 @@ public class WorkerGridFactory {
         return worker;
     }
 
+    /**
+     * Tiled matrix-matrix worker: 2D grid of {@code tile x tile} work-groups covering {@code columns x rows}, both rounded up to the tile
+     */
+    public static WorkerGrid createTiledMatmulWorker(int columns, int rows, int tile) {
+        int globalX = (columns + tile - 1) / tile * tile;
+        int globalY = (rows + tile - 1) / tile * tile;
+        WorkerGrid worker = new WorkerGrid2D(globalX, globalY);
+        worker.setGlobalWork(globalX, globalY, 1);
+        worker.setLocalWork(tile, tile, 1);
+        return worker;
+    }
+
     /**
      * RoPE worker: 2D grid for position encoding
      */
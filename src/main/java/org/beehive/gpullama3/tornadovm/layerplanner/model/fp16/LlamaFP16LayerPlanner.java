@@ -5,8 +5,10 @@ import org.beehive.gpullama3.inference.weights.tornado.LlamaTornadoWeights;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.model.llama.LlamaConfiguration;
 import org.beehive.gpullama3.tornadovm.layerplanner.quantization.FP16LayerPlanner;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.Activation;
 import org.beehive.gpullama3.tornadovm.layers.type.fp16.LlamaFP16FFNLayers;
+import org.beehive.gpullama3.tornadovm.layers.type.fp16.LlamaFP16PrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.type.fp16.LogitsFP16Layer;
 
 public class LlamaFP16LayerPlanner extends FP16LayerPlanner<LlamaState, LlamaConfiguration, LlamaTornadoWeights> {
@@ -22,6 +24,10 @@ public class LlamaFP16LayerPlanner extends FP16LayerPlanner<LlamaState, LlamaCon
         this.activationLayer = new Activation("activationUpdate", this.state, this.weights, this.config);
         this.ffnLayers = new LlamaFP16FFNLayers("llamaFFN", this.state, this.weights, this.config, this.schedulerType);
         this.logitsLayer = new LogitsFP16Layer("llamaLogits", this.state, this.weights, this.config, ffnLayers.getLastTaskGraphID(), this.schedulerType);
+        int prefillBatchSize = Math.min(AbstractPrefillLayers.configuredMaxBatchSize(), this.config.contextLength());
+        if (prefillBatchSize > 0) {
+            this.prefillLayers = new LlamaFP16PrefillLayers("llamaPrefill", this.state, this.weights, this.config, prefillBatchSize);
+        }
     }
 
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import org.beehive.gpullama3.inference.weights.tornado.LlamaTornadoWeights;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.model.llama.LlamaConfiguration;
 import org.beehive.gpullama3.tornadovm.layerplanner.quantization.Q8_0LayerPlanner;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.Activation;
 import org.beehive.gpullama3.tornadovm.layers.type.q8_0.LlamaQ8_0FFNLayers;
+import org.beehive.gpullama3.tornadovm.layers.type.q8_0.LlamaQ8_0PrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.type.q8_0.LogitsQ8_0Layer;
 
 public class LlamaQ8_0LayerPlanner extends Q8_0LayerPlanner<LlamaState, LlamaConfiguration, LlamaTornadoWeights> {
@@ -22,6 +24,10 @@ public class LlamaQ8_0LayerPlanner extends Q8_0LayerPlanner<LlamaState, LlamaCon
         this.activationLayer = new Activation("activationUpdate", this.state, this.weights, this.config);
         this.ffnLayers = new LlamaQ8_0FFNLayers("llamaFFN", this.state, this.weights, this.config, this.schedulerType);
         this.logitsLayer = new LogitsQ8_0Layer("llamaLogits", this.state, this.weights, this.config, ffnLayers.getLastTaskGraphID(), this.schedulerType);
+        int prefillBatchSize = Math.min(AbstractPrefillLayers.configuredMaxBatchSize(), this.config.contextLength());
+        if (prefillBatchSize > 0) {
+            this.prefillLayers = new LlamaQ8_0PrefillLayers("llamaPrefill", this.state, this.weights, this.config, prefillBatchSize);
+        }
     }
 
 }
\ No newline at end of file
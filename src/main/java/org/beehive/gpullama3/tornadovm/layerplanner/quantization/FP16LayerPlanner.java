@@ -7,6 +7,7 @@ import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.tornadovm.layerplanner.base.QuantizedLayerPlanner;
 import org.beehive.gpullama3.tornadovm.layers.AbstractFFNLayers;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.Activation;
 import org.beehive.gpullama3.tornadovm.layers.type.fp16.LogitsFP16Layer;
 import uk.ac.manchester.tornado.api.GridScheduler;
@@ -27,6 +28,8 @@ public abstract class FP16LayerPlanner<S extends State, C extends Configuration,
     protected Activation activationLayer;
     protected AbstractFFNLayers ffnLayers;
     protected LogitsFP16Layer logitsLayer;
+    /** Batched prefill layers, {@code null} for the models that ingest the prompt token by token. */
+    protected AbstractPrefillLayers prefillLayers;
 
     protected List<ImmutableTaskGraph> immutableTaskGraphs;
     protected GridScheduler gridScheduler ;
@@ -63,6 +66,12 @@ public abstract class FP16LayerPlanner<S extends State, C extends Configuration,
         allTaskGraphs.add(logitsLayer.getTaskGraph().snapshot());
         logitsLayer.updateGridScheduler(masterScheduler);
 
+        // 4. Batched prefill layers (optional, after the graphs they consume weights and caches from)
+        if (prefillLayers != null) {
+            allTaskGraphs.addAll(prefillLayers.getPrefillTaskGraphs());
+            prefillLayers.updateGridScheduler(masterScheduler);
+        }
+
         // Cache for future retrievals
         this.immutableTaskGraphs = allTaskGraphs;
         this.gridScheduler = masterScheduler;
@@ -87,4 +96,9 @@ public abstract class FP16LayerPlanner<S extends State, C extends Configuration,
         return this.gridScheduler;
     }
 
+    @Override
+    public AbstractPrefillLayers getPrefillLayers() {
+        return prefillLayers;
+    }
+
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import org.beehive.gpullama3.model.Configuration;
 import org.beehive.gpullama3.model.Model;
 import org.beehive.gpullama3.tornadovm.layerplanner.base.QuantizedLayerPlanner;
 import org.beehive.gpullama3.tornadovm.layers.AbstractFFNLayers;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
 import org.beehive.gpullama3.tornadovm.layers.Activation;
 import org.beehive.gpullama3.tornadovm.layers.type.q8_0.LogitsQ8_0Layer;
 import uk.ac.manchester.tornado.api.GridScheduler;
@@ -28,6 +29,8 @@ public abstract class Q8_0LayerPlanner<S extends State, C extends Configuration,
     protected Activation activationLayer;
     protected AbstractFFNLayers ffnLayers;
     protected LogitsQ8_0Layer logitsLayer;
+    /** Batched prefill layers, {@code null} for the models that ingest the prompt token by token. */
+    protected AbstractPrefillLayers prefillLayers;
 
     // Cache for task graphs and scheduler (set once, reused)
     protected List<ImmutableTaskGraph> cachedTaskGraphs;
@@ -66,6 +69,12 @@ public abstract class Q8_0LayerPlanner<S extends State, C extends Configuration,
         allTaskGraphs.add(logitsLayer.getTaskGraph().snapshot());
         logitsLayer.updateGridScheduler(masterScheduler);
 
+        // 4. Batched prefill layers (optional, after the graphs they consume weights and caches from)
+        if (prefillLayers != null) {
+            allTaskGraphs.addAll(prefillLayers.getPrefillTaskGraphs());
+            prefillLayers.updateGridScheduler(masterScheduler);
+        }
+
         // Cache for future retrievals
         this.cachedTaskGraphs = allTaskGraphs;
         this.cachedScheduler = masterScheduler;
@@ -90,4 +99,9 @@ public abstract class Q8_0LayerPlanner<S extends State, C extends Configuration,
         return this.cachedScheduler;
     }
 
+    @Override
+    public AbstractPrefillLayers getPrefillLayers() {
+        return prefillLayers;
+    }
+
 }
\ No newline at end of file
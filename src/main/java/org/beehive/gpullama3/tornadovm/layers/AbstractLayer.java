@@ -3,10 +3,13 @@ package org.beehive.gpullama3.tornadovm.layers;
 import org.beehive.gpullama3.inference.state.State;
 import org.beehive.gpullama3.inference.weights.Weights;
 import org.beehive.gpullama3.model.Configuration;
+import org.beehive.gpullama3.tornadovm.kernels.SamplingKernels;
+import org.beehive.gpullama3.tornadovm.layerplanner.WorkerGridFactory;
 import uk.ac.manchester.tornado.api.GridScheduler;
 import uk.ac.manchester.tornado.api.ImmutableTaskGraph;
 import uk.ac.manchester.tornado.api.KernelContext;
 import uk.ac.manchester.tornado.api.TaskGraph;
+import uk.ac.manchester.tornado.api.enums.DataTransferMode;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,6 +49,27 @@ public abstract class AbstractLayer {
         throw new IllegalArgumentException(layerName + " requires " + expectedType.getSimpleName() + " with " + layout + " layout");
     }
 
+    /**
+     * Appends the device-side sampling stage to a logits graph whose tasks wrote {@code state.wrapLogits}: the top-k candidates and the
+     * softmax normalizer are transferred every execution, the logits only on demand, see {@code TornadoVMMasterPlan#setDeviceSampling}.
+     */
+    protected TaskGraph withDeviceSampling(TaskGraph logits) {
+        return logits.transferToDevice(DataTransferMode.EVERY_EXECUTION, state.samplingParameters)
+                .transferToDevice(DataTransferMode.FIRST_EXECUTION, state.samplingValues, state.samplingTokens, state.samplingPartialValues, state.samplingPartialTokens, state.samplingPartialSums)
+                .task("topKPartial", SamplingKernels::topKPartial, context, state.wrapLogits, state.samplingParameters, state.samplingPartialValues, state.samplingPartialTokens,
+                        state.samplingPartialSums, config.vocabularySize(), SamplingKernels.GROUPS, SamplingKernels.LOCAL_SIZE)
+                .task("topKFinal", SamplingKernels::topKFinal, context, state.samplingParameters, state.samplingPartialValues, state.samplingPartialTokens, state.samplingPartialSums,
+                        state.samplingValues, state.samplingTokens, SamplingKernels.GROUPS, SamplingKernels.LOCAL_SIZE)
+                .transferToHost(DataTransferMode.EVERY_EXECUTION, state.samplingValues, state.samplingTokens)
+                .transferToHost(DataTransferMode.UNDER_DEMAND, state.wrapLogits);
+    }
+
+    /** Worker grids of the tasks added by {@link #withDeviceSampling}, in the graph {@code graphName}. */
+    protected static void addDeviceSamplingWorkers(GridScheduler scheduler, String graphName) {
+        scheduler.addWorkerGrid(graphName + ".topKPartial", WorkerGridFactory.genericWorker(SamplingKernels.GROUPS * SamplingKernels.LOCAL_SIZE, SamplingKernels.LOCAL_SIZE));
+        scheduler.addWorkerGrid(graphName + ".topKFinal", WorkerGridFactory.genericWorker(SamplingKernels.LOCAL_SIZE, SamplingKernels.LOCAL_SIZE));
+    }
+
     public abstract GridScheduler updateGridScheduler(GridScheduler scheduler);
 
     public abstract GridScheduler getGridScheduler();
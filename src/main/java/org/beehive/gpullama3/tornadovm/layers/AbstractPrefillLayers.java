@@ -0,0 +1,173 @@
+package org.beehive.gpullama3.tornadovm.layers;
+
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.Weights;
+import org.beehive.gpullama3.inference.weights.tornado.TornadoWeights;
+import org.beehive.gpullama3.model.Configuration;
+import org.beehive.gpullama3.tornadovm.kernels.PrefillKernels;
+import org.beehive.gpullama3.tornadovm.layerplanner.WorkerGridFactory;
+import uk.ac.manchester.tornado.api.GridScheduler;
+import uk.ac.manchester.tornado.api.ImmutableTaskGraph;
+import uk.ac.manchester.tornado.api.TaskGraph;
+import uk.ac.manchester.tornado.api.WorkerGrid;
+import uk.ac.manchester.tornado.api.enums.DataTransferMode;
+import uk.ac.manchester.tornado.api.types.arrays.FloatArray;
+import uk.ac.manchester.tornado.api.types.arrays.IntArray;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Batched prefill of LLaMA-style layers: one task graph per transformer layer, {@code prefill_<layer>}, forwarding a block of up to
+ * {@link #getMaxBatchSize()} consecutive prompt positions with the matrix-matrix kernels of {@link PrefillKernels}.
+ *
+ * <p>The graphs run after the per-token graphs in the same execution plan: the weights and the KV caches are consumed from the device,
+ * where the per-token graphs transferred them. The keys and values of the block are written to the caches, no logits are computed.</p>
+ *
+ * <p>Subclasses add the projections for a weight format: LlamaFP16PrefillLayers, LlamaQ8_0PrefillLayers.</p>
+ */
+public abstract class AbstractPrefillLayers extends AbstractLayer {
+
+    /** Default maximum number of positions of a block, overridden with {@code -Dllama.TornadoVMPrefillBatchSize}. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    protected final int maxBatchSize;
+    /** {@code {first position, number of positions}} of the current block. */
+    protected final IntArray prefillHolder;
+    /** Row-major activations of the block, one row per position. */
+    protected final FloatArray wrapXBatch;
+    protected final FloatArray wrapXbBatch;
+    protected final FloatArray wrapQBatch;
+    protected final FloatArray wrapKBatch;
+    protected final FloatArray wrapVBatch;
+    protected final FloatArray wrapHbBatch;
+
+    protected List<ImmutableTaskGraph> prefillTaskGraphs;
+
+    protected AbstractPrefillLayers(String taskGraphName, State state, Weights weights, Configuration config, int maxBatchSize) {
+        super(taskGraphName, state, weights, config);
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.prefillHolder = new IntArray(2);
+        this.wrapXBatch = new FloatArray(maxBatchSize * config.dim());
+        this.wrapXbBatch = new FloatArray(maxBatchSize * config.dim());
+        this.wrapQBatch = new FloatArray(maxBatchSize * config.dim());
+        this.wrapKBatch = new FloatArray(maxBatchSize * config.kvDim());
+        this.wrapVBatch = new FloatArray(maxBatchSize * config.kvDim());
+        this.wrapHbBatch = new FloatArray(maxBatchSize * config.hiddenDim());
+    }
+
+    /** Maximum number of positions of a block, from {@code -Dllama.TornadoVMPrefillBatchSize}. */
+    public static int configuredMaxBatchSize() {
+        return Integer.getInteger("llama.TornadoVMPrefillBatchSize", DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /** The embeddings of the block are written here, row {@code i} for position {@code first + i}, before executing the graphs. */
+    public FloatArray getEmbeddings() {
+        return wrapXBatch;
+    }
+
+    /** Describes the block to the kernels: its first position and its number of positions. */
+    public void setBlock(int position, int batchSize) {
+        if (batchSize <= 0 || batchSize > maxBatchSize) {
+            throw new IllegalArgumentException("batchSize must be in [1, " + maxBatchSize + "]: " + batchSize);
+        }
+        prefillHolder.set(0, position);
+        prefillHolder.set(1, batchSize);
+    }
+
+    public List<ImmutableTaskGraph> getPrefillTaskGraphs() {
+        return prefillTaskGraphs;
+    }
+
+    protected List<ImmutableTaskGraph> setupPrefillLayers() {
+        return IntStream.range(0, config.numberOfLayers()).mapToObj(i -> setupSinglePrefillLayer((TornadoWeights) weights, i).snapshot()).toList();
+    }
+
+    TaskGraph setupSinglePrefillLayer(TornadoWeights weights, int layerIndex) {
+        TaskGraph prefillLayer = new TaskGraph("prefill_" + layerIndex);
+        if (layerIndex == 0) {
+            prefillLayer.transferToDevice(DataTransferMode.EVERY_EXECUTION, prefillHolder, wrapXBatch);
+            prefillLayer.transferToDevice(DataTransferMode.FIRST_EXECUTION, context, wrapXbBatch, wrapQBatch, wrapKBatch, wrapVBatch, wrapHbBatch);
+        } else {
+            prefillLayer.consumeFromDevice(context, wrapXBatch, wrapXbBatch, wrapQBatch, wrapKBatch, wrapVBatch, wrapHbBatch, prefillHolder);
+        }
+        // transferred by the per-token graphs
+        prefillLayer.consumeFromDevice(state.wrapKeyCache, state.wrapValueCache, weights.rms_att_weightLayered[layerIndex].asFloatArray(),
+                weights.rms_ffn_weightLayered[layerIndex].asFloatArray());
+        consumeProjectionWeights(prefillLayer, weights, layerIndex);
+
+        prefillLayer.task("rmsNorm", PrefillKernels::rmsNormRows, context, wrapXbBatch, wrapXBatch, weights.rms_att_weightLayered[layerIndex].asFloatArray(), prefillHolder, config.dim(),
+                config.rmsNormEps(), PrefillKernels.LOCAL_SIZE);
+        configureQKVProjections(prefillLayer, weights, layerIndex);
+        prefillLayer.task("rope", PrefillKernels::ropeRotation, context, prefillHolder, wrapQBatch, wrapKBatch, config.dim(), config.kvDim(), config.headSize())
+                .task("copyToCaches", PrefillKernels::copyToCache, state.wrapKeyCache, wrapKBatch, state.wrapValueCache, wrapVBatch, prefillHolder, config.kvDim(), layerIndex,
+                        config.contextLength())
+                .task("causal-attention", PrefillKernels::processHeadsCausal, context, wrapQBatch, state.wrapKeyCache, state.wrapValueCache, wrapXbBatch, prefillHolder,
+                        config.numberOfHeads(), config.headSize(), config.kvDim(), config.kvMul(), layerIndex, config.contextLength(), PrefillKernels.LOCAL_SIZE);
+        configureOutputProjection(prefillLayer, weights, layerIndex);
+        prefillLayer.task("rmsNormFFN", PrefillKernels::rmsNormRows, context, wrapXbBatch, wrapXBatch, weights.rms_ffn_weightLayered[layerIndex].asFloatArray(), prefillHolder,
+                config.dim(), config.rmsNormEps(), PrefillKernels.LOCAL_SIZE);
+        configureFeedForward(prefillLayer, weights, layerIndex);
+        return prefillLayer.persistOnDevice(wrapXBatch);
+    }
+
+    /** Declares the projection weights of the layer, consumed from the device. */
+    protected abstract void consumeProjectionWeights(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex);
+
+    /** Adds the tasks {@code qmatmul}, {@code kmatmul} and {@code vmatmul}: the block normalized in {@code xb} to {@code q}, {@code k}, {@code v}. */
+    protected abstract void configureQKVProjections(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex);
+
+    /** Adds the task {@code matmul1}: the attention output {@code xb} projected and added to {@code x}. */
+    protected abstract void configureOutputProjection(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex);
+
+    /** Adds the tasks {@code fused_ffn_w1_w3}, {@code xb} to {@code hb}, and {@code projectionTwo}, {@code hb} projected and added to {@code x}. */
+    protected abstract void configureFeedForward(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex);
+
+    @Override
+    public GridScheduler updateGridScheduler(GridScheduler tornadoForwardScheduler) {
+        WorkerGrid rmsNormWorker = WorkerGridFactory.genericWorker(maxBatchSize * PrefillKernels.LOCAL_SIZE, PrefillKernels.LOCAL_SIZE);
+        WorkerGrid dimWorker = WorkerGridFactory.createTiledMatmulWorker(config.dim(), maxBatchSize, PrefillKernels.TILE);
+        WorkerGrid kvDimWorker = WorkerGridFactory.createTiledMatmulWorker(config.kvDim(), maxBatchSize, PrefillKernels.TILE);
+        WorkerGrid hiddenDimWorker = WorkerGridFactory.createTiledMatmulWorker(config.hiddenDim(), maxBatchSize, PrefillKernels.TILE);
+        WorkerGrid ropeWorker = WorkerGridFactory.genericWorker(maxBatchSize * config.dim() / 2, 128);
+        WorkerGrid copyToCachesWorker = WorkerGridFactory.genericWorker(maxBatchSize * config.kvDim(), 128);
+        WorkerGrid attentionWorker = WorkerGridFactory.genericWorker(maxBatchSize * config.numberOfHeads() * PrefillKernels.LOCAL_SIZE, PrefillKernels.LOCAL_SIZE);
+
+        for (int i = 0; i < config.numberOfLayers(); i++) {
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".rmsNorm", rmsNormWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".qmatmul", dimWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".kmatmul", kvDimWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".vmatmul", kvDimWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".rope", ropeWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".copyToCaches", copyToCachesWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".causal-attention", attentionWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".matmul1", dimWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".rmsNormFFN", rmsNormWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".fused_ffn_w1_w3", hiddenDimWorker);
+            tornadoForwardScheduler.addWorkerGrid("prefill_" + i + ".projectionTwo", dimWorker);
+        }
+        return tornadoForwardScheduler;
+    }
+
+    @Override
+    public GridScheduler getGridScheduler() {
+        return null;
+    }
+
+    @Override
+    public TaskGraph getTaskGraph() {
+        return null;
+    }
+
+    @Override
+    public ImmutableTaskGraph getImmutableTaskGraph() {
+        return null;
+    }
+}
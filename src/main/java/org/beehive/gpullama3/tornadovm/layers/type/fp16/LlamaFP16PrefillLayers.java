@@ -0,0 +1,45 @@
+package org.beehive.gpullama3.tornadovm.layers.type.fp16;
+
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.Weights;
+import org.beehive.gpullama3.inference.weights.tornado.TornadoWeights;
+import org.beehive.gpullama3.model.Configuration;
+import org.beehive.gpullama3.tornadovm.kernels.PrefillKernels;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
+import uk.ac.manchester.tornado.api.TaskGraph;
+
+public class LlamaFP16PrefillLayers extends AbstractPrefillLayers {
+
+    public LlamaFP16PrefillLayers(String taskGraphName, State state, Weights weights, Configuration config, int maxBatchSize) {
+        super(taskGraphName, state, weights, config, maxBatchSize);
+        this.prefillTaskGraphs = setupPrefillLayers();
+    }
+
+    @Override
+    protected void consumeProjectionWeights(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.consumeFromDevice(weights.wqLayered[layerIndex].asHalfFloatArray(), weights.wkLayered[layerIndex].asHalfFloatArray(), weights.wvLayered[layerIndex].asHalfFloatArray(),
+                weights.woLayered[layerIndex].asHalfFloatArray(), weights.w1Layered[layerIndex].asHalfFloatArray(), weights.w2Layered[layerIndex].asHalfFloatArray(),
+                weights.w3Layered[layerIndex].asHalfFloatArray());
+    }
+
+    @Override
+    protected void configureQKVProjections(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("qmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapQBatch, weights.wqLayered[layerIndex].asHalfFloatArray(), prefillHolder, config.dim(), config.dim())
+                .task("kmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapKBatch, weights.wkLayered[layerIndex].asHalfFloatArray(), prefillHolder, config.dim(), config.kvDim())
+                .task("vmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapVBatch, weights.wvLayered[layerIndex].asHalfFloatArray(), prefillHolder, config.dim(), config.kvDim());
+    }
+
+    @Override
+    protected void configureOutputProjection(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("matmul1", PrefillKernels::matrixMatrixWithResidual, context, wrapXbBatch, wrapXBatch, weights.woLayered[layerIndex].asHalfFloatArray(), prefillHolder, config.dim(),
+                config.dim());
+    }
+
+    @Override
+    protected void configureFeedForward(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("fused_ffn_w1_w3", PrefillKernels::fusedFeedForwardWithSiLUAndGLUActivation, context, wrapXbBatch, wrapHbBatch, weights.w1Layered[layerIndex].asHalfFloatArray(),
+                        weights.w3Layered[layerIndex].asHalfFloatArray(), prefillHolder, config.dim(), config.hiddenDim())
+                .task("projectionTwo", PrefillKernels::matrixMatrixWithResidual, context, wrapHbBatch, wrapXBatch, weights.w2Layered[layerIndex].asHalfFloatArray(), prefillHolder,
+                        config.hiddenDim(), config.dim());
+    }
+}
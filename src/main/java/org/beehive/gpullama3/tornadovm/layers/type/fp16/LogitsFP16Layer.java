@@ -48,8 +48,7 @@ public class LogitsFP16Layer extends AbstractLayer {
                 logits.task("mapContextLogits", TransformerComputeKernels::reductionOneBlock2WithLogits, context, state.wrapX, weights.rms_final_weight_as_floatArray.asFloatArray(), state.tempLogits)
                 .task("projection", TransformerComputeKernelsLayered::matrixVectorGeneric, context, state.wrapX, state.wrapLogits, weights.wclsByteArray.asHalfFloatArray(), config.dim(), config.vocabularySize(),
                         LOCAL_WORK_GROUP_SIZE_ALLOC * THREAD_SCALE_FOR_LOGITS);
-        logits.transferToHost(DataTransferMode.EVERY_EXECUTION, state.wrapLogits);
-        return logits;
+        return withDeviceSampling(logits);
     }
 
     @Override
@@ -68,6 +67,7 @@ public class LogitsFP16Layer extends AbstractLayer {
         tornadoForwardScheduler.addWorkerGrid("logits.projection", vocabWorker);
         tornadoForwardScheduler.addWorkerGrid("logits.reductionsOneBlockLogits", logitsRMS);
         tornadoForwardScheduler.addWorkerGrid("logits.mapContextLogits", logitsRMS);
+        addDeviceSamplingWorkers(tornadoForwardScheduler, "logits");
         return tornadoForwardScheduler;
     }
 
@@ -0,0 +1,50 @@
+package org.beehive.gpullama3.tornadovm.layers.type.q8_0;
+
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.inference.weights.Weights;
+import org.beehive.gpullama3.inference.weights.tornado.TornadoWeights;
+import org.beehive.gpullama3.model.Configuration;
+import org.beehive.gpullama3.tornadovm.kernels.PrefillKernels;
+import org.beehive.gpullama3.tornadovm.layers.AbstractPrefillLayers;
+import uk.ac.manchester.tornado.api.TaskGraph;
+
+public class LlamaQ8_0PrefillLayers extends AbstractPrefillLayers {
+
+    public LlamaQ8_0PrefillLayers(String taskGraphName, State state, Weights weights, Configuration config, int maxBatchSize) {
+        super(taskGraphName, state, weights, config, maxBatchSize);
+        this.prefillTaskGraphs = setupPrefillLayers();
+    }
+
+    @Override
+    protected void consumeProjectionWeights(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.consumeFromDevice(weights.wqLayered[layerIndex].getQuants(), weights.wqLayered[layerIndex].getScales(), weights.wkLayered[layerIndex].getQuants(),
+                weights.wkLayered[layerIndex].getScales(), weights.wvLayered[layerIndex].getQuants(), weights.wvLayered[layerIndex].getScales(), weights.woLayered[layerIndex].getQuants(),
+                weights.woLayered[layerIndex].getScales(), weights.w1Layered[layerIndex].getQuants(), weights.w1Layered[layerIndex].getScales(), weights.w2Layered[layerIndex].getQuants(),
+                weights.w2Layered[layerIndex].getScales(), weights.w3Layered[layerIndex].getQuants(), weights.w3Layered[layerIndex].getScales());
+    }
+
+    @Override
+    protected void configureQKVProjections(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("qmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapQBatch, weights.wqLayered[layerIndex].getQuants(), weights.wqLayered[layerIndex].getScales(),
+                        prefillHolder, config.dim(), config.dim())
+                .task("kmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapKBatch, weights.wkLayered[layerIndex].getQuants(), weights.wkLayered[layerIndex].getScales(),
+                        prefillHolder, config.dim(), config.kvDim())
+                .task("vmatmul", PrefillKernels::matrixMatrix, context, wrapXbBatch, wrapVBatch, weights.wvLayered[layerIndex].getQuants(), weights.wvLayered[layerIndex].getScales(),
+                        prefillHolder, config.dim(), config.kvDim());
+    }
+
+    @Override
+    protected void configureOutputProjection(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("matmul1", PrefillKernels::matrixMatrixWithResidual, context, wrapXbBatch, wrapXBatch, weights.woLayered[layerIndex].getQuants(),
+                weights.woLayered[layerIndex].getScales(), prefillHolder, config.dim(), config.dim());
+    }
+
+    @Override
+    protected void configureFeedForward(TaskGraph prefillLayer, TornadoWeights weights, int layerIndex) {
+        prefillLayer.task("fused_ffn_w1_w3", PrefillKernels::fusedFeedForwardWithSiLUAndGLUActivation, context, wrapXbBatch, wrapHbBatch, weights.w1Layered[layerIndex].getQuants(),
+                        weights.w1Layered[layerIndex].getScales(), weights.w3Layered[layerIndex].getQuants(), weights.w3Layered[layerIndex].getScales(), prefillHolder, config.dim(),
+                        config.hiddenDim())
+                .task("projectionTwo", PrefillKernels::matrixMatrixWithResidual, context, wrapHbBatch, wrapXBatch, weights.w2Layered[layerIndex].getQuants(),
+                        weights.w2Layered[layerIndex].getScales(), prefillHolder, config.hiddenDim(), config.dim());
+    }
+}
@@ -52,6 +52,7 @@ public class LogitsQ8_0Layer extends AbstractLayer {
         tornadoForwardScheduler.addWorkerGrid("logits.projection", vocabWorker);
         tornadoForwardScheduler.addWorkerGrid("logits.reductionsOneBlockLogits", logitsRMS);
         tornadoForwardScheduler.addWorkerGrid("logits.mapContextLogits", logitsRMS);
+        addDeviceSamplingWorkers(tornadoForwardScheduler, "logits");
         return tornadoForwardScheduler;
     }
 
@@ -67,9 +68,8 @@ public class LogitsQ8_0Layer extends AbstractLayer {
                 logits.task("mapContextLogits", TransformerComputeKernels::reductionOneBlock2WithLogits, context, state.wrapX, weights.rms_final_weight_as_floatArray.asFloatArray(), state.tempLogits)
                 .task("projection", TransformerComputeKernelsLayered::matrixVectorGeneric,  //
                         context, state.wrapX, state.wrapLogits, weights.wclsByteArray.getQuants(), weights.wclsByteArray.getScales(), //
-                        config.dim(), config.vocabularySize(), LOCAL_WORK_GROUP_SIZE_ALLOC * THREAD_SCALE_FOR_LOGITS) //
-                .transferToHost(DataTransferMode.EVERY_EXECUTION, state.wrapLogits);
-        return logits;
+                        config.dim(), config.vocabularySize(), LOCAL_WORK_GROUP_SIZE_ALLOC * THREAD_SCALE_FOR_LOGITS);
+        return withDeviceSampling(logits);
     }
 
     @Override
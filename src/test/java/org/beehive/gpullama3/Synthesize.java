@@ -0,0 +1,384 @@
+package org.beehive.gpullama3;
+
+import org.beehive.gpullama3.tensor.GGMLType;
+import org.beehive.gpullama3.tensor.GGUF;
+import org.beehive.gpullama3.tensor.GGUFWriter;
+import org.beehive.gpullama3.tensor.standard.BlockQuantizer;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes small GGUF models with random weights, for numerical tests that must not depend on a downloaded model.
+ *
+ * <p>The file has the tensor names, shapes and metadata keys of a real model of the architecture, and a synthetic vocabulary laid out as the
+ * tokenizer of the architecture expects (byte tokens, a few merges, the special tokens of its chat format), so it loads and runs through
+ * the same code paths. Matrices are stored in the requested type, norms and biases in F32.</p>
+ *
+ * <p>The weights are drawn from a generator seeded per tensor name: with the same seed and shape, the files of all the types hold the same
+ * values before quantization, so their outputs can be compared with each other.</p>
+ */
+public final class Synthesize {
+
+    private static final int CHUNK_ELEMENTS = 1 << 20; // a multiple of every block size
+    // tokenizer.ggml.token_type
+    private static final int NORMAL = 1;
+    private static final int UNKNOWN = 2;
+    private static final int CONTROL = 3;
+    private static final int BYTE = 6;
+    private static final char SPM_SPACE = '▁';
+    private static final char BPE_SPACE = 'Ġ'; // the space byte in the byte-level alphabet
+
+    private Synthesize() {
+    }
+
+    public enum Architecture {
+        // @formatter:off
+        LLAMA  ("llama", "Synthetic Llama 3", 128256, 500000f, 1e-5f),
+        MISTRAL("llama", "Synthetic Mistral",   4096, 1000000f, 1e-5f),
+        QWEN2  ("qwen2", "Synthetic Qwen2",     4096, 1000000f, 1e-6f),
+        QWEN3  ("qwen3", "Synthetic Qwen3",     4096, 1000000f, 1e-6f),
+        PHI3   ("phi3",  "Synthetic Phi3",     32064, 10000f, 1e-5f);
+        // @formatter:on
+
+        private final String prefix;
+        private final String modelName; // general.name, from which the loader is chosen
+        private final int defaultVocabularySize;
+        private final float ropeTheta;
+        private final float rmsNormEps;
+
+        Architecture(String prefix, String modelName, int defaultVocabularySize, float ropeTheta, float rmsNormEps) {
+            this.prefix = prefix;
+            this.modelName = modelName;
+            this.defaultVocabularySize = defaultVocabularySize;
+            this.ropeTheta = ropeTheta;
+            this.rmsNormEps = rmsNormEps;
+        }
+
+        public int defaultVocabularySize() {
+            return defaultVocabularySize;
+        }
+    }
+
+    /**
+     * The hyperparameters of a synthetic model.
+     */
+    public record Spec(int dim, int hiddenDim, int numberOfLayers, int numberOfHeads, int numberOfKeyValueHeads, int vocabularySize, int contextLength) {
+        public Spec {
+            if (dim <= 0 || hiddenDim <= 0 || numberOfLayers <= 0 || numberOfHeads <= 0 || numberOfKeyValueHeads <= 0 || contextLength <= 0) {
+                throw new IllegalArgumentException("Dimensions must be positive");
+            }
+            if (dim % numberOfHeads != 0 || (dim / numberOfHeads) % 2 != 0) {
+                throw new IllegalArgumentException("dim " + dim + " must be a multiple of twice the number of heads " + numberOfHeads);
+            }
+            if (numberOfHeads % numberOfKeyValueHeads != 0) {
+                throw new IllegalArgumentException("The number of heads " + numberOfHeads + " must be a multiple of the number of key-value heads " + numberOfKeyValueHeads);
+            }
+        }
+
+        public int headSize() {
+            return dim / numberOfHeads;
+        }
+
+        public int kvDim() {
+            return numberOfKeyValueHeads * headSize();
+        }
+    }
+
+    /** Tokenizer metadata. */
+    private record SyntheticVocabulary(String[] tokens, int[] tokenTypes, float[] scores, String[] merges, int bos, int eos) {
+    }
+
+    /**
+     * Writes a model of {@code architecture} with random weights to {@code outputPath}.
+     *
+     * @param type
+     *         type of the matrices, one of F32, F16, Q8_0 or Q4_0
+     * @throws IllegalArgumentException
+     *         if the rows of the matrices are not a multiple of the block size of {@code type}, or the vocabulary is too small for the tokenizer
+     */
+    public static void synthesize(Path outputPath, Architecture architecture, GGMLType type, Spec spec, long seed) throws IOException {
+        if (!BlockQuantizer.isSupported(type)) {
+            throw new IllegalArgumentException("Unsupported type " + type);
+        }
+        if (spec.dim() % type.getBlockSize() != 0 || spec.hiddenDim() % type.getBlockSize() != 0) {
+            throw new IllegalArgumentException("dim and hidden-dim must be multiples of the " + type + " block size " + type.getBlockSize());
+        }
+        SyntheticVocabulary vocabulary = switch (architecture) {
+            case LLAMA -> llamaVocabulary(spec.vocabularySize());
+            case MISTRAL -> mistralVocabulary(spec.vocabularySize());
+            case QWEN2, QWEN3 -> qwenVocabulary(spec.vocabularySize(), architecture == Architecture.QWEN3);
+            case PHI3 -> phi3Vocabulary(spec.vocabularySize());
+        };
+
+        try (GGUFWriter writer = new GGUFWriter(outputPath, 32)) {
+            String prefix = architecture.prefix + ".";
+            writer.putString("general.architecture", architecture.prefix);
+            writer.putString("general.name", architecture.modelName);
+            writer.putUInt32("general.file_type", switch (type) {
+                case F32 -> 0;  // LLAMA_FTYPE_ALL_F32
+                case F16 -> 1;  // LLAMA_FTYPE_MOSTLY_F16
+                case Q4_0 -> 2; // LLAMA_FTYPE_MOSTLY_Q4_0
+                default -> 7;   // LLAMA_FTYPE_MOSTLY_Q8_0
+            });
+            if (type == GGMLType.Q8_0 || type == GGMLType.Q4_0) {
+                writer.putUInt32("general.quantization_version", 2);
+            }
+            writer.putUInt32(prefix + "context_length", spec.contextLength());
+            writer.putUInt32(prefix + "embedding_length", spec.dim());
+            writer.putUInt32(prefix + "feed_forward_length", spec.hiddenDim());
+            writer.putUInt32(prefix + "block_count", spec.numberOfLayers());
+            writer.putUInt32(prefix + "attention.head_count", spec.numberOfHeads());
+            writer.putUInt32(prefix + "attention.head_count_kv", spec.numberOfKeyValueHeads());
+            writer.putFloat32(prefix + "attention.layer_norm_rms_epsilon", architecture.rmsNormEps);
+            writer.putFloat32(prefix + "rope.freq_base", architecture.ropeTheta);
+            writer.putUInt32(prefix + "rope.dimension_count", spec.headSize());
+            if (architecture == Architecture.QWEN3) {
+                writer.putUInt32(prefix + "attention.key_length", spec.headSize());
+                writer.putUInt32(prefix + "attention.value_length", spec.headSize());
+            }
+            if (architecture == Architecture.LLAMA || architecture == Architecture.MISTRAL) {
+                writer.putUInt32(prefix + "vocab_size", spec.vocabularySize());
+            }
+
+            boolean sentencePiece = architecture == Architecture.MISTRAL || architecture == Architecture.PHI3;
+            writer.putString("tokenizer.ggml.model", sentencePiece ? "llama" : "gpt2");
+            writer.putStringArray("tokenizer.ggml.tokens", vocabulary.tokens());
+            writer.putInt32Array("tokenizer.ggml.token_type", vocabulary.tokenTypes());
+            if (vocabulary.scores() != null) {
+                writer.putFloat32Array("tokenizer.ggml.scores", vocabulary.scores());
+            }
+            if (vocabulary.merges() != null) {
+                writer.putStringArray("tokenizer.ggml.merges", vocabulary.merges());
+            }
+            writer.putUInt32("tokenizer.ggml.bos_token_id", vocabulary.bos());
+            writer.putUInt32("tokenizer.ggml.eos_token_id", vocabulary.eos());
+
+            addTensors(writer, architecture, type, spec);
+            writer.writeHeader();
+
+            for (GGUF.GGUFTensorInfo ti : writer.getTensorInfos()) {
+                writeTensor(writer, ti.name(), ti.dimensions(), ti.ggmlType(), seed);
+            }
+        }
+    }
+
+    // GGUF dimensions are {columns, rows}: a matrix multiplying a vector of n elements into d elements is {n, d}
+    private static void addTensors(GGUFWriter writer, Architecture architecture, GGMLType type, Spec spec) {
+        int dim = spec.dim();
+        int kvDim = spec.kvDim();
+        int hiddenDim = spec.hiddenDim();
+        writer.addTensor("token_embd.weight", new int[] { dim, spec.vocabularySize() }, type);
+        for (int l = 0; l < spec.numberOfLayers(); l++) {
+            String layer = "blk." + l + ".";
+            writer.addTensor(layer + "attn_norm.weight", new int[] { dim }, GGMLType.F32);
+            if (architecture == Architecture.PHI3) {
+                writer.addTensor(layer + "attn_qkv.weight", new int[] { dim, dim + 2 * kvDim }, type);
+            } else {
+                writer.addTensor(layer + "attn_q.weight", new int[] { dim, dim }, type);
+                writer.addTensor(layer + "attn_k.weight", new int[] { dim, kvDim }, type);
+                writer.addTensor(layer + "attn_v.weight", new int[] { dim, kvDim }, type);
+            }
+            if (architecture == Architecture.QWEN2) {
+                writer.addTensor(layer + "attn_q.bias", new int[] { dim }, GGMLType.F32);
+                writer.addTensor(layer + "attn_k.bias", new int[] { kvDim }, GGMLType.F32);
+                writer.addTensor(layer + "attn_v.bias", new int[] { kvDim }, GGMLType.F32);
+            }
+            if (architecture == Architecture.QWEN3) {
+                writer.addTensor(layer + "attn_q_norm.weight", new int[] { spec.headSize() }, GGMLType.F32);
+                writer.addTensor(layer + "attn_k_norm.weight", new int[] { spec.headSize() }, GGMLType.F32);
+            }
+            writer.addTensor(layer + "attn_output.weight", new int[] { dim, dim }, type);
+            writer.addTensor(layer + "ffn_norm.weight", new int[] { dim }, GGMLType.F32);
+            if (architecture == Architecture.PHI3) {
+                // gate and up fused
+                writer.addTensor(layer + "ffn_up.weight", new int[] { dim, 2 * hiddenDim }, type);
+            } else {
+                writer.addTensor(layer + "ffn_gate.weight", new int[] { dim, hiddenDim }, type);
+                writer.addTensor(layer + "ffn_up.weight", new int[] { dim, hiddenDim }, type);
+            }
+            writer.addTensor(layer + "ffn_down.weight", new int[] { hiddenDim, dim }, type);
+        }
+        writer.addTensor("output_norm.weight", new int[] { dim }, GGMLType.F32);
+        writer.addTensor("output.weight", new int[] { dim, spec.vocabularySize() }, type);
+    }
+
+    /**
+     * Norm weights are drawn around 1, biases around 0, and matrices with a standard deviation of {@code 1 / sqrt(columns)}, which keeps
+     * the activations in range across layers.
+     */
+    private static void writeTensor(GGUFWriter writer, String name, int[] dimensions, GGMLType type, long seed) throws IOException {
+        Random random = new Random(seed * 31 + name.hashCode());
+        boolean norm = name.contains("norm");
+        boolean matrix = dimensions.length > 1;
+        double scale = matrix ? 1 / Math.sqrt(dimensions[0]) : 0.1;
+        long numberOfElements = FloatTensor.numberOfElementsLong(dimensions);
+        long position = writer.tensorDataPosition(name);
+        int chunkElements = (int) Math.min(CHUNK_ELEMENTS, numberOfElements);
+        float[] values = new float[chunkElements];
+        byte[] bytes = new byte[Math.toIntExact(type.byteSizeFor(chunkElements))];
+        for (long start = 0; start < numberOfElements; start += chunkElements) {
+            int length = (int) Math.min(chunkElements, numberOfElements - start);
+            for (int i = 0; i < length; i++) {
+                values[i] = (float) ((norm ? 1 : 0) + random.nextGaussian() * scale);
+            }
+            BlockQuantizer.quantize(type, values, 0, length, MemorySegment.ofArray(bytes), 0);
+            writer.write(position + type.byteSizeFor(start), ByteBuffer.wrap(bytes, 0, Math.toIntExact(type.byteSizeFor(length))));
+        }
+    }
+
+    /** Llama 3: byte-level BPE, the tokens from 128000 on are special. */
+    private static SyntheticVocabulary llamaVocabulary(int size) {
+        List<String> specials = new ArrayList<>(List.of("<|begin_of_text|>", "<|end_of_text|>", "<|start_header_id|>", "<|end_header_id|>", "<|eom_id|>", "<|eot_id|>", "<|python_tag|>"));
+        requireVocabulary(size, 128000 + specials.size(), Architecture.LLAMA);
+        for (int i = 0; specials.size() < size - 128000; i++) {
+            specials.add("<|reserved_special_token_" + i + "|>");
+        }
+        List<String> merges = new ArrayList<>();
+        List<String> tokens = byteLevelTokens(128000, merges);
+        tokens.addAll(specials);
+        return new SyntheticVocabulary(tokens.toArray(String[]::new), tokenTypes(tokens.size(), 128000, tokens.size()), null, merges.toArray(String[]::new), 128000,
+                128000 + specials.indexOf("<|eot_id|>"));
+    }
+
+    /** Qwen2 and Qwen3: byte-level BPE, the tokens from {@code <|endoftext|>} on are special. */
+    private static SyntheticVocabulary qwenVocabulary(int size, boolean thinking) {
+        List<String> specials = new ArrayList<>(List.of("<|endoftext|>", "<|im_start|>", "<|im_end|>", "<|fim_prefix|>", "<|fim_middle|>", "<|fim_suffix|>"));
+        if (thinking) {
+            specials.addAll(List.of("<think>", "</think>"));
+        }
+        int base = size - specials.size();
+        requireVocabulary(base, minimumByteLevelTokens(), thinking ? Architecture.QWEN3 : Architecture.QWEN2);
+        List<String> merges = new ArrayList<>();
+        List<String> tokens = byteLevelTokens(base, merges);
+        tokens.addAll(specials);
+        return new SyntheticVocabulary(tokens.toArray(String[]::new), tokenTypes(size, base, size), null, merges.toArray(String[]::new), base, base + specials.indexOf("<|im_end|>"));
+    }
+
+    /** Mistral: SentencePiece with byte fallback, the control tokens first. */
+    private static SyntheticVocabulary mistralVocabulary(int size) {
+        List<String> tokens = new ArrayList<>(List.of("<unk>", "<s>", "</s>", "[INST]", "[/INST]", "[TOOL_CALLS]", "[AVAILABLE_TOOLS]", "[/AVAILABLE_TOOLS]", "[TOOL_RESULTS]",
+                "[/TOOL_RESULTS]"));
+        int controls = tokens.size();
+        int byte0 = tokens.size();
+        requireVocabulary(size, byte0 + minimumSentencePieceTokens(), Architecture.MISTRAL);
+        sentencePieceTokens(tokens, size);
+        int[] tokenTypes = tokenTypes(size, 0, controls);
+        tokenTypes[0] = UNKNOWN;
+        Arrays.fill(tokenTypes, byte0, byte0 + 256, BYTE);
+        return new SyntheticVocabulary(tokens.toArray(String[]::new), tokenTypes, scores(size, byte0 + 256), null, 1, 2);
+    }
+
+    /** Phi-3: SentencePiece with byte fallback, the tokens from 32000 on are special. */
+    private static SyntheticVocabulary phi3Vocabulary(int size) {
+        List<String> specials = new ArrayList<>(List.of("<|endoftext|>", "<|assistant|>", "<|system|>", "<|end|>", "<|user|>"));
+        requireVocabulary(size, 32000 + specials.size(), Architecture.PHI3);
+        for (int i = 1; specials.size() < size - 32000; i++) {
+            specials.add("<|placeholder" + i + "|>");
+        }
+        List<String> tokens = new ArrayList<>(List.of("<unk>", "<s>", "</s>"));
+        sentencePieceTokens(tokens, 32000);
+        tokens.addAll(specials);
+        int[] tokenTypes = tokenTypes(size, 0, 3);
+        tokenTypes[0] = UNKNOWN;
+        Arrays.fill(tokenTypes, 3, 3 + 256, BYTE);
+        Arrays.fill(tokenTypes, 32000, size, CONTROL);
+        return new SyntheticVocabulary(tokens.toArray(String[]::new), tokenTypes, scores(size, 3 + 256), null, 1, 32000);
+    }
+
+    private static void requireVocabulary(int size, int minimum, Architecture architecture) {
+        if (size < minimum) {
+            throw new IllegalArgumentException("The " + architecture.name().toLowerCase() + " vocabulary needs at least " + minimum + " tokens, got " + size);
+        }
+    }
+
+    private static int[] tokenTypes(int size, int controlFrom, int controlTo) {
+        int[] tokenTypes = new int[size];
+        Arrays.fill(tokenTypes, NORMAL);
+        Arrays.fill(tokenTypes, controlFrom, controlTo, CONTROL);
+        return tokenTypes;
+    }
+
+    /** Decreasing scores from {@code from} on, so the earlier merges win. */
+    private static float[] scores(int size, int from) {
+        float[] scores = new float[size];
+        for (int i = from; i < size; i++) {
+            scores[i] = from - i;
+        }
+        return scores;
+    }
+
+    private static int minimumByteLevelTokens() {
+        return 256 + 27 * 26;
+    }
+
+    /**
+     * The 256 bytes of the byte-level alphabet, the merges of a lowercase letter after a space or another letter, then filler tokens up to
+     * {@code size}.
+     */
+    private static List<String> byteLevelTokens(int size, List<String> merges) {
+        List<String> tokens = new ArrayList<>(size);
+        for (int b = 0; b < 256; b++) {
+            tokens.add(Character.toString(byteToUnicode(b)));
+        }
+        String firsts = BPE_SPACE + "abcdefghijklmnopqrstuvwxyz";
+        for (char first : firsts.toCharArray()) {
+            for (char second = 'a'; second <= 'z'; second++) {
+                tokens.add("" + first + second);
+                merges.add(first + " " + second);
+            }
+        }
+        for (int i = 0; tokens.size() < size; i++) {
+            tokens.add("tok" + i); // printable ASCII is its own byte-level encoding
+        }
+        return tokens;
+    }
+
+    /** The GPT-2 mapping of bytes to printable code points, see {@code bytes_to_unicode}. */
+    private static int byteToUnicode(int b) {
+        if (b >= '!' && b <= '~' || b >= '¡' && b <= '¬' || b >= '®' && b <= 'ÿ') {
+            return b;
+        }
+        int n = 0; // the remapped bytes take 256, 257... in byte order
+        for (int c = 0; c < b; c++) {
+            if (!(c >= '!' && c <= '~' || c >= '¡' && c <= '¬' || c >= '®' && c <= 'ÿ')) {
+                n++;
+            }
+        }
+        return 256 + n;
+    }
+
+    private static int minimumSentencePieceTokens() {
+        return 256 + 1 + ('~' - '!' + 1) + 27 * 26;
+    }
+
+    /**
+     * The 256 byte fallback tokens, the printable ASCII characters and the word boundary, the merges of a lowercase letter after a word
+     * boundary or another letter, then filler tokens up to {@code size}.
+     */
+    private static void sentencePieceTokens(List<String> tokens, int size) {
+        for (int b = 0; b < 256; b++) {
+            tokens.add(String.format("<0x%02X>", b));
+        }
+        tokens.add(Character.toString(SPM_SPACE));
+        for (char c = '!'; c <= '~'; c++) {
+            tokens.add(Character.toString(c));
+        }
+        String firsts = SPM_SPACE + "abcdefghijklmnopqrstuvwxyz";
+        for (char first : firsts.toCharArray()) {
+            for (char second = 'a'; second <= 'z'; second++) {
+                tokens.add("" + first + second);
+            }
+        }
+        for (int i = 0; tokens.size() < size; i++) {
+            tokens.add("tok" + i);
+        }
+    }
+}
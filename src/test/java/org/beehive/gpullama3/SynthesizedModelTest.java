@@ -0,0 +1,189 @@
+package org.beehive.gpullama3;
+
+import org.beehive.gpullama3.inference.InferenceCore;
+import org.beehive.gpullama3.inference.state.State;
+import org.beehive.gpullama3.model.Model;
+import org.beehive.gpullama3.model.loader.ModelLoader;
+import org.beehive.gpullama3.tensor.GGMLType;
+import org.beehive.gpullama3.tensor.standard.FloatTensor;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * CPU forward passes on small {@link Synthesize synthesized} models of every architecture, written in every supported type from the same
+ * weights; the quantized logits are compared with the F32 ones.
+ */
+@RunWith(Parameterized.class)
+public class SynthesizedModelTest {
+
+    private static final int CONTEXT_LENGTH = 64;
+    private static final String PROMPT = "hello world, the quick brown fox";
+    private static final GGMLType[] TYPES = { GGMLType.F32, GGMLType.F16, GGMLType.Q8_0, GGMLType.Q4_0 };
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    // loaded on first use, shared by the parameters of the same architecture
+    private static final Map<String, Model> models = new HashMap<>();
+
+    private final Synthesize.Architecture architecture;
+    private final GGMLType type;
+
+    public SynthesizedModelTest(Synthesize.Architecture architecture, GGMLType type) {
+        this.architecture = architecture;
+        this.type = type;
+    }
+
+    @Parameterized.Parameters(name = "{0} {1}")
+    public static List<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (Synthesize.Architecture architecture : Synthesize.Architecture.values()) {
+            for (GGMLType type : TYPES) {
+                parameters.add(new Object[] { architecture, type });
+            }
+        }
+        return parameters;
+    }
+
+    private static synchronized Model model(Synthesize.Architecture architecture, GGMLType type) {
+        return models.computeIfAbsent(architecture + "-" + type, name -> {
+            Synthesize.Spec spec = new Synthesize.Spec(128, 384, 2, 4, 2, architecture.defaultVocabularySize(), CONTEXT_LENGTH);
+            try {
+                Path path = folder.getRoot().toPath().resolve(name + ".gguf");
+                Synthesize.synthesize(path, architecture, type, spec, 42);
+                return ModelLoader.loadModel(path, CONTEXT_LENGTH, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** Forwards the latest token and the prompt one token at a time, returns the logits after the last one. */
+    private static float[] logits(Model model, List<Integer> tokens) {
+        State state = model.createNewState();
+        int token = state.latestToken;
+        for (int pos = 0; pos < tokens.size(); pos++) {
+            model.forward(state, token, pos);
+            token = tokens.get(pos);
+        }
+        model.forward(state, token, tokens.size());
+        return toArray(state.logits, model.configuration().vocabularySize());
+    }
+
+    private static float[] toArray(FloatTensor tensor, int size) {
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = tensor.getFloat(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void logitsMatchF32() {
+        assumeTrue(type != GGMLType.F32);
+        Model reference = model(architecture, GGMLType.F32);
+        Model model = model(architecture, type);
+        List<Integer> tokens = reference.tokenizer().encodeAsList(PROMPT);
+        assertEquals(tokens, model.tokenizer().encodeAsList(PROMPT));
+        float[] expected = logits(reference, tokens);
+        float[] actual = logits(model, tokens);
+
+        double maxAbs = 0;
+        double maxDiff = 0;
+        double dot = 0;
+        double expectedNorm = 0;
+        double actualNorm = 0;
+        for (int i = 0; i < expected.length; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(expected[i]));
+            maxDiff = Math.max(maxDiff, Math.abs(actual[i] - expected[i]));
+            dot += (double) expected[i] * actual[i];
+            expectedNorm += (double) expected[i] * expected[i];
+            actualNorm += (double) actual[i] * actual[i];
+        }
+        double cosine = dot / Math.sqrt(expectedNorm * actualNorm);
+        // the random weights are spread evenly over the quantization range, a harder case than trained ones for 4 bits
+        double minCosine = switch (type) {
+            case F16 -> 0.99999;
+            case Q8_0 -> 0.999;
+            default -> 0.85;
+        };
+        double maxRelativeDiff = switch (type) {
+            case F16 -> 0.01;
+            case Q8_0 -> 0.1;
+            default -> 0.75;
+        };
+        assertTrue("cosine similarity " + cosine, cosine > minCosine);
+        assertTrue("max difference " + maxDiff + " for logits up to " + maxAbs, maxDiff < maxRelativeDiff * maxAbs);
+    }
+
+    @Test
+    public void prefillMatchesTokenByToken() {
+        Model model = model(architecture, type);
+        assumeTrue(InferenceCore.supportsPrefill(model));
+        List<Integer> tokens = model.tokenizer().encodeAsList(PROMPT);
+        float[] expected = logits(model, tokens);
+
+        // the same sequence, the latest token and all the prompt tokens but the last one ingested in one batch
+        State state = model.createNewState();
+        int[] batch = new int[tokens.size()];
+        batch[0] = state.latestToken;
+        for (int i = 1; i < batch.length; i++) {
+            batch[i] = tokens.get(i - 1);
+        }
+        InferenceCore.forwardJavaPrefill(model, state, batch, batch.length, 0);
+        model.forward(state, tokens.getLast(), batch.length);
+        float[] actual = toArray(state.logits, model.configuration().vocabularySize());
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("logit " + i, expected[i], actual[i], 1e-3f);
+        }
+    }
+
+    @Test
+    public void forksMatchSequential() {
+        Model model = model(architecture, type);
+        List<Integer> tokens = model.tokenizer().encodeAsList(PROMPT);
+        State state = model.createNewState();
+        int token = state.latestToken;
+        for (int pos = 0; pos < tokens.size(); pos++) {
+            model.forward(state, token, pos);
+            token = tokens.get(pos);
+        }
+
+        // continuations of the prompt with different tokens, forwarded together where batching applies
+        int[] continuations = { token, tokens.getFirst(), tokens.get(1) };
+        State[] forks = { state.fork(tokens.size()), state.fork(tokens.size()), state };
+        if (InferenceCore.supportsPrefill(model)) {
+            InferenceCore.forwardJavaBatch(model, forks, continuations, forks.length, tokens.size());
+        } else {
+            for (int b = 0; b < forks.length; b++) {
+                model.forward(forks[b], continuations[b], tokens.size());
+            }
+        }
+
+        for (int b = 0; b < forks.length; b++) {
+            List<Integer> sequence = new ArrayList<>(tokens);
+            sequence.set(tokens.size() - 1, continuations[b]);
+            float[] expected = logits(model, sequence);
+            float[] actual = toArray(forks[b].logits, model.configuration().vocabularySize());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals("branch " + b + " logit " + i, expected[i], actual[i], 1e-4f);
+            }
+        }
+    }
+}